@@ -0,0 +1,424 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import java.util.*;
+
+/**
+ * Aggressive dead code elimination over SSA form, followed by some
+ * simple clean up of the CFG.
+ *
+ * Rather than removing instructions that are known to be dead, we assume
+ * every instruction is dead until it is shown to be useful. Instructions that
+ * have side effects, or that may fault, are useful. An instruction is also useful
+ * if it defines a register used by a useful instruction, found via the SSA def-use
+ * chains. A block that contains a useful instruction makes the branches that
+ * it is control dependent on useful. Control dependences are computed from the
+ * post dominator tree, as the reverse dominance frontiers of each block.
+ * A useful phi makes the predecessors of its block useful, as the choice of
+ * input depends on which predecessor executed.
+ *
+ * Useless instructions are deleted. A useless branch is replaced by a jump to
+ * the immediate post dominator of its block, making the blocks in between
+ * unreachable.
+ *
+ * If some block cannot reach the exit block, post dominators are not
+ * defined for it, and we conservatively treat all branches as useful.
+ *
+ * Finally, empty blocks are removed and a block that is the only
+ * predecessor of its only successor is merged with that successor.
+ *
+ * Ron Cytron, Jeanne Ferrante, Barry K. Rosen, Mark N. Wegman, F. Kenneth Zadeck.
+ * Efficiently Computing Static Single Assignment Form and the Control Dependence Graph.
+ * Engineering a Compiler, 3rd edition, section 10.2.
+ */
+public class AggressiveDeadCodeElimination {
+
+    private final CompiledFunction function;
+    private Map<Register, SSAEdges.SSADef> ssaDefUse;
+    /**
+     * Immediate post dominator, indexed by bid
+     */
+    private BasicBlock[] ipdom;
+    /**
+     * Post order number on the reverse CFG, indexed by bid;
+     * -1 if the block cannot reach the exit
+     */
+    private int[] postOrder;
+    /**
+     * Blocks ending in the branches that a block is control dependent on, indexed by bid
+     */
+    private List<List<BasicBlock>> controlDependences;
+    private boolean allBlocksReachExit;
+    private final Set<Instruction> useful = new HashSet<>();
+    private final BitSet usefulBlocks = new BitSet();
+    private final Deque<Instruction> worklist = new ArrayDeque<>();
+    /**
+     * Number of instructions removed, not counting branches
+     */
+    public int removedInstructions = 0;
+    /**
+     * Number of conditional branches replaced by jumps
+     */
+    public int removedBranches = 0;
+    /**
+     * Number of blocks removed, either because they became
+     * unreachable, or were empty, or were merged
+     */
+    public int removedBlocks = 0;
+
+    public AggressiveDeadCodeElimination(CompiledFunction function) {
+        this.function = function;
+    }
+
+    public boolean apply(EnumSet<Options> options) {
+        if (options.contains(Options.ADCE)) {
+            removedInstructions = 0;
+            removedBranches = 0;
+            removedBlocks = 0;
+            List<BasicBlock> blocks = function.getBlocks();
+            ssaDefUse = SSAEdges.buildDefUseChains(function);
+            computePostDominators(blocks);
+            computeControlDependences(blocks);
+            mark(blocks);
+            sweep(blocks);
+            removeUnreachableBlocks(blocks);
+            replaceSingleInputPhis();
+            simplifyCFG();
+            if (removedBranches > 0 || removedBlocks > 0)
+                function.analyses.invalidateAll();
+            else if (removedInstructions > 0)
+                function.analyses.preserve(Analysis.CFG);
+            if (options.contains(Options.DUMP_ADCE_POSTAPPLY)) function.dumpIR(false, "Post ADCE");
+        }
+        return removedInstructions > 0 || removedBranches > 0 || removedBlocks > 0;
+    }
+
+    /**
+     * Cooper, Harvey and Kennedy's iterative algorithm run on the reverse CFG,
+     * see {@link DominatorTree}.
+     */
+    private void computePostDominators(List<BasicBlock> blocks) {
+        int maxBid = 0;
+        for (BasicBlock block : blocks)
+            maxBid = Math.max(maxBid, block.bid);
+        ipdom = new BasicBlock[maxBid+1];
+        postOrder = new int[maxBid+1];
+        Arrays.fill(postOrder, -1);
+        Set<BasicBlock> reachable = new HashSet<>(blocks);
+        List<BasicBlock> order = new ArrayList<>();
+        for (BasicBlock block : BBHelper.findAllBlocksPostOrderReverseCFG(function)) {
+            if (reachable.contains(block)) {
+                postOrder[block.bid] = order.size();
+                order.add(block);
+            }
+        }
+        allBlocksReachExit = order.size() == blocks.size();
+        BasicBlock exit = function.exit;
+        ipdom[exit.bid] = exit;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = order.size()-1; i >= 0; i--) {
+                BasicBlock block = order.get(i);
+                if (block == exit)
+                    continue;
+                BasicBlock newIPDom = null;
+                for (BasicBlock succ : block.successors) {
+                    if (postOrder[succ.bid] < 0 || ipdom[succ.bid] == null)
+                        continue;
+                    newIPDom = newIPDom == null ? succ : intersect(succ, newIPDom);
+                }
+                if (ipdom[block.bid] != newIPDom) {
+                    ipdom[block.bid] = newIPDom;
+                    changed = true;
+                }
+            }
+        }
+        ipdom[exit.bid] = null;
+    }
+
+    private BasicBlock intersect(BasicBlock b1, BasicBlock b2) {
+        while (b1 != b2) {
+            while (postOrder[b1.bid] < postOrder[b2.bid])
+                b1 = ipdom[b1.bid];
+            while (postOrder[b2.bid] < postOrder[b1.bid])
+                b2 = ipdom[b2.bid];
+        }
+        return b1;
+    }
+
+    /**
+     * A block is control dependent on a branch if it post dominates
+     * one of the branch's successors, but not the branch's block.
+     */
+    private void computeControlDependences(List<BasicBlock> blocks) {
+        controlDependences = new ArrayList<>(ipdom.length);
+        for (int i = 0; i < ipdom.length; i++)
+            controlDependences.add(new ArrayList<>());
+        for (BasicBlock block : blocks) {
+            if (block.successors.size() < 2 || postOrder[block.bid] < 0)
+                continue;
+            for (BasicBlock succ : block.successors) {
+                if (postOrder[succ.bid] < 0)
+                    continue;
+                BasicBlock runner = succ;
+                while (runner != ipdom[block.bid]) {
+                    controlDependences.get(runner.bid).add(block);
+                    runner = ipdom[runner.bid];
+                }
+            }
+        }
+    }
+
+    private boolean isCritical(Instruction instruction) {
+        return switch (instruction) {
+            case Instruction.Ret ret -> true;
+            case Instruction.Call call -> true;
+            case Instruction.SetField setField -> true;
+            case Instruction.ArrayStore arrayStore -> true;
+            case Instruction.ArgInstruction arg -> true;
+            // Instructions below may fault
+            case Instruction.GetField getField -> true;
+            case Instruction.ArrayLoad arrayLoad -> true;
+            case Instruction.NullCheck nullCheck -> true;
+            case Instruction.BoundsCheck boundsCheck -> true;
+            case Instruction.NewArray newArray -> newArray.len() != null;
+            case Instruction.Binary binary -> (binary.binOp.equals("/") || binary.binOp.equals("%"))
+                    && !(binary.right() instanceof Operand.ConstantOperand constant && constant.value != 0);
+            case Instruction.ConditionalBranch cbr -> !allBlocksReachExit;
+            default -> false;
+        };
+    }
+
+    private void mark(List<BasicBlock> blocks) {
+        for (BasicBlock block : blocks) {
+            for (Instruction instruction : block.instructions) {
+                if (isCritical(instruction))
+                    markUseful(instruction);
+            }
+        }
+        while (!worklist.isEmpty()) {
+            Instruction instruction = worklist.pop();
+            BasicBlock block = instruction.block;
+            markUseful(block);
+            if (instruction instanceof Instruction.Phi phi) {
+                for (Register input : phi.inputRegisters())
+                    markDefUseful(input);
+                for (BasicBlock pred : block.predecessors)
+                    markUseful(pred);
+            }
+            else {
+                for (Register use : instruction.uses())
+                    markDefUseful(use);
+            }
+        }
+    }
+
+    private void markUseful(Instruction instruction) {
+        if (useful.add(instruction))
+            worklist.push(instruction);
+    }
+
+    private void markDefUseful(Register register) {
+        var def = ssaDefUse.get(register);
+        if (def != null)
+            markUseful(def.instruction);
+    }
+
+    private void markUseful(BasicBlock block) {
+        if (usefulBlocks.get(block.bid))
+            return;
+        usefulBlocks.set(block.bid);
+        for (BasicBlock branch : controlDependences.get(block.bid))
+            markUseful(branch.instructions.getLast());
+    }
+
+    private void sweep(List<BasicBlock> blocks) {
+        for (BasicBlock block : blocks) {
+            Iterator<Instruction> iter = block.instructions.iterator();
+            while (iter.hasNext()) {
+                Instruction instruction = iter.next();
+                if (instruction.isTerminal() || useful.contains(instruction))
+                    continue;
+                iter.remove();
+                removedInstructions++;
+            }
+        }
+        // Branches are removed after the phis, so that we only
+        // need to fix up inputs of the useful phis
+        for (BasicBlock block : blocks) {
+            if (block.instructions.isEmpty())
+                continue;
+            Instruction last = block.instructions.getLast();
+            if (last instanceof Instruction.ConditionalBranch && !useful.contains(last))
+                replaceBranch(block);
+        }
+    }
+
+    /**
+     * Replaces the branch at the end of block with a jump to the immediate post dominator.
+     */
+    private void replaceBranch(BasicBlock block) {
+        BasicBlock target = ipdom[block.bid];
+        if (!block.successors.contains(target)) {
+            // The new edge takes the phi inputs from one of the paths from
+            // block to target; a useful phi would have made the branch useful,
+            // so it does not matter which path.
+            BasicBlock from = predReachedFrom(block, target);
+            block.successors.add(target);
+            target.predecessors.add(block);
+            int j = target.whichPred(from);
+            for (Instruction.Phi phi : target.phis())
+                phi.addInput(phi.input(j));
+        }
+        for (BasicBlock succ : new ArrayList<>(block.successors)) {
+            if (succ != target)
+                removeEdge(block, succ);
+        }
+        block.update(block.instructions.size()-1, new Instruction.Jump(target));
+        removedBranches++;
+    }
+
+    private static BasicBlock predReachedFrom(BasicBlock block, BasicBlock target) {
+        Set<BasicBlock> visited = new HashSet<>();
+        Deque<BasicBlock> stack = new ArrayDeque<>();
+        stack.push(block);
+        while (!stack.isEmpty()) {
+            BasicBlock b = stack.pop();
+            if (b == target || !visited.add(b))
+                continue;
+            for (BasicBlock succ : b.successors)
+                stack.push(succ);
+        }
+        for (BasicBlock pred : target.predecessors) {
+            if (visited.contains(pred))
+                return pred;
+        }
+        throw new IllegalStateException("Block L" + target.bid + " is not reachable from L" + block.bid);
+    }
+
+    private static void removeEdge(BasicBlock source, BasicBlock target) {
+        int j = target.whichPred(source);
+        for (Instruction.Phi phi : target.phis())
+            phi.removeInput(j);
+        source.removeSuccessor(target);
+    }
+
+    private void removeUnreachableBlocks(List<BasicBlock> oldBlocks) {
+        List<BasicBlock> blocks = function.getBlocks();
+        Set<BasicBlock> reachable = new HashSet<>(blocks);
+        for (BasicBlock block : blocks) {
+            for (int j = block.predecessors.size()-1; j >= 0; j--) {
+                if (reachable.contains(block.predecessors.get(j)))
+                    continue;
+                for (Instruction.Phi phi : block.phis())
+                    phi.removeInput(j);
+                block.predecessors.remove(j);
+            }
+        }
+        removedBlocks += oldBlocks.size() - blocks.size();
+    }
+
+    private void replaceSingleInputPhis() {
+        for (BasicBlock block : function.getBlocks()) {
+            List<Instruction.Phi> phis = block.phis();
+            for (int i = 0; i < phis.size(); i++) {
+                Instruction.Phi phi = phis.get(i);
+                if (phi.numInputs() == 1)
+                    block.update(i, new Instruction.Move(phi.input(0), new Operand.RegisterOperand(phi.value())));
+            }
+        }
+    }
+
+    private void simplifyCFG() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : function.getBlocks()) {
+                // Skip blocks that were disconnected earlier in this iteration
+                if (block != function.entry && block.predecessors.isEmpty())
+                    continue;
+                if (mergeWithSuccessor(block) || removeEmptyBlock(block)) {
+                    removedBlocks++;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges a block's only successor into the block, if the block
+     * is the successor's only predecessor.
+     */
+    private boolean mergeWithSuccessor(BasicBlock block) {
+        if (block.successors.size() != 1
+                || !(block.instructions.getLast() instanceof Instruction.Jump))
+            return false;
+        BasicBlock succ = block.successors.getFirst();
+        if (succ == block
+                || succ == function.exit
+                || succ.predecessors.size() != 1)
+            return false;
+        block.instructions.removeLast();
+        for (Instruction instruction : succ.instructions)
+            block.add(instruction);
+        succ.instructions.clear();
+        block.successors.clear();
+        for (BasicBlock s : succ.successors) {
+            s.predecessors.set(s.whichPred(succ), block);
+            block.successors.add(s);
+        }
+        succ.successors.clear();
+        succ.predecessors.clear();
+        return true;
+    }
+
+    /**
+     * Removes a block that contains only a jump, by redirecting
+     * its predecessors to the target of the jump.
+     */
+    private boolean removeEmptyBlock(BasicBlock block) {
+        if (block == function.entry
+                || block.instructions.size() != 1
+                || !(block.instructions.getFirst() instanceof Instruction.Jump jump))
+            return false;
+        BasicBlock target = jump.jumpTo;
+        if (target == block)
+            return false;
+        for (BasicBlock pred : block.predecessors) {
+            if (target.predecessors.contains(pred))
+                return false;
+        }
+        int j = target.whichPred(block);
+        List<Instruction.Phi> phis = target.phis();
+        List<BasicBlock> preds = new ArrayList<>(block.predecessors);
+        for (int i = 0; i < preds.size(); i++) {
+            BasicBlock pred = preds.get(i);
+            if (i == 0)
+                target.predecessors.set(j, pred);
+            else {
+                target.predecessors.add(pred);
+                for (Instruction.Phi phi : phis)
+                    phi.addInput(phi.input(j));
+            }
+            pred.successors.set(pred.whichSucc(block), target);
+            retarget(pred, block, target);
+        }
+        block.successors.clear();
+        block.predecessors.clear();
+        return true;
+    }
+
+    private static void retarget(BasicBlock block, BasicBlock oldTarget, BasicBlock newTarget) {
+        int last = block.instructions.size()-1;
+        Instruction terminator = block.instructions.get(last);
+        if (terminator instanceof Instruction.ConditionalBranch cbr) {
+            block.update(last, new Instruction.ConditionalBranch(block, cbr.condition(),
+                    cbr.trueBlock == oldTarget ? newTarget : cbr.trueBlock,
+                    cbr.falseBlock == oldTarget ? newTarget : cbr.falseBlock));
+        }
+        else if (terminator instanceof Instruction.Jump) {
+            block.update(last, new Instruction.Jump(newTarget));
+        }
+        else throw new IllegalStateException("Unexpected terminator " + terminator);
+    }
+}
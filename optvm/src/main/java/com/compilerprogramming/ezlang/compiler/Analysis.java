@@ -0,0 +1,37 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import java.util.EnumSet;
+
+/**
+ * The analyses that are cached by the {@link AnalysisManager}.
+ * Passes use sets of these to declare which analyses remain valid
+ * after they have transformed a function.
+ */
+public enum Analysis {
+    /**
+     * Dominator tree and dominance frontiers, see {@link DominatorTree}
+     */
+    DOMINATORS,
+    /**
+     * Reverse post order of blocks reachable from entry
+     */
+    RPO,
+    /**
+     * Loop nests and the loop tree, see {@link LoopFinder}.
+     * Depends on DOMINATORS.
+     */
+    LOOPS,
+    /**
+     * Live sets on each basic block, see {@link Liveness}
+     */
+    LIVENESS;
+
+    public static final EnumSet<Analysis> NONE = EnumSet.noneOf(Analysis.class);
+    public static final EnumSet<Analysis> ALL = EnumSet.allOf(Analysis.class);
+    /**
+     * The analyses that only depend on the shape of the CFG.
+     * Passes that add or remove instructions, but do not add or
+     * remove blocks or edges, preserve these.
+     */
+    public static final EnumSet<Analysis> CFG = EnumSet.of(DOMINATORS, RPO, LOOPS);
+}
@@ -0,0 +1,150 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import java.util.*;
+
+/**
+ * Caches the analyses of a function so that a pipeline of passes
+ * computes each analysis at most once between changes to the function.
+ * <p>
+ * An analysis is computed on first request and remains valid until
+ * a pass invalidates it. Passes that transform the function must declare
+ * what they preserve, by calling {@link #preserve(EnumSet)}, or what they
+ * invalidate, by calling {@link #invalidate(EnumSet)}.
+ * <p>
+ * Note that the analyses annotate the basic blocks (idom, dominance frontier,
+ * loop, live sets, etc.), so the cached results are only as good as the
+ * annotations on the blocks.
+ */
+public class AnalysisManager {
+
+    private final CompiledFunction function;
+    private final EnumSet<Analysis> valid = EnumSet.noneOf(Analysis.class);
+    /**
+     * Number of times each analysis was computed,
+     * used to check that we do not compute analyses needlessly
+     */
+    private final int[] computeCounts = new int[Analysis.values().length];
+
+    private DominatorTree domTree;
+    private List<BasicBlock> rpo;
+    private List<LoopNest> loops;
+
+    private DominatorTree.Algorithm dominatorAlgorithm;
+
+    public AnalysisManager(CompiledFunction function, EnumSet<Options> options) {
+        this.function = function;
+        this.dominatorAlgorithm = (options != null && options.contains(Options.DOM_SEMI_NCA))
+                ? DominatorTree.Algorithm.SEMI_NCA
+                : DominatorTree.Algorithm.COOPER_HARVEY_KENNEDY;
+    }
+
+    public void setDominatorAlgorithm(DominatorTree.Algorithm algorithm) {
+        if (algorithm != dominatorAlgorithm) {
+            dominatorAlgorithm = algorithm;
+            invalidate(EnumSet.of(Analysis.DOMINATORS));
+        }
+    }
+
+    /**
+     * Dominator tree including dominance frontiers
+     */
+    public DominatorTree dominatorTree() {
+        if (!valid.contains(Analysis.DOMINATORS)) {
+            domTree = new DominatorTree(function.entry, dominatorAlgorithm);
+            computed(Analysis.DOMINATORS);
+        }
+        return domTree;
+    }
+
+    /**
+     * Blocks reachable from entry, in reverse post order
+     */
+    public List<BasicBlock> reversePostOrder() {
+        if (!valid.contains(Analysis.RPO)) {
+            rpo = BBHelper.findAllBlocksReversePostOrderForwardCFG(function);
+            computed(Analysis.RPO);
+        }
+        return rpo;
+    }
+
+    /**
+     * All the loops in the function, loops sharing a head are merged.
+     * The loops are linked into a loop tree, and each block's
+     * {@link BasicBlock#loop} is set to the innermost loop containing it.
+     */
+    public List<LoopNest> loops() {
+        if (!valid.contains(Analysis.LOOPS)) {
+            var domTree = dominatorTree();
+            for (BasicBlock block: domTree.blocks)
+                block.loop = null;
+            loops = LoopFinder.mergeLoopsWithSameHead(LoopFinder.findLoops(domTree.blocks));
+            LoopFinder.buildLoopTree(loops);
+            for (LoopNest loop: loops) {
+                // There may be more than one outermost loop
+                if (loop._parent == null)
+                    LoopFinder.annotateBasicBlocks(loop);
+            }
+            computed(Analysis.LOOPS);
+        }
+        return loops;
+    }
+
+    /**
+     * Ensures that the live sets on each block are up-to-date.
+     */
+    public void liveness() {
+        if (!valid.contains(Analysis.LIVENESS) || !function.hasLiveness) {
+            function.livenessAnalysis();
+        }
+    }
+
+    /**
+     * Called by {@link CompiledFunction#livenessAnalysis()} as
+     * liveness may be computed directly.
+     */
+    void livenessComputed() {
+        computed(Analysis.LIVENESS);
+    }
+
+    private void computed(Analysis analysis) {
+        valid.add(analysis);
+        computeCounts[analysis.ordinal()]++;
+    }
+
+    public boolean isValid(Analysis analysis) {
+        return valid.contains(analysis);
+    }
+
+    /**
+     * How many times the analysis was computed
+     */
+    public int computeCount(Analysis analysis) {
+        return computeCounts[analysis.ordinal()];
+    }
+
+    /**
+     * Invalidate the given analyses, and any analyses
+     * that depend on them.
+     */
+    public void invalidate(EnumSet<Analysis> analyses) {
+        valid.removeAll(analyses);
+        if (analyses.contains(Analysis.DOMINATORS))
+            valid.remove(Analysis.LOOPS);
+        if (analyses.contains(Analysis.LIVENESS))
+            function.hasLiveness = false;
+        if (!valid.contains(Analysis.DOMINATORS)) domTree = null;
+        if (!valid.contains(Analysis.RPO)) rpo = null;
+        if (!valid.contains(Analysis.LOOPS)) loops = null;
+    }
+
+    /**
+     * Invalidate all analyses except the given ones.
+     */
+    public void preserve(EnumSet<Analysis> preserved) {
+        invalidate(EnumSet.complementOf(preserved));
+    }
+
+    public void invalidateAll() {
+        invalidate(Analysis.ALL);
+    }
+}
@@ -0,0 +1,106 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import java.util.*;
+
+/**
+ * A compact set of basic blocks, represented as a bitset over the RPO
+ * numbers assigned by a {@link DominatorTree}. All sets created by the same
+ * dominator tree share the universe of blocks, which maps RPO numbers back
+ * to blocks. Iteration is in reverse post order.
+ * <p>
+ * Only blocks that were reachable when the dominator tree was built
+ * can be members of the set.
+ */
+public class BlockBitSet extends AbstractSet<BasicBlock> {
+    /**
+     * Blocks indexed by RPO number, slot 0 is not used
+     */
+    private final BasicBlock[] universe;
+    private final BitSet bits;
+
+    BlockBitSet(BasicBlock[] universe) {
+        this.universe = universe;
+        this.bits = new BitSet(universe.length);
+    }
+
+    BlockBitSet(BasicBlock[] universe, BitSet bits) {
+        this.universe = universe;
+        this.bits = bits;
+    }
+
+    private boolean inUniverse(BasicBlock block) {
+        return block.rpo > 0 && block.rpo < universe.length && universe[block.rpo] == block;
+    }
+
+    /**
+     * The underlying bits, indexed by RPO number
+     */
+    public BitSet bits() {
+        return bits;
+    }
+
+    @Override
+    public boolean add(BasicBlock block) {
+        if (!inUniverse(block))
+            throw new IllegalArgumentException("Block " + block.label() + " is not in the universe of this set");
+        if (bits.get(block.rpo))
+            return false;
+        bits.set(block.rpo);
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof BasicBlock block && inUniverse(block) && bits.get(block.rpo);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!contains(o))
+            return false;
+        bits.clear(((BasicBlock) o).rpo);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        bits.clear();
+    }
+
+    @Override
+    public int size() {
+        return bits.cardinality();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return bits.isEmpty();
+    }
+
+    @Override
+    public Iterator<BasicBlock> iterator() {
+        return new Iterator<>() {
+            int next = bits.nextSetBit(0);
+            int last = -1;
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+            @Override
+            public BasicBlock next() {
+                if (next < 0)
+                    throw new NoSuchElementException();
+                last = next;
+                next = bits.nextSetBit(next + 1);
+                return universe[last];
+            }
+            @Override
+            public void remove() {
+                if (last < 0)
+                    throw new IllegalStateException();
+                bits.clear(last);
+                last = -1;
+            }
+        };
+    }
+}
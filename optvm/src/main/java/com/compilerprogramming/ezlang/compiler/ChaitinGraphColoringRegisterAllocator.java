@@ -117,6 +117,7 @@ public class ChaitinGraphColoringRegisterAllocator {
                         igraph.rename(source.id, target.id);
                         rewriteInstructions(function, instruction, source, target);
                         iter.remove();
+                        function.analyses.invalidate(EnumSet.of(Analysis.LIVENESS));
                         changed = true;
                     }
                 }
@@ -0,0 +1,438 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import java.util.*;
+
+/**
+ * Explicit null and bounds checks, and removal of the ones that are redundant.
+ *
+ * When checks are enabled, every field and array access is preceded by a
+ * NullCheck of the struct or array, and every array access by a BoundsCheck
+ * of the index. An array store may append to the array, so its bounds check
+ * allows the index to be equal to the length. Arrays never shrink, so once
+ * an index is known to be in bounds it remains so.
+ *
+ * Over SSA form, we walk the dominator tree keeping a scoped set of facts
+ * that hold on entry to each block:
+ *
+ * <ul>
+ *     <li>References that are not null: allocations, references already checked,
+ *     and references compared with null on the edge into a block.</li>
+ *     <li>Indexes known to be in bounds of an array, because the array
+ *     was already accessed at that index, and a lower bound on the length
+ *     of each array, from its allocation and from accesses at constant indexes.</li>
+ *     <li>Upper bounds of registers, from comparisons on the edge into a block
+ *     that has a single predecessor. When a register is less than the length
+ *     an array was allocated with, it is in bounds of the array.</li>
+ * </ul>
+ *
+ * The lower bound of an index is computed from its def. Constants are non negative
+ * if their value is, and the sum of two non negative values is non negative
+ * if both also have an upper bound, from a constant, a comparison or an array
+ * length, such that the sum cannot overflow. A phi at the head of a loop,
+ * whose value on entry to the loop is non negative, and that is incremented by a
+ * non negative constant around the loop, is an induction variable that is never
+ * negative. As usual we assume that induction variables do not overflow.
+ *
+ * Rajiv Gupta. Optimizing Array Bound Checks Using Flow Analysis.
+ * ACM Letters on Programming Languages and Systems, 1993.
+ */
+public class CheckElimination {
+
+    private final CompiledFunction function;
+    private Map<Register, SSAEdges.SSADef> ssaDefUse;
+    private Map<BasicBlock, LoopNest> loops;
+    /**
+     * Number of null checks removed
+     */
+    public int removedNullChecks = 0;
+    /**
+     * Number of bounds checks removed
+     */
+    public int removedBoundsChecks = 0;
+
+    /**
+     * Registers known to be non null
+     */
+    private final Set<Register> nonNull = new HashSet<>();
+    /**
+     * Registers known to be non negative
+     */
+    private final Set<Register> nonNegative = new HashSet<>();
+    /**
+     * Indexes known to be in bounds, by array
+     */
+    private final Map<Register, Set<Register>> inBounds = new HashMap<>();
+    /**
+     * Lower bound of the length of each array
+     */
+    private final Map<Register, Long> minLength = new HashMap<>();
+    /**
+     * Register holding the length each array was allocated with
+     */
+    private final Map<Register, Register> allocatedLength = new HashMap<>();
+    /**
+     * Registers that each register is less than
+     */
+    private final Map<Register, Set<Register>> lessThan = new HashMap<>();
+    /**
+     * Constant that each register is less than
+     */
+    private final Map<Register, Long> lessThanConstant = new HashMap<>();
+
+    /**
+     * Limit on the depth of defs searched to find a lower bound
+     */
+    private static final int MAX_DEPTH = 8;
+
+    public CheckElimination(CompiledFunction function) {
+        this.function = function;
+    }
+
+    /**
+     * Inserts a NullCheck before every field and array access,
+     * and a BoundsCheck before every array access.
+     */
+    public static void insertChecks(CompiledFunction function) {
+        for (BasicBlock block : function.getBlocks()) {
+            List<Instruction> instructions = new ArrayList<>(block.instructions);
+            for (Instruction instruction : instructions) {
+                List<Instruction> checks = switch (instruction) {
+                    case Instruction.ArrayLoad arrayLoad -> List.of(
+                            new Instruction.NullCheck(arrayLoad.arrayOperand()),
+                            new Instruction.BoundsCheck(arrayLoad.arrayOperand(), arrayLoad.indexOperand(), false));
+                    case Instruction.ArrayStore arrayStore -> List.of(
+                            new Instruction.NullCheck(arrayStore.arrayOperand()),
+                            new Instruction.BoundsCheck(arrayStore.arrayOperand(), arrayStore.indexOperand(), true));
+                    case Instruction.GetField getField -> List.of(new Instruction.NullCheck(getField.structOperand()));
+                    case Instruction.SetField setField -> List.of(new Instruction.NullCheck(setField.structOperand()));
+                    default -> List.of();
+                };
+                if (checks.isEmpty())
+                    continue;
+                int pos = block.instructions.indexOf(instruction);
+                for (int i = checks.size()-1; i >= 0; i--)
+                    block.add(pos, checks.get(i));
+            }
+        }
+    }
+
+    public boolean apply(EnumSet<Options> options) {
+        if (options.contains(Options.CHECK_ELIM)) {
+            removedNullChecks = 0;
+            removedBoundsChecks = 0;
+            function.analyses.dominatorTree(); // We walk the dominator tree
+            ssaDefUse = SSAEdges.buildDefUseChains(function);
+            loops = new HashMap<>();
+            for (LoopNest loop : function.analyses.loops())
+                loops.put(loop._loopHead, loop);
+            walkBlock(function.entry);
+            if (removedNullChecks + removedBoundsChecks > 0)
+                // Instructions are removed but CFG is unchanged
+                function.analyses.preserve(Analysis.CFG);
+            if (options.contains(Options.DUMP_CHECK_ELIM_POSTAPPLY)) function.dumpIR(false, "Post Check Elimination");
+        }
+        return removedNullChecks + removedBoundsChecks > 0;
+    }
+
+    private void walkBlock(BasicBlock block) {
+        // Actions that undo the facts added in this block
+        List<Runnable> scope = new ArrayList<>();
+        addEdgeFacts(block, scope);
+        Iterator<Instruction> iter = block.instructions.iterator();
+        while (iter.hasNext()) {
+            Instruction instruction = iter.next();
+            switch (instruction) {
+                case Instruction.NewArray newArray -> {
+                    Register array = newArray.destOperand().reg;
+                    add(nonNull, array, scope);
+                    if (newArray.len() instanceof Operand.ConstantOperand constant)
+                        raiseMinLength(array, constant.value, scope);
+                    else if (value(newArray.len()) instanceof Operand.RegisterOperand len)
+                        put(allocatedLength, array, len.reg, scope);
+                }
+                case Instruction.NewStruct newStruct -> add(nonNull, newStruct.destOperand().reg, scope);
+                case Instruction.NullCheck nullCheck -> {
+                    Operand ref = value(nullCheck.refOperand());
+                    if (ref instanceof Operand.RegisterOperand registerOperand) {
+                        if (nonNull.contains(registerOperand.reg)) {
+                            iter.remove();
+                            removedNullChecks++;
+                        }
+                        else
+                            add(nonNull, registerOperand.reg, scope);
+                    }
+                }
+                case Instruction.BoundsCheck boundsCheck -> {
+                    if (value(boundsCheck.arrayOperand()) instanceof Operand.RegisterOperand array) {
+                        Operand index = value(boundsCheck.indexOperand());
+                        if (isInBounds(array.reg, index, boundsCheck.append)) {
+                            iter.remove();
+                            removedBoundsChecks++;
+                        }
+                        else if (boundsCheck.append) {
+                            // Index is at most the length
+                            if (index instanceof Operand.ConstantOperand constant)
+                                raiseMinLength(array.reg, constant.value, scope);
+                        }
+                        else
+                            accessed(array.reg, index, scope);
+                    }
+                }
+                case Instruction.ArrayLoad arrayLoad -> {
+                    if (value(arrayLoad.arrayOperand()) instanceof Operand.RegisterOperand array)
+                        accessed(array.reg, value(arrayLoad.indexOperand()), scope);
+                }
+                case Instruction.ArrayStore arrayStore -> {
+                    if (value(arrayStore.arrayOperand()) instanceof Operand.RegisterOperand array)
+                        accessed(array.reg, value(arrayStore.indexOperand()), scope);
+                }
+                default -> {}
+            }
+        }
+        for (BasicBlock c : block.dominatedChildren) {
+            walkBlock(c);
+        }
+        for (Runnable undo : scope.reversed())
+            undo.run();
+    }
+
+    /**
+     * Adds the facts implied by the comparison that
+     * selects the edge from the sole predecessor of the block.
+     */
+    private void addEdgeFacts(BasicBlock block, List<Runnable> scope) {
+        if (block.predecessors.size() != 1)
+            return;
+        BasicBlock pred = block.predecessors.get(0);
+        if (pred.instructions.isEmpty()
+                || !(pred.instructions.getLast() instanceof Instruction.ConditionalBranch cbr)
+                || cbr.trueBlock == cbr.falseBlock
+                || !(cbr.condition() instanceof Operand.RegisterOperand condition))
+            return;
+        SSAEdges.SSADef def = ssaDefUse.get(condition.reg);
+        if (def == null || !(def.instruction instanceof Instruction.Binary binary))
+            return;
+        boolean taken = cbr.trueBlock == block;
+        Operand left = value(binary.left());
+        Operand right = value(binary.right());
+        // Normalize the comparison to left < right, left <= right, left == right or left != right
+        String op = binary.binOp;
+        switch (op) {
+            case ">" -> { op = "<"; Operand t = left; left = right; right = t; }
+            case ">=" -> { op = "<="; Operand t = left; left = right; right = t; }
+            default -> {}
+        }
+        if (!taken) {
+            // Negate the comparison
+            switch (op) {
+                case "<" -> { op = "<="; Operand t = left; left = right; right = t; }
+                case "<=" -> { op = "<"; Operand t = left; left = right; right = t; }
+                case "==" -> op = "!=";
+                case "!=" -> op = "==";
+                default -> { return; }
+            }
+        }
+        switch (op) {
+            case "<" -> lessThan(left, right, 0, scope);
+            case "<=" -> lessThan(left, right, 1, scope);
+            case "!=" -> {
+                if (left instanceof Operand.RegisterOperand reg && right instanceof Operand.NullConstantOperand)
+                    add(nonNull, reg.reg, scope);
+                else if (right instanceof Operand.RegisterOperand reg && left instanceof Operand.NullConstantOperand)
+                    add(nonNull, reg.reg, scope);
+            }
+            default -> {}
+        }
+    }
+
+    /**
+     * Records that left < right + adjust
+     */
+    private void lessThan(Operand left, Operand right, long adjust, List<Runnable> scope) {
+        if (left instanceof Operand.RegisterOperand reg) {
+            if (right instanceof Operand.ConstantOperand constant) {
+                Long bound = lessThanConstant.get(reg.reg);
+                if (bound == null || constant.value + adjust < bound)
+                    put(lessThanConstant, reg.reg, constant.value + adjust, scope);
+            }
+            else if (right instanceof Operand.RegisterOperand bound && adjust == 0)
+                add(lessThan.computeIfAbsent(reg.reg, r -> new HashSet<>()), bound.reg, scope);
+        }
+        else if (left instanceof Operand.ConstantOperand constant
+                && right instanceof Operand.RegisterOperand reg
+                && constant.value - adjust >= -1)
+            add(nonNegative, reg.reg, scope);
+    }
+
+    /**
+     * Records that the array has been accessed at the index,
+     * so that the index is non negative and less than its length
+     */
+    private void accessed(Register array, Operand index, List<Runnable> scope) {
+        if (index instanceof Operand.ConstantOperand constant)
+            raiseMinLength(array, constant.value + 1, scope);
+        else if (index instanceof Operand.RegisterOperand reg) {
+            add(inBounds.computeIfAbsent(array, r -> new HashSet<>()), reg.reg, scope);
+            add(nonNegative, reg.reg, scope);
+        }
+    }
+
+    private boolean isInBounds(Register array, Operand index, boolean append) {
+        long length = minLength.getOrDefault(array, 0L);
+        // A store may write just past the end
+        long limit = append ? length + 1 : length;
+        if (index instanceof Operand.ConstantOperand constant)
+            return constant.value >= 0 && constant.value < limit;
+        if (!(index instanceof Operand.RegisterOperand reg))
+            return false;
+        if (inBounds.getOrDefault(array, Set.of()).contains(reg.reg))
+            return true;
+        if (!isNonNegative(reg, new HashSet<>(), 0))
+            return false;
+        Long bound = lessThanConstant.get(reg.reg);
+        if (bound != null && bound <= limit)
+            return true;
+        Register allocated = allocatedLength.get(array);
+        return allocated != null && lessThan.getOrDefault(reg.reg, Set.of()).contains(allocated);
+    }
+
+    private boolean isNonNegative(Operand operand, Set<Register> visiting, int depth) {
+        operand = value(operand);
+        if (operand instanceof Operand.ConstantOperand constant)
+            return constant.value >= 0;
+        if (!(operand instanceof Operand.RegisterOperand reg))
+            return false;
+        if (nonNegative.contains(reg.reg))
+            return true;
+        if (depth > MAX_DEPTH || !visiting.add(reg.reg))
+            return false;
+        SSAEdges.SSADef def = ssaDefUse.get(reg.reg);
+        if (def == null)
+            return false;
+        boolean result = switch (def.instruction) {
+            case Instruction.Binary binary when binary.binOp.equals("+") ->
+                    isNonNegative(binary.left(), visiting, depth+1) && isNonNegative(binary.right(), visiting, depth+1)
+                            && upperBound(binary, 0) != null;
+            case Instruction.Phi phi -> isNonNegativePhi(phi, visiting, depth);
+            default -> false;
+        };
+        visiting.remove(reg.reg);
+        return result;
+    }
+
+    /**
+     * Returns an upper bound of the operand, or null if it has none.
+     * Arrays hold at most Integer.MAX_VALUE elements, so an index in bounds
+     * of an array, or less than the length it was allocated with, is at most that.
+     */
+    private Long upperBound(Operand operand, int depth) {
+        operand = value(operand);
+        if (operand instanceof Operand.ConstantOperand constant)
+            return constant.value;
+        if (!(operand instanceof Operand.RegisterOperand reg))
+            return null;
+        Long bound = lessThanConstant.get(reg.reg);
+        if (bound != null && bound > Long.MIN_VALUE)
+            return bound - 1;
+        for (Set<Register> indexes : inBounds.values()) {
+            if (indexes.contains(reg.reg))
+                return (long) Integer.MAX_VALUE;
+        }
+        for (Register len : lessThan.getOrDefault(reg.reg, Set.of())) {
+            if (allocatedLength.containsValue(len))
+                return (long) Integer.MAX_VALUE;
+        }
+        if (depth > MAX_DEPTH)
+            return null;
+        SSAEdges.SSADef def = ssaDefUse.get(reg.reg);
+        if (def != null && def.instruction instanceof Instruction.Binary binary && binary.binOp.equals("+"))
+            return upperBound(binary, depth);
+        return null;
+    }
+
+    /**
+     * Returns an upper bound of a sum from the bounds of its operands,
+     * or null if they have none or the sum may overflow. Facts about the
+     * sum itself say nothing about overflow, so they are not used.
+     */
+    private Long upperBound(Instruction.Binary sum, int depth) {
+        Long left = upperBound(sum.left(), depth+1);
+        Long right = upperBound(sum.right(), depth+1);
+        if (left == null || right == null)
+            return null;
+        try {
+            return Math.addExact(left, right);
+        }
+        catch (ArithmeticException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A phi is non negative if all of its inputs are. At a loop head, inputs
+     * around the loop may instead be the phi incremented by a non negative constant.
+     */
+    private boolean isNonNegativePhi(Instruction.Phi phi, Set<Register> visiting, int depth) {
+        BasicBlock block = phi.block;
+        LoopNest loop = loops.get(block);
+        for (int i = 0; i < phi.numInputs(); i++) {
+            Operand input = phi.input(i);
+            if (loop != null && loop._blocks.contains(block.predecessor(i))) {
+                if (isIncrement(input, phi.value()))
+                    continue;
+            }
+            if (!isNonNegative(input, visiting, depth+1))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean isIncrement(Operand operand, Register phi) {
+        operand = value(operand);
+        if (!(operand instanceof Operand.RegisterOperand reg))
+            return false;
+        SSAEdges.SSADef def = ssaDefUse.get(reg.reg);
+        if (def == null || !(def.instruction instanceof Instruction.Binary binary) || !binary.binOp.equals("+"))
+            return false;
+        Operand left = value(binary.left());
+        Operand right = value(binary.right());
+        return (isReg(left, phi) && right instanceof Operand.ConstantOperand c1 && c1.value >= 0)
+                || (isReg(right, phi) && left instanceof Operand.ConstantOperand c2 && c2.value >= 0);
+    }
+
+    private static boolean isReg(Operand operand, Register reg) {
+        return operand instanceof Operand.RegisterOperand registerOperand && registerOperand.reg.id == reg.id;
+    }
+
+    /**
+     * Returns the operand that the given operand is a copy of
+     */
+    private Operand value(Operand operand) {
+        for (int i = 0; i < MAX_DEPTH && operand instanceof Operand.RegisterOperand reg; i++) {
+            SSAEdges.SSADef def = ssaDefUse.get(reg.reg);
+            if (def == null || !(def.instruction instanceof Instruction.Move move))
+                break;
+            operand = move.from();
+        }
+        return operand;
+    }
+
+    private void raiseMinLength(Register array, long length, List<Runnable> scope) {
+        Long old = minLength.get(array);
+        if (old == null || length > old)
+            put(minLength, array, length, scope);
+    }
+
+    private static <T> void add(Set<T> set, T value, List<Runnable> scope) {
+        if (set.add(value))
+            scope.add(() -> set.remove(value));
+    }
+
+    private static <K, V> void put(Map<K, V> map, K key, V value, List<Runnable> scope) {
+        V old = map.put(key, value);
+        scope.add(() -> {
+            if (old == null) map.remove(key);
+            else map.put(key, old);
+        });
+    }
+}
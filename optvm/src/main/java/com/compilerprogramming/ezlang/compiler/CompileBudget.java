@@ -0,0 +1,96 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits on how much effort the optimizer spends on a single function.
+ *
+ * Most functions are small, but machine generated code may contain functions
+ * with thousands of blocks, for which SSA construction, the iterative analyses
+ * and graph coloring take much longer than the rest of the program. Before
+ * optimizing a function we estimate its cost from the number of blocks,
+ * instructions and registers, and pick an optimization {@link Level}. While
+ * optimizing, optional passes are skipped once the time budget is used up.
+ *
+ * All limits are public so that they can be configured before compiling.
+ */
+public class CompileBudget {
+
+    public enum Level {
+        /**
+         * All requested optimizations
+         */
+        FULL,
+        /**
+         * SSA with a single run of SCCP; the other optimizations are skipped
+         */
+        REDUCED,
+        /**
+         * No SSA based optimizations; each register is given its own frame slot
+         */
+        MINIMAL
+    }
+
+    /**
+     * Functions with more blocks or instructions than these are optimized at the REDUCED level
+     */
+    public int maxBlocks = 1000;
+    public int maxInstructions = 10000;
+    /**
+     * Functions more than this many times over the block or instruction limits
+     * are optimized at the MINIMAL level
+     */
+    public int minimalFactor = 4;
+    /**
+     * The interference graph grows with the square of the number of registers,
+     * above this we use linear scan instead of graph coloring
+     */
+    public int maxRegistersForGraphColoring = 2000;
+    /**
+     * Optional passes are skipped once this much time has been spent on a function
+     */
+    public long maxNanosPerFunction = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * The size of a function, used to estimate the cost of optimizing it
+     */
+    public static final class Cost {
+        public final int blocks;
+        public final int instructions;
+        public final int registers;
+
+        Cost(int blocks, int instructions, int registers) {
+            this.blocks = blocks;
+            this.instructions = instructions;
+            this.registers = registers;
+        }
+
+        @Override
+        public String toString() {
+            return blocks + " blocks, " + instructions + " instructions, " + registers + " registers";
+        }
+    }
+
+    public Cost estimate(CompiledFunction function) {
+        int blocks = 0;
+        int instructions = 0;
+        for (BasicBlock block : function.getBlocks()) {
+            blocks++;
+            instructions += block.instructions.size();
+        }
+        return new Cost(blocks, instructions, function.registerPool.numRegisters());
+    }
+
+    public Level level(Cost cost) {
+        if (cost.blocks > (long) maxBlocks * minimalFactor
+                || cost.instructions > (long) maxInstructions * minimalFactor)
+            return Level.MINIMAL;
+        if (cost.blocks > maxBlocks || cost.instructions > maxInstructions)
+            return Level.REDUCED;
+        return Level.FULL;
+    }
+
+    public boolean useGraphColoring(CompiledFunction function) {
+        return function.registerPool.numRegisters() <= maxRegistersForGraphColoring;
+    }
+}
@@ -19,12 +19,16 @@ public class CompiledFunction {
     private BasicBlock currentContinueTarget;
     public EZType.EZTypeFunction functionType;
     public final RegisterPool registerPool;
-    private final TypeDictionary typeDictionary;
+    final TypeDictionary typeDictionary;
 
     private int frameSlots;
 
     public boolean isSSA;
     public boolean hasLiveness;
+    /**
+     * Cached analyses of this function
+     */
+    public final AnalysisManager analyses;
     private final IncrementalSSA issa;
 
     private StringBuilder dumpTarget;
@@ -43,6 +47,7 @@ public class CompiledFunction {
         AST.FuncDecl funcDecl = (AST.FuncDecl) functionSymbol.functionDecl;
         this.functionType = (EZType.EZTypeFunction) functionSymbol.type;
         this.registerPool = new RegisterPool();
+        this.analyses = new AnalysisManager(this, options);
         // Incremental SSA is an optional feature
         this.issa = (options != null && options.contains(Options.ISSA)) ? new IncrementalSSABraun(this) : new NoopIncrementalSSA();
         setVirtualRegisters(funcDecl.scope);
@@ -65,6 +70,7 @@ public class CompiledFunction {
     public CompiledFunction(EZType.EZTypeFunction functionType, TypeDictionary typeDictionary) {
         this.functionType = (EZType.EZTypeFunction) functionType;
         this.registerPool = new RegisterPool();
+        this.analyses = new AnalysisManager(this, null);
         this.issa = new NoopIncrementalSSA();        this.BID = 0;
         this.entry = this.currentBlock = createBlock();
         this.exit = createBlock();
@@ -116,6 +122,10 @@ public class CompiledFunction {
         return new BasicBlock(BID++);
     }
 
+    public BasicBlock createBlock(boolean loopHead) {
+        return new BasicBlock(BID++, loopHead);
+    }
+
     private BasicBlock createLoopHead() {
         return new BasicBlock(BID++, true);
     }
@@ -831,6 +841,7 @@ public class CompiledFunction {
     public void livenessAnalysis() {
         new Liveness(this);
         this.hasLiveness = true;
+        analyses.livenessComputed();
     }
 
     public List<BasicBlock> getBlocks() {
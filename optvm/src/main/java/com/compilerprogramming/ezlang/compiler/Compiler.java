@@ -8,21 +8,53 @@ import com.compilerprogramming.ezlang.types.Symbol;
 import com.compilerprogramming.ezlang.types.EZType;
 import com.compilerprogramming.ezlang.types.TypeDictionary;
 
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
 
 public class Compiler {
 
+    /**
+     * Statistics for the optimization passes run on all functions
+     */
+    public final PassManager.Report passReport = new PassManager.Report();
+    /**
+     * Limits on the effort spent optimizing each function
+     */
+    public final CompileBudget compileBudget = new CompileBudget();
+
     private void compile(TypeDictionary typeDictionary, EnumSet<Options> options) {
+        List<CompiledFunction> functions = new ArrayList<>();
         for (Symbol symbol: typeDictionary.getLocalSymbols()) {
             if (symbol instanceof Symbol.FunctionTypeSymbol functionSymbol) {
                 EZType.EZTypeFunction functionType = (EZType.EZTypeFunction) functionSymbol.type;
                 var function = new CompiledFunction(functionSymbol, typeDictionary, options);
+                if (options.contains(Options.CHECKS))
+                    CheckElimination.insertChecks(function);
                 if (options.contains(Options.DUMP_INITIAL_IR))
                     function.dumpIR(false, "Initial IR");
                 functionType.code = function;
-                new Optimizer().optimize(function, options);
+                new TailCallElimination(function).apply(options);
+                functions.add(function);
             }
         }
+        // Inlining needs all functions to be compiled, but not yet optimized
+        new Inliner().inline(functions, options);
+        InterproceduralConstantPropagation interprocedural = null;
+        if (options.contains(Options.IPCP)) {
+            interprocedural = new InterproceduralConstantPropagation();
+            functions.addAll(interprocedural.specialize(functions, options));
+            // Callees are optimized first so that their return values are known
+            functions = interprocedural.bottomUp(functions);
+        }
+        for (CompiledFunction function: functions)
+            new Optimizer(passReport, compileBudget, interprocedural).optimize(function, options);
+        if (options.contains(Options.TCE)) {
+            for (CompiledFunction function: functions)
+                TailCallElimination.markTailCalls(function);
+        }
+        if (options.contains(Options.DUMP_PASS_REPORT))
+            System.out.println(passReport);
     }
     public TypeDictionary compileSrc(String src) {
         return compileSrc(src, EnumSet.noneOf(Options.class));
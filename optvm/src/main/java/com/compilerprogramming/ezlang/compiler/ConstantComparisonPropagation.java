@@ -25,7 +25,8 @@ import java.util.Map;
  * After this transformation we can run SCCP again to take advantage of the local
  * knowledge.
  *
- * This technique can be extended to null checks too, but we do not do that yet.
+ * Comparisons with null, and comparisons that bound array indexes, are used
+ * by {@link CheckElimination} to remove redundant null and bounds checks.
  */
 public class ConstantComparisonPropagation {
 
@@ -41,9 +42,12 @@ public class ConstantComparisonPropagation {
     public boolean apply(EnumSet<Options> options) {
         if (options.contains(Options.CCP)) {
             updated = false;
-            domTree = new DominatorTree(function.entry);
+            domTree = function.analyses.dominatorTree();
             ssaDefUse = SSAEdges.buildDefUseChains(function);
             walkBlocks();
+            if (updated)
+                // New moves are inserted but CFG is unchanged
+                function.analyses.preserve(Analysis.CFG);
         }
         return updated;
     }
@@ -93,7 +97,8 @@ public class ConstantComparisonPropagation {
                         // replace is not immediately used inside the true block
                         // in a phi, because we intend to add the definition of
                         // the replacement after any phis
-                        if (!checkUsedInPhi(trueBlock, registerOp.reg)) {
+                        if (!checkUsedInPhi(trueBlock, registerOp.reg)
+                                && isUsedInDominatedBlock(trueBlock, registerOp.reg)) {
                             // Create a temp and move constant to it.
                             // We insert the new instruction at the top of the True Block,
                             // where it should dominate all uses of it
@@ -104,6 +109,7 @@ public class ConstantComparisonPropagation {
                             var replacementRegister = function.registerPool.newTempReg(registerOp.reg.type);
                             var defInst = new Instruction.Move(constantOp, new Operand.TempRegisterOperand(replacementRegister));
                             insertAtBeginning(trueBlock, defInst);
+                            updated = true;
                             var replacementRegisterUses = SSAEdges.addDef(ssaDefUse, replacementRegister, defInst); // Update SSA Def Use chains, add def for new reg
                             Iterator<Instruction> useIter = ssaDefUse.get(registerOp.reg).useList.iterator();
                             while (useIter.hasNext()) {
@@ -122,6 +128,16 @@ public class ConstantComparisonPropagation {
         }
     }
 
+    /* Check if the register has a use that would be replaced, so
+       that we do not insert a move again when the pass is repeated */
+    private boolean isUsedInDominatedBlock(BasicBlock block, Register register) {
+        for (Instruction use : ssaDefUse.get(register).useList) {
+            if (block.dominates(use.block))
+                return true;
+        }
+        return false;
+    }
+
     /* Check if the register is used in a phi instruction within the block */
     private static boolean checkUsedInPhi(BasicBlock block, Register register) {
         for (Instruction instruction : block.instructions) {
@@ -1,8 +1,6 @@
 package com.compilerprogramming.ezlang.compiler;
 
-import java.util.Comparator;
-import java.util.HashSet;
-import java.util.List;
+import java.util.*;
 
 /**
  * The dominator tree construction algorithm is based on figure 9.24,
@@ -11,24 +9,79 @@ import java.util.List;
  * The algorithm is also described in the paper 'A Simple, Fast
  * Dominance Algorithm' by Keith D. Cooper, Timothy J. Harvey and
  * Ken Kennedy.
+ * <p>
+ * For large irregular CFGs the Semi-NCA algorithm can be selected instead;
+ * see {@link Algorithm#SEMI_NCA}. Both algorithms produce the same tree.
+ * <p>
+ * Dominance frontiers are stored as bitsets over RPO numbers,
+ * see {@link BlockBitSet}.
  */
 public class DominatorTree {
+
+    public enum Algorithm {
+        /**
+         * Iterative algorithm by Cooper, Harvey and Kennedy
+         */
+        COOPER_HARVEY_KENNEDY,
+        /**
+         * Semi-NCA algorithm described in
+         * 'Finding Dominators in Practice' by Loukas Georgiadis,
+         * Renato F. Werneck, Robert E. Tarjan, Spyridon Triantafyllis and David I. August.
+         * <p>
+         * Semi-dominators are computed as in Lengauer-Tarjan, and then the
+         * immediate dominators are found by a nearest common ancestor search
+         * in the partially built tree.
+         */
+        SEMI_NCA
+    }
+
     BasicBlock entry;
     // List of basic blocks reachable from _entry block, including the _entry
     List<BasicBlock> blocks;
+    final Algorithm algorithm;
 
     int preorder;
     int rpostorder;
 
+    /**
+     * Blocks indexed by RPO number; slot 0 is unused
+     */
+    private BasicBlock[] blocksByRPO;
+    /**
+     * Blocks indexed by DFS preorder number; slot 0 is unused
+     */
+    private BasicBlock[] blocksByPreorder;
+    /**
+     * Parent of each block in the DFS spanning tree,
+     * indexed and valued by preorder number
+     */
+    private int[] dfsParent;
+
     /**
      * Builds a Dominator Tree.
      *
      * @param entry The entry block
      */
     public DominatorTree(BasicBlock entry) {
+        this(entry, Algorithm.COOPER_HARVEY_KENNEDY);
+    }
+
+    /**
+     * Builds a Dominator Tree using the given algorithm.
+     *
+     * @param entry The entry block
+     * @param algorithm The algorithm to use for calculating immediate dominators
+     */
+    public DominatorTree(BasicBlock entry, Algorithm algorithm) {
         this.entry = entry;
-        blocks = BBHelper.findAllBlocks(entry);
-        calculateDominatorTree();
+        this.algorithm = algorithm;
+        annotateBlocksWithRPO();
+        resetDomInfo();
+        sortBlocksByRPO();
+        if (algorithm == Algorithm.SEMI_NCA)
+            calculateDominatorTreeSemiNCA();
+        else
+            calculateDominatorTree();
         populateTree();
         setDepth();
         calculateDominanceFrontiers();
@@ -36,10 +89,6 @@ public class DominatorTree {
     }
 
     private void calculateDominatorTree() {
-        resetDomInfo();
-        annotateBlocksWithRPO();
-        sortBlocksByRPO();
-
         // Set IDom entry for root to itself (see note below)
         entry.idom = entry;
         boolean changed = true;
@@ -56,7 +105,7 @@ public class DominatorTree {
                 // for all other predecessors, p, of b
                 for (BasicBlock predecessor : bb.predecessors) {
                     if (predecessor == firstPred) continue; // all other predecessors
-                    if (predecessor.idom != null) {
+                    if (predecessor.idom != null && isReachable(predecessor)) {
                         // i.e. IDoms[p] calculated
                         newIDom = intersect(predecessor, newIDom);
                     }
@@ -83,22 +132,58 @@ public class DominatorTree {
      * Assign rpo number to all the basic blocks.
      * The rpo number defines the Reverse Post Order traversal of blocks.
      * The Dominance calculator requires the rpo number.
+     * <p>
+     * The depth first search also discovers the blocks reachable from entry,
+     * and records the DFS spanning tree required by Semi-NCA. The search is
+     * iterative so that very large CFGs do not overflow the Java stack,
+     * but it visits blocks in the same order as a recursive search.
      */
     private void annotateBlocksWithRPO() {
         preorder = 1;
-        rpostorder = blocks.size();
-        for (BasicBlock n : blocks) n.resetRPO();
-        postOrderWalkSetRPO(entry);
-    }
-
-    // compute rpo using a depth first search
-    private void postOrderWalkSetRPO(BasicBlock n) {
-        n.pre = preorder++;
-        for (BasicBlock s : n.successors) {
-            if (s.pre == 0)
-                postOrderWalkSetRPO(s);
+        List<BasicBlock> postOrder = new ArrayList<>();
+        List<Integer> parents = new ArrayList<>();
+        parents.add(0); // slot 0 unused
+        List<BasicBlock> stack = new ArrayList<>();
+        List<Integer> nextSuccessor = new ArrayList<>();
+        BitSet visited = new BitSet();
+        visited.set(entry.bid);
+        entry.pre = preorder++;
+        parents.add(0);
+        stack.add(entry);
+        nextSuccessor.add(0);
+        while (!stack.isEmpty()) {
+            int top = stack.size()-1;
+            BasicBlock n = stack.get(top);
+            int i = nextSuccessor.get(top);
+            if (i < n.successors.size()) {
+                nextSuccessor.set(top, i+1);
+                BasicBlock s = n.successors.get(i);
+                if (!visited.get(s.bid)) {
+                    visited.set(s.bid);
+                    s.pre = preorder++;
+                    parents.add(n.pre);
+                    stack.add(s);
+                    nextSuccessor.add(0);
+                }
+            }
+            else {
+                stack.removeLast();
+                nextSuccessor.removeLast();
+                postOrder.add(n);
+            }
+        }
+        int numBlocks = postOrder.size();
+        blocks = postOrder;
+        blocksByRPO = new BasicBlock[numBlocks+1];
+        blocksByPreorder = new BasicBlock[numBlocks+1];
+        dfsParent = new int[numBlocks+1];
+        rpostorder = numBlocks;
+        for (BasicBlock n : postOrder) {
+            n.rpo = rpostorder--;
+            blocksByRPO[n.rpo] = n;
+            blocksByPreorder[n.pre] = n;
+            dfsParent[n.pre] = parents.get(n.pre);
         }
-        n.rpo = rpostorder--;
     }
 
     /**
@@ -131,6 +216,85 @@ public class DominatorTree {
         return finger1;
     }
 
+    /**
+     * Semi-NCA algorithm. Works on int arrays indexed by DFS preorder number,
+     * as semi-dominators are defined in terms of the DFS spanning tree.
+     */
+    private void calculateDominatorTreeSemiNCA() {
+        int n = blocks.size();
+        int[] semi = new int[n+1];
+        int[] label = new int[n+1];
+        int[] ancestor = new int[n+1];    // 0 means not yet linked into the forest
+        int[] idom = new int[n+1];
+        int[] compressStack = new int[n+1];
+        for (int v = 1; v <= n; v++) {
+            semi[v] = v;
+            label[v] = v;
+        }
+        // Compute semi-dominators in reverse preorder
+        for (int w = n; w >= 2; w--) {
+            for (BasicBlock pred : blocksByPreorder[w].predecessors) {
+                int v = preorderOf(pred);
+                if (v == 0) // unreachable predecessor
+                    continue;
+                int u = eval(v, ancestor, label, semi, compressStack);
+                if (semi[u] < semi[w])
+                    semi[w] = semi[u];
+            }
+            // link
+            ancestor[w] = dfsParent[w];
+        }
+        // Compute immediate dominators as the nearest common ancestor
+        // of the DFS parent and the semi-dominator
+        idom[1] = 1;
+        for (int w = 2; w <= n; w++) {
+            int d = dfsParent[w];
+            while (d > semi[w])
+                d = idom[d];
+            idom[w] = d;
+        }
+        for (int w = 2; w <= n; w++)
+            blocksByPreorder[w].idom = blocksByPreorder[idom[w]];
+        entry.idom = null;
+    }
+
+    /**
+     * Preorder number of the block in this tree, or 0 if the
+     * block was not reached by the DFS
+     */
+    private int preorderOf(BasicBlock block) {
+        int pre = block.pre;
+        if (pre > 0 && pre < blocksByPreorder.length && blocksByPreorder[pre] == block)
+            return pre;
+        return 0;
+    }
+
+    private static int eval(int v, int[] ancestor, int[] label, int[] semi, int[] stack) {
+        if (ancestor[v] == 0)
+            return v;
+        compress(v, ancestor, label, semi, stack);
+        return label[v];
+    }
+
+    /**
+     * Path compression, done iteratively to avoid deep recursion.
+     */
+    private static void compress(int v, int[] ancestor, int[] label, int[] semi, int[] stack) {
+        int sp = 0;
+        int x = v;
+        while (ancestor[ancestor[x]] != 0) {
+            stack[sp++] = x;
+            x = ancestor[x];
+        }
+        while (sp > 0) {
+            x = stack[--sp];
+            int a = ancestor[x];
+            if (semi[label[a]] < semi[label[x]])
+                label[x] = label[a];
+            ancestor[x] = ancestor[a];
+        }
+    }
+
     /**
      * Look for the first predecessor whose immediate dominator has been calculated.
      * Because of the order in which this search occurs, we will always find at least 1
@@ -138,7 +302,7 @@ public class DominatorTree {
      */
     private BasicBlock findFirstPredecessorWithIdom(BasicBlock n) {
         for (BasicBlock p : n.predecessors) {
-            if (p.idom != null) return p;
+            if (p.idom != null && isReachable(p)) return p;
         }
         return null;
     }
@@ -158,32 +322,29 @@ public class DominatorTree {
     }
 
     /**
-     * Sets the dominator depth on each block
+     * Sets the dominator depth on each block.
+     * Blocks are in RPO order, so a block's idom is always
+     * visited before the block.
      */
     private void setDepth() {
-        entry.domDepth = 1;
-        setDepth_(entry);
-    }
-
-    /**
-     * Sets the dominator depth on each block
-     */
-    private void setDepth_(BasicBlock block) {
-        BasicBlock idom = block.idom;
-        if (idom != null) {
-            assert idom.domDepth > 0;
-            block.domDepth = idom.domDepth + 1;
-        }
-        else {
-            // root (entry) block's idom is null
-            assert block.domDepth == 1;
+        for (BasicBlock block : blocks) {
+            BasicBlock idom = block.idom;
+            if (idom != null) {
+                assert idom.domDepth > 0;
+                block.domDepth = idom.domDepth + 1;
+            }
+            else {
+                // root (entry) block's idom is null
+                assert block == entry;
+                block.domDepth = 1;
+            }
         }
-        for (BasicBlock child : block.dominatedChildren)
-            setDepth_(child);
     }
 
     /**
-     * Calculates dominance-frontiers for nodes
+     * Calculates dominance-frontiers for nodes.
+     * The calculation works on RPO numbers and the frontiers are
+     * stored as bitsets.
      */
     private void calculateDominanceFrontiers() {
         // Dominance-Frontier Algorithm - fig 5 in 'A Simple, Fast Dominance Algorithm'
@@ -194,21 +355,35 @@ public class DominatorTree {
         //          while runner != doms[b]
         //              add b to runner’s dominance frontier set
         //              runner = doms[runner]
-        for (BasicBlock b: blocks)
-            b.dominationFrontier.clear();   // empty set
+        int n = blocks.size();
+        int[] idom = new int[n+1];
+        BitSet[] frontiers = new BitSet[n+1];
+        for (BasicBlock b: blocks) {
+            idom[b.rpo] = b.idom != null ? b.idom.rpo : 0;
+            frontiers[b.rpo] = new BitSet();   // empty set
+        }
         for (BasicBlock b : blocks) {
             if (b.predecessors.size() >= 2) {
                 for (BasicBlock p : b.predecessors) {
-                    BasicBlock runner = p;
-                    // re runner != null: Dominance frontier calc fails in infinite loop
+                    // Unreachable predecessors are not part of the tree
+                    if (!isReachable(p))
+                        continue;
+                    int runner = p.rpo;
+                    // re runner != 0: Dominance frontier calc fails in infinite loop
                     // scenario - need to check what the correct solution is
-                    while (runner != b.idom && runner != null) {
-                        runner.dominationFrontier.add(b);
-                        runner = runner.idom;
+                    while (runner != idom[b.rpo] && runner != 0) {
+                        frontiers[runner].set(b.rpo);
+                        runner = idom[runner];
                     }
                 }
             }
         }
+        for (BasicBlock b: blocks)
+            b.dominationFrontier = new BlockBitSet(blocksByRPO, frontiers[b.rpo]);
+    }
+
+    private boolean isReachable(BasicBlock block) {
+        return block.rpo > 0 && block.rpo < blocksByRPO.length && blocksByRPO[block.rpo] == block;
     }
 
     // We have an alternative approach to calculating DOM Frontiers to
@@ -216,7 +391,7 @@ public class DominatorTree {
     private void calculateDominanceFrontiersMethod2()
     {
         for (BasicBlock b: blocks)
-            b.dominationFrontier.clear();   // empty set
+            b.dominationFrontier = new BlockBitSet(blocksByRPO);   // empty set
         computeDF(entry);
     }
 
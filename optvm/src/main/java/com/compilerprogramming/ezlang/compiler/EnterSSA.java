@@ -48,7 +48,7 @@ public class EnterSSA {
         }
         this.blocks = domTree.blocks;   // the blocks are ordered reverse post order
         findNonLocalNames();
-        new Liveness(bytecodeFunction); // EWe require liveness info to construct pruned ssa
+        bytecodeFunction.analyses.liveness(); // We require liveness info to construct pruned ssa
         if (options.contains(Options.DUMP_PRE_SSA_LIVENESS)) {
             System.out.println("Pre SSA Liveness");
             System.out.println(bytecodeFunction.toStr(new StringBuilder(), true));
@@ -56,12 +56,13 @@ public class EnterSSA {
         insertPhis();
         renameVars();
         bytecodeFunction.isSSA = true;
-        bytecodeFunction.hasLiveness = false;
+        // Phis and renamed registers invalidate liveness, but the CFG is unchanged
+        bytecodeFunction.analyses.preserve(Analysis.CFG);
         if (options.contains(Options.DUMP_SSA_IR)) bytecodeFunction.dumpIR(false, "Post SSA IR");
     }
 
     private void computeDomTreeAndDominanceFrontiers() {
-        domTree = new DominatorTree(function.entry);
+        domTree = function.analyses.dominatorTree();
     }
 
     private void setupGlobals() {
@@ -7,7 +7,9 @@ import java.util.*;
  */
 public class ExitSSA {
     public ExitSSA(CompiledFunction function, EnumSet<Options> options) {
-        if (options.contains(Options.SSA_DESTRUCTION_BOISSINOT_NOCOALESCE))
+        if (options.contains(Options.SSA_DESTRUCTION_BOISSINOT))
+            new ExitSSABoissinot(function,options);
+        else if (options.contains(Options.SSA_DESTRUCTION_BOISSINOT_NOCOALESCE))
             new ExitSSABoissinotNoCoalesce(function,options);
         else
             new ExitSSABriggs(function,options);
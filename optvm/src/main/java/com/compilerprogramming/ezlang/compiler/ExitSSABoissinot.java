@@ -0,0 +1,523 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import java.util.*;
+
+/**
+ * Exit SSA using the full method described in
+ *
+ * Revisiting Out-of-SSA Translation for Correctness, Code Quality, and Efficiency
+ * Benoit Boissinot, Alain Darte, Fabrice Rastello, Benoît Dupont de Dinechin, Christophe Guillon
+ *
+ * We first convert to conventional SSA (CSSA) exactly as in {@link ExitSSABoissinotNoCoalesce},
+ * by inserting parallel copies for every phi input and phi def. The phi def and inputs of each phi
+ * then form a congruence class. Next we try to coalesce the source and destination of each
+ * copy in the parallel copies, merging their congruence classes if no variable in
+ * one class interferes with a variable in the other. Copies inside loops are
+ * considered first.
+ *
+ * Interference is value based: two variables whose live ranges intersect do not
+ * interfere if they are known to hold the same value, i.e. one is a copy of
+ * the other. Live ranges are checked as in the paper: in strict SSA form if two
+ * live ranges intersect then the def of one dominates the def of the other, and the
+ * dominating variable is live just after the other's def. Liveness is not
+ * computed as sets; instead it is queried with the fast liveness check, which
+ * only needs the blocks reachable from each block without following back edges,
+ * the loops enclosing each block, and the blocks where each variable is used.
+ *
+ * The members of each congruence class are kept sorted in dominance order of
+ * their defs. To check two classes for interference we merge them, keeping a stack
+ * of the variables whose defs dominate the current one, so each variable is only
+ * checked against the variables of the other class that dominate it. Unlike
+ * the paper we do not track equal ancestors, so a variable is checked against
+ * all such variables rather than just the nearest one.
+ *
+ * Finally, all variables in a congruence class are renamed to one representative,
+ * phis are removed, and the remaining copies in the parallel copies are sequenced.
+ */
+public class ExitSSABoissinot extends ExitSSABoissinotNoCoalesce {
+
+    /**
+     * Number of copies introduced when converting to CSSA,
+     * this is how many copies there would be without coalescing
+     */
+    public int copiesInserted;
+    /**
+     * Number of copies that were coalesced away
+     */
+    public int copiesRemoved;
+
+    private int numRegisters;
+    /**
+     * Union find over register ids, for congruence classes
+     */
+    private int[] parent;
+    /**
+     * Members of each congruence class, indexed by the class representative,
+     * sorted in dominance order of their defs
+     */
+    private List<List<Register>> members;
+    /**
+     * The value held by each register, indexed by register id.
+     * A copy holds the same value as its source.
+     */
+    private Register[] values;
+    // Where each register is defined
+    private BasicBlock[] defBlock;
+    private int[] defPos;
+    // Preorder number of each block in the dominator tree, and the
+    // largest preorder number in its subtree, indexed by bid
+    private int[] domPre;
+    private int[] domLast;
+    // Blocks where each register is used, phi inputs are used at the predecessor
+    private BitSet[] useBlocks;
+    private BitSet[] phiUseBlocks;
+    // Blocks reachable from each block without following back edges, indexed by bid
+    private BitSet[] reachable;
+
+    public ExitSSABoissinot(CompiledFunction function, EnumSet<Options> options) {
+        super(function);
+        init();
+        makeConventionalSSA();
+        if (options.contains(Options.DUMP_SSA_TO_CSSA)) function.dumpIR(false, "After converting from SSA to CSSA");
+        // Copies are inserted in existing blocks, so the dominator tree and loops are still valid
+        function.analyses.dominatorTree();
+        function.analyses.loops();
+        computeDefs();
+        computeDominanceOrder();
+        computeUses();
+        computeReachability();
+        computeValues();
+        initCongruenceClasses();
+        coalesce();
+        renameAndRemovePhis();
+        if (options.contains(Options.DUMP_CSSA_PHI_REMOVAL)) function.dumpIR(false, "After coalescing and removing phis from CSSA");
+        sequenceParallelCopies();
+        function.isSSA = false;
+        function.analyses.preserve(Analysis.CFG);
+        if (options.contains(Options.DUMP_POST_SSA_IR)) function.dumpIR(false, "After exiting SSA (Boissinot method with coalescing)");
+    }
+
+    private void computeDefs() {
+        numRegisters = function.registerPool.numRegisters();
+        defBlock = new BasicBlock[numRegisters];
+        defPos = new int[numRegisters];
+        for (BasicBlock block : allBlocks) {
+            for (int pos = 0; pos < block.instructions.size(); pos++) {
+                Instruction instruction = block.instructions.get(pos);
+                if (instruction instanceof Instruction.Phi phi)
+                    // All phis are defined together at the start of the block
+                    setDef(phi.value(), block, -1);
+                else if (instruction instanceof Instruction.ParallelCopyInstruction pcopy) {
+                    for (var dest : pcopy.destOperands)
+                        setDef(dest.reg, block, pos);
+                }
+                else if (instruction.definesVar())
+                    setDef(instruction.def(), block, pos);
+            }
+        }
+    }
+
+    private void setDef(Register reg, BasicBlock block, int pos) {
+        defBlock[reg.id] = block;
+        defPos[reg.id] = pos;
+    }
+
+    private void computeDominanceOrder() {
+        int maxBid = 0;
+        for (BasicBlock block : allBlocks)
+            maxBid = Math.max(maxBid, block.bid);
+        domPre = new int[maxBid+1];
+        domLast = new int[maxBid+1];
+        // Unreachable blocks neither dominate nor are dominated by reachable ones
+        Arrays.fill(domPre, -1);
+        Arrays.fill(domLast, -1);
+        numberDominatorTree(function.entry, 0);
+    }
+
+    private int numberDominatorTree(BasicBlock block, int pre) {
+        domPre[block.bid] = pre;
+        int last = pre;
+        for (BasicBlock child : block.dominatedChildren)
+            last = numberDominatorTree(child, last+1);
+        domLast[block.bid] = last;
+        return last;
+    }
+
+    private void computeUses() {
+        useBlocks = new BitSet[numRegisters];
+        phiUseBlocks = new BitSet[numRegisters];
+        for (int i = 0; i < numRegisters; i++) {
+            useBlocks[i] = new BitSet();
+            phiUseBlocks[i] = new BitSet();
+        }
+        for (BasicBlock block : allBlocks) {
+            for (Instruction instruction : block.instructions) {
+                if (instruction instanceof Instruction.Phi phi) {
+                    for (int j = 0; j < phi.numInputs(); j++) {
+                        if (phi.isRegisterInput(j)) {
+                            int pred = block.predecessor(j).bid;
+                            int reg = phi.inputAsRegister(j).id;
+                            useBlocks[reg].set(pred);
+                            phiUseBlocks[reg].set(pred);
+                        }
+                    }
+                }
+                else {
+                    for (Register reg : usesOf(instruction))
+                        useBlocks[reg.id].set(block.bid);
+                }
+            }
+        }
+    }
+
+    /**
+     * An edge is a back edge if its target dominates its source. Reverse
+     * postorder is a topological order of the CFG without back edges,
+     * so visiting blocks in postorder the successors are done first.
+     */
+    private void computeReachability() {
+        reachable = new BitSet[domPre.length];
+        for (BasicBlock block : function.analyses.reversePostOrder().reversed()) {
+            BitSet r = new BitSet();
+            r.set(block.bid);
+            for (BasicBlock succ : block.successors) {
+                if (!dominates(succ, block) && reachable[succ.bid] != null)
+                    r.or(reachable[succ.bid]);
+            }
+            reachable[block.bid] = r;
+        }
+    }
+
+    private boolean dominates(BasicBlock a, BasicBlock b) {
+        return domPre[a.bid] <= domPre[b.bid] && domPre[b.bid] <= domLast[a.bid];
+    }
+
+    private static boolean isLoopHead(BasicBlock block) {
+        return block.loop != null && block.loop._loopHead == block;
+    }
+
+    /**
+     * Returns true if the variable is live on entry to the block. It is
+     * if one of its uses can be reached without following back edges from
+     * the block, or from the head of a loop enclosing the block, as long as
+     * the def strictly dominates where we start from. CFGs built from EZ
+     * source are reducible, so the heads of enclosing loops are enough.
+     *
+     * Fast Liveness Checking for SSA-Form Programs
+     * Benoit Boissinot, Sebastian Hack, Daniel Grund, Benoît Dupont de Dinechin, Fabrice Rastello
+     */
+    private boolean isLiveIn(BasicBlock block, Register reg) {
+        BasicBlock def = defBlock[reg.id];
+        if (def == null || def == block || !dominates(def, block))
+            return false;
+        if (usedReachableFrom(block, def, reg, -1))
+            return true;
+        for (LoopNest loop = block.loop; loop != null; loop = loop._parent) {
+            if (usedReachableFrom(loop._loopHead, def, reg, -1))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the variable is live on exit from the block.
+     * As for live in, except that a use in the block itself only counts
+     * if it is a phi input, or is reached again around a loop.
+     */
+    private boolean isLiveOut(BasicBlock block, Register reg) {
+        BasicBlock def = defBlock[reg.id];
+        if (def == null || !dominates(def, block))
+            return false;
+        if (phiUseBlocks[reg.id].get(block.bid))
+            return true;
+        if (def == block) {
+            // Defs dominate uses, so a use in any other block is reached from here
+            BitSet uses = useBlocks[reg.id];
+            return uses.nextSetBit(0) != block.bid || uses.nextSetBit(block.bid+1) >= 0;
+        }
+        if (usedReachableFrom(block, def, reg, isLoopHead(block) ? -1 : block.bid))
+            return true;
+        for (LoopNest loop = block.loop; loop != null; loop = loop._parent) {
+            if (usedReachableFrom(loop._loopHead, def, reg, -1))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if a use of the variable other than in the skipped block
+     * is reachable without back edges from the given block,
+     * which must be strictly dominated by the def.
+     */
+    private boolean usedReachableFrom(BasicBlock from, BasicBlock def, Register reg, int skipBid) {
+        if (from == def || !dominates(def, from) || reachable[from.bid] == null)
+            return false;
+        BitSet r = reachable[from.bid];
+        BitSet uses = useBlocks[reg.id];
+        for (int u = uses.nextSetBit(0); u >= 0; u = uses.nextSetBit(u+1)) {
+            if (u != skipBid && r.get(u))
+                return true;
+        }
+        return false;
+    }
+
+    private static List<Register> usesOf(Instruction instruction) {
+        if (instruction instanceof Instruction.ParallelCopyInstruction pcopy) {
+            List<Register> uses = new ArrayList<>();
+            for (Operand source : pcopy.sourceOperands) {
+                if (source instanceof Operand.RegisterOperand registerOperand)
+                    uses.add(registerOperand.reg);
+            }
+            return uses;
+        }
+        return instruction.uses();
+    }
+
+    /**
+     * Values are propagated through copies. Since defs dominate uses,
+     * visiting blocks in RPO ensures the value of the source of a copy is known.
+     */
+    private void computeValues() {
+        values = new Register[numRegisters];
+        for (BasicBlock block : function.analyses.reversePostOrder()) {
+            for (Instruction instruction : block.instructions) {
+                if (instruction instanceof Instruction.ParallelCopyInstruction pcopy) {
+                    for (int i = 0; i < pcopy.destOperands.size(); i++)
+                        copyValue(pcopy.sourceOperands.get(i), pcopy.destOperands.get(i).reg);
+                }
+                else if (instruction instanceof Instruction.Move move)
+                    copyValue(move.from(), move.to().reg);
+            }
+        }
+    }
+
+    private void copyValue(Operand source, Register dest) {
+        if (source instanceof Operand.RegisterOperand registerOperand)
+            values[dest.id] = value(registerOperand.reg);
+    }
+
+    private Register value(Register reg) {
+        Register value = values[reg.id];
+        return value != null ? value : reg;
+    }
+
+    private void initCongruenceClasses() {
+        parent = new int[numRegisters];
+        members = new ArrayList<>(numRegisters);
+        for (int i = 0; i < numRegisters; i++) {
+            parent[i] = i;
+            members.add(null);
+        }
+        for (BasicBlock block : allBlocks) {
+            for (Instruction.Phi phi : block.phis()) {
+                for (int j = 0; j < phi.numInputs(); j++)
+                    union(phi.value(), phi.inputAsRegister(j));
+            }
+        }
+    }
+
+    private int find(int id) {
+        while (parent[id] != id) {
+            parent[id] = parent[parent[id]];
+            id = parent[id];
+        }
+        return id;
+    }
+
+    private List<Register> classOf(Register reg) {
+        int root = find(reg.id);
+        List<Register> list = members.get(root);
+        if (list == null) {
+            list = new ArrayList<>();
+            list.add(function.registerPool.getReg(root));
+            members.set(root, list);
+        }
+        return list;
+    }
+
+    private void union(Register a, Register b) {
+        List<Register> classA = classOf(a);
+        List<Register> classB = classOf(b);
+        if (classA == classB)
+            return;
+        int rootA = find(a.id);
+        int rootB = find(b.id);
+        parent[rootB] = rootA;
+        // Merge the sorted lists
+        List<Register> merged = new ArrayList<>(classA.size() + classB.size());
+        int i = 0, j = 0;
+        while (i < classA.size() || j < classB.size()) {
+            if (j == classB.size() || (i < classA.size() && compareDefs(classA.get(i), classB.get(j)) <= 0))
+                merged.add(classA.get(i++));
+            else
+                merged.add(classB.get(j++));
+        }
+        members.set(rootA, merged);
+        members.set(rootB, null);
+    }
+
+    /**
+     * Dominance order of defs: the defs in a block come before those in the blocks it
+     * dominates, and are in order within the block. Variables without a def come first.
+     */
+    private int compareDefs(Register a, Register b) {
+        BasicBlock blockA = defBlock[a.id];
+        BasicBlock blockB = defBlock[b.id];
+        int preA = blockA != null ? domPre[blockA.bid] : -2;
+        int preB = blockB != null ? domPre[blockB.bid] : -2;
+        if (preA != preB)
+            return Integer.compare(preA, preB);
+        return Integer.compare(defPos[a.id], defPos[b.id]);
+    }
+
+    private void coalesce() {
+        List<Copy> copies = new ArrayList<>();
+        for (BasicBlock block : allBlocks) {
+            int depth = block.loop != null ? block.loop._depth : 0;
+            for (Instruction instruction : block.instructions) {
+                if (instruction instanceof Instruction.ParallelCopyInstruction pcopy) {
+                    copiesInserted += pcopy.destOperands.size();
+                    for (int i = 0; i < pcopy.destOperands.size(); i++) {
+                        if (pcopy.sourceOperands.get(i) instanceof Operand.RegisterOperand source)
+                            copies.add(new Copy(source.reg, pcopy.destOperands.get(i).reg, depth));
+                    }
+                }
+            }
+        }
+        // Copies in inner loops are executed more often, so try those first
+        copies.sort((c1, c2) -> Integer.compare(c2.depth, c1.depth));
+        for (Copy copy : copies) {
+            List<Register> classA = classOf(copy.source);
+            List<Register> classB = classOf(copy.dest);
+            if (classA == classB) {
+                copiesRemoved++;
+                continue;
+            }
+            if (!interfere(classA, classB)) {
+                union(copy.source, copy.dest);
+                copiesRemoved++;
+            }
+        }
+    }
+
+    /**
+     * Walks the members of both classes in dominance order, keeping a stack of
+     * the variables whose defs dominate the current one. Two live ranges can
+     * only intersect if one def dominates the other, so the current variable
+     * only needs to be checked against the stacked variables of the other class.
+     */
+    private boolean interfere(List<Register> classA, List<Register> classB) {
+        int rootA = find(classA.get(0).id);
+        Deque<Register> dominating = new ArrayDeque<>();
+        int i = 0, j = 0;
+        while (i < classA.size() || j < classB.size()) {
+            Register current;
+            if (j == classB.size() || (i < classA.size() && compareDefs(classA.get(i), classB.get(j)) <= 0))
+                current = classA.get(i++);
+            else
+                current = classB.get(j++);
+            if (defBlock[current.id] == null)
+                continue;
+            while (!dominating.isEmpty() && !defDominates(dominating.peek(), current))
+                dominating.pop();
+            boolean inA = find(current.id) == rootA;
+            for (Register other : dominating) {
+                if ((find(other.id) == rootA) != inA && interfere(other, current))
+                    return true;
+            }
+            dominating.push(current);
+        }
+        return false;
+    }
+
+    private boolean interfere(Register a, Register b) {
+        if (value(a) == value(b))
+            return false;
+        return intersect(a, b);
+    }
+
+    /**
+     * Budimlic et al's check: the live ranges of a and b intersect
+     * if the def of one dominates the other, and the dominating variable
+     * is live just after the def of the other.
+     */
+    private boolean intersect(Register a, Register b) {
+        if (defDominates(b, a)) {
+            Register t = a;
+            a = b;
+            b = t;
+        }
+        else if (!defDominates(a, b))
+            return false;
+        // a's def dominates b's def
+        BasicBlock block = defBlock[b.id];
+        int pos = defPos[b.id];
+        if (pos < 0) {
+            // b is a phi def; a phi def of the same block is defined at the same time
+            return isLiveIn(block, a) || defBlock[a.id] == block;
+        }
+        if (isLiveOut(block, a))
+            return true;
+        if (defBlock[a.id] == block && defPos[a.id] == pos)
+            // defined by the same parallel copy
+            return true;
+        for (int i = pos+1; i < block.instructions.size(); i++) {
+            if (usesOf(block.instructions.get(i)).contains(a))
+                return true;
+        }
+        return false;
+    }
+
+    private boolean defDominates(Register a, Register b) {
+        BasicBlock blockA = defBlock[a.id];
+        BasicBlock blockB = defBlock[b.id];
+        if (blockA == null || blockB == null)
+            return false;
+        if (blockA == blockB)
+            return defPos[a.id] <= defPos[b.id];
+        return dominates(blockA, blockB);
+    }
+
+    /**
+     * Replaces each variable with the representative of its congruence class.
+     * Phi defs and inputs are in the same class, so the phis can simply be removed.
+     */
+    private void renameAndRemovePhis() {
+        for (BasicBlock block : allBlocks) {
+            block.instructions.removeIf(instruction -> instruction instanceof Instruction.Phi);
+            for (Instruction instruction : block.instructions) {
+                if (instruction instanceof Instruction.ParallelCopyInstruction pcopy) {
+                    for (int i = 0; i < pcopy.destOperands.size(); i++) {
+                        var dest = pcopy.destOperands.get(i);
+                        pcopy.destOperands.set(i, dest.copy(representative(dest.reg)));
+                        if (pcopy.sourceOperands.get(i) instanceof Operand.RegisterOperand source)
+                            pcopy.sourceOperands.set(i, source.copy(representative(source.reg)));
+                    }
+                }
+                else {
+                    if (instruction.definesVar())
+                        instruction.replaceDef(representative(instruction.def()));
+                    for (Register use : instruction.uses())
+                        instruction.replaceUse(use, representative(use));
+                }
+            }
+        }
+    }
+
+    private Register representative(Register reg) {
+        if (reg.id >= numRegisters)
+            return reg;
+        return function.registerPool.getReg(find(reg.id));
+    }
+
+    static final class Copy {
+        final Register source;
+        final Register dest;
+        final int depth;
+        Copy(Register source, Register dest, int depth) {
+            this.source = source;
+            this.dest = dest;
+            this.depth = depth;
+        }
+    }
+}
@@ -39,8 +39,7 @@ public class ExitSSABoissinotNoCoalesce {
     List<BasicBlock> allBlocks;
 
     public ExitSSABoissinotNoCoalesce(CompiledFunction function, EnumSet<Options> options) {
-        this.function = function;
-        allBlocks = function.getBlocks();
+        this(function);
         init();
         makeConventionalSSA();
         if (options.contains(Options.DUMP_SSA_TO_CSSA)) function.dumpIR(false, "After converting from SSA to CSSA");
@@ -48,10 +47,17 @@ public class ExitSSABoissinotNoCoalesce {
         if (options.contains(Options.DUMP_CSSA_PHI_REMOVAL)) function.dumpIR(false, "After removing phis from CSSA");
         sequenceParallelCopies();
         function.isSSA = false;
+        // Copies are inserted in existing blocks, no edges are split
+        function.analyses.preserve(Analysis.CFG);
         if (options.contains(Options.DUMP_POST_SSA_IR)) function.dumpIR(false, "After exiting SSA (Boissinot method)");
     }
 
-    private void init() {
+    protected ExitSSABoissinotNoCoalesce(CompiledFunction function) {
+        this.function = function;
+        allBlocks = function.getBlocks();
+    }
+
+    void init() {
         // We do not actually insert parallel copy instruction until needed
         // but we create an auxiliary data structure to help us track these
         for (BasicBlock block: allBlocks) {
@@ -106,7 +112,7 @@ public class ExitSSABoissinotNoCoalesce {
      * This is Phase 1 as described in Engineering a Compiler 3rd Edition, p490.
      * It is also described as method 1 by Sreedhar, and explained in detail by Boissinot.
      */
-    private void makeConventionalSSA() {
+    void makeConventionalSSA() {
         var blocks = function.getBlocks();
         for (BasicBlock block: blocks) {
             var phis = block.phis();
@@ -135,7 +141,7 @@ public class ExitSSABoissinotNoCoalesce {
     /**
      * Phase 2 in Engineering a Compiler
      */
-    private void removePhis() {
+    void removePhis() {
         var blocks = function.getBlocks();
         for (BasicBlock block: blocks) {
             var phis = block.phis();
@@ -158,7 +164,7 @@ public class ExitSSABoissinotNoCoalesce {
     /**
      * Phase 3 in Engineering a Compiler.
      */
-    private void sequenceParallelCopies() {
+    void sequenceParallelCopies() {
         for (var block: function.getBlocks()) {
             var pcopy = parallelCopies.get(block);
             if (pcopy.pCopyBegin != null)
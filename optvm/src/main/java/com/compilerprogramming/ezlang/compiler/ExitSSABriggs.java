@@ -20,9 +20,9 @@ public class ExitSSABriggs {
     public ExitSSABriggs(CompiledFunction function, EnumSet<Options> options) {
         this.function = function;
         if (!function.isSSA) throw new IllegalStateException();
-        function.livenessAnalysis();
+        function.analyses.liveness();
         if (options.contains(Options.DUMP_SSA_LIVENESS)) function.dumpIR(true, "SSA Liveness Analysis");
-        tree = new DominatorTree(function.entry);
+        tree = function.analyses.dominatorTree();
         if (options.contains(Options.DUMP_SSA_DOMTREE)) {
             System.out.println("Pre SSA Dominator Tree");
             System.out.println(tree.generateDotOutput());
@@ -31,6 +31,8 @@ public class ExitSSABriggs {
         insertCopies(function.entry);
         removePhis();
         function.isSSA = false;
+        // Copies are inserted in existing blocks, no edges are split
+        function.analyses.preserve(Analysis.CFG);
         if (options.contains(Options.DUMP_POST_SSA_IR)) function.dumpIR(false, "After exiting SSA");
     }
 
@@ -0,0 +1,312 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import java.util.*;
+
+/**
+ * Dominator based value numbering (DVNT) over SSA form.
+ *
+ * We walk the dominator tree, keeping a scoped table of the expressions
+ * available on entry to each block. An expression computed in a block
+ * is available in all the blocks it dominates. When an instruction computes
+ * an expression that is already available, the instruction is removed and all
+ * uses of its def are replaced by the register that holds the available value.
+ *
+ * Each register has a leader, the register that represents its value number.
+ * Copies are folded, so that the def of a move has the same leader as its source.
+ * Phis whose inputs all have the same leader are meaningless and are removed,
+ * as are phis that are identical to an earlier phi in the same block.
+ *
+ * Loads (GetField, ArrayLoad) are numbered together with a memory epoch.
+ * A new epoch starts at each store and call, and at the entry of every block
+ * that is not a sole successor of its immediate dominator, so that a load
+ * is only reused if there can be no intervening store. A store also makes
+ * its stored value available to subsequent loads of the same location.
+ *
+ * Preston Briggs, Keith D. Cooper, L. Taylor Simpson.
+ * Value Numbering. Software - Practice and Experience, 1997.
+ */
+public class GlobalValueNumbering {
+
+    private final CompiledFunction function;
+    private Map<Register, SSAEdges.SSADef> ssaDefUse;
+    /**
+     * Leader register for each register, indexed by register id
+     */
+    private Register[] leaders;
+    /**
+     * Expressions available in the current scope
+     */
+    private final Map<Expression, Register> available = new HashMap<>();
+    private int epochs = 0;
+    /**
+     * Number of instructions removed
+     */
+    public int eliminated = 0;
+
+    public GlobalValueNumbering(CompiledFunction function) {
+        this.function = function;
+    }
+
+    public boolean apply(EnumSet<Options> options) {
+        if (options.contains(Options.GVN)) {
+            eliminated = 0;
+            function.analyses.dominatorTree(); // We walk the dominator tree
+            ssaDefUse = SSAEdges.buildDefUseChains(function);
+            leaders = new Register[function.registerPool.numRegisters()];
+            walkBlock(function.entry, epochs++);
+            if (eliminated > 0)
+                // Instructions are removed but CFG is unchanged
+                function.analyses.preserve(Analysis.CFG);
+            if (options.contains(Options.DUMP_GVN_POSTAPPLY)) function.dumpIR(false, "Post GVN");
+        }
+        return eliminated > 0;
+    }
+
+    private void walkBlock(BasicBlock block, int memory) {
+        List<Expression> scope = new ArrayList<>();
+        Iterator<Instruction> iter = block.instructions.iterator();
+        while (iter.hasNext()) {
+            Instruction instruction = iter.next();
+            if (instruction instanceof Instruction.Call) {
+                // Calls may update any struct or array
+                memory = epochs++;
+                continue;
+            }
+            if (instruction instanceof Instruction.SetField setField) {
+                memory = epochs++;
+                if (setField.sourceOperand() instanceof Operand.RegisterOperand source)
+                    makeAvailable(scope, new Expression(Instruction.I_FIELD_GET, null, operandKey(setField.structOperand()), setField.fieldIndex, memory), leader(source.reg));
+                continue;
+            }
+            if (instruction instanceof Instruction.ArrayStore arrayStore) {
+                memory = epochs++;
+                Object index = operandKey(arrayStore.indexOperand());
+                if (arrayStore.sourceOperand() instanceof Operand.RegisterOperand source && index != null)
+                    makeAvailable(scope, new Expression(Instruction.I_ARRAY_LOAD, null, operandKey(arrayStore.arrayOperand()), index, memory), leader(source.reg));
+                continue;
+            }
+            Register def;
+            Register value;
+            if (instruction instanceof Instruction.Phi phi) {
+                def = phi.value();
+                value = numberPhi(scope, phi);
+            }
+            else if (instruction.definesVar()) {
+                def = instruction.def();
+                value = numberInstruction(scope, instruction, def, memory);
+            }
+            else
+                continue;
+            if (value != def) {
+                leaders[def.id] = value;
+                replaceAllUses(instruction, def, value);
+                iter.remove();
+                eliminated++;
+            }
+        }
+        for (BasicBlock c : block.dominatedChildren) {
+            // If the child can only be reached from the end of this block
+            // then the memory state at its entry is the same
+            boolean soleSuccessor = c.predecessors.size() == 1 && c.predecessors.get(0) == block;
+            walkBlock(c, soleSuccessor ? memory : epochs++);
+        }
+        for (Expression e: scope)
+            available.remove(e);
+    }
+
+    /**
+     * Returns the register that holds the value computed by the phi,
+     * which is the phi's own def unless the phi is redundant.
+     */
+    private Register numberPhi(List<Expression> scope, Instruction.Phi phi) {
+        Register def = phi.value();
+        Register same = null;
+        boolean meaningless = true;
+        Object[] inputs = new Object[phi.numInputs()];
+        for (int i = 0; i < phi.numInputs(); i++) {
+            if (!phi.isRegisterInput(i))
+                return def;
+            Register input = leader(phi.inputAsRegister(i));
+            inputs[i] = input;
+            if (input == def) continue;     // self reference via back edge
+            if (same == null) same = input;
+            else if (same != input) meaningless = false;
+        }
+        if (meaningless && same != null)
+            return same;
+        // Phis in different blocks are not equivalent, as they select on different edges
+        return lookup(scope, new Expression(Instruction.I_PHI, phi.block, Arrays.asList(inputs), null, 0), def);
+    }
+
+    /**
+     * Returns the register that holds the value computed by the instruction,
+     * which is the instruction's def unless the value is already available.
+     */
+    private Register numberInstruction(List<Expression> scope, Instruction instruction, Register def, int memory) {
+        switch (instruction) {
+            case Instruction.Move move -> {
+                if (move.from() instanceof Operand.RegisterOperand from)
+                    return leader(from.reg);
+                Object constant = operandKey(move.from());
+                if (constant != null)
+                    return lookup(scope, new Expression(Instruction.I_MOVE, null, constant, null, 0), def);
+            }
+            case Instruction.Unary unary -> {
+                Object operand = operandKey(unary.operand());
+                if (operand != null)
+                    return lookup(scope, new Expression(Instruction.I_UNARY, unary.unop, operand, null, 0), def);
+            }
+            case Instruction.Binary binary -> {
+                Object left = operandKey(binary.left());
+                Object right = operandKey(binary.right());
+                if (left != null && right != null) {
+                    if (isCommutative(binary.binOp) && compareKeys(left, right) > 0) {
+                        Object temp = left;
+                        left = right;
+                        right = temp;
+                    }
+                    return lookup(scope, new Expression(Instruction.I_BINARY, binary.binOp, left, right, 0), def);
+                }
+            }
+            case Instruction.GetField getField -> {
+                Object struct = operandKey(getField.structOperand());
+                if (struct != null)
+                    return lookup(scope, new Expression(Instruction.I_FIELD_GET, null, struct, getField.fieldIndex, memory), def);
+            }
+            case Instruction.ArrayLoad arrayLoad -> {
+                Object array = operandKey(arrayLoad.arrayOperand());
+                Object index = operandKey(arrayLoad.indexOperand());
+                if (array != null && index != null)
+                    return lookup(scope, new Expression(Instruction.I_ARRAY_LOAD, null, array, index, memory), def);
+            }
+            default -> {}
+        }
+        return def;
+    }
+
+    private Register lookup(List<Expression> scope, Expression e, Register def) {
+        Register value = available.get(e);
+        if (value != null)
+            return value;
+        makeAvailable(scope, e, def);
+        return def;
+    }
+
+    private void makeAvailable(List<Expression> scope, Expression e, Register value) {
+        if (available.put(e, value) == null)
+            scope.add(e);
+    }
+
+    private Register leader(Register register) {
+        Register leader = leaders[register.id];
+        return leader != null ? leader : register;
+    }
+
+    /**
+     * Operand as used in an expression key, registers are replaced by their leaders.
+     * Returns null if the operand cannot be numbered.
+     */
+    private Object operandKey(Operand operand) {
+        if (operand instanceof Operand.RegisterOperand registerOperand)
+            return leader(registerOperand.reg);
+        else if (operand instanceof Operand.ConstantOperand constantOperand)
+            return constantOperand.value;
+        else if (operand instanceof Operand.NullConstantOperand)
+            return NULL;
+        return null;
+    }
+
+    private static final Object NULL = new Object();
+
+    private static boolean isCommutative(String binOp) {
+        return switch (binOp) {
+            case "+", "*", "==", "!=" -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Orders registers before constants before null,
+     * so that operands of commutative operators have a canonical order
+     */
+    private static int compareKeys(Object a, Object b) {
+        int rankA = rank(a), rankB = rank(b);
+        if (rankA != rankB)
+            return Integer.compare(rankA, rankB);
+        if (a instanceof Register ra)
+            return Integer.compare(ra.id, ((Register) b).id);
+        if (a instanceof Long la)
+            return Long.compare(la, (Long) b);
+        return 0;
+    }
+
+    private static int rank(Object key) {
+        if (key instanceof Register) return 0;
+        if (key instanceof Long) return 1;
+        return 2;
+    }
+
+    /**
+     * Replace all uses of the def of the removed instruction with the value,
+     * updating the SSA def use chains.
+     */
+    private void replaceAllUses(Instruction removed, Register def, Register value) {
+        var valueDef = ssaDefUse.get(value);
+        for (Instruction use: ssaDefUse.get(def).useList) {
+            if (use instanceof Instruction.Phi phi)
+                phi.replaceInput(def, value);
+            else
+                use.replaceUse(def, value);
+            valueDef.addUse(use);
+        }
+        ssaDefUse.remove(def);
+        // The removed instruction no longer uses its inputs
+        List<Register> uses = removed instanceof Instruction.Phi phi ? List.of(phi.inputRegisters()) : removed.uses();
+        for (Register use: uses) {
+            var useDef = ssaDefUse.get(use);
+            if (useDef != null)
+                useDef.useList.remove(removed);
+        }
+    }
+
+    /**
+     * The key used to look up available expressions
+     */
+    static final class Expression {
+        final int opcode;
+        /**
+         * Operator, or for phis the block
+         */
+        final Object op;
+        final Object left;
+        final Object right;
+        /**
+         * Memory epoch for loads, 0 otherwise
+         */
+        final int memory;
+
+        Expression(int opcode, Object op, Object left, Object right, int memory) {
+            this.opcode = opcode;
+            this.op = op;
+            this.left = left;
+            this.right = right;
+            this.memory = memory;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Expression that)) return false;
+            return opcode == that.opcode
+                    && memory == that.memory
+                    && Objects.equals(op, that.op)
+                    && Objects.equals(left, that.left)
+                    && Objects.equals(right, that.right);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(opcode, op, left, right, memory);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import java.util.*;
+
+/**
+ * Finds the basic induction variables of a loop over SSA form.
+ *
+ * A basic induction variable is a phi at the loop head that takes an initial
+ * value on entry to the loop, and is incremented by a constant step around
+ * the loop. We only consider loops whose head has exactly two predecessors,
+ * one outside the loop that enters it, and one inside the loop, the latch.
+ * Copies are looked through, so that the increment may be computed into
+ * a temporary that is then moved into the variable.
+ *
+ * Michael Wolfe. Beyond Induction Variables. PLDI 1992.
+ */
+public class InductionVariables {
+
+    /**
+     * A phi of the form i = phi(init, i + step)
+     */
+    public static final class BasicIV {
+        public final Instruction.Phi phi;
+        /**
+         * Value on entry to the loop, or the value it is a copy of
+         */
+        public final Operand init;
+        /**
+         * Constant added on each iteration
+         */
+        public final long step;
+        /**
+         * The instruction that computes i + step
+         */
+        public final Instruction.Binary increment;
+
+        BasicIV(Instruction.Phi phi, Operand init, long step, Instruction.Binary increment) {
+            this.phi = phi;
+            this.init = init;
+            this.step = step;
+            this.increment = increment;
+        }
+
+        public Register reg() { return phi.value(); }
+    }
+
+    public final LoopNest loop;
+    /**
+     * The only predecessor of the loop head outside the loop
+     */
+    public final BasicBlock entering;
+    /**
+     * The only predecessor of the loop head inside the loop
+     */
+    public final BasicBlock latch;
+    public final List<BasicIV> basicIVs = new ArrayList<>();
+    private final Map<Register, SSAEdges.SSADef> ssaDefUse;
+
+    private InductionVariables(LoopNest loop, BasicBlock entering, BasicBlock latch, Map<Register, SSAEdges.SSADef> ssaDefUse) {
+        this.loop = loop;
+        this.entering = entering;
+        this.latch = latch;
+        this.ssaDefUse = ssaDefUse;
+    }
+
+    /**
+     * Returns the induction variables of the loop,
+     * or null if the loop does not have the required shape
+     */
+    public static InductionVariables find(LoopNest loop, Map<Register, SSAEdges.SSADef> ssaDefUse) {
+        BasicBlock head = loop._loopHead;
+        if (head.predecessors.size() != 2)
+            return null;
+        BasicBlock entering = null;
+        BasicBlock latch = null;
+        for (BasicBlock pred : head.predecessors) {
+            if (loop._blocks.contains(pred))
+                latch = pred;
+            else
+                entering = pred;
+        }
+        if (entering == null || latch == null)
+            return null;
+        var ivs = new InductionVariables(loop, entering, latch, ssaDefUse);
+        for (Instruction.Phi phi : head.phis()) {
+            Operand init = ivs.value(phi.input(head.whichPred(entering)));
+            Operand next = ivs.value(phi.input(head.whichPred(latch)));
+            if (!(next instanceof Operand.RegisterOperand nextReg))
+                continue;
+            SSAEdges.SSADef def = ssaDefUse.get(nextReg.reg);
+            if (def == null || !(def.instruction instanceof Instruction.Binary binary))
+                continue;
+            Operand left = ivs.value(binary.left());
+            Operand right = ivs.value(binary.right());
+            Long step = null;
+            if (binary.binOp.equals("+")) {
+                if (isReg(left, phi.value()) && right instanceof Operand.ConstantOperand constant)
+                    step = constant.value;
+                else if (isReg(right, phi.value()) && left instanceof Operand.ConstantOperand constant)
+                    step = constant.value;
+            }
+            else if (binary.binOp.equals("-")) {
+                if (isReg(left, phi.value()) && right instanceof Operand.ConstantOperand constant)
+                    step = -constant.value;
+            }
+            if (step != null)
+                ivs.basicIVs.add(new BasicIV(phi, init, step, binary));
+        }
+        return ivs;
+    }
+
+    /**
+     * Returns the basic induction variable that the operand is a copy of, or null
+     */
+    public BasicIV basicIV(Operand operand) {
+        operand = value(operand);
+        for (BasicIV iv : basicIVs) {
+            if (isReg(operand, iv.reg()))
+                return iv;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the operand that the given operand is a copy of
+     */
+    public Operand value(Operand operand) {
+        Set<Register> visited = new HashSet<>();
+        while (operand instanceof Operand.RegisterOperand reg && visited.add(reg.reg)) {
+            SSAEdges.SSADef def = ssaDefUse.get(reg.reg);
+            if (def == null || !(def.instruction instanceof Instruction.Move move))
+                break;
+            operand = move.from();
+        }
+        return operand;
+    }
+
+    static boolean isReg(Operand operand, Register reg) {
+        return operand instanceof Operand.RegisterOperand registerOperand && registerOperand.reg.id == reg.id;
+    }
+}
@@ -0,0 +1,210 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import java.util.*;
+
+/**
+ * Replaces calls to small functions with a copy of the callee's body.
+ *
+ * Inlining runs on the initial IR, before EnterSSA, so that SCCP can
+ * fold constant arguments in the inlined code. At a call site the caller's
+ * block is split after the call; the callee's blocks are copied into the caller
+ * with fresh registers from the caller's register pool. The callee's args become
+ * moves from the call's arguments, each return becomes a move to the call's
+ * result, and the jumps to the callee's exit block go to the split off block,
+ * which thus acts as the join block for all the returns.
+ *
+ * Functions are processed bottom up on the call graph, so that a callee
+ * has already had its own calls inlined when it is copied into its callers.
+ * Recursive calls are not inlined.
+ *
+ * Functions that are already in SSA form (incremental SSA) are left alone.
+ */
+public class Inliner {
+
+    /**
+     * Callees with more instructions than this are not inlined
+     */
+    public int maxCalleeSize = 40;
+    /**
+     * Stop inlining into a function once it has grown to this many instructions
+     */
+    public int maxCallerSize = 1000;
+    /**
+     * Number of call sites inlined
+     */
+    public int inlined = 0;
+
+    public void inline(List<CompiledFunction> functions, EnumSet<Options> options) {
+        if (!options.contains(Options.INLINE))
+            return;
+        Set<CompiledFunction> visited = new HashSet<>();
+        for (CompiledFunction function : functions)
+            inlineBottomUp(function, visited);
+        for (CompiledFunction function : functions) {
+            if (options.contains(Options.DUMP_POST_INLINE_IR)) function.dumpIR(false, "Post Inline IR");
+        }
+    }
+
+    private void inlineBottomUp(CompiledFunction function, Set<CompiledFunction> visited) {
+        if (!visited.add(function))
+            return;
+        for (Instruction.Call call : findCalls(function)) {
+            if (call.callee.code instanceof CompiledFunction callee)
+                inlineBottomUp(callee, visited);
+        }
+        inlineCalls(function);
+    }
+
+    static List<Instruction.Call> findCalls(CompiledFunction function) {
+        List<Instruction.Call> calls = new ArrayList<>();
+        for (BasicBlock block : function.getBlocks()) {
+            for (Instruction instruction : block.instructions) {
+                if (instruction instanceof Instruction.Call call)
+                    calls.add(call);
+            }
+        }
+        return calls;
+    }
+
+    static int size(CompiledFunction function) {
+        int size = 0;
+        for (BasicBlock block : function.getBlocks())
+            size += block.instructions.size();
+        return size;
+    }
+
+    private void inlineCalls(CompiledFunction function) {
+        if (function.isSSA)
+            return;
+        int callerSize = size(function);
+        boolean changed = false;
+        for (Instruction.Call call : findCalls(function)) {
+            if (!(call.callee.code instanceof CompiledFunction callee)
+                    || callee == function
+                    || callee.isSSA)
+                continue;
+            int calleeSize = size(callee);
+            if (calleeSize > maxCalleeSize || callerSize + calleeSize > maxCallerSize)
+                continue;
+            inlineCall(function, call, callee);
+            callerSize += calleeSize;
+            changed = true;
+            inlined++;
+        }
+        if (changed) {
+            function.setFrameSize(function.registerPool.numRegisters());
+            function.analyses.invalidateAll();
+        }
+    }
+
+    private void inlineCall(CompiledFunction caller, Instruction.Call call, CompiledFunction callee) {
+        BasicBlock callBlock = call.block;
+        int pos = callBlock.instructions.indexOf(call);
+        // Split the block after the call, the new block is where
+        // the inlined returns will join
+        BasicBlock join = caller.createBlock();
+        var tail = callBlock.instructions.subList(pos+1, callBlock.instructions.size());
+        for (Instruction instruction : tail)
+            join.add(instruction);
+        tail.clear();
+        callBlock.instructions.remove(pos);
+        for (BasicBlock succ : callBlock.successors) {
+            succ.predecessors.set(succ.whichPred(callBlock), join);
+            join.successors.add(succ);
+        }
+        callBlock.successors.clear();
+
+        Map<Register, Register> registers = new HashMap<>();
+        Map<BasicBlock, BasicBlock> blocks = new HashMap<>();
+        for (BasicBlock block : callee.getBlocks())
+            blocks.put(block, block == callee.exit ? join : caller.createBlock(block.loopHead));
+        int arg = 0;
+        for (BasicBlock block : callee.getBlocks()) {
+            if (block == callee.exit)
+                continue;
+            BasicBlock copy = blocks.get(block);
+            for (Instruction instruction : block.instructions) {
+                if (instruction instanceof Instruction.ArgInstruction argInst)
+                    copy.add(new Instruction.Move(call.args()[arg++], rename(caller, registers, argInst.arg())));
+                else if (instruction instanceof Instruction.Ret ret) {
+                    if (ret.value() != null && call.returnOperand() != null)
+                        copy.add(new Instruction.Move(rename(caller, registers, ret.value()), call.returnOperand()));
+                }
+                else
+                    copy.add(copy(caller, registers, blocks, instruction));
+            }
+            for (BasicBlock succ : block.successors)
+                copy.addSuccessor(blocks.get(succ));
+        }
+        BasicBlock calleeEntry = blocks.get(callee.entry);
+        callBlock.add(new Instruction.Jump(calleeEntry));
+        callBlock.addSuccessor(calleeEntry);
+    }
+
+    static Register rename(CompiledFunction caller, Map<Register, Register> registers, Register reg) {
+        Register newReg = registers.get(reg);
+        if (newReg == null) {
+            newReg = caller.registerPool.newTempReg(reg.name(), reg.type);
+            registers.put(reg, newReg);
+        }
+        return newReg;
+    }
+
+    static Operand.RegisterOperand rename(CompiledFunction caller, Map<Register, Register> registers, Operand.RegisterOperand operand) {
+        return operand.copy(rename(caller, registers, operand.reg));
+    }
+
+    static Operand rename(CompiledFunction caller, Map<Register, Register> registers, Operand operand) {
+        if (operand instanceof Operand.RegisterOperand registerOperand)
+            return rename(caller, registers, registerOperand);
+        // Constants are immutable so can be shared
+        return operand;
+    }
+
+    static Instruction copy(CompiledFunction caller, Map<Register, Register> registers, Map<BasicBlock, BasicBlock> blocks, Instruction instruction) {
+        return switch (instruction) {
+            case Instruction.Move move -> new Instruction.Move(rename(caller, registers, move.from()), rename(caller, registers, move.to()));
+            case Instruction.Unary unary -> new Instruction.Unary(unary.unop, rename(caller, registers, unary.result()), rename(caller, registers, unary.operand()));
+            case Instruction.Binary binary -> new Instruction.Binary(binary.binOp, rename(caller, registers, binary.result()), rename(caller, registers, binary.left()), rename(caller, registers, binary.right()));
+            case Instruction.NewArray newArray -> {
+                var dest = rename(caller, registers, newArray.destOperand());
+                if (newArray.initValue() != null)
+                    yield new Instruction.NewArray(newArray.type, dest, rename(caller, registers, newArray.len()), rename(caller, registers, newArray.initValue()));
+                else if (newArray.len() != null)
+                    yield new Instruction.NewArray(newArray.type, dest, rename(caller, registers, newArray.len()));
+                else
+                    yield new Instruction.NewArray(newArray.type, dest);
+            }
+            case Instruction.NewStruct newStruct -> new Instruction.NewStruct(newStruct.type, rename(caller, registers, newStruct.destOperand()));
+            case Instruction.ArrayLoad arrayLoad -> new Instruction.ArrayLoad(
+                    new Operand.LoadIndexedOperand(rename(caller, registers, arrayLoad.arrayOperand()), rename(caller, registers, arrayLoad.indexOperand())),
+                    rename(caller, registers, arrayLoad.destOperand()));
+            case Instruction.ArrayStore arrayStore -> new Instruction.ArrayStore(
+                    rename(caller, registers, arrayStore.sourceOperand()),
+                    new Operand.LoadIndexedOperand(rename(caller, registers, arrayStore.arrayOperand()), rename(caller, registers, arrayStore.indexOperand())));
+            case Instruction.GetField getField -> new Instruction.GetField(
+                    new Operand.LoadFieldOperand(rename(caller, registers, getField.structOperand()), getField.fieldName, getField.fieldIndex),
+                    rename(caller, registers, getField.destOperand()));
+            case Instruction.SetField setField -> new Instruction.SetField(
+                    rename(caller, registers, setField.sourceOperand()),
+                    new Operand.LoadFieldOperand(rename(caller, registers, setField.structOperand()), setField.fieldName, setField.fieldIndex));
+            case Instruction.NullCheck nullCheck -> new Instruction.NullCheck(rename(caller, registers, nullCheck.refOperand()));
+            case Instruction.BoundsCheck boundsCheck -> new Instruction.BoundsCheck(
+                    rename(caller, registers, boundsCheck.arrayOperand()),
+                    rename(caller, registers, boundsCheck.indexOperand()),
+                    boundsCheck.append);
+            case Instruction.Call call -> {
+                Operand.RegisterOperand[] args = new Operand.RegisterOperand[call.args().length];
+                for (int i = 0; i < args.length; i++)
+                    args[i] = rename(caller, registers, (Operand.RegisterOperand) call.args()[i]);
+                yield new Instruction.Call(call.newbase, call.returnOperand() != null ? rename(caller, registers, call.returnOperand()) : null, call.callee, args);
+            }
+            case Instruction.Jump jump -> new Instruction.Jump(blocks.get(jump.jumpTo));
+            case Instruction.ConditionalBranch cbr -> {
+                BasicBlock block = blocks.get(cbr.block);
+                yield new Instruction.ConditionalBranch(block, rename(caller, registers, cbr.condition()), blocks.get(cbr.trueBlock), blocks.get(cbr.falseBlock));
+            }
+            default -> throw new IllegalStateException("Unexpected instruction in inlined function: " + instruction);
+        };
+    }
+}
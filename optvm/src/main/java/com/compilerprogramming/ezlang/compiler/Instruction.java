@@ -26,6 +26,8 @@ public abstract class Instruction {
     static final int I_FIELD_GET = 14;
     static final int I_FIELD_SET = 15;
     static final int I_PARALLEL_COPY = 16;
+    static final int I_NULL_CHECK = 17;
+    static final int I_BOUNDS_CHECK = 18;
 
     public final int opcode;
     protected Operand.RegisterOperand def;
@@ -263,6 +265,48 @@ public abstract class Instruction {
                     .append(sourceOperand());
         }
     }
+    /**
+     * Traps if the reference is null. Inserted before field and array
+     * accesses when checks are explicit, so that optimizations can
+     * remove the ones that are redundant.
+     */
+    public static class NullCheck extends Instruction {
+        public NullCheck(Operand ref) {
+            super(I_NULL_CHECK, (Operand.RegisterOperand) null, ref);
+        }
+        public Operand refOperand() { return uses[0]; }
+        @Override
+        public StringBuilder toStr(StringBuilder sb) {
+            return sb.append("nullcheck ").append(refOperand());
+        }
+    }
+
+    /**
+     * Traps if the index is out of the bounds of the array. Stores
+     * may append to an array, so for a store the index may also be
+     * equal to the length of the array.
+     */
+    public static class BoundsCheck extends Instruction {
+        public final boolean append;
+        public BoundsCheck(Operand array, Operand index, boolean append) {
+            super(I_BOUNDS_CHECK, (Operand.RegisterOperand) null, array, index);
+            this.append = append;
+        }
+        public Operand arrayOperand() { return uses[0]; }
+        public Operand indexOperand() { return uses[1]; }
+        @Override
+        public StringBuilder toStr(StringBuilder sb) {
+            sb.append("boundscheck ")
+                    .append(arrayOperand())
+                    .append("[")
+                    .append(indexOperand())
+                    .append("]");
+            if (append)
+                sb.append(", append");
+            return sb;
+        }
+    }
+
     public static class Ret extends Instruction {
         public Ret(Operand value) {
             super(I_RET, (Operand.RegisterOperand) null, value);
@@ -327,6 +371,11 @@ public abstract class Instruction {
     public static class Call extends Instruction {
         public final EZType.EZTypeFunction callee;
         public final int newbase;
+        /**
+         * Set when compilation is done if the call is in tail position,
+         * the callee then reuses the caller's frame
+         */
+        public boolean tailCall;
         public Call(int newbase, Operand.RegisterOperand returnOperand, EZType.EZTypeFunction callee, Operand.RegisterOperand... args) {
             super(I_CALL, returnOperand, args);
             this.callee = callee;
@@ -447,9 +496,12 @@ public abstract class Instruction {
             return sb;
         }
         public void addInput(Register register) {
+            addInput(new Operand.RegisterOperand(register));
+        }
+        public void addInput(Operand operand) {
             var newUses = new Operand[uses.length + 1];
             System.arraycopy(uses, 0, newUses, 0, uses.length);
-            newUses[newUses.length-1] = new Operand.RegisterOperand(register);
+            newUses[newUses.length-1] = operand;
             this.uses = newUses;
         }
         public boolean replaceInput(Register oldReg, Register newReg) {
@@ -5,7 +5,7 @@ public class InterferenceGraphBuilder {
     public InterferenceGraph build(CompiledFunction function) {
         InterferenceGraph graph = new InterferenceGraph();
         // Calculate liveOut for all basic blocks
-        function.livenessAnalysis();
+        function.analyses.liveness();
         System.out.println(function.toStr(new StringBuilder(), true));
         var blocks = BBHelper.findAllBlocks(function.entry);
         for (var b : blocks) {
@@ -0,0 +1,240 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.types.EZType;
+
+import java.util.*;
+
+/**
+ * Propagates constants across calls.
+ *
+ * Every function may be called from outside the program, so we cannot assume
+ * anything about the values of its args. Instead, when a call site passes
+ * constant args, we clone the callee specialized for those constants. The clone
+ * drops the constant params, and its args become moves of the constants, so that
+ * SCCP folds them in the clone. Call sites that pass the same constants share a
+ * clone. Clones are made on the initial IR, after inlining and before EnterSSA,
+ * and an arg is a constant if the last def of its register before the call, in
+ * the same block, is a move of a constant. Clones are not specialized further.
+ *
+ * Return values are propagated the other way: after a function is optimized,
+ * if all of its returns return the same constant, calls to it are given that
+ * value by SCCP. The call itself is kept as it may have side effects. For this
+ * to be useful functions are optimized bottom up on the call graph. Within a
+ * cycle of recursive calls, the first function optimized sees calls to the others
+ * as varying, so the result is conservative.
+ *
+ * David Callahan, Keith D. Cooper, Ken Kennedy, Linda Torczon.
+ * Interprocedural Constant Propagation. SIGPLAN 1986.
+ */
+public class InterproceduralConstantPropagation {
+
+    /**
+     * Maximum number of specialized clones of a function,
+     * 0 disables cloning
+     */
+    public int maxClonesPerFunction = 4;
+    /**
+     * Functions with more instructions than this are not cloned
+     */
+    public int maxCloneSize = 500;
+    /**
+     * Number of clones created
+     */
+    public int clones = 0;
+    /**
+     * Number of call sites redirected to a clone
+     */
+    public int specializedCalls = 0;
+    /**
+     * Known constant return value of each function
+     */
+    private final Map<EZType.EZTypeFunction, Long> returnValues = new HashMap<>();
+
+    /**
+     * Redirects calls with constant args to specialized clones.
+     * Returns the clones created, which must be compiled along with
+     * the other functions.
+     */
+    public List<CompiledFunction> specialize(List<CompiledFunction> functions, EnumSet<Options> options) {
+        List<CompiledFunction> created = new ArrayList<>();
+        if (!options.contains(Options.IPCP) || maxClonesPerFunction <= 0)
+            return created;
+        Map<CompiledFunction, Map<List<Long>, CompiledFunction>> clonesByCallee = new HashMap<>();
+        for (CompiledFunction function : functions) {
+            if (function.isSSA)
+                continue;
+            for (Instruction.Call call : Inliner.findCalls(function)) {
+                if (!(call.callee.code instanceof CompiledFunction callee)
+                        || callee.isSSA
+                        || Inliner.size(callee) > maxCloneSize)
+                    continue;
+                List<Long> constants = constantArgs(call);
+                if (constants == null)
+                    continue;
+                var calleeClones = clonesByCallee.computeIfAbsent(callee, f -> new LinkedHashMap<>());
+                CompiledFunction clone = calleeClones.get(constants);
+                if (clone == null) {
+                    if (calleeClones.size() >= maxClonesPerFunction)
+                        continue;
+                    clone = cloneFunction(callee, constants, calleeClones.size()+1);
+                    calleeClones.put(constants, clone);
+                    created.add(clone);
+                    clones++;
+                }
+                redirect(call, clone, constants);
+                specializedCalls++;
+            }
+        }
+        if (options.contains(Options.DUMP_POST_IPCP_IR)) {
+            for (CompiledFunction function : functions)
+                function.dumpIR(false, "Post IPCP IR");
+            for (CompiledFunction function : created)
+                function.dumpIR(false, "Post IPCP IR");
+        }
+        return created;
+    }
+
+    /**
+     * Returns the value of each arg of the call, null where the arg is not
+     * a constant, or null if none of the args are constants.
+     */
+    private static List<Long> constantArgs(Instruction.Call call) {
+        BasicBlock block = call.block;
+        int pos = block.instructions.indexOf(call);
+        List<Long> constants = new ArrayList<>();
+        boolean found = false;
+        for (Operand arg : call.args()) {
+            Long value = null;
+            if (arg instanceof Operand.RegisterOperand registerOperand) {
+                for (int i = pos-1; i >= 0; i--) {
+                    Instruction instruction = block.instructions.get(i);
+                    if (instruction.definesVar() && instruction.def().id == registerOperand.reg.id) {
+                        if (instruction instanceof Instruction.Move move
+                                && move.from() instanceof Operand.ConstantOperand constant)
+                            value = constant.value;
+                        break;
+                    }
+                }
+            }
+            if (value != null)
+                found = true;
+            constants.add(value);
+        }
+        return found ? constants : null;
+    }
+
+    private static CompiledFunction cloneFunction(CompiledFunction callee, List<Long> constants, int number) {
+        var calleeType = callee.functionType;
+        var cloneType = new EZType.EZTypeFunction(calleeType.name() + "$" + number);
+        for (int i = 0; i < calleeType.args.size(); i++) {
+            if (constants.get(i) == null)
+                cloneType.addArg(calleeType.args.get(i));
+        }
+        cloneType.setReturnType(calleeType.returnType);
+        var clone = new CompiledFunction(cloneType, callee.typeDictionary);
+        cloneType.code = clone;
+
+        Map<Register, Register> registers = new HashMap<>();
+        Map<BasicBlock, BasicBlock> blocks = new HashMap<>();
+        for (BasicBlock block : callee.getBlocks()) {
+            if (block == callee.entry)
+                blocks.put(block, clone.entry);
+            else if (block == callee.exit)
+                blocks.put(block, clone.exit);
+            else
+                blocks.put(block, clone.createBlock(block.loopHead));
+        }
+        // The remaining args are assigned the first frame slots, so their
+        // registers are created first, in order
+        int arg = 0;
+        for (Instruction instruction : callee.entry.instructions) {
+            if (instruction instanceof Instruction.ArgInstruction argInst && constants.get(arg++) == null)
+                Inliner.rename(clone, registers, argInst.arg());
+        }
+        arg = 0;
+        for (BasicBlock block : callee.getBlocks()) {
+            BasicBlock copy = blocks.get(block);
+            for (Instruction instruction : block.instructions) {
+                if (instruction instanceof Instruction.ArgInstruction argInst) {
+                    var dest = Inliner.rename(clone, registers, argInst.arg());
+                    Long value = constants.get(arg++);
+                    if (value == null)
+                        copy.add(new Instruction.ArgInstruction(dest));
+                    else
+                        copy.add(new Instruction.Move(new Operand.ConstantOperand(value, dest.reg.type), dest));
+                }
+                else if (instruction instanceof Instruction.Ret ret)
+                    copy.add(new Instruction.Ret(ret.value() != null ? Inliner.rename(clone, registers, ret.value()) : null));
+                else
+                    copy.add(Inliner.copy(clone, registers, blocks, instruction));
+            }
+            for (BasicBlock succ : block.successors)
+                copy.addSuccessor(blocks.get(succ));
+        }
+        // The remaining args must also come first in the entry block
+        clone.entry.instructions.sort(Comparator.comparing(instruction -> !(instruction instanceof Instruction.ArgInstruction)));
+        clone.setFrameSize(clone.registerPool.numRegisters());
+        return clone;
+    }
+
+    private static void redirect(Instruction.Call call, CompiledFunction clone, List<Long> constants) {
+        List<Operand.RegisterOperand> args = new ArrayList<>();
+        for (int i = 0; i < constants.size(); i++) {
+            if (constants.get(i) == null)
+                args.add((Operand.RegisterOperand) call.args()[i]);
+        }
+        var specialized = new Instruction.Call(call.newbase, call.returnOperand(), clone.functionType,
+                args.toArray(new Operand.RegisterOperand[args.size()]));
+        BasicBlock block = call.block;
+        block.update(block.instructions.indexOf(call), specialized);
+    }
+
+    /**
+     * Orders functions so that callees come before their callers,
+     * except for recursive calls.
+     */
+    public List<CompiledFunction> bottomUp(List<CompiledFunction> functions) {
+        List<CompiledFunction> order = new ArrayList<>();
+        Set<CompiledFunction> visited = new HashSet<>();
+        for (CompiledFunction function : functions)
+            postOrder(function, visited, order);
+        return order;
+    }
+
+    private static void postOrder(CompiledFunction function, Set<CompiledFunction> visited, List<CompiledFunction> order) {
+        if (!visited.add(function))
+            return;
+        for (Instruction.Call call : Inliner.findCalls(function)) {
+            if (call.callee.code instanceof CompiledFunction callee)
+                postOrder(callee, visited, order);
+        }
+        order.add(function);
+    }
+
+    /**
+     * Records the return value of an optimized function
+     * if it always returns the same constant
+     */
+    public void summarize(CompiledFunction function) {
+        Long value = null;
+        for (BasicBlock block : function.getBlocks()) {
+            for (Instruction instruction : block.instructions) {
+                if (instruction instanceof Instruction.Ret ret) {
+                    if (!(ret.value() instanceof Operand.ConstantOperand constant)
+                            || (value != null && value != constant.value))
+                        return;
+                    value = constant.value;
+                }
+            }
+        }
+        if (value != null)
+            returnValues.put(function.functionType, value);
+    }
+
+    /**
+     * Returns the constant returned by the function, or null if not known
+     */
+    public Long returnValue(EZType.EZTypeFunction function) {
+        return returnValues.get(function);
+    }
+}
@@ -0,0 +1,144 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import java.util.*;
+
+/**
+ * Linear scan register allocation, as described in
+ *
+ * Linear Scan Register Allocation
+ * Massimiliano Poletto, Vivek Sarkar
+ *
+ * Blocks are laid out in reverse post order and instructions numbered
+ * in that order. Each register gets a live interval, from the first to the
+ * last position where it is live, computed from the live in and live out
+ * sets of each block and the positions of its defs and uses. Intervals are
+ * then visited in order of increasing start; intervals that end before the
+ * current start are expired and free their slot, and the current interval
+ * is given the lowest free slot.
+ *
+ * Since we assign frame slots there is no limit on the number of slots,
+ * so unlike the paper we never spill. An interval is a single range without holes,
+ * which makes allocation linear in the number of intervals but may use more
+ * slots than graph coloring. Copies are not coalesced.
+ *
+ * As with {@link ChaitinGraphColoringRegisterAllocator}, function args
+ * are assigned slots starting from 0.
+ */
+public class LinearScanRegisterAllocator {
+
+    static final class Interval {
+        final Register reg;
+        int start = Integer.MAX_VALUE;
+        int end = -1;
+        int slot = -1;
+
+        Interval(Register reg) {
+            this.reg = reg;
+        }
+
+        void cover(int position) {
+            start = Math.min(start, position);
+            end = Math.max(end, position);
+        }
+    }
+
+    public Map<Integer, Integer> assignRegisters(CompiledFunction function, EnumSet<Options> options) {
+        if (function.isSSA) throw new IllegalStateException("Register allocation should be done after exiting SSA");
+        function.analyses.liveness();
+        Interval[] intervals = buildIntervals(function);
+        Map<Integer, Integer> assignments = allocate(function, intervals);
+        var regPool = function.registerPool;
+        for (int r = 0; r < regPool.numRegisters(); r++)
+            regPool.getReg(r).updateSlot(-1);
+        int frameSize = 0;
+        for (var entry : assignments.entrySet()) {
+            regPool.getReg(entry.getKey()).updateSlot(entry.getValue());
+            frameSize = Math.max(frameSize, entry.getValue()+1);
+        }
+        function.setFrameSize(frameSize);
+        if (options.contains(Options.DUMP_POST_CHAITIN_IR))
+            function.dumpIR(false, "Post Linear Scan Register Allocation");
+        return assignments;
+    }
+
+    /**
+     * Instruction i in the linear order is at position 2i+1, so that
+     * the start of a block comes before its first instruction
+     * and the end of a block comes after its last instruction.
+     * Defs and uses of an instruction are at the same position, so
+     * a register defined by an instruction never shares a slot with
+     * a register used by it.
+     */
+    private Interval[] buildIntervals(CompiledFunction function) {
+        Interval[] intervals = new Interval[function.registerPool.numRegisters()];
+        int index = 0;
+        for (BasicBlock block : function.analyses.reversePostOrder()) {
+            int blockStart = 2*index;
+            for (Instruction instruction : block.instructions) {
+                int position = 2*index+1;
+                if (instruction.definesVar())
+                    interval(intervals, instruction.def()).cover(position);
+                for (Register use : instruction.uses())
+                    interval(intervals, use).cover(position);
+                index++;
+            }
+            int blockEnd = 2*index;
+            cover(function, intervals, block.liveIn, blockStart);
+            cover(function, intervals, block.liveOut, blockEnd);
+        }
+        return intervals;
+    }
+
+    private static void cover(CompiledFunction function, Interval[] intervals, LiveSet live, int position) {
+        for (int r = live.nextSetBit(0); r >= 0; r = live.nextSetBit(r+1))
+            interval(intervals, function.registerPool.getReg(r)).cover(position);
+    }
+
+    private static Interval interval(Interval[] intervals, Register reg) {
+        Interval interval = intervals[reg.id];
+        if (interval == null) {
+            interval = new Interval(reg);
+            intervals[reg.id] = interval;
+        }
+        return interval;
+    }
+
+    private Map<Integer, Integer> allocate(CompiledFunction function, Interval[] intervals) {
+        Map<Integer, Integer> assignments = new HashMap<>();
+        // Active intervals ordered by increasing end
+        PriorityQueue<Interval> active = new PriorityQueue<>(Comparator.comparingInt((Interval i) -> i.end));
+        TreeSet<Integer> freeSlots = new TreeSet<>();
+        int nextSlot = 0;
+        // Function args are pre-assigned slots
+        Set<Interval> args = new HashSet<>();
+        for (Instruction instruction : function.entry.instructions) {
+            if (instruction instanceof Instruction.ArgInstruction argInstruction) {
+                Interval interval = interval(intervals, argInstruction.arg().reg);
+                // Args are live from the start
+                interval.cover(0);
+                interval.slot = nextSlot++;
+                args.add(interval);
+                active.add(interval);
+            }
+            else break;
+        }
+        List<Interval> sorted = new ArrayList<>();
+        for (Interval interval : intervals) {
+            if (interval != null && !args.contains(interval))
+                sorted.add(interval);
+        }
+        sorted.sort(Comparator.comparingInt((Interval i) -> i.start));
+        for (Interval current : sorted) {
+            // Expire old intervals
+            while (!active.isEmpty() && active.peek().end < current.start)
+                freeSlots.add(active.poll().slot);
+            current.slot = freeSlots.isEmpty() ? nextSlot++ : freeSlots.pollFirst();
+            active.add(current);
+        }
+        for (Interval interval : intervals) {
+            if (interval != null)
+                assignments.put(interval.reg.id, interval.slot);
+        }
+        return assignments;
+    }
+}
@@ -0,0 +1,188 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import java.util.*;
+
+/**
+ * Loop invariant code motion over SSA form.
+ *
+ * Each loop is given a preheader, a block outside the loop whose only successor
+ * is the loop head, and that is the only predecessor of the loop head from
+ * outside the loop. If the loop already has such a block we use it, otherwise
+ * we split the edge that enters the loop. Loops that are entered from more
+ * than one block are left alone.
+ *
+ * An instruction is invariant if all the registers it uses are defined outside
+ * the loop. Since the program is in SSA form, an invariant instruction that
+ * has no side effects can be moved to the preheader, where its def dominates
+ * all the uses. Loops are processed innermost first, so that an instruction
+ * hoisted out of an inner loop may then be hoisted out of the outer loop.
+ *
+ * Instructions that may fault (division, field and array loads, null and
+ * bounds checks) are only
+ * hoisted from blocks that execute on every iteration, i.e. blocks that dominate
+ * all the exits and back edges of the loop, such as the loop head. This ensures
+ * we never introduce a fault in a loop that executes zero times.
+ * Loads and bounds checks are further restricted to loops that have no calls,
+ * and no stores that may update the same field or any array.
+ */
+public class LoopInvariantCodeMotion {
+
+    private final CompiledFunction function;
+    private Map<Register, SSAEdges.SSADef> ssaDefUse;
+    /**
+     * Number of instructions hoisted
+     */
+    public int hoisted = 0;
+
+    public LoopInvariantCodeMotion(CompiledFunction function) {
+        this.function = function;
+    }
+
+    public boolean apply(EnumSet<Options> options) {
+        if (options.contains(Options.LICM)) {
+            hoisted = 0;
+            Map<BasicBlock, BasicBlock> preheaders = createPreheaders();
+            if (!preheaders.isEmpty()) {
+                ssaDefUse = SSAEdges.buildDefUseChains(function);
+                List<LoopNest> loops = new ArrayList<>(function.analyses.loops());
+                // Innermost loops first
+                loops.sort(Comparator.comparingInt((LoopNest loop) -> loop._depth).reversed());
+                for (LoopNest loop : loops) {
+                    BasicBlock preheader = preheaders.get(loop._loopHead);
+                    if (preheader != null)
+                        hoist(loop, preheader);
+                }
+            }
+            if (options.contains(Options.DUMP_LICM_POSTAPPLY)) function.dumpIR(false, "Post LICM");
+        }
+        return hoisted > 0;
+    }
+
+    /**
+     * Finds or creates a preheader for each loop, returns a map
+     * from loop head to preheader.
+     */
+    private Map<BasicBlock, BasicBlock> createPreheaders() {
+        Map<BasicBlock, BasicBlock> preheaders = new HashMap<>();
+        boolean cfgChanged = false;
+        for (LoopNest loop : function.analyses.loops()) {
+            BasicBlock head = loop._loopHead;
+            BasicBlock entering = null;
+            int count = 0;
+            for (BasicBlock pred : head.predecessors) {
+                if (!loop._blocks.contains(pred)) {
+                    entering = pred;
+                    count++;
+                }
+            }
+            if (count != 1)
+                continue;
+            if (entering.successors.size() == 1)
+                preheaders.put(head, entering);
+            else {
+                preheaders.put(head, splitEdge(entering, head));
+                cfgChanged = true;
+            }
+        }
+        if (cfgChanged)
+            function.analyses.invalidateAll();
+        else
+            function.analyses.preserve(Analysis.CFG);
+        return preheaders;
+    }
+
+    /**
+     * Inserts a new block on the edge from pred to succ. The new block takes the
+     * place of pred in succ's predecessors, so that phi inputs in succ remain valid.
+     */
+    private BasicBlock splitEdge(BasicBlock pred, BasicBlock succ) {
+        BasicBlock block = function.createBlock();
+        pred.successors.set(pred.whichSucc(succ), block);
+        succ.predecessors.set(succ.whichPred(pred), block);
+        block.predecessors.add(pred);
+        block.successors.add(succ);
+        block.add(new Instruction.Jump(succ));
+        int last = pred.instructions.size()-1;
+        Instruction terminator = pred.instructions.get(last);
+        if (terminator instanceof Instruction.ConditionalBranch cbr) {
+            pred.update(last, new Instruction.ConditionalBranch(pred, cbr.condition(),
+                    cbr.trueBlock == succ ? block : cbr.trueBlock,
+                    cbr.falseBlock == succ ? block : cbr.falseBlock));
+        }
+        else if (terminator instanceof Instruction.Jump) {
+            pred.update(last, new Instruction.Jump(block));
+        }
+        else throw new IllegalStateException("Unexpected terminator " + terminator);
+        return block;
+    }
+
+    private void hoist(LoopNest loop, BasicBlock preheader) {
+        // Blocks that must be dominated for an instruction to
+        // execute on every iteration
+        List<BasicBlock> exitsAndLatches = new ArrayList<>();
+        boolean hasCall = false;
+        boolean hasArrayStore = false;
+        Set<String> storedFields = new HashSet<>();
+        List<BasicBlock> blocks = new ArrayList<>();
+        for (BasicBlock block : function.analyses.reversePostOrder()) {
+            if (!loop._blocks.contains(block))
+                continue;
+            blocks.add(block);
+            for (BasicBlock succ : block.successors) {
+                if (succ == loop._loopHead || !loop._blocks.contains(succ)) {
+                    exitsAndLatches.add(block);
+                    break;
+                }
+            }
+            for (Instruction instruction : block.instructions) {
+                if (instruction instanceof Instruction.Call)
+                    hasCall = true;
+                else if (instruction instanceof Instruction.ArrayStore)
+                    hasArrayStore = true;
+                else if (instruction instanceof Instruction.SetField setField)
+                    storedFields.add(setField.fieldName);
+            }
+        }
+        // Visiting blocks in RPO ensures that the defs of invariant
+        // operands are hoisted before their uses
+        for (BasicBlock block : blocks) {
+            boolean everyIteration = true;
+            for (BasicBlock b : exitsAndLatches) {
+                if (!block.dominates(b)) {
+                    everyIteration = false;
+                    break;
+                }
+            }
+            Iterator<Instruction> iter = block.instructions.iterator();
+            while (iter.hasNext()) {
+                Instruction instruction = iter.next();
+                boolean canHoist = switch (instruction) {
+                    case Instruction.Move move -> true;
+                    case Instruction.Unary unary -> true;
+                    case Instruction.Binary binary -> everyIteration || !(binary.binOp.equals("/") || binary.binOp.equals("%"));
+                    case Instruction.GetField getField -> everyIteration && !hasCall && !storedFields.contains(getField.fieldName);
+                    case Instruction.ArrayLoad arrayLoad -> everyIteration && !hasCall && !hasArrayStore;
+                    // Checks are hoisted along with the loads they guard
+                    case Instruction.NullCheck nullCheck -> everyIteration;
+                    case Instruction.BoundsCheck boundsCheck -> everyIteration && !hasCall && !hasArrayStore;
+                    default -> false;
+                };
+                if (canHoist && isInvariant(loop, instruction)) {
+                    iter.remove();
+                    // Insert before the jump to the loop head
+                    preheader.add(preheader.instructions.size()-1, instruction);
+                    hoisted++;
+                }
+            }
+        }
+    }
+
+    private boolean isInvariant(LoopNest loop, Instruction instruction) {
+        for (Register use : instruction.uses()) {
+            var def = ssaDefUse.get(use);
+            if (def == null || loop._blocks.contains(def.instruction.block))
+                return false;
+        }
+        return true;
+    }
+}
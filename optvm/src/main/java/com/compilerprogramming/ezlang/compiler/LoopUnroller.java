@@ -0,0 +1,217 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import java.util.*;
+
+/**
+ * Complete unrolling of loops with small constant trip counts, over SSA form.
+ *
+ * We only unroll loops made of a head and a single body block, where the head
+ * has the phis and ends with the test that exits the loop, and the body jumps
+ * back to the head. The test must compare a basic induction variable with a
+ * constant, and the variable must start at a constant, so that once SCCP has
+ * propagated the constants we can compute the number of iterations by running
+ * the test. If the loop executes few enough times, the head and body are copied
+ * once per iteration into a new block on the edge that enters the loop, with
+ * the phis of each copy replaced by the values from the previous copy. The head
+ * is kept, to compute the values that are live after the loop, but it no longer
+ * branches to the body, and the phis become copies of the final values.
+ *
+ * Running SCCP after unrolling folds the induction variables in each copy.
+ */
+public class LoopUnroller {
+
+    /**
+     * Loops that iterate more than this are not unrolled
+     */
+    public int maxTripCount = 16;
+    /**
+     * Limit on the number of instructions added by unrolling a loop
+     */
+    public int maxUnrolledSize = 200;
+    /**
+     * Number of loops unrolled
+     */
+    public int unrolled = 0;
+
+    private final CompiledFunction function;
+    private Map<Register, SSAEdges.SSADef> ssaDefUse;
+
+    public LoopUnroller(CompiledFunction function) {
+        this.function = function;
+    }
+
+    public boolean apply(EnumSet<Options> options) {
+        if (options.contains(Options.UNROLL)) {
+            unrolled = 0;
+            ssaDefUse = SSAEdges.buildDefUseChains(function);
+            List<LoopNest> loops = new ArrayList<>(function.analyses.loops());
+            // Unroll in a stable order
+            loops.sort(Comparator.comparingInt(loop -> loop._loopHead.bid));
+            for (LoopNest loop : loops) {
+                if (loop._blocks.size() != 2)
+                    continue;
+                var ivs = InductionVariables.find(loop, ssaDefUse);
+                if (ivs == null || ivs.latch == loop._loopHead)
+                    continue;
+                int tripCount = tripCount(ivs);
+                if (tripCount < 0 || tripCount > maxTripCount)
+                    continue;
+                int size = loop._loopHead.instructions.size() + ivs.latch.instructions.size();
+                if (tripCount * size > maxUnrolledSize)
+                    continue;
+                unroll(ivs, tripCount);
+                unrolled++;
+            }
+            if (unrolled > 0)
+                function.analyses.invalidateAll();
+            if (options.contains(Options.DUMP_UNROLL_POSTAPPLY)) function.dumpIR(false, "Post Unroll");
+        }
+        return unrolled > 0;
+    }
+
+    /**
+     * Returns the number of times the body of the loop executes,
+     * or -1 if this is not known or more than the limit.
+     */
+    private int tripCount(InductionVariables ivs) {
+        BasicBlock head = ivs.loop._loopHead;
+        BasicBlock body = ivs.latch;
+        for (Instruction.Phi phi : head.phis()) {
+            Operand init = phi.input(head.whichPred(ivs.entering));
+            if (!(init instanceof Operand.RegisterOperand) && !(init instanceof Operand.ConstantOperand))
+                return -1;
+        }
+        if (!(head.instructions.getLast() instanceof Instruction.ConditionalBranch cbr)
+                || body.successors.size() != 1
+                || !(body.instructions.getLast() instanceof Instruction.Jump))
+            return -1;
+        boolean exitOnFalse;
+        if (cbr.trueBlock == body && cbr.falseBlock != body)
+            exitOnFalse = true;
+        else if (cbr.falseBlock == body && cbr.trueBlock != body)
+            exitOnFalse = false;
+        else
+            return -1;
+        if (!(cbr.condition() instanceof Operand.RegisterOperand condition))
+            return -1;
+        SSAEdges.SSADef def = ssaDefUse.get(condition.reg);
+        if (def == null || def.instruction.block != head || !(def.instruction instanceof Instruction.Binary compare))
+            return -1;
+        Operand left = ivs.value(compare.left());
+        Operand right = ivs.value(compare.right());
+        var iv = ivs.basicIV(left);
+        boolean ivOnLeft = iv != null;
+        if (iv == null)
+            iv = ivs.basicIV(right);
+        Operand bound = ivOnLeft ? right : left;
+        if (iv == null
+                || !List.of("<", "<=", ">", ">=", "==", "!=").contains(compare.binOp)
+                || iv.step == 0
+                || !(iv.init instanceof Operand.ConstantOperand init)
+                || !(bound instanceof Operand.ConstantOperand constant))
+            return -1;
+        long value = init.value;
+        for (int count = 0; count <= maxTripCount; count++) {
+            long l = ivOnLeft ? value : constant.value;
+            long r = ivOnLeft ? constant.value : value;
+            boolean result = switch (compare.binOp) {
+                case "<" -> l < r;
+                case "<=" -> l <= r;
+                case ">" -> l > r;
+                case ">=" -> l >= r;
+                case "==" -> l == r;
+                default -> l != r;
+            };
+            if (result != exitOnFalse)
+                return count;
+            value += iv.step;
+        }
+        return -1;
+    }
+
+    private void unroll(InductionVariables ivs, int tripCount) {
+        BasicBlock head = ivs.loop._loopHead;
+        BasicBlock body = ivs.latch;
+        BasicBlock entering = ivs.entering;
+        var cbr = (Instruction.ConditionalBranch) head.instructions.getLast();
+        BasicBlock exit = cbr.trueBlock == body ? cbr.falseBlock : cbr.trueBlock;
+        List<Instruction.Phi> phis = head.phis();
+        Set<Register> loopDefs = new HashSet<>();
+        for (BasicBlock block : List.of(head, body)) {
+            for (Instruction instruction : block.instructions) {
+                if (instruction instanceof Instruction.Phi phi)
+                    loopDefs.add(phi.value());
+                else if (instruction.definesVar())
+                    loopDefs.add(instruction.def());
+            }
+        }
+        // Current value of each phi, initially the value on entry
+        Operand[] values = new Operand[phis.size()];
+        for (int i = 0; i < phis.size(); i++)
+            values[i] = phis.get(i).input(head.whichPred(entering));
+        BasicBlock unrolledBlock = function.createBlock();
+        for (int iteration = 0; iteration < tripCount; iteration++) {
+            Map<Register, Register> registers = new HashMap<>();
+            Map<Register, Operand.ConstantOperand> constants = new HashMap<>();
+            for (int i = 0; i < phis.size(); i++) {
+                Register phi = phis.get(i).value();
+                if (values[i] instanceof Operand.RegisterOperand reg)
+                    registers.put(phi, reg.reg);
+                else {
+                    // Placeholder that is replaced by the constant
+                    registers.put(phi, phi);
+                    constants.put(phi, (Operand.ConstantOperand) values[i]);
+                }
+            }
+            for (BasicBlock block : List.of(head, body)) {
+                for (Instruction instruction : block.instructions) {
+                    if (instruction instanceof Instruction.Phi || instruction.isTerminal())
+                        continue;
+                    for (Register use : instruction.uses()) {
+                        if (!loopDefs.contains(use))
+                            registers.putIfAbsent(use, use);
+                    }
+                    Instruction copy = Inliner.copy(function, registers, Map.of(), instruction);
+                    for (var constant : constants.entrySet())
+                        copy.replaceUseWithConstant(constant.getKey(), constant.getValue());
+                    unrolledBlock.add(copy);
+                }
+            }
+            for (int i = 0; i < phis.size(); i++) {
+                Operand next = phis.get(i).input(head.whichPred(body));
+                if (next instanceof Operand.RegisterOperand reg) {
+                    if (constants.containsKey(reg.reg))
+                        next = constants.get(reg.reg);
+                    else
+                        next = new Operand.RegisterOperand(registers.getOrDefault(reg.reg, reg.reg));
+                }
+                values[i] = next;
+            }
+        }
+        // Enter the unrolled copies instead of the loop
+        entering.successors.set(entering.whichSucc(head), unrolledBlock);
+        unrolledBlock.predecessors.add(entering);
+        int last = entering.instructions.size()-1;
+        Instruction terminator = entering.instructions.get(last);
+        if (terminator instanceof Instruction.ConditionalBranch enteringCbr) {
+            entering.update(last, new Instruction.ConditionalBranch(entering, enteringCbr.condition(),
+                    enteringCbr.trueBlock == head ? unrolledBlock : enteringCbr.trueBlock,
+                    enteringCbr.falseBlock == head ? unrolledBlock : enteringCbr.falseBlock));
+        }
+        else
+            entering.update(last, new Instruction.Jump(unrolledBlock));
+        unrolledBlock.add(new Instruction.Jump(head));
+        unrolledBlock.successors.add(head);
+        // The head now only computes the values live after the loop
+        head.predecessors.clear();
+        head.predecessors.add(unrolledBlock);
+        head.successors.remove(body);
+        body.successors.clear();
+        body.predecessors.clear();
+        head.update(head.instructions.size()-1, new Instruction.Jump(exit));
+        for (int i = 0; i < phis.size(); i++) {
+            Instruction.Phi phi = phis.get(i);
+            head.update(head.instructions.indexOf(phi), new Instruction.Move(values[i], new Operand.RegisterOperand(phi.value())));
+        }
+    }
+}
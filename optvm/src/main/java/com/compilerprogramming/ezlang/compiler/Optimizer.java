@@ -1,24 +1,141 @@
 package com.compilerprogramming.ezlang.compiler;
 
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
 
 public class Optimizer {
 
+    /**
+     * Maximum number of rounds of SCCP and CCP
+     */
+    public int maxConstantPropagationRounds = 4;
+    private final PassManager.Report report;
+    private final CompileBudget budget;
+    /**
+     * Return values of functions already optimized, may be null
+     */
+    private final InterproceduralConstantPropagation interprocedural;
+
+    public Optimizer() {
+        this(new PassManager.Report(), new CompileBudget());
+    }
+
+    public Optimizer(PassManager.Report report, CompileBudget budget) {
+        this(report, budget, null);
+    }
+
+    public Optimizer(PassManager.Report report, CompileBudget budget, InterproceduralConstantPropagation interprocedural) {
+        this.report = report;
+        this.budget = budget;
+        this.interprocedural = interprocedural;
+    }
+
+    public PassManager.Report report() {
+        return report;
+    }
+
     public void optimize(CompiledFunction function, EnumSet<Options> options) {
+        var cost = budget.estimate(function);
+        var level = budget.level(cost);
+        var passes = new PassManager(report).timeBudget(budget.maxNanosPerFunction);
+        // Passes left out because of the size of the function
+        List<String> skipped = new ArrayList<>();
         if (options.contains(Options.OPTIMIZE)) {
-            if (!function.isSSA)
-                new EnterSSA(function, options);
-            if (options.contains(Options.SCCP)) {
-                new SparseConditionalConstantPropagation().constantPropagation(function).apply(options);
-                if (new ConstantComparisonPropagation(function).apply(options)) {
-                    // Run SCCP again
-                    // We could repeat this until no further changes occur
-                    new SparseConditionalConstantPropagation().constantPropagation(function).apply(options);
+            if (level == CompileBudget.Level.MINIMAL)
+                skipped.add("SSA optimizations");
+            else {
+                if (!function.isSSA) {
+                    passes.add("EnterSSA", f -> {
+                        new EnterSSA(f, options);
+                        return true;
+                    });
                 }
+                addOptimizations(passes, level, options, skipped);
             }
-            new ExitSSA(function, options);
         }
-        if (options.contains(Options.REGALLOC))
-            new ChaitinGraphColoringRegisterAllocator().assignRegisters(function, 64, options);
+        if (options.contains(Options.OPTIMIZE) && (level != CompileBudget.Level.MINIMAL || function.isSSA)) {
+            passes.add("ExitSSA", f -> {
+                new ExitSSA(f, options);
+                return true;
+            });
+        }
+        boolean[] noGraphColoring = { false };
+        if (options.contains(Options.REGALLOC)) {
+            passes.add("RegAlloc", f -> {
+                if (level == CompileBudget.Level.MINIMAL) {
+                    new SimpleRegisterAllocator().assignRegisters(f, options);
+                    noGraphColoring[0] = !options.contains(Options.LINEAR_SCAN);
+                }
+                else if (options.contains(Options.LINEAR_SCAN))
+                    new LinearScanRegisterAllocator().assignRegisters(f, options);
+                else if (!budget.useGraphColoring(f) || passes.overBudget()) {
+                    new LinearScanRegisterAllocator().assignRegisters(f, options);
+                    noGraphColoring[0] = true;
+                }
+                else
+                    new ChaitinGraphColoringRegisterAllocator().assignRegisters(f, 64, options);
+                return true;
+            });
+        }
+        passes.run(function);
+        if (interprocedural != null)
+            interprocedural.summarize(function);
+        skipped.addAll(passes.skipped());
+        if (noGraphColoring[0])
+            skipped.add("graph coloring");
+        if (!skipped.isEmpty()) {
+            String reason;
+            if (level != CompileBudget.Level.FULL)
+                reason = cost.toString();
+            else if (!passes.skipped().isEmpty())
+                reason = "time budget exceeded";
+            else
+                reason = function.registerPool.numRegisters() + " registers";
+            report.degradations.add(new PassManager.Degradation(function.functionType.name, level, reason, skipped));
+        }
+    }
+
+    private void addOptimizations(PassManager passes, CompileBudget.Level level, EnumSet<Options> options, List<String> skipped) {
+        boolean full = level == CompileBudget.Level.FULL;
+        if (options.contains(Options.SCCP)) {
+            if (full) {
+                // SCCP may expose more comparisons for CCP, and the
+                // constants inserted by CCP may be propagated by SCCP
+                var group = passes.fixpoint(maxConstantPropagationRounds)
+                        .optional()
+                        .add("SCCP", f -> new SparseConditionalConstantPropagation().interprocedural(interprocedural).constantPropagation(f).apply(options).changed)
+                        .add("CCP", f -> new ConstantComparisonPropagation(f).apply(options));
+                // Unrolling needs the constants found by SCCP,
+                // and SCCP folds the unrolled induction variables
+                if (options.contains(Options.UNROLL))
+                    group.add("Unroll", f -> new LoopUnroller(f).apply(options));
+                group.end();
+            }
+            else {
+                passes.addOptional("SCCP", f -> new SparseConditionalConstantPropagation().interprocedural(interprocedural).constantPropagation(f).apply(options).changed);
+                if (options.contains(Options.CCP))
+                    skipped.add("CCP");
+                if (options.contains(Options.UNROLL))
+                    skipped.add("Unroll");
+            }
+        }
+        else
+            addOptional(passes, full, options, Options.UNROLL, "Unroll", f -> new LoopUnroller(f).apply(options), skipped);
+        addOptional(passes, full, options, Options.SRA, "SRA", f -> new ScalarReplacement(f).apply(options), skipped);
+        addOptional(passes, full, options, Options.GVN, "GVN", f -> new GlobalValueNumbering(f).apply(options), skipped);
+        addOptional(passes, full, options, Options.LICM, "LICM", f -> new LoopInvariantCodeMotion(f).apply(options), skipped);
+        addOptional(passes, full, options, Options.CHECK_ELIM, "CheckElim", f -> new CheckElimination(f).apply(options), skipped);
+        addOptional(passes, full, options, Options.IVSR, "IVSR", f -> new StrengthReduction(f).apply(options), skipped);
+        addOptional(passes, full, options, Options.ADCE, "ADCE", f -> new AggressiveDeadCodeElimination(f).apply(options), skipped);
+    }
+
+    private static void addOptional(PassManager passes, boolean full, EnumSet<Options> options, Options option, String name, PassManager.Pass pass, List<String> skipped) {
+        if (!options.contains(option))
+            return;
+        if (full)
+            passes.addOptional(name, pass);
+        else
+            skipped.add(name);
     }
 }
@@ -7,10 +7,27 @@ public enum Options {
     OPTIMIZE,
     SSA_DESTRUCTION_BRIGGS,
     SSA_DESTRUCTION_BOISSINOT_NOCOALESCE,
+    SSA_DESTRUCTION_BOISSINOT, // Boissinot with value based coalescing
     SCCP,
     CCP, // constant comparison propagation
+    DOM_SEMI_NCA, // Use Semi-NCA instead of Cooper-Harvey-Kennedy for dominators
+    SRA, // Escape analysis and scalar replacement of structs
+    GVN, // Global value numbering
+    LICM, // Loop invariant code motion
+    ADCE, // Aggressive dead code elimination
+    INLINE, // Inline small functions before SSA
+    IPCP, // Interprocedural constant propagation and cloning
     REGALLOC,
+    LINEAR_SCAN, // Use linear scan instead of graph coloring for register allocation
+    CHECKS, // Explicit null and bounds checks
+    CHECK_ELIM, // Remove redundant null and bounds checks
+    IVSR, // Induction variable strength reduction
+    UNROLL, // Unroll loops with small constant trip counts
+    TCE, // Turn self recursive tail calls into loops, and reuse the frame for other tail calls
     DUMP_INITIAL_IR,
+    DUMP_POST_TCE_IR,
+    DUMP_POST_INLINE_IR,
+    DUMP_POST_IPCP_IR,
     DUMP_PRE_SSA_DOMTREE,
     DUMP_PRE_SSA_DOMFRONTIERS,
     DUMP_PRE_SSA_LIVENESS,
@@ -18,6 +35,13 @@ public enum Options {
     DUMP_SCCP_PREAPPLY,
     DUMP_SCCP_POSTAPPLY,
     DUMP_CCP_POSTAPPLY,
+    DUMP_SRA_POSTAPPLY,
+    DUMP_GVN_POSTAPPLY,
+    DUMP_LICM_POSTAPPLY,
+    DUMP_CHECK_ELIM_POSTAPPLY,
+    DUMP_IVSR_POSTAPPLY,
+    DUMP_UNROLL_POSTAPPLY,
+    DUMP_ADCE_POSTAPPLY,
     DUMP_SSA_LIVENESS,
     DUMP_SSA_DOMTREE,
     DUMP_SSA_TO_CSSA,
@@ -25,7 +49,8 @@ public enum Options {
     DUMP_POST_SSA_IR,
     DUMP_INTERFERENCE_GRAPH,
     DUMP_CHAITIN_COALESCE,
-    DUMP_POST_CHAITIN_IR;
+    DUMP_POST_CHAITIN_IR,
+    DUMP_PASS_REPORT;
 
     public static final EnumSet<Options> NONE = EnumSet.noneOf(Options.class);
     public static final EnumSet<Options> OPT = EnumSet.of(Options.OPTIMIZE,Options.SCCP,Options.CCP,Options.REGALLOC);
@@ -33,5 +58,11 @@ public enum Options {
     public static final EnumSet<Options> OPT_ISSA = EnumSet.of(Options.OPTIMIZE,Options.ISSA,Options.SCCP,Options.CCP,Options.REGALLOC);
     public static final EnumSet<Options> OPT_ISSA_B = EnumSet.of(Options.OPTIMIZE,Options.ISSA,Options.SCCP,Options.CCP,Options.REGALLOC,Options.SSA_DESTRUCTION_BOISSINOT_NOCOALESCE);
     public static final EnumSet<Options> VERBOSE = EnumSet.range(DUMP_INITIAL_IR, DUMP_POST_CHAITIN_IR);
-    public static final EnumSet<Options> OPT_VERBOSE = EnumSet.range(OPTIMIZE, DUMP_POST_CHAITIN_IR);
+    // Listed explicitly so that new passes are not turned on by adding them to the enum
+    public static final EnumSet<Options> OPT_VERBOSE = withVerbose(EnumSet.of(Options.OPTIMIZE,Options.SSA_DESTRUCTION_BRIGGS,Options.SSA_DESTRUCTION_BOISSINOT_NOCOALESCE,Options.SCCP,Options.CCP,Options.REGALLOC));
+
+    private static EnumSet<Options> withVerbose(EnumSet<Options> options) {
+        options.addAll(VERBOSE);
+        return options;
+    }
 }
@@ -0,0 +1,343 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Runs a pipeline of passes over a function, recording statistics for each pass.
+ *
+ * A pipeline is a sequence of groups. Most groups hold a single pass that is
+ * run once. A fixpoint group holds passes that cooperate, such as SCCP and CCP,
+ * where a change made by one pass may enable another pass to do more. The passes
+ * in a fixpoint group are run round robin until every pass in the group has run
+ * once without any pass reporting a change, or until the group has been run
+ * the maximum number of rounds.
+ *
+ * For each run of a pass we record wall time, bytes allocated by the
+ * compiling thread (where the JVM supports it), and the change in the
+ * number of instructions in the function. Statistics for passes with the
+ * same name are accumulated in a {@link Report}, which may be shared by
+ * several pass managers, e.g. one per function.
+ *
+ * Passes may be marked optional. If a time budget is set, optional passes
+ * are skipped once the budget has been used up; the skipped passes are
+ * recorded so that the caller can report them.
+ */
+public class PassManager {
+
+    /**
+     * A pass returns true if it changed the function
+     */
+    @FunctionalInterface
+    public interface Pass {
+        boolean run(CompiledFunction function);
+    }
+
+    static final class NamedPass {
+        final String name;
+        final Pass pass;
+        NamedPass(String name, Pass pass) {
+            this.name = name;
+            this.pass = pass;
+        }
+    }
+
+    static final class Group {
+        final List<NamedPass> passes;
+        final int maxRounds;
+        final boolean optional;
+        Group(List<NamedPass> passes, int maxRounds, boolean optional) {
+            this.passes = passes;
+            this.maxRounds = maxRounds;
+            this.optional = optional;
+        }
+    }
+
+    private final List<Group> pipeline = new ArrayList<>();
+    private final Report report;
+    private long timeBudgetNanos = Long.MAX_VALUE;
+    private long startNanos;
+    private final List<String> skipped = new ArrayList<>();
+
+    public PassManager() {
+        this(new Report());
+    }
+
+    public PassManager(Report report) {
+        this.report = report;
+    }
+
+    public Report report() {
+        return report;
+    }
+
+    /**
+     * Sets the time after which optional passes are skipped
+     */
+    public PassManager timeBudget(long nanos) {
+        timeBudgetNanos = nanos;
+        return this;
+    }
+
+    /**
+     * True if the time budget has been used up in the current run
+     */
+    public boolean overBudget() {
+        return System.nanoTime() - startNanos > timeBudgetNanos;
+    }
+
+    /**
+     * Names of the optional passes that were skipped in the last run
+     */
+    public List<String> skipped() {
+        return Collections.unmodifiableList(skipped);
+    }
+
+    /**
+     * Adds a pass that is run once
+     */
+    public PassManager add(String name, Pass pass) {
+        pipeline.add(new Group(List.of(new NamedPass(name, pass)), 1, false));
+        return this;
+    }
+
+    /**
+     * Adds a pass that is run once, unless the time budget has been used up
+     */
+    public PassManager addOptional(String name, Pass pass) {
+        pipeline.add(new Group(List.of(new NamedPass(name, pass)), 1, true));
+        return this;
+    }
+
+    /**
+     * Starts a fixpoint group; passes are added to the group
+     * using {@link FixpointBuilder#add(String, Pass)}.
+     */
+    public FixpointBuilder fixpoint(int maxRounds) {
+        if (maxRounds < 1)
+            throw new IllegalArgumentException("maxRounds must be at least 1");
+        return new FixpointBuilder(maxRounds);
+    }
+
+    public final class FixpointBuilder {
+        private final List<NamedPass> passes = new ArrayList<>();
+        private final int maxRounds;
+        private boolean optional = false;
+
+        FixpointBuilder(int maxRounds) {
+            this.maxRounds = maxRounds;
+        }
+
+        public FixpointBuilder add(String name, Pass pass) {
+            passes.add(new NamedPass(name, pass));
+            return this;
+        }
+
+        /**
+         * Marks the group optional, it is not started once the time budget has been used up
+         */
+        public FixpointBuilder optional() {
+            optional = true;
+            return this;
+        }
+
+        /**
+         * Adds the group to the pipeline and returns the pass manager
+         */
+        public PassManager end() {
+            if (!passes.isEmpty())
+                pipeline.add(new Group(List.copyOf(passes), maxRounds, optional));
+            return PassManager.this;
+        }
+    }
+
+    /**
+     * Runs the pipeline, returns true if any pass changed the function
+     */
+    public boolean run(CompiledFunction function) {
+        boolean changed = false;
+        startNanos = System.nanoTime();
+        skipped.clear();
+        for (Group group : pipeline) {
+            if (group.optional && overBudget()) {
+                for (NamedPass pass : group.passes)
+                    skipped.add(pass.name);
+                continue;
+            }
+            changed |= runGroup(group, function);
+        }
+        return changed;
+    }
+
+    private boolean runGroup(Group group, CompiledFunction function) {
+        int n = group.passes.size();
+        boolean changed = false;
+        // Number of passes run since the last change, when this
+        // reaches n every pass has seen the latest changes
+        int unchanged = 0;
+        int runs = 0;
+        int maxRuns = n * group.maxRounds;
+        while (unchanged < n && runs < maxRuns) {
+            NamedPass pass = group.passes.get(runs % n);
+            if (runPass(pass, function)) {
+                changed = true;
+                // The pass itself has seen its own changes
+                unchanged = 1;
+            }
+            else
+                unchanged++;
+            runs++;
+        }
+        if (n > 1)
+            report.recordRounds((runs + n - 1) / n, unchanged < n);
+        return changed;
+    }
+
+    private boolean runPass(NamedPass pass, CompiledFunction function) {
+        long instructionsBefore = countInstructions(function);
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        boolean changed = pass.pass.run(function);
+        long elapsed = System.nanoTime() - start;
+        long allocatedAfter = allocatedBytes();
+        long allocated = allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore;
+        long instructionsAfter = countInstructions(function);
+        report.record(pass.name, changed, elapsed, allocated, instructionsAfter - instructionsBefore);
+        return changed;
+    }
+
+    static long countInstructions(CompiledFunction function) {
+        long count = 0;
+        for (BasicBlock block : function.getBlocks())
+            count += block.instructions.size();
+        return count;
+    }
+
+    /**
+     * Bytes allocated so far by the current thread, or -1 if not supported
+     */
+    static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threadMXBean
+                && threadMXBean.isThreadAllocatedMemoryEnabled())
+            return threadMXBean.getCurrentThreadAllocatedBytes();
+        return -1;
+    }
+
+    /**
+     * Statistics for all runs of a pass
+     */
+    public static final class PassStatistics {
+        public final String name;
+        /**
+         * Number of times the pass was run
+         */
+        public int runs;
+        /**
+         * Number of runs that changed the function
+         */
+        public int changes;
+        /**
+         * Total wall time in nanoseconds
+         */
+        public long nanos;
+        /**
+         * Total bytes allocated, or -1 if allocation could not be measured
+         */
+        public long allocatedBytes;
+        /**
+         * Total change in the number of instructions; negative if the pass removed instructions
+         */
+        public long instructionDelta;
+
+        PassStatistics(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Accumulated statistics, in the order passes were first run
+     */
+    public static final class Report {
+        private final Map<String, PassStatistics> statistics = new LinkedHashMap<>();
+        /**
+         * Number of times a fixpoint group ran, and total rounds over all those runs
+         */
+        public int fixpointGroups;
+        public int fixpointRounds;
+        /**
+         * Number of times a fixpoint group stopped because it hit the maximum rounds
+         */
+        public int fixpointCapped;
+        /**
+         * Functions that were not fully optimized because of their size or compile time
+         */
+        public final List<Degradation> degradations = new ArrayList<>();
+
+        void record(String name, boolean changed, long nanos, long allocatedBytes, long instructionDelta) {
+            PassStatistics stats = statistics.computeIfAbsent(name, PassStatistics::new);
+            stats.runs++;
+            if (changed)
+                stats.changes++;
+            stats.nanos += nanos;
+            if (allocatedBytes < 0 || (stats.runs > 1 && stats.allocatedBytes < 0))
+                stats.allocatedBytes = -1;
+            else
+                stats.allocatedBytes += allocatedBytes;
+            stats.instructionDelta += instructionDelta;
+        }
+
+        void recordRounds(int rounds, boolean capped) {
+            fixpointGroups++;
+            fixpointRounds += rounds;
+            if (capped)
+                fixpointCapped++;
+        }
+
+        public PassStatistics get(String name) {
+            return statistics.get(name);
+        }
+
+        public Collection<PassStatistics> passes() {
+            return Collections.unmodifiableCollection(statistics.values());
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%-12s %6s %8s %12s %14s %12s%n", "Pass", "Runs", "Changed", "Time(us)", "Allocated(B)", "Instructions"));
+            for (PassStatistics stats : statistics.values()) {
+                sb.append(String.format("%-12s %6d %8d %12d %14s %12d%n",
+                        stats.name, stats.runs, stats.changes, stats.nanos / 1000,
+                        stats.allocatedBytes < 0 ? "n/a" : String.valueOf(stats.allocatedBytes),
+                        stats.instructionDelta));
+            }
+            if (fixpointGroups > 0)
+                sb.append(String.format("Fixpoint groups %d, rounds %d, capped %d%n", fixpointGroups, fixpointRounds, fixpointCapped));
+            for (Degradation degradation : degradations)
+                sb.append(degradation).append(System.lineSeparator());
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Records why a function was not fully optimized, and what was left out
+     */
+    public static final class Degradation {
+        public final String function;
+        public final CompileBudget.Level level;
+        public final String reason;
+        public final List<String> skipped;
+
+        public Degradation(String function, CompileBudget.Level level, String reason, List<String> skipped) {
+            this.function = function;
+            this.level = level;
+            this.reason = reason;
+            this.skipped = List.copyOf(skipped);
+        }
+
+        @Override
+        public String toString() {
+            return "Degraded " + function + " to " + level + " (" + reason + "), skipped " + String.join(", ", skipped);
+        }
+    }
+}
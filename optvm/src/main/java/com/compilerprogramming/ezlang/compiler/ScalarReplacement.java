@@ -0,0 +1,276 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.types.EZType;
+
+import java.util.*;
+
+/**
+ * Escape analysis and scalar replacement of aggregates over SSA form.
+ *
+ * A struct allocated by NewStruct does not escape if its reference is only
+ * used to get and set its fields, either directly or through copies of the
+ * reference. Such a struct is never seen outside the function, so its fields
+ * can be held in registers: each field is treated as a variable that is
+ * defined by the SetField instructions, and we rebuild SSA form for it
+ * using the standard phi placement at the iterated dominance frontier
+ * followed by renaming over the dominator tree. GetFields become copies
+ * of the current value of the field, and the NewStruct, SetFields and
+ * copies of the reference are removed, along with any null checks of it.
+ *
+ * Since every use of the reference is dominated by the NewStruct, only the
+ * blocks dominated by the NewStruct are considered, and the NewStruct
+ * starts each field off as undefined. If a GetField may read an undefined
+ * field, the struct is left alone. Phis that are not needed by any GetField
+ * are never inserted, so the result is pruned SSA.
+ *
+ * Jong-Deok Choi, Manish Gupta, Mauricio Serrano, Vugranam C. Sreedhar, Sam Midkiff.
+ * Escape Analysis for Java. OOPSLA 1999.
+ */
+public class ScalarReplacement {
+
+    private final CompiledFunction function;
+    private Map<Register, SSAEdges.SSADef> ssaDefUse;
+    /**
+     * Number of structs replaced by registers
+     */
+    public int replaced = 0;
+
+    /**
+     * Value of a field that has not been set since the NewStruct
+     */
+    private static final Object UNDEFINED = new Object();
+
+    public ScalarReplacement(CompiledFunction function) {
+        this.function = function;
+    }
+
+    public boolean apply(EnumSet<Options> options) {
+        if (options.contains(Options.SRA)) {
+            replaced = 0;
+            List<Instruction.NewStruct> allocations = new ArrayList<>();
+            for (BasicBlock block : function.getBlocks()) {
+                for (Instruction instruction : block.instructions) {
+                    if (instruction instanceof Instruction.NewStruct newStruct)
+                        allocations.add(newStruct);
+                }
+            }
+            if (!allocations.isEmpty()) {
+                function.analyses.dominatorTree(); // Need dominance frontiers
+                ssaDefUse = SSAEdges.buildDefUseChains(function);
+                for (Instruction.NewStruct allocation : allocations) {
+                    Struct struct = findAccesses(allocation);
+                    if (struct != null && struct.replace())
+                        replaced++;
+                }
+                if (replaced > 0)
+                    // Instructions are replaced but CFG is unchanged
+                    function.analyses.preserve(Analysis.CFG);
+            }
+            if (options.contains(Options.DUMP_SRA_POSTAPPLY)) function.dumpIR(false, "Post SRA");
+        }
+        return replaced > 0;
+    }
+
+    /**
+     * Collects the GetField and SetField instructions that access the struct,
+     * returns null if the struct escapes.
+     */
+    private Struct findAccesses(Instruction.NewStruct allocation) {
+        Struct struct = new Struct(allocation);
+        Deque<Register> worklist = new ArrayDeque<>();
+        worklist.add(allocation.def());
+        struct.aliases.add(allocation.def());
+        while (!worklist.isEmpty()) {
+            Register reg = worklist.remove();
+            for (Instruction use : ssaDefUse.get(reg).useList) {
+                switch (use) {
+                    case Instruction.GetField getField -> struct.accesses.add(getField);
+                    // The struct is never null
+                    case Instruction.NullCheck nullCheck -> struct.accesses.add(nullCheck);
+                    case Instruction.SetField setField when isReg(setField.structOperand(), reg) -> struct.accesses.add(setField);
+                    case Instruction.Move move when isReg(move.from(), reg) -> {
+                        struct.copies.add(move);
+                        if (struct.aliases.add(move.def()))
+                            worklist.add(move.def());
+                    }
+                    // Stored in a field or array, passed to a call,
+                    // returned, compared or merged by a phi
+                    default -> { return null; }
+                }
+            }
+        }
+        // The reference itself must not be stored in a field
+        for (Instruction access : struct.accesses) {
+            if (access instanceof Instruction.SetField setField
+                    && setField.sourceOperand() instanceof Operand.RegisterOperand source
+                    && struct.aliases.contains(source.reg))
+                return null;
+        }
+        return struct;
+    }
+
+    private static boolean isReg(Operand operand, Register reg) {
+        return operand instanceof Operand.RegisterOperand registerOperand && registerOperand.reg.id == reg.id;
+    }
+
+    /**
+     * A phi for a field of the struct, created during renaming
+     * but only inserted if a GetField needs it.
+     */
+    static final class FieldPhi {
+        final BasicBlock block;
+        final int field;
+        /**
+         * Value of the field at the end of each predecessor
+         */
+        final Object[] inputs;
+        Register value;
+
+        FieldPhi(BasicBlock block, int field) {
+            this.block = block;
+            this.field = field;
+            this.inputs = new Object[block.predecessors.size()];
+            Arrays.fill(inputs, UNDEFINED);
+        }
+    }
+
+    final class Struct {
+        final Instruction.NewStruct allocation;
+        final EZType.EZTypeStruct type;
+        final Set<Register> aliases = new HashSet<>();
+        final Set<Instruction> accesses = new LinkedHashSet<>();
+        final List<Instruction.Move> copies = new ArrayList<>();
+        /**
+         * Field phis by block, indexed by field
+         */
+        final Map<BasicBlock, FieldPhi[]> phis = new HashMap<>();
+        /**
+         * Value read by each GetField
+         */
+        final Map<Instruction.GetField, Object> loads = new HashMap<>();
+
+        Struct(Instruction.NewStruct allocation) {
+            this.allocation = allocation;
+            this.type = allocation.type;
+        }
+
+        boolean replace() {
+            placePhis();
+            rename(allocation.block, new Object[type.numFields()]);
+            List<FieldPhi> needed = neededPhis();
+            if (needed == null)
+                return false;
+            // Sorted so that registers are numbered in a stable order
+            needed.sort(Comparator.comparingInt((FieldPhi phi) -> phi.block.bid).thenComparingInt(phi -> phi.field));
+            for (FieldPhi phi : needed) {
+                String name = type.getFieldName(phi.field);
+                phi.value = function.registerPool.newTempReg(name, type.getField(name));
+            }
+            for (FieldPhi phi : needed.reversed()) {
+                var instruction = new Instruction.Phi(phi.value, new ArrayList<>());
+                for (Object input : phi.inputs)
+                    instruction.addInput(operand(input));
+                phi.block.add(0, instruction);
+            }
+            for (Instruction access : accesses) {
+                BasicBlock block = access.block;
+                if (access instanceof Instruction.GetField getField) {
+                    var move = new Instruction.Move(operand(loads.get(getField)), getField.destOperand());
+                    block.update(block.instructions.indexOf(getField), move);
+                }
+                else
+                    block.deleteInstruction(access);
+            }
+            for (Instruction.Move copy : copies)
+                copy.block.deleteInstruction(copy);
+            allocation.block.deleteInstruction(allocation);
+            return true;
+        }
+
+        /**
+         * Places phis for each field at the iterated dominance frontier
+         * of the blocks that set it, restricted to the blocks
+         * strictly dominated by the NewStruct.
+         */
+        private void placePhis() {
+            BasicBlock home = allocation.block;
+            for (int field = 0; field < type.numFields(); field++) {
+                Deque<BasicBlock> worklist = new ArrayDeque<>();
+                for (Instruction access : accesses) {
+                    if (access instanceof Instruction.SetField setField && setField.fieldIndex == field)
+                        worklist.add(access.block);
+                }
+                while (!worklist.isEmpty()) {
+                    BasicBlock block = worklist.remove();
+                    for (BasicBlock frontier : block.dominationFrontier) {
+                        if (frontier == home || !home.dominates(frontier))
+                            continue;
+                        FieldPhi[] blockPhis = phis.computeIfAbsent(frontier, b -> new FieldPhi[type.numFields()]);
+                        if (blockPhis[field] == null) {
+                            blockPhis[field] = new FieldPhi(frontier, field);
+                            worklist.add(frontier);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void rename(BasicBlock block, Object[] incoming) {
+            Object[] values = incoming.clone();
+            FieldPhi[] blockPhis = phis.get(block);
+            if (blockPhis != null) {
+                for (int field = 0; field < values.length; field++)
+                    if (blockPhis[field] != null)
+                        values[field] = blockPhis[field];
+            }
+            for (Instruction instruction : block.instructions) {
+                if (instruction == allocation)
+                    Arrays.fill(values, UNDEFINED);
+                else if (accesses.contains(instruction)) {
+                    if (instruction instanceof Instruction.SetField setField)
+                        values[setField.fieldIndex] = setField.sourceOperand();
+                    else if (instruction instanceof Instruction.GetField getField)
+                        loads.put(getField, values[getField.fieldIndex]);
+                }
+            }
+            for (BasicBlock succ : block.successors) {
+                FieldPhi[] succPhis = phis.get(succ);
+                if (succPhis == null)
+                    continue;
+                int pred = succ.whichPred(block);
+                for (int field = 0; field < values.length; field++)
+                    if (succPhis[field] != null)
+                        succPhis[field].inputs[pred] = values[field];
+            }
+            for (BasicBlock child : block.dominatedChildren)
+                if (child != block)
+                    rename(child, values);
+        }
+
+        /**
+         * Returns the phis reachable from the GetFields, or null if
+         * a GetField may read an undefined field.
+         */
+        private List<FieldPhi> neededPhis() {
+            List<FieldPhi> needed = new ArrayList<>();
+            Set<FieldPhi> visited = new HashSet<>();
+            Deque<Object> worklist = new ArrayDeque<>(loads.values());
+            while (!worklist.isEmpty()) {
+                Object value = worklist.remove();
+                if (value == UNDEFINED || value == null)
+                    return null;
+                if (value instanceof FieldPhi phi && visited.add(phi)) {
+                    needed.add(phi);
+                    worklist.addAll(Arrays.asList(phi.inputs));
+                }
+            }
+            return needed;
+        }
+
+        private Operand operand(Object value) {
+            if (value instanceof FieldPhi phi)
+                return new Operand.RegisterOperand(phi.value);
+            return (Operand) value;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import java.util.*;
+
+/**
+ * Assigns every register in the IR its own frame slot, in a single
+ * pass over the instructions. No liveness or interference is computed,
+ * so this is much cheaper than graph coloring, at the cost of a larger frame.
+ * It is used when a function is too large to be worth coloring.
+ *
+ * As with {@link ChaitinGraphColoringRegisterAllocator}, function args
+ * are assigned slots starting from 0.
+ */
+public class SimpleRegisterAllocator {
+
+    public Map<Integer, Integer> assignRegisters(CompiledFunction function, EnumSet<Options> options) {
+        if (function.isSSA) throw new IllegalStateException("Register allocation should be done after exiting SSA");
+        Map<Integer, Integer> assignments = new LinkedHashMap<>();
+        for (Instruction instruction : function.entry.instructions) {
+            if (instruction instanceof Instruction.ArgInstruction argInstruction)
+                assignments.put(argInstruction.arg().reg.id, assignments.size());
+            else break;
+        }
+        for (BasicBlock block : function.getBlocks()) {
+            for (Instruction instruction : block.instructions) {
+                if (instruction.definesVar())
+                    assign(assignments, instruction.def());
+                for (Register use : instruction.uses())
+                    assign(assignments, use);
+            }
+        }
+        var regPool = function.registerPool;
+        for (int r = 0; r < regPool.numRegisters(); r++)
+            regPool.getReg(r).updateSlot(-1);
+        for (var entry : assignments.entrySet())
+            regPool.getReg(entry.getKey()).updateSlot(entry.getValue());
+        function.setFrameSize(assignments.size());
+        if (options.contains(Options.DUMP_POST_CHAITIN_IR))
+            function.dumpIR(false, "Post Simple Register Allocation");
+        return assignments;
+    }
+
+    private static void assign(Map<Integer, Integer> assignments, Register reg) {
+        assignments.putIfAbsent(reg.id, assignments.size());
+    }
+}
@@ -51,6 +51,21 @@ public class SparseConditionalConstantPropagation {
     /** Used to track reachable blocks when the SCCP changes are applied */
     BitSet executableBlocks = new BitSet();
 
+    /**
+     * Set by apply() if the function was modified
+     */
+    public boolean changed = false;
+
+    /**
+     * Known return values of callees, may be null
+     */
+    InterproceduralConstantPropagation interprocedural;
+
+    public SparseConditionalConstantPropagation interprocedural(InterproceduralConstantPropagation interprocedural) {
+        this.interprocedural = interprocedural;
+        return this;
+    }
+
     public SparseConditionalConstantPropagation constantPropagation(CompiledFunction function) {
         init(function);
         while (!flowWorklist.isEmpty() || !instructionWorkList.isEmpty()) {
@@ -143,8 +158,13 @@ public class SparseConditionalConstantPropagation {
             System.out.println(toString());
         }
         markExecutableBlocks();
-        removeBranchesThatAreNotExecutable();
-        replaceVarsWithConstants();
+        boolean cfgChanged = removeBranchesThatAreNotExecutable();
+        boolean replaced = replaceVarsWithConstants();
+        changed = cfgChanged || replaced;
+        if (cfgChanged)
+            function.analyses.invalidateAll();
+        else
+            function.analyses.preserve(Analysis.CFG);
         // Unreachable blocks are eliminated as there are no paths to them
         if (options.contains(Options.DUMP_SCCP_POSTAPPLY)) function.dumpIR(false, "Post SCCP\n");
         return this;
@@ -165,16 +185,20 @@ public class SparseConditionalConstantPropagation {
     /**
      * Where we know which branch will be executed on a CBR,
      * we replace such a branch with a jump to the known
-     * basic block
+     * basic block. Returns true if any edges were removed.
      */
-    private void removeBranchesThatAreNotExecutable() {
+    private boolean removeBranchesThatAreNotExecutable() {
+        boolean removed = false;
         for (var flowEdge : flowEdges.keySet()) {
             if (!flowEdges.get(flowEdge)) {
                 if (executableBlocks.get(flowEdge.source.bid) ||
-                    executableBlocks.get(flowEdge.target.bid))
+                    executableBlocks.get(flowEdge.target.bid)) {
                     removeEdge(flowEdge.source, flowEdge.target);
+                    removed = true;
+                }
             }
         }
+        return removed;
     }
 
     private void removeEdge(BasicBlock source, BasicBlock target) {
@@ -197,9 +221,11 @@ public class SparseConditionalConstantPropagation {
     /**
      * Where a definition is known to be a constant,
      * replace all uses with the constant and then delete
-     * the defining instruction.
+     * the defining instruction. Returns true if any
+     * definitions were replaced.
      */
-    private void replaceVarsWithConstants() {
+    private boolean replaceVarsWithConstants() {
+        boolean replaced = false;
         for (var register: valueLattice.getRegisters()) {
             var latticeElement = valueLattice.get(register);
             if (latticeElement.kind == V_CONSTANT) {
@@ -207,16 +233,23 @@ public class SparseConditionalConstantPropagation {
                 var defUseChain = this.ssaEdges.get(register);
                 // replace uses with constant
                 for (var usingInstruction: defUseChain.useList) {
-                    if (executableBlocks.get(usingInstruction.block.bid))
+                    if (executableBlocks.get(usingInstruction.block.bid)) {
                         usingInstruction.replaceUseWithConstant(register, constant);
+                        replaced = true;
+                    }
                 }
                 defUseChain.useList.clear();
                 var block = defUseChain.instruction.block;
-                // delete defining instruction
-                block.deleteInstruction(defUseChain.instruction);
+                // delete defining instruction, but a call may have side effects,
+                // so it is kept and only counts as a change if a use was replaced
+                if (!(defUseChain.instruction instanceof Instruction.Call)) {
+                    block.deleteInstruction(defUseChain.instruction);
+                    replaced = true;
+                }
                 ssaEdges.remove(register);
             }
         }
+        return replaced;
     }
 
     static final byte V_UNDEFINED = 1;  // TOP
@@ -363,7 +396,11 @@ public class SparseConditionalConstantPropagation {
             case Instruction.Call callInst -> {
                 if (!(callInst.callee.returnType instanceof EZType.EZTypeVoid)) {
                     var cell = valueLattice.get(callInst.returnOperand().reg);
-                    changed = cell.setKind(V_VARYING);
+                    Long returnValue = interprocedural != null ? interprocedural.returnValue(callInst.callee) : null;
+                    if (returnValue != null)
+                        changed = cell.meet(returnValue);
+                    else
+                        changed = cell.setKind(V_VARYING);
                 }
             }
             case Instruction.Unary unaryInst -> {
@@ -441,7 +478,11 @@ public class SparseConditionalConstantPropagation {
             case Instruction.Phi phiInst -> {
                 changed = visitPhi(block, phiInst);
             }
-            default -> throw new IllegalStateException("Unexpected value: " + instruction);
+            default -> {
+                // Checks define no value, the redundant ones are removed by CheckElimination
+                if (!(instruction instanceof Instruction.NullCheck || instruction instanceof Instruction.BoundsCheck))
+                    throw new IllegalStateException("Unexpected value: " + instruction);
+            }
         }
         return changed;
     }
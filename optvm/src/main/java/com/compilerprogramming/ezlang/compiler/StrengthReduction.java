@@ -0,0 +1,237 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import java.util.*;
+
+/**
+ * Strength reduction of induction variables over SSA form.
+ *
+ * A multiplication t = i * k, where i is a basic induction variable of the
+ * loop and k a constant, is a derived induction variable. We give it a phi
+ * of its own at the loop head, that starts at init * k and is incremented
+ * by step * k on each iteration, and replace all uses of t with the new phi.
+ * Multiplications of the same variable by the same constant share a phi.
+ *
+ * If the basic induction variable is then only used to test the exit
+ * condition of the loop, before its increment and against a constant bound,
+ * the test is rewritten to use a derived variable instead (linear function
+ * test replacement) and the basic variable is removed. This is only done when the initial value is a
+ * constant and none of the multiplications can overflow, so that the rewritten
+ * test is exact.
+ *
+ * Keith D. Cooper, L. Taylor Simpson, Christopher A. Vick.
+ * Operator Strength Reduction. TOPLAS 2001.
+ */
+public class StrengthReduction {
+
+    private final CompiledFunction function;
+    private Map<Register, SSAEdges.SSADef> ssaDefUse;
+    /**
+     * Number of multiplications replaced
+     */
+    public int reduced = 0;
+    /**
+     * Number of basic induction variables removed
+     */
+    public int removed = 0;
+
+    public StrengthReduction(CompiledFunction function) {
+        this.function = function;
+    }
+
+    /**
+     * A derived induction variable iv * factor
+     */
+    static final class DerivedIV {
+        final InductionVariables.BasicIV iv;
+        final long factor;
+        final Register reg;
+        final List<Instruction.Binary> multiplies = new ArrayList<>();
+
+        DerivedIV(InductionVariables.BasicIV iv, long factor, Register reg) {
+            this.iv = iv;
+            this.factor = factor;
+            this.reg = reg;
+        }
+    }
+
+    public boolean apply(EnumSet<Options> options) {
+        if (options.contains(Options.IVSR)) {
+            reduced = 0;
+            removed = 0;
+            List<LoopNest> loops = function.analyses.loops();
+            ssaDefUse = SSAEdges.buildDefUseChains(function);
+            for (LoopNest loop : loops) {
+                var ivs = InductionVariables.find(loop, ssaDefUse);
+                if (ivs != null && !ivs.basicIVs.isEmpty())
+                    reduce(ivs);
+            }
+            if (reduced > 0)
+                // Instructions are replaced but CFG is unchanged
+                function.analyses.preserve(Analysis.CFG);
+            if (options.contains(Options.DUMP_IVSR_POSTAPPLY)) function.dumpIR(false, "Post IVSR");
+        }
+        return reduced > 0;
+    }
+
+    private void reduce(InductionVariables ivs) {
+        LoopNest loop = ivs.loop;
+        // Keyed by basic variable and factor, in order of discovery
+        Map<List<Object>, DerivedIV> derived = new LinkedHashMap<>();
+        for (BasicBlock block : function.analyses.reversePostOrder()) {
+            if (!loop._blocks.contains(block))
+                continue;
+            for (Instruction instruction : block.instructions) {
+                if (!(instruction instanceof Instruction.Binary binary) || !binary.binOp.equals("*"))
+                    continue;
+                var iv = ivs.basicIV(binary.left());
+                Operand factor = ivs.value(binary.right());
+                if (iv == null) {
+                    iv = ivs.basicIV(binary.right());
+                    factor = ivs.value(binary.left());
+                }
+                if (iv == null || !(factor instanceof Operand.ConstantOperand constant))
+                    continue;
+                DerivedIV d = derived.get(List.of(iv.reg(), constant.value));
+                if (d == null) {
+                    Register reg = function.registerPool.newTempReg(iv.reg().type);
+                    d = new DerivedIV(iv, constant.value, reg);
+                    derived.put(List.of(iv.reg(), constant.value), d);
+                }
+                d.multiplies.add(binary);
+            }
+        }
+        for (DerivedIV d : derived.values())
+            createPhi(ivs, d);
+        for (DerivedIV d : derived.values()) {
+            if (replaceTest(ivs, d))
+                break;
+        }
+    }
+
+    /**
+     * Creates the phi for the derived variable and replaces the multiplications
+     */
+    private void createPhi(InductionVariables ivs, DerivedIV d) {
+        BasicBlock head = ivs.loop._loopHead;
+        BasicBlock entering = ivs.entering;
+        BasicBlock latch = ivs.latch;
+        var type = d.reg.type;
+        // Initial value, computed before entering the loop
+        Register init = function.registerPool.newTempReg(type);
+        Instruction initInst;
+        if (d.iv.init instanceof Operand.ConstantOperand constant)
+            initInst = new Instruction.Move(new Operand.ConstantOperand(constant.value * d.factor, type), new Operand.TempRegisterOperand(init));
+        else
+            initInst = new Instruction.Binary("*", new Operand.TempRegisterOperand(init), d.iv.init, new Operand.ConstantOperand(d.factor, type));
+        entering.add(entering.instructions.size()-1, initInst);
+        // Next value, computed at the end of each iteration
+        Register next = function.registerPool.newTempReg(type);
+        var nextInst = new Instruction.Binary("+", new Operand.TempRegisterOperand(next),
+                new Operand.RegisterOperand(d.reg), new Operand.ConstantOperand(d.iv.step * d.factor, type));
+        latch.add(latch.instructions.size()-1, nextInst);
+        List<Register> inputs = new ArrayList<>();
+        for (BasicBlock pred : head.predecessors)
+            inputs.add(pred == entering ? init : next);
+        var phi = new Instruction.Phi(d.reg, inputs);
+        head.add(0, phi);
+        SSAEdges.addDef(ssaDefUse, init, initInst).addUse(phi);
+        SSAEdges.addDef(ssaDefUse, next, nextInst).addUse(phi);
+        SSAEdges.addDef(ssaDefUse, d.reg, phi).addUse(nextInst);
+        for (Instruction.Binary multiply : d.multiplies) {
+            Register result = multiply.def();
+            for (Instruction use : ssaDefUse.get(result).useList) {
+                replaceUse(use, result, d.reg);
+                SSAEdges.recordUse(ssaDefUse, use, d.reg);
+            }
+            for (Register reg : multiply.uses())
+                ssaDefUse.get(reg).useList.remove(multiply);
+            multiply.block.deleteInstruction(multiply);
+            ssaDefUse.remove(result);
+            reduced++;
+        }
+    }
+
+    /**
+     * Rewrites the exit test of the loop to use the derived variable
+     * instead of the basic variable, and removes the basic variable if it
+     * is no longer used. Returns true if the test was replaced.
+     */
+    private boolean replaceTest(InductionVariables ivs, DerivedIV d) {
+        var iv = d.iv;
+        if (iv.step <= 0 || d.factor <= 0 || !(iv.init instanceof Operand.ConstantOperand init))
+            return false;
+        // The registers holding the basic variable, its increment and copies of
+        // either must only be used by each other, and by a single comparison.
+        // Only the phi and its copies hold the value the derived variable
+        // tracks; the increment and its copies are one step ahead.
+        Set<Register> web = new HashSet<>();
+        Set<Register> current = new HashSet<>();
+        List<Instruction> chain = new ArrayList<>();
+        Deque<Register> worklist = new ArrayDeque<>();
+        Instruction.Binary compare = null;
+        web.add(iv.reg());
+        current.add(iv.reg());
+        worklist.add(iv.reg());
+        while (!worklist.isEmpty()) {
+            Register reg = worklist.remove();
+            for (Instruction use : ssaDefUse.get(reg).useList) {
+                if (use == iv.phi || chain.contains(use))
+                    continue;
+                if (use == iv.increment || use instanceof Instruction.Move) {
+                    chain.add(use);
+                    if (use instanceof Instruction.Move && current.contains(reg))
+                        current.add(use.def());
+                    if (web.add(use.def()))
+                        worklist.add(use.def());
+                }
+                else if (compare == null && use instanceof Instruction.Binary binary)
+                    compare = binary;
+                else
+                    return false;
+            }
+        }
+        if (compare == null
+                || !(compare.left() instanceof Operand.RegisterOperand left)
+                || !current.contains(left.reg)
+                || !(compare.right() instanceof Operand.ConstantOperand bound)
+                || !(compare.binOp.equals("<") || compare.binOp.equals("<=")))
+            return false;
+        // The comparison must only feed the exit branch
+        if (!ivs.loop._blocks.contains(compare.block)
+                || !(compare.block.instructions.getLast() instanceof Instruction.ConditionalBranch cbr)
+                || !InductionVariables.isReg(cbr.condition(), compare.def())
+                || ssaDefUse.get(compare.def()).useList.size() != 1)
+            return false;
+        // The variable ranges from init up to at most bound + step
+        long newBound;
+        try {
+            Math.multiplyExact(init.value, d.factor);
+            Math.multiplyExact(Math.addExact(bound.value, iv.step), d.factor);
+            newBound = bound.value * d.factor;
+        }
+        catch (ArithmeticException e) {
+            return false;
+        }
+        var replacement = new Instruction.Binary(compare.binOp, compare.result(),
+                new Operand.RegisterOperand(d.reg), new Operand.ConstantOperand(newBound, bound.type));
+        compare.block.update(compare.block.instructions.indexOf(compare), replacement);
+        SSAEdges.recordUse(ssaDefUse, replacement, d.reg);
+        // The basic variable is now dead
+        for (Instruction instruction : chain)
+            instruction.block.deleteInstruction(instruction);
+        iv.phi.block.deleteInstruction(iv.phi);
+        removed++;
+        return true;
+    }
+
+    private static void replaceUse(Instruction use, Register source, Register target) {
+        if (use instanceof Instruction.Phi phi) {
+            for (int i = 0; i < phi.numInputs(); i++) {
+                if (phi.isRegisterInput(i) && phi.inputAsRegister(i).id == source.id)
+                    phi.replaceInput(i, target);
+            }
+        }
+        else
+            use.replaceUse(source, target);
+    }
+}
@@ -0,0 +1,162 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import java.util.*;
+
+/**
+ * Turns self recursive tail calls into loops.
+ *
+ * A call is in tail position when the only thing the caller does after it is
+ * to return the value of the call. When the callee is the function itself the
+ * call can be replaced by moves of the arguments into the parameters, followed
+ * by a jump back to the start of the function, so that an accumulator style
+ * function such as fact(n-1, acc*n) runs in a constant amount of stack.
+ *
+ * The pass runs on the initial IR, before inlining and EnterSSA. The entry
+ * block is split after the arg instructions, and the split off block becomes
+ * the head of the new loop; EnterSSA later inserts phis for the parameters.
+ * Tail calls to other functions are not changed here. Once all passes have
+ * run, they are marked when TCE is on, and the interpreter reuses the
+ * caller's frame for them.
+ *
+ * Functions that are already in SSA form (incremental SSA) are left alone.
+ */
+public class TailCallElimination {
+
+    private final CompiledFunction function;
+    /**
+     * Number of tail calls replaced by jumps
+     */
+    public int eliminated = 0;
+
+    public TailCallElimination(CompiledFunction function) {
+        this.function = function;
+    }
+
+    public boolean apply(EnumSet<Options> options) {
+        if (options.contains(Options.TCE) && !function.isSSA) {
+            eliminated = 0;
+            BasicBlock start = null;
+            for (Instruction.Call call : Inliner.findCalls(function)) {
+                if (call.callee.code != function || !isTailCall(function, call))
+                    continue;
+                if (start == null)
+                    start = splitEntry();
+                replaceCall(call, start);
+                eliminated++;
+            }
+            if (eliminated > 0) {
+                function.setFrameSize(function.registerPool.numRegisters());
+                function.analyses.invalidateAll();
+            }
+            if (options.contains(Options.DUMP_POST_TCE_IR)) function.dumpIR(false, "Post TCE IR");
+        }
+        return eliminated > 0;
+    }
+
+    /**
+     * Marks the calls that are in tail position. Passes may add instructions
+     * after a call, so this must be done after the last one.
+     */
+    public static void markTailCalls(CompiledFunction function) {
+        for (BasicBlock block : function.getBlocks()) {
+            for (int pos = 0; pos < block.instructions.size(); pos++) {
+                if (block.instructions.get(pos) instanceof Instruction.Call call)
+                    call.tailCall = isTailCall(function, block, pos, call);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the call is followed by a return of its value,
+     * or for a call without a value, by jumps to the exit block
+     */
+    public static boolean isTailCall(CompiledFunction function, Instruction.Call call) {
+        return isTailCall(function, call.block, call.block.instructions.indexOf(call), call);
+    }
+
+    /**
+     * As above, where pos is the position of the call in its block
+     */
+    private static boolean isTailCall(CompiledFunction function, BasicBlock block, int pos, Instruction.Call call) {
+        if (pos+1 >= block.instructions.size())
+            return false;
+        Instruction next = block.instructions.get(pos+1);
+        if (call.returnOperand() == null) {
+            // Skip over empty blocks
+            Set<BasicBlock> visited = new HashSet<>();
+            while (next instanceof Instruction.Jump jump
+                    && jump.jumpTo != function.exit
+                    && jump.jumpTo.instructions.size() == 1
+                    && visited.add(jump.jumpTo))
+                next = jump.jumpTo.instructions.get(0);
+            return next instanceof Instruction.Jump jump && jump.jumpTo == function.exit;
+        }
+        return next instanceof Instruction.Ret ret
+                && ret.value() instanceof Operand.RegisterOperand value
+                && value.frameSlot() == call.returnOperand().frameSlot();
+    }
+
+    /**
+     * Moves everything after the arg instructions in the entry block
+     * to a new block, which becomes the target of the tail calls
+     */
+    private BasicBlock splitEntry() {
+        BasicBlock entry = function.entry;
+        BasicBlock start = function.createBlock(true);
+        int pos = 0;
+        while (pos < entry.instructions.size() && entry.instructions.get(pos) instanceof Instruction.ArgInstruction)
+            pos++;
+        var tail = entry.instructions.subList(pos, entry.instructions.size());
+        for (Instruction instruction : tail)
+            start.add(instruction);
+        tail.clear();
+        for (BasicBlock succ : entry.successors) {
+            succ.predecessors.set(succ.whichPred(entry), start);
+            start.successors.add(succ);
+        }
+        entry.successors.clear();
+        entry.add(new Instruction.Jump(start));
+        entry.addSuccessor(start);
+        return start;
+    }
+
+    private void replaceCall(Instruction.Call call, BasicBlock start) {
+        BasicBlock block = call.block;
+        List<Operand.RegisterOperand> params = new ArrayList<>();
+        for (Instruction instruction : function.entry.instructions) {
+            if (instruction instanceof Instruction.ArgInstruction arg)
+                params.add(arg.arg());
+        }
+        Operand[] args = call.args();
+        List<Instruction> moves = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            Operand arg = args[i];
+            // An argument that is a parameter may be overwritten
+            // by the moves before it is read, so copy it first
+            if (arg instanceof Operand.RegisterOperand reg && isParam(params, reg.reg) && reg.reg.id != params.get(i).reg.id) {
+                var temp = new Operand.TempRegisterOperand(function.registerPool.newTempReg(reg.type));
+                block.add(block.instructions.indexOf(call), new Instruction.Move(arg, temp));
+                arg = temp;
+            }
+            var param = params.get(i);
+            moves.add(new Instruction.Move(arg, param.copy(param.reg)));
+        }
+        // Drop the call and everything after it
+        var tail = block.instructions.subList(block.instructions.indexOf(call), block.instructions.size());
+        tail.clear();
+        for (Instruction move : moves)
+            block.add(move);
+        block.add(new Instruction.Jump(start));
+        for (BasicBlock succ : new ArrayList<>(block.successors))
+            block.removeSuccessor(succ);
+        block.addSuccessor(start);
+    }
+
+    private static boolean isParam(List<Operand.RegisterOperand> params, Register reg) {
+        for (Operand.RegisterOperand param : params) {
+            if (param.reg.id == reg.id)
+                return true;
+        }
+        return false;
+    }
+}
@@ -13,6 +13,10 @@ import com.compilerprogramming.ezlang.types.TypeDictionary;
 public class Interpreter {
 
     TypeDictionary typeDictionary;
+    /**
+     * Number of instructions executed, across all calls
+     */
+    long instructionCount;
 
     public Interpreter(TypeDictionary typeDictionary) {
         this.typeDictionary = typeDictionary;
@@ -30,6 +34,10 @@ public class Interpreter {
         }
     }
 
+    public long instructionCount() {
+        return instructionCount;
+    }
+
     public Value interpret(ExecutionStack execStack, Frame frame) {
         CompiledFunction currentFunction = frame.bytecodeFunction;
         BasicBlock currentBlock = currentFunction.entry;
@@ -43,6 +51,7 @@ public class Interpreter {
 
             ip++;
             instruction = currentBlock.instructions.get(ip);
+            instructionCount++;
             switch (instruction) {
                 case Instruction.Ret retInst -> {
                     if (retInst.value() instanceof Operand.ConstantOperand constantOperand) {
@@ -103,19 +112,26 @@ public class Interpreter {
                         done = true;
                 }
                 case Instruction.Call callInst -> {
+                    if (callInst.tailCall) {
+                        // The caller's frame is not needed after a tail call,
+                        // so the callee reuses it, and returns directly to our caller
+                        Operand[] args = callInst.args();
+                        Value[] values = new Value[args.length];
+                        for (int i = 0; i < args.length; i++)
+                            values[i] = argValue(execStack, base, args[i]);
+                        for (int i = 0; i < args.length; i++)
+                            execStack.stack[base + i] = values[i];
+                        frame = new Frame(frame.caller, base, callInst.callee);
+                        currentFunction = frame.bytecodeFunction;
+                        currentBlock = currentFunction.entry;
+                        ip = -1;
+                        continue;
+                    }
                     // Copy args to new frame
                     int baseReg = base+currentFunction.frameSize();
                     int reg = baseReg;
                     for (Operand arg: callInst.args()) {
-                        if (arg instanceof Operand.RegisterOperand param) {
-                            execStack.stack[reg] = execStack.stack[base + param.frameSlot()];
-                        }
-                        else if (arg instanceof Operand.ConstantOperand constantOperand) {
-                            execStack.stack[reg] = new Value.IntegerValue(constantOperand.value);
-                        }
-                        else if (arg instanceof Operand.NullConstantOperand) {
-                            execStack.stack[reg] = new Value.NullValue();
-                        }
+                        execStack.stack[reg] = argValue(execStack, base, arg);
                         reg += 1;
                     }
                     // Call function
@@ -284,6 +300,29 @@ public class Interpreter {
                         execStack.stack[base + getFieldInst.destOperand().frameSlot()] = structValue.fields[index];
                     } else throw new IllegalStateException();
                 }
+                case Instruction.NullCheck nullCheckInst -> {
+                    if (nullCheckInst.refOperand() instanceof Operand.RegisterOperand refOperand) {
+                        Value value = execStack.stack[base + refOperand.frameSlot()];
+                        if (value == null || value instanceof Value.NullValue)
+                            throw new InterpreterException("Null reference: " + refOperand);
+                    }
+                    else throw new InterpreterException("Null reference");
+                }
+                case Instruction.BoundsCheck boundsCheckInst -> {
+                    if (boundsCheckInst.arrayOperand() instanceof Operand.RegisterOperand arrayOperand) {
+                        Value.ArrayValue arrayValue = (Value.ArrayValue) execStack.stack[base + arrayOperand.frameSlot()];
+                        long index;
+                        if (boundsCheckInst.indexOperand() instanceof Operand.ConstantOperand constant)
+                            index = constant.value;
+                        else if (boundsCheckInst.indexOperand() instanceof Operand.RegisterOperand registerOperand)
+                            index = ((Value.IntegerValue) execStack.stack[base + registerOperand.frameSlot()]).value;
+                        else throw new IllegalStateException();
+                        // A store may append to the array
+                        long limit = boundsCheckInst.append ? arrayValue.values.size() + 1 : arrayValue.values.size();
+                        if (index < 0 || index >= limit)
+                            throw new InterpreterException("Array index " + index + " out of bounds for length " + arrayValue.values.size());
+                    } else throw new IllegalStateException();
+                }
                 case Instruction.ArgInstruction argInst -> {}
                 default -> throw new IllegalStateException("Unexpected value: " + instruction);
             }
@@ -291,6 +330,16 @@ public class Interpreter {
         return returnValue;
     }
 
+    private static Value argValue(ExecutionStack execStack, int base, Operand arg) {
+        if (arg instanceof Operand.RegisterOperand param)
+            return execStack.stack[base + param.frameSlot()];
+        else if (arg instanceof Operand.ConstantOperand constantOperand)
+            return new Value.IntegerValue(constantOperand.value);
+        else if (arg instanceof Operand.NullConstantOperand)
+            return new Value.NullValue();
+        else throw new IllegalStateException();
+    }
+
     static class Frame {
         Frame caller;
         int base;
@@ -0,0 +1,38 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Times the Cooper-Harvey-Kennedy and Semi-NCA dominator algorithms
+ * on the large graphs from TestDominators. First arg is the number
+ * of timed iterations, default 10.
+ */
+public class DominatorBench {
+
+    private static long time(BasicBlock root, DominatorTree.Algorithm algorithm, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+            new DominatorTree(root, algorithm);
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    private static void compareAlgorithms(String name, Function<List<BasicBlock>, BasicBlock> graphBuilder, int iterations) {
+        List<BasicBlock> nodes = new ArrayList<>();
+        BasicBlock root = graphBuilder.apply(nodes);
+        // warm up
+        time(root, DominatorTree.Algorithm.COOPER_HARVEY_KENNEDY, 5);
+        time(root, DominatorTree.Algorithm.SEMI_NCA, 5);
+        long chk = time(root, DominatorTree.Algorithm.COOPER_HARVEY_KENNEDY, iterations);
+        long snca = time(root, DominatorTree.Algorithm.SEMI_NCA, iterations);
+        System.out.println(name + " (" + nodes.size() + " blocks): Cooper-Harvey-Kennedy "
+                + chk/1000 + "us, Semi-NCA " + snca/1000 + "us");
+    }
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        compareAlgorithms("Nested loops", nodes -> TestDominators.makeNestedLoops(nodes, 500), iterations);
+        compareAlgorithms("If chain", nodes -> TestDominators.makeIfChain(nodes, 5000), iterations);
+    }
+}
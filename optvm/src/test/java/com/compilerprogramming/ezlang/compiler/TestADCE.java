@@ -0,0 +1,186 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.types.Symbol;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+public class TestADCE {
+
+    String compileSrc(String src) {
+        var compiler = new Compiler();
+        var typeDict = compiler.compileSrc(src);
+        StringBuilder sb = new StringBuilder();
+        var options = EnumSet.of(Options.SCCP, Options.ADCE);
+        for (Symbol s : typeDict.bindings.values()) {
+            if (s instanceof Symbol.FunctionTypeSymbol f) {
+                var functionBuilder = (CompiledFunction) f.code();
+                new EnterSSA(functionBuilder, options);
+                new SparseConditionalConstantPropagation().constantPropagation(functionBuilder).apply(options);
+                new AggressiveDeadCodeElimination(functionBuilder).apply(options);
+                functionBuilder.toStr(sb, false);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testDeadArithmetic() {
+        String src = """
+                func foo(a: Int, b: Int)->Int {
+                    var x = a * b
+                    var y = x + 1
+                    var z = a - b
+                    return z
+                }
+                """;
+        String actual = compileSrc(src);
+        String expected = """
+L0:
+    arg a_0
+    arg b_0
+    %t7_0 = a_0-b_0
+    z_0 = %t7_0
+    ret z_0
+    goto  L1
+L1:
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testDeadBranch() {
+        String src = """
+                func foo(a: Int, b: Int)->Int {
+                    var x = 0
+                    if (a > b)
+                        x = a
+                    else
+                        x = b
+                    return a + b
+                }
+                """;
+        String actual = compileSrc(src);
+        String expected = """
+L0:
+    arg a_0
+    arg b_0
+    %t4_0 = a_0+b_0
+    ret %t4_0
+    goto  L1
+L1:
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testDeadLoop() {
+        String src = """
+                func foo(n: Int)->Int {
+                    var s = 0
+                    var i = 0
+                    while (i < n) {
+                        s = s + i
+                        i = i + 1
+                    }
+                    return n
+                }
+                """;
+        String actual = compileSrc(src);
+        // The loop computes nothing that is used, so it is removed entirely
+        String expected = """
+L0:
+    arg n_0
+    ret n_0
+    goto  L1
+L1:
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testUsefulBranch() {
+        String src = """
+                func foo(a: [Int], n: Int)->Int {
+                    var x = 1
+                    if (n > 0) {
+                        a[0] = n
+                        x = 2
+                    }
+                    var y = x * 3
+                    return n
+                }
+                """;
+        String actual = compileSrc(src);
+        // The branch guards a store, so it is kept, but the phi for x is removed
+        String expected = """
+L0:
+    arg a_0
+    arg n_0
+    %t4_0 = n_0>0
+    if %t4_0 goto L2 else goto L3
+L2:
+    a_0[0] = n_0
+    goto  L3
+L3:
+    ret n_0
+    goto  L1
+L1:
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testConstantBranchFolded() {
+        String src = """
+                func foo(a: Int)->Int {
+                    var x = 1
+                    var y = 0
+                    if (x == 1)
+                        y = a + 1
+                    else
+                        y = a - 1
+                    return y
+                }
+                """;
+        String actual = compileSrc(src);
+        // SCCP removes the else branch, ADCE then merges the remaining blocks
+        String expected = """
+L0:
+    arg a_0
+    %t4_0 = a_0+1
+    y_2 = %t4_0
+    y_3 = y_2
+    ret y_3
+    goto  L1
+L1:
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testFewerInstructionsExecuted() {
+        String src = """
+                func foo()->Int {
+                    var s = 0
+                    var t = 0
+                    var i = 0
+                    while (i < 10) {
+                        if (i > 5)
+                            t = t + i * 2
+                        else
+                            t = t - 1
+                        s = s + i
+                        i = i + 1
+                    }
+                    return s
+                }
+                """;
+        var options = EnumSet.copyOf(Options.OPT);
+        long withoutADCE = TestGVN.run(src, "foo", options, 45);
+        options.add(Options.ADCE);
+        long withADCE = TestGVN.run(src, "foo", options, 45);
+        Assert.assertTrue(withADCE < withoutADCE);
+    }
+}
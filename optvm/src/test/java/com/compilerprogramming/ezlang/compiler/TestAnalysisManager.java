@@ -0,0 +1,121 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.types.Symbol;
+import com.compilerprogramming.ezlang.types.TypeDictionary;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+public class TestAnalysisManager {
+
+    static CompiledFunction compile(String src, String functionName, EnumSet<Options> options) {
+        var compiler = new Compiler();
+        TypeDictionary typeDict = compiler.compileSrc(src, options);
+        var symbol = (Symbol.FunctionTypeSymbol) typeDict.lookup(functionName);
+        return (CompiledFunction) symbol.code();
+    }
+
+    @Test
+    public void testDominatorsComputedOnce() {
+        String src = """
+                func factorial(num: Int)->Int {
+                    var result = 1
+                    while (num > 1)
+                    {
+                      result = result * num
+                      num = num - 1
+                    }
+                    return result
+                }
+                """;
+        var function = compile(src, "factorial", Options.OPT);
+        // EnterSSA, CCP and ExitSSA all share the dominator tree
+        // because SCCP does not remove any edges
+        Assert.assertEquals(1, function.analyses.computeCount(Analysis.DOMINATORS));
+        Assert.assertTrue(function.analyses.isValid(Analysis.DOMINATORS));
+    }
+
+    @Test
+    public void testDominatorsRecomputedAfterCFGChange() {
+        String src = """
+                func foo()->Int {
+                    var i = 1
+                    if (i == 0)
+                        i = 2
+                    else
+                        i = 3
+                    return i
+                }
+                """;
+        var function = compile(src, "foo", Options.OPT);
+        // SCCP removes an edge so the dominator tree must be recomputed
+        Assert.assertEquals(2, function.analyses.computeCount(Analysis.DOMINATORS));
+    }
+
+    @Test
+    public void testLoops() {
+        String src = """
+                func foo(n: Int)->Int {
+                    var sum = 0
+                    var i = 0
+                    while (i < n) {
+                        var j = 0
+                        while (j < n) {
+                            sum = sum + j
+                            j = j + 1
+                        }
+                        i = i + 1
+                    }
+                    var k = 0
+                    while (k < n) {
+                        sum = sum + k
+                        k = k + 1
+                    }
+                    return sum
+                }
+                """;
+        var function = compile(src, "foo", Options.NONE);
+        var loops = function.analyses.loops();
+        Assert.assertEquals(3, loops.size());
+        int outermost = 0;
+        for (LoopNest loop: loops) {
+            if (loop._parent == null) {
+                outermost++;
+                Assert.assertEquals(1, loop._depth);
+            }
+            else {
+                Assert.assertEquals(2, loop._depth);
+                Assert.assertTrue(loop._parent._kids.contains(loop));
+            }
+            Assert.assertSame(loop, loop._loopHead.loop);
+        }
+        Assert.assertEquals(2, outermost);
+        // Cached
+        Assert.assertSame(loops, function.analyses.loops());
+        Assert.assertEquals(1, function.analyses.computeCount(Analysis.LOOPS));
+        // Invalidating dominators also invalidates loops
+        function.analyses.invalidate(EnumSet.of(Analysis.DOMINATORS));
+        Assert.assertFalse(function.analyses.isValid(Analysis.LOOPS));
+        function.analyses.loops();
+        Assert.assertEquals(2, function.analyses.computeCount(Analysis.LOOPS));
+        Assert.assertEquals(2, function.analyses.computeCount(Analysis.DOMINATORS));
+    }
+
+    @Test
+    public void testLiveness() {
+        String src = """
+                func foo(n: Int)->Int {
+                    return n+1
+                }
+                """;
+        var function = compile(src, "foo", Options.NONE);
+        function.analyses.liveness();
+        function.analyses.liveness();
+        Assert.assertEquals(1, function.analyses.computeCount(Analysis.LIVENESS));
+        function.analyses.preserve(Analysis.CFG);
+        Assert.assertFalse(function.hasLiveness);
+        function.analyses.liveness();
+        Assert.assertEquals(2, function.analyses.computeCount(Analysis.LIVENESS));
+    }
+}
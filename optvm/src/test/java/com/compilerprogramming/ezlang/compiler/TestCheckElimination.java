@@ -0,0 +1,262 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.exceptions.InterpreterException;
+import com.compilerprogramming.ezlang.interpreter.Interpreter;
+import com.compilerprogramming.ezlang.types.Symbol;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+public class TestCheckElimination {
+
+    String compileSrc(String src) {
+        var compiler = new Compiler();
+        var options = EnumSet.of(Options.CHECKS, Options.CHECK_ELIM);
+        var typeDict = compiler.compileSrc(src, options);
+        StringBuilder sb = new StringBuilder();
+        for (Symbol s : typeDict.bindings.values()) {
+            if (s instanceof Symbol.FunctionTypeSymbol f) {
+                var functionBuilder = (CompiledFunction) f.code();
+                new EnterSSA(functionBuilder, options);
+                new CheckElimination(functionBuilder).apply(options);
+                functionBuilder.toStr(sb, false);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testRepeatedAccess() {
+        String src = """
+                struct Point { var x: Int var y: Int }
+                func foo(p: Point, a: [Int], i: Int)->Int {
+                    p.x = a[i] + a[i]
+                    a[i] = p.x + p.y
+                    return a[i]
+                }
+                """;
+        String actual = compileSrc(src);
+        String expected = """
+L0:
+    arg p_0
+    arg a_0
+    arg i_0
+    nullcheck a_0
+    boundscheck a_0[i_0]
+    %t3_0 = a_0[i_0]
+    %t4_0 = a_0[i_0]
+    %t5_0 = %t3_0+%t4_0
+    nullcheck p_0
+    p_0.x = %t5_0
+    %t6_0 = p_0.x
+    %t7_0 = p_0.y
+    %t8_0 = %t6_0+%t7_0
+    a_0[i_0] = %t8_0
+    %t9_0 = a_0[i_0]
+    ret %t9_0
+    goto  L1
+L1:
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testNewArray() {
+        String src = """
+                func foo()->Int {
+                    var a = new [Int]{1,2,3}
+                    var b = new [Int]{len=10}
+                    b[9] = a[2]
+                    return b[0] + a[3]
+                }
+                """;
+        String actual = compileSrc(src);
+        String expected = """
+L0:
+    %t2_0 = New([Int], len=3)
+    %t2_0[0] = 1
+    %t2_0[1] = 2
+    %t2_0[2] = 3
+    a_0 = %t2_0
+    %t3_0 = New([Int], len=10)
+    b_0 = %t3_0
+    %t4_0 = a_0[2]
+    b_0[9] = %t4_0
+    %t5_0 = b_0[0]
+    boundscheck a_0[3]
+    %t6_0 = a_0[3]
+    %t7_0 = %t5_0+%t6_0
+    ret %t7_0
+    goto  L1
+L1:
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testLoop() {
+        String src = """
+                func sum(n: Int)->Int {
+                    var a = new [Int]{len=n}
+                    var i = 0
+                    while (i < n) {
+                        a[i] = i
+                        i = i + 1
+                    }
+                    var s = 0
+                    i = 0
+                    while (i < n) {
+                        s = s + a[i] + a[i-1]
+                        i = i + 1
+                    }
+                    return s
+                }
+                """;
+        String actual = compileSrc(src);
+        String expected = """
+L0:
+    arg n_0
+    %t4_0 = New([Int], len=n_0)
+    a_0 = %t4_0
+    i_0 = 0
+    goto  L2
+L2:
+    i_1 = phi(i_0, i_5)
+    %t5_0 = i_1<n_0
+    if %t5_0 goto L3 else goto L4
+L3:
+    a_0[i_1] = i_1
+    %t6_0 = i_1+1
+    i_5 = %t6_0
+    goto  L2
+L4:
+    s_0 = 0
+    i_2 = 0
+    goto  L5
+L5:
+    s_1 = phi(s_0, s_2)
+    i_3 = phi(i_2, i_4)
+    %t7_0 = i_3<n_0
+    if %t7_0 goto L6 else goto L7
+L6:
+    %t8_0 = a_0[i_3]
+    %t9_0 = s_1+%t8_0
+    %t10_0 = i_3-1
+    boundscheck a_0[%t10_0]
+    %t11_0 = a_0[%t10_0]
+    %t12_0 = %t9_0+%t11_0
+    s_2 = %t12_0
+    %t13_0 = i_3+1
+    i_4 = %t13_0
+    goto  L5
+L7:
+    ret s_1
+    goto  L1
+L1:
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testNullComparison() {
+        String src = """
+                struct Node { var next: Node? var value: Int }
+                func foo(n: Node?)->Int {
+                    if (n != null)
+                        return n.value
+                    return 0
+                }
+                """;
+        String actual = compileSrc(src);
+        Assert.assertFalse(actual.contains("nullcheck"));
+    }
+
+    @Test
+    public void testChecksFail() {
+        String src = """
+                func foo()->Int {
+                    var a = new [Int]{1,2,3}
+                    var i = 0
+                    var s = 0
+                    while (i <= 3) {
+                        s = s + a[i]
+                        i = i + 1
+                    }
+                    return s
+                }
+                """;
+        var options = EnumSet.copyOf(Options.OPT);
+        options.add(Options.CHECKS);
+        options.add(Options.CHECK_ELIM);
+        var typeDict = new Compiler().compileSrc(src, options);
+        try {
+            new Interpreter(typeDict).run("foo");
+            Assert.fail("Expected bounds check to fail");
+        }
+        catch (InterpreterException e) {
+            Assert.assertTrue(e.getMessage().contains("out of bounds"));
+        }
+    }
+
+    @Test
+    public void testIndexOverflow() {
+        // 2 * 2^62 wraps to a negative index, so the check must stay
+        String src = """
+                func get(k: Int)->Int {
+                    var a = new [Int]{len=4, value=1}
+                    var i = k * (1073741824 * 1073741824 * 4)
+                    if (k >= 0)
+                        if (i < 4)
+                            return a[i]
+                    return 0
+                }
+                func foo()->Int {
+                    return get(2)
+                }
+                """;
+        var options = EnumSet.copyOf(Options.OPT);
+        options.add(Options.CHECKS);
+        options.add(Options.CHECK_ELIM);
+        var typeDict = new Compiler().compileSrc(src, options);
+        try {
+            new Interpreter(typeDict).run("foo");
+            Assert.fail("Expected bounds check to fail");
+        }
+        catch (InterpreterException e) {
+            Assert.assertTrue(e.getMessage().contains("out of bounds"));
+        }
+    }
+
+    @Test
+    public void testFewerInstructionsExecuted() {
+        String src = """
+                func dot(a: [Int], b: [Int], n: Int)->Int {
+                    var s = 0
+                    var i = 0
+                    while (i < n) {
+                        s = s + a[i] * b[i] + a[i]
+                        i = i + 1
+                    }
+                    return s
+                }
+                func foo()->Int {
+                    var n = 10
+                    var a = new [Int]{len=n, value=2}
+                    var b = new [Int]{len=n, value=3}
+                    var i = 0
+                    while (i < n) {
+                        a[i] = a[i] + i
+                        i = i + 1
+                    }
+                    return dot(a, b, n)
+                }
+                """;
+        var options = EnumSet.copyOf(Options.OPT);
+        options.add(Options.CHECKS);
+        long without = TestGVN.run(src, "foo", options, 260);
+        options.add(Options.CHECK_ELIM);
+        long with = TestGVN.run(src, "foo", options, 260);
+        Assert.assertTrue(with < without);
+    }
+}
@@ -0,0 +1,109 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.interpreter.Interpreter;
+import com.compilerprogramming.ezlang.interpreter.Value;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+public class TestCompileBudget {
+
+    /**
+     * Generates a function with n if statements, the function returns n
+     */
+    static String bigFunction(int n) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("func big(a: Int)->Int {\n");
+        sb.append("    var s = 0\n");
+        for (int i = 0; i < n; i++) {
+            sb.append("    if (a > ").append(i).append(")\n");
+            sb.append("        s = s + 1\n");
+        }
+        sb.append("    return s\n");
+        sb.append("}\n");
+        sb.append("func small()->Int {\n");
+        sb.append("    return big(").append(n).append(")\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    static PassManager.Report compileAndRun(Compiler compiler, String src, EnumSet<Options> options, long expected) {
+        var typeDict = compiler.compileSrc(src, options);
+        var value = new Interpreter(typeDict).run("small");
+        Assert.assertTrue(value instanceof Value.IntegerValue);
+        Assert.assertEquals(expected, ((Value.IntegerValue) value).value);
+        return compiler.passReport;
+    }
+
+    static EnumSet<Options> options() {
+        var options = EnumSet.copyOf(Options.OPT);
+        options.add(Options.GVN);
+        options.add(Options.ADCE);
+        return options;
+    }
+
+    @Test
+    public void testWithinBudget() {
+        var report = compileAndRun(new Compiler(), bigFunction(50), options(), 50);
+        Assert.assertTrue(report.degradations.isEmpty());
+        Assert.assertNotNull(report.get("GVN"));
+    }
+
+    @Test
+    public void testReduced() {
+        var compiler = new Compiler();
+        compiler.compileBudget.maxBlocks = 100;
+        var report = compileAndRun(compiler, bigFunction(50), options(), 50);
+        Assert.assertEquals(1, report.degradations.size());
+        var degradation = report.degradations.get(0);
+        Assert.assertEquals("big", degradation.function);
+        Assert.assertEquals(CompileBudget.Level.REDUCED, degradation.level);
+        Assert.assertEquals(java.util.List.of("CCP", "GVN", "ADCE"), degradation.skipped);
+        // GVN still runs on the small function
+        Assert.assertEquals(1, report.get("GVN").runs);
+    }
+
+    @Test
+    public void testMinimal() {
+        var compiler = new Compiler();
+        compiler.compileBudget.maxBlocks = 20;
+        var report = compileAndRun(compiler, bigFunction(50), options(), 50);
+        var degradation = report.degradations.get(0);
+        Assert.assertEquals(CompileBudget.Level.MINIMAL, degradation.level);
+        Assert.assertTrue(degradation.skipped.contains("graph coloring"));
+    }
+
+    @Test
+    public void testMinimalWithIncrementalSSA() {
+        var compiler = new Compiler();
+        compiler.compileBudget.maxBlocks = 20;
+        var options = options();
+        options.add(Options.ISSA);
+        var report = compileAndRun(compiler, bigFunction(50), options, 50);
+        Assert.assertEquals(CompileBudget.Level.MINIMAL, report.degradations.get(0).level);
+    }
+
+    @Test
+    public void testTooManyRegisters() {
+        var compiler = new Compiler();
+        compiler.compileBudget.maxRegistersForGraphColoring = 10;
+        var report = compileAndRun(compiler, bigFunction(50), options(), 50);
+        var degradation = report.degradations.get(0);
+        Assert.assertEquals("big", degradation.function);
+        Assert.assertEquals(CompileBudget.Level.FULL, degradation.level);
+        Assert.assertEquals(java.util.List.of("graph coloring"), degradation.skipped);
+    }
+
+    @Test
+    public void testTimeBudget() {
+        var compiler = new Compiler();
+        compiler.compileBudget.maxNanosPerFunction = 0;
+        var report = compileAndRun(compiler, bigFunction(50), options(), 50);
+        Assert.assertEquals(2, report.degradations.size());
+        var degradation = report.degradations.get(0);
+        Assert.assertEquals("time budget exceeded", degradation.reason);
+        Assert.assertTrue(degradation.skipped.contains("SCCP"));
+        Assert.assertNull(report.get("GVN"));
+    }
+}
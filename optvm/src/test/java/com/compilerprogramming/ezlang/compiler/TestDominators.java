@@ -7,7 +7,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class TestDominators {
-    BasicBlock add(List<BasicBlock> nodes, BasicBlock node) {
+    static BasicBlock add(List<BasicBlock> nodes, BasicBlock node) {
         nodes.add(node);
         return node;
     }
@@ -112,4 +112,82 @@ public class TestDominators {
         return;
     }
 
+
+    private static void assertSameDominators(List<BasicBlock> nodes, BasicBlock root) {
+        new DominatorTree(root, DominatorTree.Algorithm.COOPER_HARVEY_KENNEDY);
+        List<BasicBlock> idoms = new ArrayList<>();
+        List<List<Integer>> frontiers = new ArrayList<>();
+        for (BasicBlock n: nodes) {
+            idoms.add(n.idom);
+            frontiers.add(n.dominationFrontier.stream().map(b->b.bid).sorted().toList());
+        }
+        new DominatorTree(root, DominatorTree.Algorithm.SEMI_NCA);
+        for (int i = 0; i < nodes.size(); i++) {
+            BasicBlock n = nodes.get(i);
+            Assert.assertSame(idoms.get(i), n.idom);
+            Assert.assertEquals(frontiers.get(i), n.dominationFrontier.stream().map(b->b.bid).sorted().toList());
+        }
+    }
+
+    @Test
+    public void testSemiNCA() {
+        List<BasicBlock> nodes = new ArrayList<>();
+        BasicBlock root = makeGraph(nodes);
+        assertSameDominators(nodes, root);
+        nodes = new ArrayList<>();
+        root = makeGraph2(nodes);
+        assertSameDominators(nodes, root);
+    }
+
+    /**
+     * Loops nested depth deep, each loop has a header and a latch,
+     * the innermost loop has a body.
+     */
+    static BasicBlock makeNestedLoops(List<BasicBlock> nodes, int depth) {
+        int bid = 0;
+        BasicBlock entry = add(nodes, new BasicBlock(bid++));
+        BasicBlock[] heads = new BasicBlock[depth];
+        BasicBlock prev = entry;
+        for (int i = 0; i < depth; i++) {
+            heads[i] = add(nodes, new BasicBlock(bid++, prev));
+            prev = heads[i];
+        }
+        BasicBlock body = add(nodes, new BasicBlock(bid++, heads[depth-1]));
+        body.addSuccessor(heads[depth-1]);
+        for (int i = depth-1; i >= 0; i--) {
+            BasicBlock latch = add(nodes, new BasicBlock(bid++, heads[i]));
+            if (i > 0)
+                latch.addSuccessor(heads[i-1]);
+            else
+                add(nodes, new BasicBlock(bid++, latch));
+        }
+        return entry;
+    }
+
+    /**
+     * A long chain of if statements, like a switch
+     */
+    static BasicBlock makeIfChain(List<BasicBlock> nodes, int length) {
+        int bid = 0;
+        BasicBlock entry = add(nodes, new BasicBlock(bid++));
+        List<BasicBlock> arms = new ArrayList<>();
+        BasicBlock test = entry;
+        for (int i = 0; i < length; i++) {
+            arms.add(add(nodes, new BasicBlock(bid++, test)));
+            test = add(nodes, new BasicBlock(bid++, test));
+        }
+        arms.add(test);
+        add(nodes, new BasicBlock(bid++, arms.toArray(new BasicBlock[0])));
+        return entry;
+    }
+
+    @Test
+    public void testDominatorAlgorithmsOnLargeGraphs() {
+        List<BasicBlock> nodes = new ArrayList<>();
+        BasicBlock root = makeNestedLoops(nodes, 500);
+        assertSameDominators(nodes, root);
+        nodes = new ArrayList<>();
+        root = makeIfChain(nodes, 5000);
+        assertSameDominators(nodes, root);
+    }
 }
@@ -0,0 +1,209 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.interpreter.Interpreter;
+import com.compilerprogramming.ezlang.interpreter.Value;
+import com.compilerprogramming.ezlang.types.Symbol;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+public class TestGVN {
+
+    String compileSrc(String src) {
+        var compiler = new Compiler();
+        var typeDict = compiler.compileSrc(src);
+        StringBuilder sb = new StringBuilder();
+        var options = EnumSet.of(Options.GVN);
+        for (Symbol s : typeDict.bindings.values()) {
+            if (s instanceof Symbol.FunctionTypeSymbol f) {
+                var functionBuilder = (CompiledFunction) f.code();
+                new EnterSSA(functionBuilder, options);
+                new GlobalValueNumbering(functionBuilder).apply(options);
+                functionBuilder.toStr(sb, false);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testRedundantBinary() {
+        String src = """
+                func foo(a: Int, b: Int)->Int {
+                    var x = a + b
+                    var y = b + a
+                    var z = 0
+                    if (a > b)
+                        z = (a + b) * 2
+                    else
+                        z = (a + b) * 3
+                    return x + y + z
+                }
+                """;
+        String actual = compileSrc(src);
+        String expected = """
+L0:
+    arg a_0
+    arg b_0
+    %t5_0 = a_0+b_0
+    z_0 = 0
+    %t7_0 = a_0>b_0
+    if %t7_0 goto L2 else goto L3
+L2:
+    %t9_0 = %t5_0*2
+    goto  L4
+L4:
+    z_3 = phi(%t9_0, %t11_0)
+    %t12_0 = %t5_0+%t5_0
+    %t13_0 = %t12_0+z_3
+    ret %t13_0
+    goto  L1
+L1:
+L3:
+    %t11_0 = %t5_0*3
+    goto  L4
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testLoads() {
+        String src = """
+                struct Point { var x: Int var y: Int }
+                func foo(p: Point, a: [Int], i: Int)->Int {
+                    var s = p.x + p.x + a[i] + a[i]
+                    p.y = s
+                    s = s + p.y + p.x
+                    a[i] = 1
+                    return s + a[i]
+                }
+                """;
+        String actual = compileSrc(src);
+        String expected = """
+L0:
+    arg p_0
+    arg a_0
+    arg i_0
+    %t4_0 = p_0.x
+    %t6_0 = %t4_0+%t4_0
+    %t7_0 = a_0[i_0]
+    %t8_0 = %t6_0+%t7_0
+    %t10_0 = %t8_0+%t7_0
+    p_0.y = %t10_0
+    %t12_0 = %t10_0+%t10_0
+    %t13_0 = p_0.x
+    %t14_0 = %t12_0+%t13_0
+    a_0[i_0] = 1
+    %t15_0 = a_0[i_0]
+    %t16_0 = %t14_0+%t15_0
+    ret %t16_0
+    goto  L1
+L1:
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testLoadsAcrossCalls() {
+        String src = """
+                struct Point { var x: Int var y: Int }
+                func bar(p: Point) { p.x = 42 }
+                func foo(p: Point)->Int {
+                    var s = p.x
+                    bar(p)
+                    return s + p.x
+                }
+                """;
+        String actual = compileSrc(src);
+        String expected = """
+L0:
+    arg p_0
+    p_0.x = 42
+    goto  L1
+L1:
+L0:
+    arg p_0
+    %t2_0 = p_0.x
+    call bar params p_0
+    %t4_0 = p_0.x
+    %t5_0 = %t2_0+%t4_0
+    ret %t5_0
+    goto  L1
+L1:
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testLoadsInLoop() {
+        String src = """
+                struct Point { var x: Int var y: Int }
+                func foo(p: Point, n: Int)->Int {
+                    var s = p.x
+                    while (n > 0) {
+                        s = s + p.x
+                        p.x = n
+                        n = n - 1
+                    }
+                    return s
+                }
+                """;
+        String actual = compileSrc(src);
+        String expected = """
+L0:
+    arg p_0
+    arg n_0
+    %t3_0 = p_0.x
+    goto  L2
+L2:
+    s_1 = phi(%t3_0, %t6_0)
+    n_1 = phi(n_0, %t7_0)
+    %t4_0 = n_1>0
+    if %t4_0 goto L3 else goto L4
+L3:
+    %t5_0 = p_0.x
+    %t6_0 = s_1+%t5_0
+    p_0.x = n_1
+    %t7_0 = n_1-1
+    goto  L2
+L4:
+    ret s_1
+    goto  L1
+L1:
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    static long run(String src, String function, EnumSet<Options> options, long expected) {
+        var compiler = new Compiler();
+        var typeDict = compiler.compileSrc(src, options);
+        var interpreter = new Interpreter(typeDict);
+        var value = interpreter.run(function);
+        Assert.assertTrue(value instanceof Value.IntegerValue);
+        Assert.assertEquals(expected, ((Value.IntegerValue) value).value);
+        return interpreter.instructionCount();
+    }
+
+    @Test
+    public void testFewerInstructionsExecuted() {
+        String src = """
+                func sum(data: [Int], n: Int)->Int {
+                    var s = 0
+                    var i = 0
+                    while (i < n) {
+                        s = s + data[i] * data[i] + (i + 1) * (i + 1)
+                        i = i + 1
+                    }
+                    return s
+                }
+                func foo()->Int {
+                    return sum(new [Int]{1,2,3,4,5}, 5)
+                }
+                """;
+        var options = EnumSet.copyOf(Options.OPT);
+        long withoutGVN = run(src, "foo", options, 110);
+        options.add(Options.GVN);
+        long withGVN = run(src, "foo", options, 110);
+        Assert.assertTrue(withGVN < withoutGVN);
+    }
+}
@@ -0,0 +1,127 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.types.Symbol;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+public class TestInliner {
+
+    String compileSrc(String src, String functionName, EnumSet<Options> options) {
+        var compiler = new Compiler();
+        var typeDict = compiler.compileSrc(src, options);
+        var symbol = (Symbol.FunctionTypeSymbol) typeDict.lookup(functionName);
+        return ((CompiledFunction) symbol.code()).toStr(new StringBuilder(), false).toString();
+    }
+
+    @Test
+    public void testInline() {
+        String src = """
+                func min(a: Int, b: Int)->Int {
+                    if (a < b)
+                        return a
+                    return b
+                }
+                func foo(x: Int)->Int {
+                    return min(x, 10) + 1
+                }
+                """;
+        String actual = compileSrc(src, "foo", EnumSet.of(Options.INLINE));
+        String expected = """
+L0:
+    arg x
+    %t1 = x
+    %t2 = 10
+    goto  L5
+L5:
+    a_5 = %t1
+    b_6 = %t2
+    %t2_7 = a_5<b_6
+    if %t2_7 goto L3 else goto L4
+L3:
+    %t3 = a_5
+    goto  L2
+L2:
+    %t4 = %t3+1
+    ret %t4
+    goto  L1
+L1:
+L4:
+    %t3 = b_6
+    goto  L2
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testConstantArgumentsFolded() {
+        String src = """
+                func min(a: Int, b: Int)->Int {
+                    if (a < b)
+                        return a
+                    return b
+                }
+                func foo()->Int {
+                    return min(3, 10)
+                }
+                """;
+        var options = EnumSet.of(Options.INLINE, Options.OPTIMIZE, Options.SCCP);
+        String actual = compileSrc(src, "foo", options);
+        String expected = """
+L0:
+    goto  L5
+L5:
+    goto  L3
+L3:
+    goto  L2
+L2:
+    ret 3
+    goto  L1
+L1:
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testRecursiveNotInlined() {
+        String src = """
+                func fact(n: Int)->Int {
+                    if (n <= 1)
+                        return 1
+                    return n * fact(n - 1)
+                }
+                """;
+        String actual = compileSrc(src, "fact", EnumSet.of(Options.INLINE));
+        Assert.assertTrue(actual.contains("call fact"));
+    }
+
+    @Test
+    public void testFewerInstructionsExecuted() {
+        String src = """
+                struct Point { var x: Int var y: Int }
+                func getX(p: Point)->Int { return p.x }
+                func getY(p: Point)->Int { return p.y }
+                func max(a: Int, b: Int)->Int {
+                    if (a > b)
+                        return a
+                    return b
+                }
+                func foo()->Int {
+                    var p = new Point { x = 3, y = 4 }
+                    var s = 0
+                    var i = 0
+                    while (i < 10) {
+                        s = s + max(getX(p), getY(p))
+                        i = i + 1
+                    }
+                    return s
+                }
+                """;
+        var options = EnumSet.copyOf(Options.OPT);
+        long withoutInlining = TestGVN.run(src, "foo", options, 40);
+        options.add(Options.INLINE);
+        long withInlining = TestGVN.run(src, "foo", options, 40);
+        Assert.assertTrue(withInlining < withoutInlining);
+    }
+}
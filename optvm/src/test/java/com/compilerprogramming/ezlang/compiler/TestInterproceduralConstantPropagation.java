@@ -0,0 +1,235 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.types.Symbol;
+import com.compilerprogramming.ezlang.types.TypeDictionary;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+public class TestInterproceduralConstantPropagation {
+
+    static EnumSet<Options> options() {
+        return EnumSet.of(Options.OPTIMIZE, Options.SCCP, Options.CCP, Options.IPCP);
+    }
+
+    /**
+     * Dumps the function and the clones it calls
+     */
+    static String dump(TypeDictionary typeDict, String name) {
+        var function = (CompiledFunction) ((Symbol.FunctionTypeSymbol) typeDict.lookup(name)).code();
+        StringBuilder sb = new StringBuilder();
+        function.toStr(sb, false);
+        Set<CompiledFunction> clones = new LinkedHashSet<>();
+        for (Instruction.Call call : Inliner.findCalls(function)) {
+            if (call.callee.name().contains("$"))
+                clones.add((CompiledFunction) call.callee.code);
+        }
+        for (CompiledFunction clone : clones)
+            clone.toStr(sb, false);
+        return sb.toString();
+    }
+
+    @Test
+    public void testConstantReturn() {
+        String src = """
+                func answer()->Int {
+                    var x = 6
+                    return x * 7
+                }
+                func foo()->Int {
+                    return answer() + 1
+                }
+                """;
+        var typeDict = new Compiler().compileSrc(src, options());
+        String expected = """
+L0:
+    %t0_0 = call answer
+    ret 43
+    goto  L1
+L1:
+""";
+        Assert.assertEquals(expected, dump(typeDict, "foo"));
+    }
+
+    @Test
+    public void testConstantReturnReachesFixpoint() {
+        String src = """
+                func answer()->Int {
+                    return 42
+                }
+                func foo()->Int {
+                    return answer() + 1
+                }
+                """;
+        var typeDict = new Compiler().compileSrc(src);
+        var answer = (CompiledFunction) ((Symbol.FunctionTypeSymbol) typeDict.lookup("answer")).code();
+        var foo = (CompiledFunction) ((Symbol.FunctionTypeSymbol) typeDict.lookup("foo")).code();
+        var interprocedural = new InterproceduralConstantPropagation();
+        interprocedural.summarize(answer);
+        new EnterSSA(foo, Options.NONE);
+        Assert.assertTrue(new SparseConditionalConstantPropagation().interprocedural(interprocedural)
+                .constantPropagation(foo).apply(Options.NONE).changed);
+        // The call is kept, but it must not be reported as a change again
+        Assert.assertFalse(new SparseConditionalConstantPropagation().interprocedural(interprocedural)
+                .constantPropagation(foo).apply(Options.NONE).changed);
+
+        var compiler = new Compiler();
+        compiler.compileSrc(src, options());
+        Assert.assertEquals(0, compiler.passReport.fixpointCapped);
+    }
+
+    @Test
+    public void testClone() {
+        String src = """
+                func scale(x: Int, k: Int)->Int {
+                    if (k == 0)
+                        return 0
+                    return x * k
+                }
+                func foo(a: Int)->Int {
+                    return scale(a, 3) + scale(a, 3) + scale(a, 0)
+                }
+                """;
+        var typeDict = new Compiler().compileSrc(src, options());
+        String expected = """
+L0:
+    arg a_0
+    %t1_0 = a_0
+    %t3_0 = call scale$1 params %t1_0
+    %t4_0 = a_0
+    %t6_0 = call scale$1 params %t4_0
+    %t7_0 = %t3_0+%t6_0
+    %t8_0 = a_0
+    %t10_0 = call scale$2 params %t8_0
+    %t11_0 = %t7_0+0
+    ret %t11_0
+    goto  L1
+L1:
+L0:
+    arg x_0_0
+    goto  L3
+L3:
+    %t3_1_0 = x_0_0*3
+    ret %t3_1_0
+    goto  L1
+L1:
+L0:
+    arg x_0_0
+    goto  L2
+L2:
+    ret 0
+    goto  L1
+L1:
+""";
+        Assert.assertEquals(expected, dump(typeDict, "foo"));
+    }
+
+    @Test
+    public void testCloneReturnsConstant() {
+        String src = """
+                func pick(k: Int, x: Int)->Int {
+                    if (k > 0)
+                        return k + 1
+                    return x
+                }
+                func foo(a: Int)->Int {
+                    return pick(2, a)
+                }
+                """;
+        var typeDict = new Compiler().compileSrc(src, options());
+        String expected = """
+L0:
+    arg a_0
+    %t2_0 = a_0
+    %t3_0 = call pick$1 params %t2_0
+    ret 3
+    goto  L1
+L1:
+L0:
+    arg x_0_0
+    goto  L2
+L2:
+    ret 3
+    goto  L1
+L1:
+""";
+        Assert.assertEquals(expected, dump(typeDict, "foo"));
+    }
+
+    @Test
+    public void testConstantBeforeVarying() {
+        // The kept arg b must still be read from the first frame slot
+        String src = """
+                func f(a: Int, b: Int)->Int {
+                    return a * b + a * 10
+                }
+                func foo()->Int {
+                    var x = 2
+                    return f(1, x + 4)
+                }
+                """;
+        TestGVN.run(src, "foo", EnumSet.of(Options.IPCP), 16);
+        var options = EnumSet.copyOf(Options.OPT);
+        options.add(Options.IPCP);
+        TestGVN.run(src, "foo", options, 16);
+    }
+
+    @Test
+    public void testRecursion() {
+        String src = """
+                func fact(n: Int)->Int {
+                    if (n <= 1)
+                        return 1
+                    return n * fact(n - 1)
+                }
+                func foo()->Int {
+                    return fact(5)
+                }
+                """;
+        var options = EnumSet.copyOf(Options.OPT);
+        options.add(Options.IPCP);
+        TestGVN.run(src, "foo", options, 120);
+    }
+
+    @Test
+    public void testFewerInstructionsExecuted() {
+        String src = """
+                func power(x: Int, n: Int)->Int {
+                    var r = 1
+                    var i = 0
+                    while (i < n) {
+                        r = r * x
+                        i = i + 1
+                    }
+                    return r
+                }
+                func mode()->Int {
+                    return 2
+                }
+                func f(x: Int, m: Int)->Int {
+                    if (m == 1)
+                        return x + 1
+                    if (m == 2)
+                        return x * 2
+                    return x
+                }
+                func foo()->Int {
+                    var s = 0
+                    var i = 0
+                    while (i < 10) {
+                        s = s + f(power(2, 3), mode()) + f(i, 1)
+                        i = i + 1
+                    }
+                    return s
+                }
+                """;
+        var options = EnumSet.copyOf(Options.OPT);
+        long without = TestGVN.run(src, "foo", options, 215);
+        options.add(Options.IPCP);
+        long with = TestGVN.run(src, "foo", options, 215);
+        Assert.assertTrue(with < without);
+    }
+}
@@ -0,0 +1,240 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.types.Symbol;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+public class TestLICM {
+
+    String compileSrc(String src) {
+        var compiler = new Compiler();
+        var typeDict = compiler.compileSrc(src);
+        StringBuilder sb = new StringBuilder();
+        var options = EnumSet.of(Options.LICM);
+        for (Symbol s : typeDict.bindings.values()) {
+            if (s instanceof Symbol.FunctionTypeSymbol f) {
+                var functionBuilder = (CompiledFunction) f.code();
+                new EnterSSA(functionBuilder, options);
+                new LoopInvariantCodeMotion(functionBuilder).apply(options);
+                functionBuilder.toStr(sb, false);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testInvariantArithmetic() {
+        String src = """
+                func foo(a: Int, b: Int, n: Int)->Int {
+                    var s = 0
+                    var i = 0
+                    while (i < n) {
+                        s = s + a * b + i
+                        i = i + 1
+                    }
+                    return s
+                }
+                """;
+        String actual = compileSrc(src);
+        String expected = """
+L0:
+    arg a_0
+    arg b_0
+    arg n_0
+    s_0 = 0
+    i_0 = 0
+    %t6_0 = a_0*b_0
+    goto  L2
+L2:
+    i_1 = phi(i_0, i_2)
+    s_1 = phi(s_0, s_2)
+    %t5_0 = i_1<n_0
+    if %t5_0 goto L3 else goto L4
+L3:
+    %t7_0 = s_1+%t6_0
+    %t8_0 = %t7_0+i_1
+    s_2 = %t8_0
+    %t9_0 = i_1+1
+    i_2 = %t9_0
+    goto  L2
+L4:
+    ret s_1
+    goto  L1
+L1:
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testNestedLoops() {
+        String src = """
+                func foo(a: Int, n: Int)->Int {
+                    var s = 0
+                    var i = 0
+                    while (i < n) {
+                        var j = 0
+                        while (j < n) {
+                            s = s + a * 2 + i * 3
+                            j = j + 1
+                        }
+                        i = i + 1
+                    }
+                    return s
+                }
+                """;
+        String actual = compileSrc(src);
+        String expected = """
+L0:
+    arg a_0
+    arg n_0
+    s_0 = 0
+    i_0 = 0
+    j_0 = 0
+    %t7_0 = a_0*2
+    goto  L2
+L2:
+    i_1 = phi(i_0, i_2)
+    s_1 = phi(s_0, s_2)
+    %t5_0 = i_1<n_0
+    if %t5_0 goto L3 else goto L4
+L3:
+    %t9_0 = i_1*3
+    goto  L5
+L5:
+    j_1 = phi(j_0, j_2)
+    s_2 = phi(s_1, s_3)
+    %t6_0 = j_1<n_0
+    if %t6_0 goto L6 else goto L7
+L6:
+    %t8_0 = s_2+%t7_0
+    %t10_0 = %t8_0+%t9_0
+    s_3 = %t10_0
+    %t11_0 = j_1+1
+    j_2 = %t11_0
+    goto  L5
+L7:
+    %t12_0 = i_1+1
+    i_2 = %t12_0
+    goto  L2
+L4:
+    ret s_1
+    goto  L1
+L1:
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testLoads() {
+        String src = """
+                struct Vec { var data: [Int] var len: Int }
+                func foo(v: Vec, a: [Int], d: Int)->Int {
+                    var s = 0
+                    var i = 0
+                    while (i < v.len) {
+                        s = s + v.len / d
+                        a[i] = s
+                        i = i + 1
+                    }
+                    return s
+                }
+                """;
+        String actual = compileSrc(src);
+        // v.len in the loop head is hoisted, but the load and the
+        // division in the body are not, as the body may not execute
+        String expected = """
+L0:
+    arg v_0
+    arg a_0
+    arg d_0
+    s_0 = 0
+    i_0 = 0
+    %t5_0 = v_0.len
+    goto  L2
+L2:
+    i_1 = phi(i_0, i_2)
+    s_1 = phi(s_0, s_2)
+    %t6_0 = i_1<%t5_0
+    if %t6_0 goto L3 else goto L4
+L3:
+    %t7_0 = v_0.len
+    %t8_0 = %t7_0/d_0
+    %t9_0 = s_1+%t8_0
+    s_2 = %t9_0
+    a_0[i_1] = s_2
+    %t10_0 = i_1+1
+    i_2 = %t10_0
+    goto  L2
+L4:
+    ret s_1
+    goto  L1
+L1:
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testStoreBlocksLoad() {
+        String src = """
+                struct Vec { var data: [Int] var len: Int }
+                func foo(v: Vec)->Int {
+                    var i = 0
+                    while (i < v.len) {
+                        v.len = v.len - 1
+                        i = i + 1
+                    }
+                    return i
+                }
+                """;
+        String actual = compileSrc(src);
+        String expected = """
+L0:
+    arg v_0
+    i_0 = 0
+    goto  L2
+L2:
+    i_1 = phi(i_0, i_2)
+    %t2_0 = v_0.len
+    %t3_0 = i_1<%t2_0
+    if %t3_0 goto L3 else goto L4
+L3:
+    %t4_0 = v_0.len
+    %t5_0 = %t4_0-1
+    v_0.len = %t5_0
+    %t6_0 = i_1+1
+    i_2 = %t6_0
+    goto  L2
+L4:
+    ret i_1
+    goto  L1
+L1:
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testFewerInstructionsExecuted() {
+        String src = """
+                struct Vec { var data: [Int] var len: Int }
+                func sum(v: Vec, k: Int)->Int {
+                    var s = 0
+                    var i = 0
+                    while (i < v.len) {
+                        s = s + k * k + i
+                        i = i + 1
+                    }
+                    return s
+                }
+                func foo()->Int {
+                    return sum(new Vec{ data = new [Int]{1,2,3,4,5}, len = 5 }, 3)
+                }
+                """;
+        var options = EnumSet.copyOf(Options.OPT);
+        long withoutLICM = TestGVN.run(src, "foo", options, 55);
+        options.add(Options.LICM);
+        long withLICM = TestGVN.run(src, "foo", options, 55);
+        Assert.assertTrue(withLICM < withoutLICM);
+    }
+}
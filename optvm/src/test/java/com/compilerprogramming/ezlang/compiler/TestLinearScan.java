@@ -0,0 +1,154 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.interpreter.Interpreter;
+import com.compilerprogramming.ezlang.interpreter.Value;
+import com.compilerprogramming.ezlang.types.Symbol;
+import com.compilerprogramming.ezlang.types.TypeDictionary;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+public class TestLinearScan {
+
+    static final String[] PROGRAMS = {
+            """
+            func foo(a: Int, b: Int)->Int {
+                var x = a + b
+                var y = a - b
+                var z = x * y
+                return z + x + y
+            }
+            func main()->Int { return foo(7, 3) }
+            """,
+            """
+            func sum(data: [Int], n: Int)->Int {
+                var s = 0
+                var i = 0
+                while (i < n) {
+                    s = s + data[i]
+                    i = i + 1
+                }
+                return s
+            }
+            func main()->Int { return sum(new [Int]{1,2,3,4,5,6,7,8,9,10}, 10) }
+            """,
+            """
+            func fib(n: Int)->Int {
+                var a = 0
+                var b = 1
+                var i = 0
+                while (i < n) {
+                    var t = a + b
+                    a = b
+                    b = t
+                    i = i + 1
+                }
+                return a
+            }
+            func main()->Int { return fib(20) }
+            """,
+            """
+            func swap(n: Int)->Int {
+                var a = 1
+                var b = 2
+                var i = 0
+                while (i < n) {
+                    var t = a
+                    a = b
+                    b = t
+                    i = i + 1
+                }
+                return a * 10 + b
+            }
+            func main()->Int { return swap(3) }
+            """,
+            """
+            struct Point { var x: Int var y: Int }
+            func dist(p: Point, q: Point)->Int {
+                var dx = p.x - q.x
+                var dy = p.y - q.y
+                if (dx < 0) dx = 0 - dx
+                if (dy < 0) dy = 0 - dy
+                return dx + dy
+            }
+            func main()->Int {
+                return dist(new Point{x = 1, y = 5}, new Point{x = 4, y = 1})
+            }
+            """,
+            TestCompileBudget.bigFunction(50).replace("func small()", "func main()"),
+    };
+
+    static final long[] EXPECTED = { 54, 55, 6765, 21, 7, 50 };
+
+    static final class Result {
+        long value;
+        int frameSize;
+    }
+
+    static Result compileAndRun(String src, EnumSet<Options> options) {
+        var compiler = new Compiler();
+        TypeDictionary typeDict = compiler.compileSrc(src, options);
+        Result result = new Result();
+        for (Symbol s : typeDict.bindings.values()) {
+            if (s instanceof Symbol.FunctionTypeSymbol f)
+                result.frameSize += ((CompiledFunction) f.code()).frameSize();
+        }
+        var value = new Interpreter(typeDict).run("main");
+        Assert.assertTrue(value instanceof Value.IntegerValue);
+        result.value = ((Value.IntegerValue) value).value;
+        return result;
+    }
+
+    @Test
+    public void testArgsInFirstSlots() {
+        String src = """
+                func foo(a: Int, b: Int, c: Int)->Int {
+                    var x = a * 2
+                    return x + b + c
+                }
+                """;
+        var options = EnumSet.copyOf(Options.OPT);
+        options.add(Options.LINEAR_SCAN);
+        var typeDict = new Compiler().compileSrc(src, options);
+        var function = (CompiledFunction) ((Symbol.FunctionTypeSymbol) typeDict.lookup("foo")).code();
+        int slot = 0;
+        for (Instruction instruction : function.entry.instructions) {
+            if (instruction instanceof Instruction.ArgInstruction arg)
+                Assert.assertEquals(slot++, arg.arg().frameSlot());
+        }
+        Assert.assertEquals(3, slot);
+    }
+
+    @Test
+    public void testSameResultsAsChaitin() {
+        var chaitin = EnumSet.copyOf(Options.OPT);
+        var linearScan = EnumSet.copyOf(Options.OPT);
+        linearScan.add(Options.LINEAR_SCAN);
+        for (int i = 0; i < PROGRAMS.length; i++) {
+            Assert.assertEquals(EXPECTED[i], compileAndRun(PROGRAMS[i], chaitin).value);
+            Assert.assertEquals(EXPECTED[i], compileAndRun(PROGRAMS[i], linearScan).value);
+        }
+    }
+
+    /**
+     * Compares frame sizes and compile times of the two allocators
+     */
+    @Test
+    public void testFrameSizes() {
+        var chaitin = EnumSet.copyOf(Options.OPT);
+        var linearScan = EnumSet.copyOf(Options.OPT);
+        linearScan.add(Options.LINEAR_SCAN);
+        int chaitinFrames = 0;
+        int linearScanFrames = 0;
+        for (String src : PROGRAMS) {
+            var c = compileAndRun(src, chaitin);
+            var l = compileAndRun(src, linearScan);
+            chaitinFrames += c.frameSize;
+            linearScanFrames += l.frameSize;
+        }
+        // Linear scan does not coalesce and its intervals have no holes,
+        // so it may need more slots, but not many more
+        Assert.assertTrue(linearScanFrames <= 2 * chaitinFrames);
+    }
+}
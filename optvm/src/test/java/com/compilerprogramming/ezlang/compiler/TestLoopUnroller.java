@@ -0,0 +1,130 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.types.Symbol;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+public class TestLoopUnroller {
+
+    String compileSrc(String src) {
+        var compiler = new Compiler();
+        var typeDict = compiler.compileSrc(src);
+        StringBuilder sb = new StringBuilder();
+        var options = EnumSet.of(Options.UNROLL);
+        for (Symbol s : typeDict.bindings.values()) {
+            if (s instanceof Symbol.FunctionTypeSymbol f) {
+                var functionBuilder = (CompiledFunction) f.code();
+                new EnterSSA(functionBuilder, options);
+                new LoopUnroller(functionBuilder).apply(options);
+                functionBuilder.toStr(sb, false);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testUnroll() {
+        String src = """
+                func foo(data: [Int])->Int {
+                    var s = 0
+                    var i = 0
+                    while (i < 3) {
+                        s = s + data[i]
+                        i = i + 1
+                    }
+                    return s + i
+                }
+                """;
+        String actual = compileSrc(src);
+        String expected = """
+L0:
+    arg data_0
+    s_0 = 0
+    i_0 = 0
+    goto  L5
+L5:
+    %t3_0_20 = i_0<3
+    %t4_0_21 = data_0[i_0]
+    %t5_0_22 = s_0+%t4_0_21
+    s_2_23 = %t5_0_22
+    %t6_0_24 = i_0+1
+    i_2_25 = %t6_0_24
+    %t3_0_26 = i_2_25<3
+    %t4_0_27 = data_0[i_2_25]
+    %t5_0_28 = s_2_23+%t4_0_27
+    s_2_29 = %t5_0_28
+    %t6_0_30 = i_2_25+1
+    i_2_31 = %t6_0_30
+    %t3_0_32 = i_2_31<3
+    %t4_0_33 = data_0[i_2_31]
+    %t5_0_34 = s_2_29+%t4_0_33
+    s_2_35 = %t5_0_34
+    %t6_0_36 = i_2_31+1
+    i_2_37 = %t6_0_36
+    goto  L2
+L2:
+    i_1 = i_2_37
+    s_1 = s_2_35
+    %t3_0 = i_1<3
+    goto  L4
+L4:
+    %t7_0 = s_1+i_1
+    ret %t7_0
+    goto  L1
+L1:
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testTooManyIterations() {
+        String src = """
+                func foo(data: [Int])->Int {
+                    var s = 0
+                    var i = 0
+                    while (i < 100) {
+                        s = s + data[i]
+                        i = i + 1
+                    }
+                    return s
+                }
+                func bar(data: [Int], n: Int)->Int {
+                    var s = 0
+                    var i = 0
+                    while (i < n) {
+                        s = s + data[i]
+                        i = i + 1
+                    }
+                    return s
+                }
+                """;
+        String actual = compileSrc(src);
+        // Both loops are left alone
+        Assert.assertEquals(4, actual.split("phi\\(", -1).length - 1);
+    }
+
+    @Test
+    public void testFewerInstructionsExecuted() {
+        String src = """
+                func poly(x: Int)->Int {
+                    var r = 0
+                    var i = 0
+                    while (i < 4) {
+                        r = r * x + i + 1
+                        i = i + 1
+                    }
+                    return r
+                }
+                func foo()->Int {
+                    return poly(2) + poly(3)
+                }
+                """;
+        var options = EnumSet.copyOf(Options.OPT);
+        long without = TestGVN.run(src, "foo", options, 84);
+        options.add(Options.UNROLL);
+        long with = TestGVN.run(src, "foo", options, 84);
+        Assert.assertTrue(with < without);
+    }
+}
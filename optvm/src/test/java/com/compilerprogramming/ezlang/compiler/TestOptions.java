@@ -0,0 +1,27 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+public class TestOptions {
+
+    @Test
+    public void testOptVerbose() {
+        // Only the original passes, plus every dump
+        var passes = EnumSet.copyOf(Options.OPT_VERBOSE);
+        passes.removeIf(option -> option.name().startsWith("DUMP_"));
+        Assert.assertEquals(EnumSet.of(Options.OPTIMIZE, Options.SSA_DESTRUCTION_BRIGGS,
+                Options.SSA_DESTRUCTION_BOISSINOT_NOCOALESCE, Options.SCCP, Options.CCP, Options.REGALLOC), passes);
+        Assert.assertTrue(Options.OPT_VERBOSE.containsAll(Options.VERBOSE));
+        Assert.assertFalse(Options.OPT_VERBOSE.contains(Options.LINEAR_SCAN));
+        Assert.assertFalse(Options.OPT_VERBOSE.contains(Options.CHECKS));
+    }
+
+    @Test
+    public void testVerboseOnlyDumps() {
+        for (Options option : Options.VERBOSE)
+            Assert.assertTrue(option.name(), option.name().startsWith("DUMP_"));
+    }
+}
@@ -0,0 +1,98 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+public class TestPassManager {
+
+    static final String SRC = """
+            func foo(a: Int)->Int {
+                var x = 1
+                var y = 0
+                if (a == 5) {
+                    if (a > 3)
+                        y = x + a
+                    else
+                        y = 2
+                }
+                var unused = a * 7
+                return y
+            }
+            """;
+
+    @Test
+    public void testFixpoint() {
+        List<String> trace = new ArrayList<>();
+        int[] changesLeft = { 2, 1 };
+        var passes = new PassManager()
+                .fixpoint(10)
+                .add("A", f -> {
+                    trace.add("A");
+                    return changesLeft[0]-- > 0;
+                })
+                .add("B", f -> {
+                    trace.add("B");
+                    return changesLeft[1]-- > 0;
+                })
+                .end();
+        var compiler = new Compiler();
+        var typeDict = compiler.compileSrc(SRC);
+        var function = (CompiledFunction) ((com.compilerprogramming.ezlang.types.Symbol.FunctionTypeSymbol) typeDict.lookup("foo")).code();
+        Assert.assertTrue(passes.run(function));
+        // B's change makes A run again, A's second change makes
+        // B run again, and then B has seen all the changes
+        Assert.assertEquals(List.of("A", "B", "A", "B"), trace);
+        var report = passes.report();
+        Assert.assertEquals(2, report.get("A").runs);
+        Assert.assertEquals(2, report.get("A").changes);
+        Assert.assertEquals(2, report.get("B").runs);
+        Assert.assertEquals(1, report.get("B").changes);
+        Assert.assertEquals(1, report.fixpointGroups);
+        Assert.assertEquals(2, report.fixpointRounds);
+        Assert.assertEquals(0, report.fixpointCapped);
+    }
+
+    @Test
+    public void testFixpointCapped() {
+        var passes = new PassManager()
+                .fixpoint(3)
+                .add("A", f -> true)
+                .add("B", f -> true)
+                .end();
+        var compiler = new Compiler();
+        var typeDict = compiler.compileSrc(SRC);
+        var function = (CompiledFunction) ((com.compilerprogramming.ezlang.types.Symbol.FunctionTypeSymbol) typeDict.lookup("foo")).code();
+        passes.run(function);
+        var report = passes.report();
+        Assert.assertEquals(3, report.get("A").runs);
+        Assert.assertEquals(3, report.get("B").runs);
+        Assert.assertEquals(1, report.fixpointCapped);
+    }
+
+    @Test
+    public void testOptimizerReport() {
+        var options = EnumSet.copyOf(Options.OPT);
+        options.add(Options.ADCE);
+        var compiler = new Compiler();
+        compiler.compileSrc(SRC, options);
+        var report = compiler.passReport;
+        var sccp = report.get("SCCP");
+        var ccp = report.get("CCP");
+        // SCCP cannot fold the inner branch until CCP has
+        // replaced a with 5 on the true side of the outer branch
+        Assert.assertTrue(sccp.runs >= 2);
+        Assert.assertTrue(ccp.changes >= 1);
+        Assert.assertTrue(sccp.instructionDelta < 0);
+        Assert.assertTrue(report.get("ADCE").instructionDelta < 0);
+        Assert.assertEquals(1, report.get("EnterSSA").runs);
+        Assert.assertEquals(1, report.get("ExitSSA").runs);
+        Assert.assertEquals(1, report.get("RegAlloc").runs);
+        Assert.assertEquals(0, report.fixpointCapped);
+        Assert.assertNull(report.get("GVN"));
+        Assert.assertTrue(report.toString().contains("SCCP"));
+    }
+}
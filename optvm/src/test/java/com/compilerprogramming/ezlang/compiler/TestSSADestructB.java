@@ -6,15 +6,23 @@ import com.compilerprogramming.ezlang.types.TypeDictionary;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.EnumSet;
+import java.util.List;
 
 public class TestSSADestructB {
 
     static EnumSet<Options> ssaExitOptions = EnumSet.of(Options.SSA_DESTRUCTION_BOISSINOT_NOCOALESCE,Options.DUMP_SSA_TO_CSSA,Options.DUMP_CSSA_PHI_REMOVAL);
 
+    // Programs passed to compileSrc, when collecting the corpus
+    private List<String> corpus;
+
     String compileSrc(String src) {
+        if (corpus != null)
+            corpus.add(src);
         var compiler = new Compiler();
         var typeDict = compiler.compileSrc(src);
         StringBuilder sb = new StringBuilder();
@@ -42,6 +50,103 @@ public class TestSSADestructB {
         return sb.toString();
     }
 
+    static int countCopies(String src, EnumSet<Options> options) {
+        var compiler = new Compiler();
+        var typeDict = compiler.compileSrc(src);
+        int copies = 0;
+        for (Symbol s : typeDict.bindings.values()) {
+            if (s instanceof Symbol.FunctionTypeSymbol f) {
+                var functionBuilder = (CompiledFunction) f.code();
+                new EnterSSA(functionBuilder, Options.NONE);
+                new ExitSSA(functionBuilder, options);
+                for (BasicBlock block : functionBuilder.getBlocks()) {
+                    for (Instruction instruction : block.instructions) {
+                        if (instruction instanceof Instruction.Move)
+                            copies++;
+                    }
+                }
+            }
+        }
+        return copies;
+    }
+
+    @Test
+    public void testCoalescingRemovesCopies() {
+        String[] srcs = {
+                """
+                func foo(n: Int)->Int {
+                   var a = 1
+                   var b = 2
+                   while (n > 0) {
+                        var t = a
+                        a = b
+                        b = t
+                        n = n - 1
+                   }
+                   return a
+                }
+                """,
+                """
+                func foo(x: Int)->Int {
+                   var sum = 0
+                   var i = 0
+                   while (i < x) {
+                      if (i % 2 == 0)
+                        continue
+                      if (i / 3 == 1)
+                        continue
+                      sum = sum + 1
+                      i = i + 1
+                   }
+                   return sum
+                }
+                """,
+                """
+                func factorial(num: Int)->Int {
+                    var result = 1
+                    while (num > 1) {
+                      result = result * num
+                      num = num - 1
+                    }
+                    return result
+                }
+                """
+        };
+        for (String src : srcs) {
+            int without = countCopies(src, EnumSet.of(Options.SSA_DESTRUCTION_BOISSINOT_NOCOALESCE));
+            int with = countCopies(src, EnumSet.of(Options.SSA_DESTRUCTION_BOISSINOT));
+            Assert.assertTrue(with < without);
+        }
+    }
+
+    /**
+     * The programs of all the other tests in this class
+     */
+    static List<String> corpus() throws Exception {
+        var test = new TestSSADestructB();
+        test.corpus = new ArrayList<>();
+        for (Method method : TestSSADestructB.class.getDeclaredMethods()) {
+            if (method.isAnnotationPresent(Test.class) && !method.getName().equals("testCoalescingOverCorpus"))
+                method.invoke(test);
+        }
+        return test.corpus;
+    }
+
+    @Test
+    public void testCoalescingOverCorpus() throws Exception {
+        int without = 0;
+        int with = 0;
+        for (String src : corpus()) {
+            int w0 = countCopies(src, EnumSet.of(Options.SSA_DESTRUCTION_BOISSINOT_NOCOALESCE));
+            int w1 = countCopies(src, EnumSet.of(Options.SSA_DESTRUCTION_BOISSINOT));
+            Assert.assertTrue(w1 <= w0);
+            without += w0;
+            with += w1;
+        }
+        Assert.assertEquals(565, without);
+        Assert.assertEquals(158, with);
+    }
+
     @Test
     public void test1() {
         String src = """
@@ -0,0 +1,241 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.types.Symbol;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+public class TestScalarReplacement {
+
+    String compileSrc(String src) {
+        var compiler = new Compiler();
+        var typeDict = compiler.compileSrc(src);
+        StringBuilder sb = new StringBuilder();
+        var options = EnumSet.of(Options.SRA);
+        for (Symbol s : typeDict.bindings.values()) {
+            if (s instanceof Symbol.FunctionTypeSymbol f) {
+                var functionBuilder = (CompiledFunction) f.code();
+                new EnterSSA(functionBuilder, options);
+                new ScalarReplacement(functionBuilder).apply(options);
+                functionBuilder.toStr(sb, false);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testStraightLine() {
+        String src = """
+                struct Point { var x: Int var y: Int }
+                func foo(a: Int, b: Int)->Int {
+                    var p = new Point { x = a, y = b }
+                    p.x = p.x + p.y
+                    return p.x * p.y
+                }
+                """;
+        String actual = compileSrc(src);
+        String expected = """
+L0:
+    arg a_0
+    arg b_0
+    %t4_0 = a_0
+    %t5_0 = b_0
+    %t6_0 = %t4_0+%t5_0
+    %t7_0 = %t6_0
+    %t8_0 = b_0
+    %t9_0 = %t7_0*%t8_0
+    ret %t9_0
+    goto  L1
+L1:
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testBranches() {
+        String src = """
+                struct Point { var x: Int var y: Int }
+                func foo(a: Int)->Int {
+                    var p = new Point { x = 0, y = 1 }
+                    if (a > 0)
+                        p.x = a
+                    else
+                        p.y = a
+                    return p.x + p.y
+                }
+                """;
+        String actual = compileSrc(src);
+        String expected = """
+L0:
+    arg a_0
+    %t3_0 = a_0>0
+    if %t3_0 goto L2 else goto L3
+L2:
+    goto  L4
+L4:
+    x_14 = phi(a_0, 0)
+    y_15 = phi(1, a_0)
+    %t4_0 = x_14
+    %t5_0 = y_15
+    %t6_0 = %t4_0+%t5_0
+    ret %t6_0
+    goto  L1
+L1:
+L3:
+    goto  L4
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testLoop() {
+        String src = """
+                struct Pair { var a: Int var b: Int }
+                func fib(n: Int)->Int {
+                    var p = new Pair { a = 0, b = 1 }
+                    var i = 0
+                    while (i < n) {
+                        var t = p.a + p.b
+                        p.a = p.b
+                        p.b = t
+                        i = i + 1
+                    }
+                    return p.a
+                }
+                """;
+        String actual = compileSrc(src);
+        String expected = """
+L0:
+    arg n_0
+    i_0 = 0
+    goto  L2
+L2:
+    a_26 = phi(0, %t9_0)
+    b_27 = phi(1, t_0)
+    i_1 = phi(i_0, i_2)
+    %t5_0 = i_1<n_0
+    if %t5_0 goto L3 else goto L4
+L3:
+    %t6_0 = a_26
+    %t7_0 = b_27
+    %t8_0 = %t6_0+%t7_0
+    t_0 = %t8_0
+    %t9_0 = b_27
+    %t10_0 = i_1+1
+    i_2 = %t10_0
+    goto  L2
+L4:
+    %t11_0 = a_26
+    ret %t11_0
+    goto  L1
+L1:
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testEscapes() {
+        String src = """
+                struct Point { var x: Int var y: Int }
+                struct Line { var p: Point var q: Point }
+                func make(a: Int)->Point {
+                    return new Point { x = a, y = a }
+                }
+                func store(a: Int)->Line {
+                    var p = new Point { x = a, y = a }
+                    return new Line { p = p, q = p }
+                }
+                func call(a: Int)->Point {
+                    var p = new Point { x = a, y = a }
+                    return make(p.x)
+                }
+                """;
+        String actual = compileSrc(src);
+        String expected = """
+L0:
+    arg a_0
+    %t1_0 = New(Point)
+    %t1_0.x = a_0
+    %t1_0.y = a_0
+    ret %t1_0
+    goto  L1
+L1:
+L0:
+    arg a_0
+    %t2_0 = New(Point)
+    %t2_0.x = a_0
+    %t2_0.y = a_0
+    p_0 = %t2_0
+    %t3_0 = New(Line)
+    %t3_0.p = p_0
+    %t3_0.q = p_0
+    ret %t3_0
+    goto  L1
+L1:
+L0:
+    arg a_0
+    %t3_0 = a_0
+    %t4_0 = call make params %t3_0
+    ret %t4_0
+    goto  L1
+L1:
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testUndefinedField() {
+        String src = """
+                struct Point { var x: Int var y: Int }
+                func foo(a: Int)->Int {
+                    var p = new Point { x = a }
+                    return p.y
+                }
+                """;
+        String actual = compileSrc(src);
+        String expected = """
+L0:
+    arg a_0
+    %t2_0 = New(Point)
+    %t2_0.x = a_0
+    p_0 = %t2_0
+    %t3_0 = p_0.y
+    ret %t3_0
+    goto  L1
+L1:
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testFewerInstructionsExecuted() {
+        String src = """
+                struct Point { var x: Int var y: Int }
+                func dist(n: Int)->Int {
+                    var s = 0
+                    var i = 0
+                    while (i < n) {
+                        var p = new Point { x = i, y = i * 2 }
+                        var q = new Point { x = n - i, y = i }
+                        var dx = p.x - q.x
+                        var dy = p.y - q.y
+                        if (dx < 0) dx = 0 - dx
+                        if (dy < 0) dy = 0 - dy
+                        s = s + dx + dy
+                        i = i + 1
+                    }
+                    return s
+                }
+                func foo()->Int {
+                    return dist(10)
+                }
+                """;
+        var options = EnumSet.copyOf(Options.OPT);
+        options.add(Options.GVN);
+        long without = TestGVN.run(src, "foo", options, 95);
+        options.add(Options.SRA);
+        long with = TestGVN.run(src, "foo", options, 95);
+        Assert.assertTrue(with < without);
+    }
+}
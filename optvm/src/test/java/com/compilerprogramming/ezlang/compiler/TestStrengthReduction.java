@@ -0,0 +1,158 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.types.Symbol;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+public class TestStrengthReduction {
+
+    String compileSrc(String src) {
+        var compiler = new Compiler();
+        var typeDict = compiler.compileSrc(src);
+        StringBuilder sb = new StringBuilder();
+        var options = EnumSet.of(Options.IVSR);
+        for (Symbol s : typeDict.bindings.values()) {
+            if (s instanceof Symbol.FunctionTypeSymbol f) {
+                var functionBuilder = (CompiledFunction) f.code();
+                new EnterSSA(functionBuilder, options);
+                new StrengthReduction(functionBuilder).apply(options);
+                functionBuilder.toStr(sb, false);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testReduceMultiply() {
+        String src = """
+                func foo(data: [Int], n: Int)->Int {
+                    var s = 0
+                    var i = 0
+                    while (i < n) {
+                        s = s + data[i * 2] + i * 2
+                        i = i + 1
+                    }
+                    return s
+                }
+                """;
+        String actual = compileSrc(src);
+        String expected = """
+L0:
+    arg data_0
+    arg n_0
+    s_0 = 0
+    i_0 = 0
+    %t27 = 0
+    goto  L2
+L2:
+    %t26 = phi(%t27, %t28)
+    i_1 = phi(i_0, i_2)
+    s_1 = phi(s_0, s_2)
+    %t4_0 = i_1<n_0
+    if %t4_0 goto L3 else goto L4
+L3:
+    %t6_0 = data_0[%t26]
+    %t7_0 = s_1+%t6_0
+    %t9_0 = %t7_0+%t26
+    s_2 = %t9_0
+    %t10_0 = i_1+1
+    i_2 = %t10_0
+    %t28 = %t26+2
+    goto  L2
+L4:
+    ret s_1
+    goto  L1
+L1:
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testReplaceTest() {
+        String src = """
+                func foo(data: [Int])->Int {
+                    var s = 0
+                    var i = 0
+                    while (i < 5) {
+                        s = s + data[i * 3]
+                        i = i + 1
+                    }
+                    return s
+                }
+                """;
+        String actual = compileSrc(src);
+        String expected = """
+L0:
+    arg data_0
+    s_0 = 0
+    i_0 = 0
+    %t21 = 0
+    goto  L2
+L2:
+    %t20 = phi(%t21, %t22)
+    s_1 = phi(s_0, s_2)
+    %t3_0 = %t20<15
+    if %t3_0 goto L3 else goto L4
+L3:
+    %t5_0 = data_0[%t20]
+    %t6_0 = s_1+%t5_0
+    s_2 = %t6_0
+    %t22 = %t20+3
+    goto  L2
+L4:
+    ret s_1
+    goto  L1
+L1:
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testTestOnIncrement() {
+        // The exit test reads i after the increment, while the derived
+        // variable still holds the value before it
+        String src = """
+                func foo()->Int {
+                    var s = 0
+                    var i = 0
+                    while (1) {
+                        s = s + i * 2
+                        i = i + 1
+                        if (i < 10) {}
+                        else break
+                    }
+                    return s
+                }
+                """;
+        TestGVN.run(src, "foo", EnumSet.of(Options.REGALLOC), 90);
+        TestGVN.run(src, "foo", EnumSet.of(Options.IVSR, Options.REGALLOC), 90);
+        TestGVN.run(src, "foo", EnumSet.of(Options.OPTIMIZE, Options.SCCP, Options.CCP, Options.IVSR, Options.REGALLOC), 90);
+    }
+
+    @Test
+    public void testFewerInstructionsExecuted() {
+        String src = """
+                func sum(data: [Int])->Int {
+                    var s = 0
+                    var i = 0
+                    while (i < 10) {
+                        s = s + data[i * 2] * data[i * 2 + 1]
+                        i = i + 1
+                    }
+                    return s
+                }
+                func foo()->Int {
+                    var data = new [Int]{len=20, value=3}
+                    return sum(data)
+                }
+                """;
+        var options = EnumSet.copyOf(Options.OPT);
+        options.add(Options.GVN);
+        long without = TestGVN.run(src, "foo", options, 90);
+        options.add(Options.IVSR);
+        long with = TestGVN.run(src, "foo", options, 90);
+        Assert.assertTrue(with < without);
+    }
+}
@@ -0,0 +1,139 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.interpreter.Interpreter;
+import com.compilerprogramming.ezlang.interpreter.Value;
+import com.compilerprogramming.ezlang.types.Symbol;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.List;
+
+public class TestTailCallElimination {
+
+    String compileSrc(String src, String functionName, EnumSet<Options> options) {
+        var compiler = new Compiler();
+        var typeDict = compiler.compileSrc(src, options);
+        var symbol = (Symbol.FunctionTypeSymbol) typeDict.lookup(functionName);
+        return ((CompiledFunction) symbol.code()).toStr(new StringBuilder(), false).toString();
+    }
+
+    @Test
+    public void testSelfTailCall() {
+        String src = """
+                func fact(n: Int, acc: Int)->Int {
+                    if (n <= 1)
+                        return acc
+                    return fact(n-1, acc*n)
+                }
+                """;
+        String actual = compileSrc(src, "fact", EnumSet.of(Options.TCE));
+        String expected = """
+L0:
+    arg n
+    arg acc
+    goto  L4
+L4:
+    %t2 = n<=1
+    if %t2 goto L2 else goto L3
+L2:
+    ret acc
+    goto  L1
+L1:
+L3:
+    %t3 = n-1
+    %t4 = acc*n
+    n = %t3
+    acc = %t4
+    goto  L4
+""";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testNotTailCall() {
+        String src = """
+                func fact(n: Int)->Int {
+                    if (n <= 1)
+                        return 1
+                    return n * fact(n-1)
+                }
+                """;
+        String actual = compileSrc(src, "fact", EnumSet.of(Options.TCE));
+        Assert.assertTrue(actual.contains("call fact"));
+    }
+
+    @Test
+    public void testVoidTailCall() {
+        String src = """
+                func fill(a: [Int], i: Int) {
+                    if (i >= 0) {
+                        a[i] = i
+                        fill(a, i-1)
+                    }
+                }
+                func foo()->Int {
+                    var a = new [Int]{len=10, value=0}
+                    fill(a, 9)
+                    return a[3] + a[9]
+                }
+                """;
+        String actual = compileSrc(src, "fill", EnumSet.of(Options.TCE));
+        Assert.assertFalse(actual.contains("call fill"));
+        var options = EnumSet.copyOf(Options.OPT);
+        options.add(Options.TCE);
+        TestGVN.run(src, "foo", options, 12);
+    }
+
+    @Test
+    public void testFewerInstructionsExecuted() {
+        String src = """
+                func sum(n: Int, acc: Int)->Int {
+                    if (n == 0)
+                        return acc
+                    return sum(n-1, acc+n)
+                }
+                func foo()->Int {
+                    return sum(100, 0)
+                }
+                """;
+        var options = EnumSet.copyOf(Options.OPT);
+        long without = TestGVN.run(src, "foo", options, 5050);
+        options.add(Options.TCE);
+        long with = TestGVN.run(src, "foo", options, 5050);
+        Assert.assertTrue(with < without);
+    }
+
+    @Test
+    public void testMutualTailCalls() {
+        // Not turned into loops, but the interpreter reuses the frame
+        String src = """
+                func isEven(n: Int)->Int {
+                    if (n == 0)
+                        return 1
+                    return isOdd(n-1)
+                }
+                func isOdd(n: Int)->Int {
+                    if (n == 0)
+                        return 0
+                    return isEven(n-1)
+                }
+                func foo()->Int {
+                    return isEven(100001)
+                }
+                """;
+        for (var opts : List.of(Options.NONE, Options.OPT, Options.OPT_ISSA_B)) {
+            var options = EnumSet.copyOf(opts);
+            options.add(Options.TCE);
+            var compiler = new Compiler();
+            var typeDict = compiler.compileSrc(src, options);
+            var value = new Interpreter(typeDict).run("foo");
+            Assert.assertTrue(value instanceof Value.IntegerValue integerValue && integerValue.value == 0);
+        }
+        // Without TCE the calls are not marked, so each one gets a new frame
+        var typeDict = new Compiler().compileSrc(src, Options.OPT);
+        var function = (CompiledFunction) ((Symbol.FunctionTypeSymbol) typeDict.lookup("isEven")).code();
+        for (Instruction.Call call : Inliner.findCalls(function))
+            Assert.assertFalse(call.tailCall);
+    }
+}
@@ -3,6 +3,7 @@ package com.compilerprogramming.ezlang.interpreter;
 import com.compilerprogramming.ezlang.compiler.Compiler;
 import com.compilerprogramming.ezlang.compiler.Options;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
@@ -39,9 +40,39 @@ public class TestInterpreter {
         parameters.add(new Object[] { Options.OPT_B });
         parameters.add(new Object[] { Options.OPT_ISSA });
         parameters.add(new Object[] { Options.OPT_ISSA_B });
+        parameters.add(new Object[] { with(Options.OPT, Options.DOM_SEMI_NCA) });
+        parameters.add(new Object[] { with(Options.OPT, Options.GVN) });
+        parameters.add(new Object[] { with(Options.OPT_B, Options.GVN) });
+        parameters.add(new Object[] { with(Options.OPT, Options.LICM) });
+        parameters.add(new Object[] { with(Options.OPT_ISSA_B, Options.GVN, Options.LICM) });
+        parameters.add(new Object[] { with(Options.OPT, Options.INLINE, Options.GVN, Options.LICM) });
+        parameters.add(new Object[] { with(Options.OPT, Options.SSA_DESTRUCTION_BOISSINOT) });
+        parameters.add(new Object[] { with(Options.OPT_ISSA, Options.SSA_DESTRUCTION_BOISSINOT, Options.GVN, Options.LICM) });
+        parameters.add(new Object[] { with(Options.OPT, Options.ADCE) });
+        parameters.add(new Object[] { with(Options.OPT_B, Options.INLINE, Options.GVN, Options.LICM, Options.ADCE) });
+        parameters.add(new Object[] { with(Options.OPT, Options.LINEAR_SCAN) });
+        parameters.add(new Object[] { with(Options.OPT_ISSA_B, Options.GVN, Options.ADCE, Options.LINEAR_SCAN) });
+        parameters.add(new Object[] { with(Options.OPT, Options.SRA) });
+        parameters.add(new Object[] { with(Options.OPT_B, Options.INLINE, Options.SRA, Options.GVN, Options.LICM, Options.ADCE) });
+        parameters.add(new Object[] { with(Options.OPT, Options.IPCP) });
+        parameters.add(new Object[] { with(Options.OPT_ISSA, Options.INLINE, Options.IPCP, Options.GVN) });
+        parameters.add(new Object[] { with(Options.OPT, Options.CHECKS) });
+        parameters.add(new Object[] { with(Options.OPT, Options.CHECKS, Options.CHECK_ELIM) });
+        parameters.add(new Object[] { with(Options.OPT_ISSA_B, Options.INLINE, Options.CHECKS, Options.SRA, Options.GVN, Options.LICM, Options.CHECK_ELIM, Options.ADCE) });
+        parameters.add(new Object[] { with(Options.OPT, Options.IVSR, Options.UNROLL) });
+        parameters.add(new Object[] { with(Options.OPT_B, Options.INLINE, Options.UNROLL, Options.GVN, Options.LICM, Options.IVSR, Options.ADCE) });
+        parameters.add(new Object[] { with(Options.NONE, Options.TCE) });
+        parameters.add(new Object[] { with(Options.OPT_ISSA, Options.TCE, Options.INLINE, Options.GVN) });
+        parameters.add(new Object[] { with(Options.OPT_B, Options.TCE, Options.INLINE, Options.GVN, Options.LICM, Options.ADCE) });
         return parameters;
     }
 
+    static EnumSet<Options> with(EnumSet<Options> options, Options... extra) {
+        var result = EnumSet.copyOf(options);
+        result.addAll(List.of(extra));
+        return result;
+    }
+
 
     @Test
     public void testFunction1() {
@@ -859,4 +890,24 @@ func main()->Int
                 integerValue.value == 1);
     }
 
+    @Test
+    public void testDeepTailRecursion() {
+        // Tail calls only reuse the frame with TCE
+        Assume.assumeTrue(options.contains(Options.TCE));
+        String src = """
+                func sum(n: Int, acc: Int)->Int {
+                    if (n == 0)
+                        return acc
+                    return sum(n-1, acc+n)
+                }
+                func foo()->Int {
+                    return sum(100000, 0)
+                }
+                """;
+        var value = compileAndRun(src, "foo");
+        Assert.assertNotNull(value);
+        Assert.assertTrue(value instanceof Value.IntegerValue integerValue &&
+                integerValue.value == 5000050000L);
+    }
+
 }
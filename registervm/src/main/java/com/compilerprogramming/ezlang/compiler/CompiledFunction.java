@@ -8,7 +8,10 @@ import com.compilerprogramming.ezlang.types.EZType;
 import com.compilerprogramming.ezlang.types.TypeDictionary;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class CompiledFunction {
 
@@ -43,6 +46,7 @@ public class CompiledFunction {
         this.typeDictionary = typeDictionary;
         compileStatement(funcDecl.block);
         exitBlockIfNeeded();
+        markTailCalls(entry, new BitSet());
     }
 
     public int frameSize() {
@@ -56,6 +60,41 @@ public class CompiledFunction {
         }
     }
 
+    private void markTailCalls(BasicBlock block, BitSet visited) {
+        if (visited.get(block.bid))
+            return;
+        visited.set(block.bid);
+        for (int pos = 0; pos < block.instructions.size(); pos++) {
+            if (block.instructions.get(pos) instanceof Instruction.Call callInst)
+                callInst.tailCall = isTailCall(block, pos, callInst);
+        }
+        for (BasicBlock succ : block.successors)
+            markTailCalls(succ, visited);
+    }
+
+    /**
+     * A call is a tail call if it is followed by a return of its value,
+     * or for a call without a value, by jumps to the exit block
+     */
+    private boolean isTailCall(BasicBlock block, int pos, Instruction.Call callInst) {
+        if (pos+1 >= block.instructions.size())
+            return false;
+        Instruction next = block.instructions.get(pos+1);
+        if (callInst.returnOperand() == null) {
+            // Skip over empty blocks
+            Set<BasicBlock> visited = new HashSet<>();
+            while (next instanceof Instruction.Jump jumpInst
+                    && jumpInst.jumpTo != exit
+                    && jumpInst.jumpTo.instructions.size() == 1
+                    && visited.add(jumpInst.jumpTo))
+                next = jumpInst.jumpTo.instructions.get(0);
+            return next instanceof Instruction.Jump jumpInst && jumpInst.jumpTo == exit;
+        }
+        return next instanceof Instruction.Ret retInst
+                && retInst.value() instanceof Operand.RegisterOperand registerOperand
+                && registerOperand.frameSlot() == callInst.returnOperand().frameSlot();
+    }
+
     private void setVirtualRegisters(Scope scope) {
         int reg = 0;
         if (scope.parent != null)
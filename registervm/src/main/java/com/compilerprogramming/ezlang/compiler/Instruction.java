@@ -246,6 +246,10 @@ public abstract class Instruction {
     public static class Call extends Instruction {
         public final EZType.EZTypeFunction callee;
         public final int newbase;
+        /**
+         * Set if the call is in tail position, the callee then reuses the caller's frame
+         */
+        public boolean tailCall;
         public Call(int newbase, Operand.RegisterOperand returnOperand, EZType.EZTypeFunction callee, Operand.RegisterOperand... args) {
             super(I_CALL, returnOperand, args);
             this.callee = callee;
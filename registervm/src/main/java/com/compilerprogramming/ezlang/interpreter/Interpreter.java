@@ -103,19 +103,26 @@ public class Interpreter {
                         done = true;
                 }
                 case Instruction.Call callInst -> {
+                    if (callInst.tailCall) {
+                        // The caller's frame is not needed after a tail call,
+                        // so the callee reuses it, and returns directly to our caller
+                        Operand[] args = callInst.args();
+                        Value[] values = new Value[args.length];
+                        for (int i = 0; i < args.length; i++)
+                            values[i] = argValue(execStack, base, args[i]);
+                        for (int i = 0; i < args.length; i++)
+                            execStack.stack[base + i] = values[i];
+                        frame = new Frame(frame.caller, base, callInst.callee);
+                        currentFunction = frame.bytecodeFunction;
+                        currentBlock = currentFunction.entry;
+                        ip = -1;
+                        continue;
+                    }
                     // Copy args to new frame
                     int baseReg = base+currentFunction.frameSize();
                     int reg = baseReg;
                     for (Operand arg: callInst.args()) {
-                        if (arg instanceof Operand.RegisterOperand param) {
-                            execStack.stack[reg] = execStack.stack[base + param.frameSlot()];
-                        }
-                        else if (arg instanceof Operand.ConstantOperand constantOperand) {
-                            execStack.stack[reg] = new Value.IntegerValue(constantOperand.value);
-                        }
-                        else if (arg instanceof Operand.NullConstantOperand) {
-                            execStack.stack[reg] = new Value.NullValue();
-                        }
+                        execStack.stack[reg] = argValue(execStack, base, arg);
                         reg += 1;
                     }
                     // Call function
@@ -290,6 +297,16 @@ public class Interpreter {
         return returnValue;
     }
 
+    private static Value argValue(ExecutionStack execStack, int base, Operand arg) {
+        if (arg instanceof Operand.RegisterOperand param)
+            return execStack.stack[base + param.frameSlot()];
+        else if (arg instanceof Operand.ConstantOperand constantOperand)
+            return new Value.IntegerValue(constantOperand.value);
+        else if (arg instanceof Operand.NullConstantOperand)
+            return new Value.NullValue();
+        else throw new IllegalStateException();
+    }
+
     static class Frame {
         Frame caller;
         int base;
@@ -497,4 +497,52 @@ func main()->Int
                 integerValue.value == 1);
     }
 
+    @Test
+    public void testDeepTailRecursion() {
+        String src = """
+                func sum(n: Int, acc: Int)->Int {
+                    if (n == 0)
+                        return acc
+                    return sum(n-1, acc+n)
+                }
+                func foo()->Int {
+                    return sum(100000, 0)
+                }
+                """;
+        var value = compileAndRun(src, "foo");
+        Assert.assertNotNull(value);
+        Assert.assertTrue(value instanceof Value.IntegerValue integerValue
+                && integerValue.value == 5000050000L);
+    }
+
+    @Test
+    public void testMutualTailRecursion() {
+        String src = """
+                func isEven(n: Int)->Int {
+                    if (n == 0)
+                        return 1
+                    return isOdd(n-1)
+                }
+                func isOdd(n: Int)->Int {
+                    if (n == 0)
+                        return 0
+                    return isEven(n-1)
+                }
+                func fill(a: [Int], i: Int) {
+                    if (i >= 0) {
+                        a[i] = i
+                        fill(a, i-1)
+                    }
+                }
+                func foo()->Int {
+                    var a = new [Int]{len=5000, value=0}
+                    fill(a, 4999)
+                    return isEven(100001) + a[4999]
+                }
+                """;
+        var value = compileAndRun(src, "foo");
+        Assert.assertNotNull(value);
+        Assert.assertTrue(value instanceof Value.IntegerValue integerValue
+                && integerValue.value == 4999);
+    }
 }
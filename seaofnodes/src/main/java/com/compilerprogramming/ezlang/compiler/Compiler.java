@@ -52,13 +52,15 @@ public class Compiler {
 
     ScopeNode _continueScope;
     ScopeNode _breakScope;      // Merge all the while-breaks here
+    ScopeNode _tailCallHead;    // Loop head at the start of the function, if it has self tail calls
+    ScopeNode _tailCallScope;   // Merge all the self tail calls here
     FunNode _fun;               // Current function being parsed
 
 
     // Mapping from a type name to a Type.  The string name matches
     // `type.str()` call.  No TypeMemPtrs are in here, because Simple does not
     // have C-style '*ptr' references.
-    public static HashMap<String, Type> TYPES = new HashMap<>();
+    public final HashMap<String, Type> TYPES = new HashMap<>();
 
     private ArrayList<Node> ctorStack = new ArrayList<>();
 
@@ -160,6 +162,7 @@ public class Compiler {
                 assert ts._fields.length == 0;
                 // Add the fields to the existing type
                 ts._fields = fs.asAry();
+                Type.clearMemo();
             }
             else throw new CompilerException("Expected struct type " + typeName + " but got " + fref);
         }
@@ -303,6 +306,8 @@ public class Compiler {
         FunNode oldfun  = _fun;
         ScopeNode breakScope = _breakScope; _breakScope = null;
         ScopeNode continueScope = _continueScope; _continueScope = null;
+        ScopeNode tailCallHead = _tailCallHead; _tailCallHead = null;
+        ScopeNode tailCallScope = _tailCallScope; _tailCallScope = null;
 
         FunNode fun = _fun = (FunNode)peep(new FunNode(sig, functionTypeSymbol.name,null,_code._start));
         // Once the function header is available, install in linker table -
@@ -338,6 +343,18 @@ public class Compiler {
         REGNUM = 2;
         defineScopedVars(funcDecl.scope,_scope,fun);
 
+        // Self recursive tail calls jump back to a loop head placed before
+        // the body, rather than calling the function, so that they run in
+        // constant stack space.  The loop is only exited through returns.
+        ScopeNode tailCallExit = null;
+        if( hasSelfTailCall(funcDecl.block, functionTypeSymbol.name) ) {
+            ctrl(new LoopNode(ctrl()).peephole());
+            _tailCallHead = _scope.keep();
+            _xScopes.push(_scope = _scope.dup(true)); // Create phis for the parameters
+            _xScopes.push(tailCallExit = _scope.dup());
+            tailCallExit.ctrl(XCTRL);
+        }
+
         // Parse the body
         Node last = compileStatement(funcDecl.block);
 
@@ -345,6 +362,21 @@ public class Compiler {
         if( ctrl()._type== Type.CONTROL )
             fun.addReturn(ctrl(), _scope.mem().merge(), last);
 
+        // Close the tail call loop; the back edge merges all the tail calls
+        if( tailCallExit != null ) {
+            ctrl(XCTRL);        // Every path through the body has returned
+            ScopeNode back = _scope;
+            if( _tailCallScope != null ) {
+                _scope.kill();
+                back = _tailCallScope;
+            }
+            _tailCallHead.endLoop(back, tailCallExit);
+            _tailCallHead.unkeep().kill();
+            _xScopes.pop();
+            _xScopes.pop();
+            _scope = tailCallExit;
+        }
+
         // Pop off the inProgress node on the multi-exit Region merge
         assert r.inProgress();
         r   ._inputs.pop();
@@ -363,6 +395,8 @@ public class Compiler {
         _fun = oldfun;
         _breakScope = breakScope;
         _continueScope = continueScope;
+        _tailCallHead = tailCallHead;
+        _tailCallScope = tailCallScope;
         // Reset control and memory to pre-function parsing days
         ctrl(oldctrl.unkeep());
         _scope.mem(oldmem.unkeep());
@@ -526,6 +560,7 @@ public class Compiler {
         int base = ary.aryBase ();
         int scale= ary.aryScale();
         Node size = peep(new AddNode(con(base),peep(new ShlNode(len.keep(),con(scale)))));
+        len.unkeep();
         return newStruct(ary,size);
     }
     /**
@@ -740,11 +775,14 @@ public class Compiler {
     }
 
     private ScopeNode jumpTo(ScopeNode toScope) {
+        // We use _breakScope as a proxy for the loop head scope to obtain the depth
+        return jumpTo(toScope, _breakScope);
+    }
+    private ScopeNode jumpTo(ScopeNode toScope, ScopeNode headScope) {
         ScopeNode cur = _scope.dup();
         ctrl(XCTRL); // Kill current scope
         // Prune nested lexical scopes that have depth > than the loop head
-        // We use _breakScope as a proxy for the loop head scope to obtain the depth
-        while( cur._lexSize.size() > _breakScope._lexSize.size() )
+        while( cur._lexSize.size() > headScope._lexSize.size() )
             cur.pop();
         // If this is a continue then first time the target is null
         // So we just use the pruned current scope as the base for the
@@ -752,7 +790,7 @@ public class Compiler {
         if( toScope == null )
             return cur;
         // toScope is either the break scope, or a scope that was created here
-        assert toScope._lexSize.size() <= _breakScope._lexSize.size();
+        assert toScope._lexSize.size() <= headScope._lexSize.size();
         toScope.ctrl(toScope.mergeScopes(cur).peephole());
         return toScope;
     }
@@ -940,6 +978,10 @@ public class Compiler {
     }
 
     private Node compileReturn(AST.ReturnStmt returnStmt) {
+        // Tail calls inside a while loop would leave the loop other than
+        // through its exit test, which the loop tree does not expect
+        if( _tailCallHead != null && _breakScope == null && isSelfTailCall(returnStmt, _fun._name) )
+            return compileTailCall((AST.CallExpr) returnStmt.expr);
         Node expr;
         if (returnStmt.expr != null)
             expr = compileExpr(returnStmt.expr);
@@ -952,6 +994,40 @@ public class Compiler {
         return expr;
     }
 
+    /**
+     *  A self recursive tail call assigns the arguments to the parameters, and
+     *  jumps back to the loop head at the start of the function.  All the
+     *  arguments are evaluated before any parameter is updated.
+     */
+    private Node compileTailCall(AST.CallExpr callExpr) {
+        var functionSymbol = (Symbol.FunctionTypeSymbol) ((AST.NameExpr) callExpr.callee).symbol;
+        AST.FuncDecl funcDecl = (AST.FuncDecl) functionSymbol.functionDecl;
+        Ary<Node> args = new Ary<>(Node.class);
+        for (AST.Expr e: callExpr.args)
+            args.push(compileExpr(e).keep());
+        for (int i = 0; i < args.size(); i++)
+            _scope.update(makeVarName((Symbol.VarSymbol) funcDecl.args[i].symbol), args.at(i).unkeep());
+        _tailCallScope = jumpTo(_tailCallScope, _tailCallHead);
+        return ZERO;
+    }
+
+    private static boolean isSelfTailCall(AST.ReturnStmt returnStmt, String functionName) {
+        return returnStmt.expr instanceof AST.CallExpr callExpr
+                && callExpr.callee instanceof AST.NameExpr nameExpr
+                && nameExpr.symbol instanceof Symbol.FunctionTypeSymbol functionSymbol
+                && functionSymbol.name.equals(functionName);
+    }
+
+    private static boolean hasSelfTailCall(AST.Stmt statement, String functionName) {
+        return switch (statement) {
+            case AST.BlockStmt blockStmt -> blockStmt.stmtList.stream().anyMatch(s -> hasSelfTailCall(s, functionName));
+            case AST.IfElseStmt ifElseStmt -> hasSelfTailCall(ifElseStmt.ifStmt, functionName)
+                    || (ifElseStmt.elseStmt != null && hasSelfTailCall(ifElseStmt.elseStmt, functionName));
+            case AST.ReturnStmt returnStmt -> isSelfTailCall(returnStmt, functionName);
+            default -> false;
+        };
+    }
+
     private Node compileBlock(AST.BlockStmt block) {
         Node last = ZERO;
         _scope.push(ScopeNode.Kind.Block);
@@ -46,10 +46,28 @@ import java.util.Random;
  */
 public class IterPeeps {
 
+    /**
+     * Worklist pull orders.  All reach the same fixed point; they differ in
+     * how many visits it takes to get there.
+     */
+    public enum Order {
+        RANDOM,                 // Random pull, seeded; the default
+        RPO,                    // Reverse postorder from Start; defs before uses
+        CHANGED,                // Neighbors of the latest change first, then the rest
+    }
+
     private final WorkList<Node> _work;
 
+    // Stats over all iterates: peepholes tried, and tried with no progress
+    private int _visits, _nops;
+    public int visits() { return _visits; }
+    public int nops() { return _nops; }
+
     public IterPeeps( long seed ) { _work = new WorkList<>(seed); }
 
+    public void order( Order order ) { _work.order(order); }
+    public Order order() { return _work._order; }
+
     @SuppressWarnings("unchecked")
     public <N extends Node> N add( N n ) { return (N)_work.push(n); }
 
@@ -60,13 +78,15 @@ public class IterPeeps {
      */
     public void iterate( CodeGen code ) {
         assert progressOnList(code);
-        int cnt=0;
+        if( _work._order == Order.RPO ) _work.rankRPO(code);
+        int cnt=0, nops=0;
 
         Node n;
         while( (n=_work.pop()) != null ) {
             if( n.isDead() )  continue;
             cnt++;              // Useful for debugging, searching which peephole broke things
             Node x = n.peepholeOpt();
+            if( x == null ) nops++;
             if( x != null ) {
                 if( x.isDead() ) continue;
                 // peepholeOpt can return brand-new nodes, needing an initial type set
@@ -94,7 +114,8 @@ public class IterPeeps {
             if( n.isUnused() && !(n instanceof StopNode) )
                 n.kill();       // Just plain dead
         }
-
+        _visits += cnt;
+        _nops += nops;
     }
 
     // Visit ALL nodes and confirm the invariant:
@@ -128,6 +149,10 @@ public class IterPeeps {
     /**
      * Classic WorkList, with a fast add/remove, dup removal, random pull.
      * The Node's nid is used to check membership in the worklist.
+     * <p></p>
+     * Other pull orders are available for the peephole iteration; see
+     * {@link Order}.  RPO keeps a binary heap keyed by a rank per nid, and
+     * CHANGED keeps a second stack of the nodes pushed since pulling began.
      */
     @SuppressWarnings("unchecked")
     public static class WorkList<E extends Node> {
@@ -138,6 +163,12 @@ public class IterPeeps {
         private final Random _R;    // For randomizing pull from the WorkList
         private final long _seed;
 
+        private Order _order = Order.RANDOM;
+        private int[] _rank = new int[0]; // RPO: rank by nid, 0 is unranked
+        private Node[] _hot = new Node[1];// CHANGED: pushed since pulling began
+        private int _hlen;
+        private boolean _pulling;
+
         /* Useful stat - how many nodes are processed in the post parse iterative opt */
         private long _totalWork = 0;
 
@@ -151,6 +182,17 @@ public class IterPeeps {
             _R.setSeed(_seed);
         }
 
+        // Change the pull order; only on an empty or not-yet-pulled list
+        void order( Order order ) {
+            assert !_pulling;
+            if( order==_order ) return;
+            Node[] es = Arrays.copyOf(_es,_len);
+            _len = 0;
+            _on.clear();
+            _order = order;
+            for( Node n : es ) push((E)n);
+        }
+
         /**
          * Pushes a Node on the WorkList, ensuring no duplicates
          * If Node is null it will not be added.
@@ -160,10 +202,17 @@ public class IterPeeps {
             int idx = x._nid;
             if( !_on.get(idx) ) {
                 _on.set(idx);
+                _totalWork++;
+                if( _order==Order.CHANGED && _pulling ) {
+                    if( _hlen==_hot.length )
+                        _hot = Arrays.copyOf(_hot,_hlen<<1);
+                    _hot[_hlen++] = x;
+                    return x;
+                }
                 if( _len==_es.length )
                     _es = Arrays.copyOf(_es,_len<<1);
                 _es[_len++] = x;
-                _totalWork++;
+                if( _order==Order.RPO ) up(_len-1);
             }
             return x;
         }
@@ -177,25 +226,99 @@ public class IterPeeps {
          * True if Node is on the WorkList
          */
         boolean on( E x ) { return _on.get(x._nid); }
-        boolean isEmpty() { return _len==0; }
+        boolean isEmpty() { return _len==0 && _hlen==0; }
 
         /**
-         * Removes a random Node from the WorkList; null if WorkList is empty
+         * Removes a Node from the WorkList; null if WorkList is empty.
+         * Random by default, otherwise as set by the {@link Order}.
          */
         public E pop() {
-            if( _len == 0 ) return null;
-            int idx = _R.nextInt(_len);
-            E x = (E)_es[idx];
-            _es[idx] = _es[--_len]; // Compress array
+            _pulling = true;
+            E x;
+            if( _hlen > 0 ) x = (E)_hot[--_hlen];
+            else if( _len == 0 ) return null;
+            else if( _order==Order.RPO ) {
+                x = (E)_es[0];
+                _es[0] = _es[--_len];
+                down(0);
+            } else {
+                int idx = _R.nextInt(_len);
+                x = (E)_es[idx];
+                _es[idx] = _es[--_len]; // Compress array
+            }
             _on.clear(x._nid);
             return x;
         }
 
         public void clear() {
-            _len = 0;
+            _len = _hlen = 0;
+            _pulling = false;
             _on.clear();
             _R.setSeed(_seed);
             _totalWork = 0;
         }
+
+        // Rank every node reachable from start in reverse postorder over the
+        // def-use edges, so defs (and earlier control) rank before their uses.
+        // Backedges are just where the walk finds a node already visited.
+        void rankRPO( CodeGen code ) {
+            _rank = new int[code.UID()];
+            BitSet visit = new BitSet();
+            Ary<Node> post = new Ary<>(Node.class);
+            // Iterative DFS; the graph can be far deeper than the Java stack.
+            // idxs holds the next output to visit, per node on the stack.
+            Ary<Node> stk = new Ary<>(Node.class);
+            int[] idxs = new int[16];
+            stk.push(code._start);  visit.set(code._start._nid);
+            while( !stk.isEmpty() ) {
+                Node n = stk.last();
+                int d = stk.size()-1;
+                if( idxs[d] < n.nOuts() ) {
+                    Node use = n.out(idxs[d]++);
+                    if( use!=null && !visit.get(use._nid) ) {
+                        visit.set(use._nid);
+                        if( d+1==idxs.length ) idxs = Arrays.copyOf(idxs,idxs.length<<1);
+                        idxs[d+1] = 0;
+                        stk.push(use);
+                    }
+                } else
+                    post.push(stk.pop());
+            }
+            for( int i=0; i<post.size(); i++ )
+                _rank[post.at(i)._nid] = post.size()-i;
+            // Re-heap what is already on the list
+            for( int i=(_len>>1)-1; i>=0; i-- )
+                down(i);
+        }
+
+        // Rank of a node; nodes made after ranking take the latest of their
+        // defs, so they still follow their inputs.
+        private int rank( Node n ) {
+            if( n._nid < _rank.length && _rank[n._nid]!=0 ) return _rank[n._nid];
+            int r = 0;
+            for( Node def : n._inputs )
+                if( def != null && def._nid < _rank.length )
+                    r = Math.max(r,_rank[def._nid]);
+            if( n._nid >= _rank.length )
+                _rank = Arrays.copyOf(_rank,Math.max(n._nid+1,_rank.length<<1));
+            return _rank[n._nid] = r+1;
+        }
+        private boolean less( int i, int j ) {
+            int ri = rank(_es[i]), rj = rank(_es[j]);
+            return ri < rj || (ri==rj && _es[i]._nid < _es[j]._nid);
+        }
+        private void swap( int i, int j ) { Node t = _es[i]; _es[i] = _es[j]; _es[j] = t; }
+        private void up( int i ) {
+            while( i > 0 && less(i,(i-1)>>1) ) { swap(i,(i-1)>>1); i = (i-1)>>1; }
+        }
+        private void down( int i ) {
+            while( true ) {
+                int c = 2*i+1;
+                if( c >= _len ) return;
+                if( c+1 < _len && less(c+1,c) ) c++;
+                if( !less(c,i) ) return;
+                swap(i,c);  i = c;
+            }
+        }
     }
 }
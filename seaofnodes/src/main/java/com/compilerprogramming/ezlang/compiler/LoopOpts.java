@@ -0,0 +1,346 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.compiler.codegen.CodeGen;
+import com.compilerprogramming.ezlang.compiler.node.*;
+import com.compilerprogramming.ezlang.compiler.type.*;
+import com.compilerprogramming.ezlang.compiler.util.Ary;
+
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+
+/**
+ * Loop peeling and unrolling, run in opto after the peepholes and SCCP.
+ * <p>
+ * Only innermost loops of one shape are handled: the loop test is an If
+ * directly on the LoopNode, and its false side is the only exit.  The body
+ * holds no calls, allocations or inner loops.  This is what the parser
+ * makes for a plain {@code while} loop.
+ * <p>
+ * <b>Peeling</b> copies the test and body once in front of the loop.  It is
+ * done when some loop Phi's back edge value is loop-invariant: after the
+ * first iteration that Phi is invariant too, and so is anything computed
+ * from it, including tests.  The two exits merge in a new Region, and
+ * values used after the loop merge in new Phis there.
+ * <p>
+ * <b>Unrolling</b> applies to counted loops, {@code while( i < n ) ...
+ * i = i + c}, with a positive constant {@code c} and loop-invariant {@code
+ * n}.  A new main loop runs {@code k} copies of the body per test {@code
+ * i < n-(k-1)*c}; only the first copy keeps the test.  The original loop
+ * then runs the left-over iterations.  A guard skips the main loop if
+ * {@code n-(k-1)*c} wraps around.
+ * <p>
+ * Nothing here folds anything.  New and changed nodes go on the IterPeeps
+ * worklist, and the usual peepholes clean up.
+ * <p>
+ * There is no range-check elimination: the front end emits no array range
+ * checks, array loads and stores are only pinned under their control.
+ */
+public abstract class LoopOpts {
+
+    // Largest loop body to unroll, in nodes, before multiplying by the factor
+    static final int MAX_UNROLL_BODY = 80;
+
+    public static void run( CodeGen code ) {
+        if( !code._peel && code._unroll < 2 ) return;
+        // Gather loops first; transforming makes new ones
+        Ary<LoopNode> loops = new Ary<>(LoopNode.class);
+        for( Node n : reachable(code._start) )
+            if( n instanceof LoopNode loop && !(n instanceof StartNode) )
+                loops.push(loop);
+        for( LoopNode loop : loops )
+            if( !loop.isDead() )
+                new Loop(code,loop).opt();
+        // New control flow invalidates the cached dominator depths
+        code.invalidateIDepthCaches();
+    }
+
+    // One loop: its head, Phis and the nodes in its test and body
+    private static class Loop {
+        final CodeGen _code;
+        final LoopNode _head;
+        final Ary<PhiNode> _phis = new Ary<>(PhiNode.class);
+        final Ary<Node> _body = new Ary<>(Node.class); // Test and body, not head or Phis
+        final BitSet _in = new BitSet(); // Nids in the body, head and Phis
+        IfNode _test;
+        CProjNode _exit;
+
+        Loop( CodeGen code, LoopNode head ) { _code = code; _head = head; }
+
+        void log( String s ) { _code._loopLog.add(_head.label()+_head._nid+": "+s); }
+
+        void opt() {
+            String bad = find();
+            if( bad != null ) { log(bad); return; }
+            if( _code._peel ) {
+                PhiNode inv = invariantAfterFirst();
+                if( inv != null ) {
+                    peel();
+                    log("peeled, "+inv.label()+" is invariant after the first iteration");
+                } else
+                    log("not peeled, nothing becomes invariant");
+            }
+            if( _code._unroll >= 2 ) {
+                String why = counted();
+                if( why != null ) log("not unrolled, "+why);
+                else if( _body.size() > MAX_UNROLL_BODY ) log("not unrolled, body of "+_body.size()+" nodes is too big");
+                else {
+                    unroll(_code._unroll);
+                    log("unrolled x"+_code._unroll);
+                }
+            }
+        }
+
+        // Find the loop body and check its shape; returns why not, or null
+        String find() {
+            if( _head.nIns() != 3 || _head.entry()==null || _head.back()==null || _head._type != Type.CONTROL )
+                return "not a live loop";
+            for( Node use : _head._outputs )
+                if( use instanceof PhiNode phi && phi.region()==_head ) {
+                    if( phi.nIns() != 3 ) return "malformed phi";
+                    _phis.push(phi);
+                }
+            _in.set(_head._nid);
+            for( PhiNode phi : _phis ) _in.set(phi._nid);
+
+            // Body is everything between the head and Phis, and the back
+            // edge and back values: reached from the back side by inputs, and
+            // from the head and Phis by outputs.
+            BitSet back = new BitSet();
+            Ary<Node> work = new Ary<>(Node.class);
+            work.push(_head.back());
+            for( PhiNode phi : _phis ) work.push(phi.in(2));
+            while( !work.isEmpty() ) {
+                Node n = work.pop();
+                if( n==null || back.get(n._nid) || _in.get(n._nid) ) continue;
+                back.set(n._nid);
+                // Other loops are walked through their entry but not their
+                // back edge, else the back edge of an outer loop pulls in
+                // the whole outer loop
+                if( n instanceof LoopNode loop ) work.push(loop.entry());
+                else if( n instanceof PhiNode phi && phi.region() instanceof LoopNode ) {
+                    work.push(phi.region());
+                    work.push(phi.in(1));
+                } else
+                    for( Node def : n._inputs ) work.push(def);
+            }
+            work.push(_head);
+            for( PhiNode phi : _phis ) work.push(phi);
+            while( !work.isEmpty() ) {
+                Node n = work.pop();
+                for( Node use : n._outputs )
+                    if( use != null && back.get(use._nid) && !_in.get(use._nid) ) {
+                        _in.set(use._nid);
+                        _body.push(use);
+                        work.push(use);
+                    }
+            }
+
+            for( Node n : _body ) {
+                if( n instanceof LoopNode ) return "not innermost";
+                if( n instanceof CallNode || n instanceof CallEndNode ) return "has a call";
+                if( n instanceof NewNode ) return "allocates";
+                if( n instanceof ReturnNode || n instanceof FunNode ) return "malformed body";
+            }
+            // Exactly one exit, from the loop test
+            for( Node n : _body ) {
+                if( n instanceof CFGNode )
+                    for( Node use : n._outputs )
+                        if( use instanceof CFGNode cuse && !_in.get(cuse._nid) ) {
+                            if( !(n instanceof IfNode iff && iff.ctrl()==_head && _test==null) )
+                                return "more than one exit";
+                            _test = iff;
+                            _exit = (CProjNode)cuse;
+                        }
+            }
+            if( _test==null ) return "no exit test at the loop head";
+            if( _exit._idx != 1 ) return "exits on the true side";
+            return null;
+        }
+
+        // A Phi whose back edge value is defined outside the loop
+        PhiNode invariantAfterFirst() {
+            for( PhiNode phi : _phis )
+                if( !_in.get(phi.in(2)._nid) && !phi.isMem() )
+                    return phi;
+            return null;
+        }
+
+        // Counted loop: while( phi < n ) { ...; phi = phi + c }
+        // Returns why not, or null
+        String counted() {
+            if( !(_test.pred() instanceof BoolNode.LT lt) || lt instanceof BoolNode.LTF )
+                return "test is not an integer <";
+            if( !(lt.in(1) instanceof PhiNode iv) || iv.region()!=_head )
+                return "test is not on a loop phi";
+            if( _in.get(lt.in(2)._nid) )
+                return "limit is not invariant";
+            if( !(iv.in(2) instanceof AddNode add) || add.in(1)!=iv ||
+                !(add.in(2)._type instanceof TypeInteger c) || !c.isConstant() )
+                return "no constant stride";
+            if( c.value() <= 0 || c.value() > (1<<20) )
+                return "stride is not small and positive";
+            return null;
+        }
+
+        // Clone the body.  Inputs map through map; the head and Phis must be
+        // in it.  Clones keep the original types, which hold for any
+        // iteration, and go on the worklist.
+        IdentityHashMap<Node,Node> cloneBody( IdentityHashMap<Node,Node> map ) {
+            for( Node n : _body )
+                map.put(n,n.copy());
+            for( Node n : _body ) {
+                Node c = map.get(n);
+                for( Node def : n._inputs )
+                    c.addDef(def==null ? null : map.getOrDefault(def,def));
+                c._type = n._type;
+                _code.add(c);
+            }
+            return map;
+        }
+
+        void peel() {
+            CFGNode entry = _head.entry();
+            IdentityHashMap<Node,Node> map = new IdentityHashMap<>();
+            map.put(_head,entry);
+            for( PhiNode phi : _phis ) map.put(phi,phi.in(1));
+            cloneBody(map);
+
+            // Values used after the loop merge in Phis with their peeled
+            // copies.  Only the exit leaves the loop, so it dominates all
+            // those uses.
+            CProjNode exit0 = new CProjNode(map.get(_test),1,_exit._label).init();
+            RegionNode merge = new RegionNode(null,exit0,null);
+            merge._type = Type.CONTROL;
+            for( Node n : inside() ) {
+                PhiNode phi = null;
+                for( Node use : n._outputs.asAry() )
+                    if( use != null && use != _exit && !_in.get(use._nid) ) {
+                        // Pinned inside, used only after
+                        Node x = n instanceof CFGNode ? merge : phi;
+                        if( x == null ) {
+                            Type dt = n instanceof PhiNode p ? p.declaredType() : n._type;
+                            x = phi = new PhiNode(n instanceof PhiNode p ? p._label : "",dt,merge,map.get(n),n);
+                            phi._type = dt;
+                            _code.add(phi);
+                        }
+                        for( int i=0; i<use.nIns(); i++ )
+                            if( use.in(i)==n ) use.setDef(i,x);
+                        _code.add(use);
+                    }
+            }
+            // The two exits merge after the loop
+            merge.setDef(2,_exit);
+            for( Node use : _exit._outputs.asAry() )
+                if( use != null && use != merge ) {
+                    for( int i=0; i<use.nIns(); i++ )
+                        if( use.in(i)==_exit ) use.setDef(i,merge);
+                    _code.add(use);
+                }
+            _code.add(merge);
+            _code.add(exit0);
+
+            // The loop now starts after the peeled iteration
+            _head.setDef(1,map.get(_head.back()));
+            for( PhiNode phi : _phis )
+                phi.setDef(1,map.getOrDefault(phi.in(2),phi.in(2)));
+            addAll();
+        }
+
+        // Head, Phis and body
+        Ary<Node> inside() {
+            Ary<Node> all = new Ary<>(Node.class);
+            all.push(_head);
+            for( PhiNode phi : _phis ) all.push(phi);
+            for( Node n : _body ) all.push(n);
+            return all;
+        }
+
+        void unroll( int k ) {
+            Node lt = _test.pred();
+            PhiNode iv = (PhiNode)lt.in(1);
+            Node limit = lt.in(2);
+            long stride = ((TypeInteger)iv.in(2).in(2)._type).value();
+            CFGNode entry = _head.entry();
+
+            // Guard against the shortened limit wrapping around
+            Node lim2 = new SubNode(limit,Node.con((k-1)*stride)).peephole().keep();
+            IfNode guard = new IfNode(entry,new BoolNode.LT(lim2,limit).peephole());
+            guard.init();
+            CProjNode gt = new CProjNode(guard,0,"True" ).init();
+            CProjNode gf = new CProjNode(guard,1,"False").init();
+
+            // Main loop and its Phis
+            LoopNode main = new LoopNode(gt);
+            main._type = Type.CONTROL;
+            IdentityHashMap<Node,Node> map = new IdentityHashMap<>();
+            map.put(_head,main);
+            Ary<PhiNode> qs = new Ary<>(PhiNode.class);
+            for( PhiNode phi : _phis ) {
+                PhiNode q = new PhiNode(phi._label,phi.declaredType(),main,phi.in(1),null);
+                q._type = phi._type;
+                qs.push(q);
+                map.put(phi,q);
+            }
+            cloneBody(map);
+            IfNode test = (IfNode)map.get(_test);
+            test.setDef(1,new BoolNode.LT(map.get(iv),lim2.unkeep()).peephole());
+            CProjNode mainExit = new CProjNode(test,1,_exit._label).init();
+
+            // Remaining copies run without a test
+            for( int j=1; j<k; j++ ) {
+                IdentityHashMap<Node,Node> next = new IdentityHashMap<>();
+                next.put(_head,map.get(_head.back()));
+                for( PhiNode phi : _phis )
+                    next.put(phi,map.getOrDefault(phi.in(2),phi.in(2)));
+                cloneBody(next);
+                next.get(_test).setDef(1,Node.con(1));
+                map = next;
+            }
+            main.setDef(2,map.get(_head.back()));
+            for( int i=0; i<_phis.size(); i++ )
+                qs.at(i).setDef(2,map.getOrDefault(_phis.at(i).in(2),_phis.at(i).in(2)));
+
+            // Original loop picks up after the main loop, or instead of it
+            RegionNode pre = new RegionNode(null,gf,mainExit);
+            pre._type = Type.CONTROL;
+            _head.setDef(1,pre);
+            for( int i=0; i<_phis.size(); i++ ) {
+                PhiNode phi = _phis.at(i);
+                PhiNode init = new PhiNode(phi._label,phi.declaredType(),pre,phi.in(1),qs.at(i));
+                init._type = phi._type;
+                phi.setDef(1,init);
+                _code.add(init);
+            }
+            for( PhiNode q : qs ) _code.add(q);
+            _code.add(main);
+            _code.add(pre);
+            _code.add(guard);
+            addAll();
+        }
+
+        // Everything in or next to the loop gets revisited
+        void addAll() {
+            for( Node n : inside() ) {
+                if( n.isDead() ) continue;
+                _code.add(n);
+                for( Node use : n._outputs ) _code.add(use);
+                for( Node def : n._inputs ) _code.add(def);
+            }
+        }
+    }
+
+    private static Ary<Node> reachable( Node start ) {
+        Ary<Node> nodes = new Ary<>(Node.class);
+        BitSet visit = new BitSet();
+        visit.set(start._nid);
+        nodes.push(start);
+        for( int i=0; i<nodes.size(); i++ ) {
+            Node n = nodes.at(i);
+            for( Node use : n._outputs )
+                if( use != null && !visit.get(use._nid) ) { visit.set(use._nid); nodes.push(use); }
+            for( Node def : n._inputs )
+                if( def != null && !visit.get(def._nid) ) { visit.set(def._nid); nodes.push(def); }
+        }
+        return nodes;
+    }
+}
@@ -0,0 +1,124 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.compiler.IterPeeps.WorkList;
+import com.compilerprogramming.ezlang.compiler.codegen.CodeGen;
+import com.compilerprogramming.ezlang.compiler.node.*;
+import com.compilerprogramming.ezlang.compiler.type.*;
+import com.compilerprogramming.ezlang.compiler.util.Ary;
+
+import java.util.BitSet;
+
+/**
+ * Optimistic Sparse Conditional Constant Propagation, run after the
+ * pessimistic {@link IterPeeps}.
+ * <p>
+ * The pessimistic peepholes only ever lift types from a sound starting
+ * point, so a loop-carried value can never lift past its own back edge.
+ * Here every node starts at the top of its lattice (the dual of its
+ * pessimistic type, when that is higher) and falls using the same {@code compute()} calls; a
+ * Phi ignores the values arriving on unreachable control, and an If with
+ * a constant test leaves one side unreachable.  The result is a fixed
+ * point at least as good as the pessimistic one.
+ * <p>
+ * Nothing is rewritten here.  Nodes whose type improved get their new type
+ * and go back on the {@link IterPeeps} worklist, where the usual peepholes
+ * replace constants, fold dead branches and remove dead code.
+ * <p>
+ * Integer ranges can fall one value at a time around a loop, so a node
+ * falling too often is widened straight to its pessimistic type.
+ */
+public abstract class SCCP {
+
+    // Falls before widening to the pessimistic type
+    private static final int WIDEN = 4;
+
+    // Returns the count of nodes with an improved type
+    public static int run( CodeGen code ) {
+        Ary<Node> nodes = reachable(code._start);
+        int max = code.UID();
+        Type[] old = new Type[max];
+        int[] falls = new int[max];
+
+        // Start optimistically high.  A constant's dual is not above it
+        // (e.g. null and ~nil), so those keep their type; so do Start and
+        // constants, which compute the same regardless.
+        nodes.removeIf( n -> n._type==null ); // Not yet typed
+        for( Node n : nodes ) {
+            old[n._nid] = n._type;
+            Type top = n._type.dual();
+            if( !(n instanceof StartNode || n instanceof ConstantNode) && top.isa(n._type) )
+                n._type = top;
+        }
+
+        WorkList<Node> work = new WorkList<>();
+        work.order(IterPeeps.Order.RPO);
+        work.rankRPO(code);
+        for( Node n : nodes )
+            if( !(n instanceof StartNode) )
+                work.push(n);
+
+        Node n;
+        while( (n = work.pop()) != null ) {
+            Type t = n.compute();
+            if( t == n._type ) continue;
+            // Types only fall; widen nodes that keep falling
+            t = t.meet(n._type);
+            if( t == n._type ) continue;
+            if( ++falls[n._nid] > WIDEN )
+                t = t.meet(old[n._nid]);
+            n._type = t;
+            for( Node use : n._outputs )
+                if( use != null && use._nid < max && old[use._nid] != null )
+                    work.push(use);
+            if( n.deps() != null )
+                for( Node dep : n.deps() )
+                    if( dep != null && dep._nid < max && old[dep._nid] != null )
+                        work.push(dep);
+        }
+
+        // Never worse than pessimistic; if some compute() disagrees, give up
+        // and keep the pessimistic types
+        for( Node x : nodes )
+            if( !x._type.isa(old[x._nid]) ) {
+                for( Node y : nodes )
+                    y._type = old[y._nid];
+                return 0;
+            }
+
+        // Improved nodes get another round of peepholes, as do their users
+        // and users' users (e.g. the Phis of a Region losing a path) and
+        // their distant dependents.
+        int progress = 0;
+        for( Node x : nodes )
+            if( x._type != old[x._nid] ) {
+                progress++;
+                code.add(x);
+                for( Node use : x._outputs ) {
+                    code.add(use);
+                    for( Node useuse : use._outputs )
+                        code.add(useuse);
+                }
+                if( x.deps() != null )
+                    for( Node dep : x.deps() )
+                        code.add(dep);
+            }
+        return progress;
+    }
+
+    // All nodes reachable from Start along inputs and outputs.  Iterative;
+    // graphs can be far deeper than the Java stack.
+    private static Ary<Node> reachable( Node start ) {
+        Ary<Node> nodes = new Ary<>(Node.class);
+        BitSet visit = new BitSet();
+        visit.set(start._nid);
+        nodes.push(start);
+        for( int i=0; i<nodes.size(); i++ ) {
+            Node n = nodes.at(i);
+            for( Node def : n._inputs )
+                if( def != null && !visit.get(def._nid) ) { visit.set(def._nid); nodes.push(def); }
+            for( Node use : n._outputs )
+                if( use != null && !visit.get(use._nid) ) { visit.set(use._nid); nodes.push(use); }
+        }
+        return nodes;
+    }
+}
@@ -38,10 +38,12 @@ abstract public class BuildLRG {
                     // Attempt to commute ops to keep live ranges compatible.
                     if( mach.commutes() && n.nOuts()==1 ) {
                         int uidx = n.out(0)._inputs.find(n);
-                        RegMask mask1 = n.in (1) instanceof MachNode machx ? machx.outregmap() : alloc.lrg(n.in(1))._mask;
-                        RegMask mask2 = n.in (2) instanceof MachNode machx ? machx.outregmap() : alloc.lrg(n.in(2))._mask;
-                        RegMask masko = n.out(0) instanceof MachNode machx ? machx.regmap(uidx): alloc.lrg(n      )._mask;
-                        if( !mask1.overlap(masko) && mask2.overlap(masko) )
+                        RegMask mask1 = n.in (1) instanceof MachNode machx ? machx.outregmap() : mask(alloc,n.in(1));
+                        RegMask mask2 = n.in (2) instanceof MachNode machx ? machx.outregmap() : mask(alloc,n.in(2));
+                        RegMask masko = n.out(0) instanceof MachNode machx ? machx.regmap(uidx): mask(alloc,n      );
+                        // A use by a later Phi has no live range yet
+                        if( mask1!=null && mask2!=null && masko!=null &&
+                            !mask1.overlap(masko) && mask2.overlap(masko) )
                             n.swap12();
                     }
 
@@ -75,6 +77,11 @@ abstract public class BuildLRG {
         return alloc.success();
     }
 
+    private static RegMask mask( RegAlloc alloc, Node n ) {
+        LRG lrg = alloc.lrg(n);
+        return lrg==null ? null : lrg._mask;
+    }
+
     private static void defLRG( RegAlloc alloc, Node n ) {
         MachNode mach = (MachNode)n;
         RegMask def_mask = mach.outregmap();
@@ -5,10 +5,12 @@ import com.compilerprogramming.ezlang.compiler.node.*;
 import com.compilerprogramming.ezlang.compiler.print.*;
 import com.compilerprogramming.ezlang.compiler.type.*;
 import com.compilerprogramming.ezlang.compiler.util.Ary;
+import com.compilerprogramming.ezlang.compiler.util.Bits;
 import com.compilerprogramming.ezlang.compiler.util.SB;
 import com.compilerprogramming.ezlang.exceptions.CompilerException;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
@@ -44,6 +46,8 @@ public class CodeGen {
     public CodeGen( String src ) { this(src, TypeInteger.BOT, 123L ); }
     public CodeGen( String src, TypeInteger arg, long workListSeed ) {
         CODE = this;
+        Type.newSession();
+        _main = makeFun(TypeTuple.MAIN, Type.BOTTOM);
         _phase = null;
         _callingConv = null;
         _start = new StartNode(arg);
@@ -130,18 +134,16 @@ public class CodeGen {
         Integer i = FIDXS.get(sig);
         int fidx = i==null ? 0 : i;
         FIDXS.put(sig,fidx+1);  // Track count per sig
-        assert fidx<64;         // TODO: need a larger FIDX space
-        return TypeFunPtr.make((byte)2,sig,ret, 1L<<fidx );
+        return TypeFunPtr.make((byte)2,sig,ret, Bits.make(fidx) );
     }
     public TypeFunPtr makeFun2(TypeTuple sig, Type ret ) {
         Integer i = FIDXS.get(sig);
         int fidx = i==null ? 0 : i;
         FIDXS.put(sig,fidx+1);  // Track count per sig
-        assert fidx<64;         // TODO: need a larger FIDX space
-        return new TypeFunPtr((byte)2,sig,ret, 1L<<fidx );
+        return new TypeFunPtr((byte)2,sig,ret, Bits.make(fidx) );
     }
     // Signature for MAIN
-    public TypeFunPtr _main = makeFun(TypeTuple.MAIN, Type.BOTTOM);
+    public final TypeFunPtr _main;
     // Reverse from a constant function pointer to the IR function being called
     public FunNode link( TypeFunPtr tfp ) {
         assert tfp.isConstant();
@@ -194,16 +196,30 @@ public class CodeGen {
         _phase = Phase.Opto;
         long t0 = System.currentTimeMillis();
 
+        // Calls parsed before their target function could not link then;
+        // revisit them all now that every function is in the linker table.
+        _stop.walk( n -> { if( n instanceof CallNode ) add(n); return null; } );
         // Pessimistic peephole optimization on a worklist
         _iter.iterate(this);
+        // Optimistic; then peephole whatever improved
+        if( SCCP.run(this) > 0 )
+            _iter.iterate(this);
+        // Peel and unroll loops; then peephole the copies
+        LoopOpts.run(this);
+        _iter.iterate(this);
         _tOpto = (int)(System.currentTimeMillis() - t0);
-
-        // TODO:
-        // Optimistic
-        // TODO:
-        // loop unroll, peel, RCE, etc
         return this;
     }
+    // Select the peephole worklist order; random by default
+    public CodeGen iterOrder( IterPeeps.Order order ) { _iter.order(order); return this; }
+
+    // Loop opts: peel loops with invariant-after-first values, and unroll
+    // counted loops by a factor (below 2 is off).  Both off by default.
+    public boolean _peel = false;
+    public int _unroll = 0;
+    public CodeGen loopOpts( boolean peel, int unroll ) { _peel = peel; _unroll = unroll; return this; }
+    // One line per loop, what was done and why
+    public final ArrayList<String> _loopLog = new ArrayList<>();
     public <N extends Node> N add( N n ) { return _iter.add(n); }
     public void addAll( Ary<Node> ary ) { _iter.addAll(ary); }
 
@@ -26,13 +26,13 @@ abstract public class IFG {
 
     // Set matching bit
     private static void addIFG( LRG lrg0, LRG lrg1 ) {
-        short x0 = lrg0._lrg, x1 = lrg1._lrg;
+        int x0 = lrg0._lrg, x1 = lrg1._lrg;
         // Triangulate
         if( x0 < x1 ) _addIFG(x0,x1);
         else          _addIFG(x1,x0);
     }
     // Add lrg1 to lrg0's conflict set
-    private static void _addIFG( short x0, short x1 ) {
+    private static void _addIFG( int x0, int x1 ) {
         BitSet ifg = IFG.atX(x0);
         if( ifg==null )
             IFG.setX(x0,ifg = new BitSet());
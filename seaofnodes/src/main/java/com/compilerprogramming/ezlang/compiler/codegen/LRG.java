@@ -27,7 +27,7 @@ import java.util.IdentityHashMap;
 public class LRG {
 
     // Dense live range numbers
-    final short _lrg;
+    final int _lrg;
 
     // U-F leader; null if leader
     LRG _leader;
@@ -78,7 +78,7 @@ public class LRG {
     // More registers than neighbors
     boolean lowDegree() { return nadj() < _mask.size(); }
 
-    LRG( short lrg ) { _lrg = lrg; _reg = -1; }
+    LRG( int lrg ) { _lrg = lrg; _reg = -1; }
 
     boolean leader() { return _leader == null; }
 
@@ -0,0 +1,152 @@
+package com.compilerprogramming.ezlang.compiler.codegen;
+
+import com.compilerprogramming.ezlang.compiler.node.*;
+import com.compilerprogramming.ezlang.compiler.type.*;
+import com.compilerprogramming.ezlang.compiler.util.Utils;
+
+import java.lang.foreign.*;
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ *  In-process execution of in-memory linked code.
+ * <p>
+ *  After {@code exportELF(null)} the encoding is patched in place (see
+ *  {@link LinkMem}), except for the calls to externals like calloc, which
+ *  point at sentinels.  This class re-patches a copy of the bits so the
+ *  calls go through a jump trampoline per external, copies it into a fresh
+ *  mmap'd chunk with the trampolines, then flips the chunk to read+execute.  Each function
+ *  is exposed as a {@link MethodHandle} through the Foreign Function &amp;
+ *  Memory API, so Java code can call compiled EZ code directly.
+ * <p>
+ *  Only x86_64 with the SystemV calling convention can run in-process.
+ *  Memory allocated by the compiled code comes from the C heap and is never
+ *  freed.
+ */
+public class NativeCode implements AutoCloseable {
+    public final CodeGen _code;
+
+    // Chunk holding code, constant pool and trampolines
+    private final MemorySegment _mem;
+    // Function handles by name
+    private final HashMap<String,MethodHandle> _funs = new HashMap<>();
+
+    // Trampoline: "jmp [rip+0]" followed by the 8-byte absolute target
+    private static final int TRAMP_SIZE = 16;
+
+    private static final Linker LINKER = Linker.nativeLinker();
+    private static final SymbolLookup LIBC = LINKER.defaultLookup();
+    private static final MethodHandle MMAP = libc("mmap", FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG));
+    private static final MethodHandle MPROTECT = libc("mprotect", FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT));
+    private static final MethodHandle MUNMAP = libc("munmap", FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG));
+    private static final int PROT_READ=1, PROT_WRITE=2, PROT_EXEC=4;
+    private static final int MAP_PRIVATE=0x02, MAP_ANONYMOUS=0x20;
+
+    // Can code be run in this process?
+    public static boolean isSupported() {
+        String arch = System.getProperty("os.arch");
+        return System.getProperty("os.name").startsWith("Linux") &&
+            (arch.equals("amd64") || arch.equals("x86_64"));
+    }
+
+    public NativeCode( CodeGen code ) {
+        assert code._phase == CodeGen.Phase.Export;
+        if( !isSupported() || !"x86_64_v2".equals(code._mach.name()) || !"SystemV".equals(code._callingConv) )
+            throw Utils.TODO("Native execution needs x86_64 SystemV code on an x86_64 Linux host");
+        _code = code;
+        Encoding enc = code._encoding;
+
+        // Trampolines follow the code and constant pool, one per distinct external
+        int len = enc._bits.size();
+        int tramps = (len+TRAMP_SIZE-1) & -TRAMP_SIZE;
+        HashMap<String,Integer> targets = new HashMap<>();
+        for( String extern : enc._externals.values() )
+            if( !targets.containsKey(extern) )
+                targets.put(extern, tramps + targets.size()*TRAMP_SIZE);
+        int size = tramps + targets.size()*TRAMP_SIZE;
+
+        // Patch the external calls to their trampolines, in a copy of the
+        // bits so the encoding stays as exportELF left it
+        byte[] orig = enc.bits();
+        byte[] bits = Arrays.copyOf(orig, len);
+        enc._bits.set(bits, len);
+        try {
+            for( Node src : enc._externals.keySet() ) {
+                int start = enc._opStart[src._nid];
+                ((RIPRelSize)src).patch(enc, start, enc._opLen[src._nid], targets.get(enc._externals.get(src)) - start);
+            }
+        } finally {
+            enc._bits.set(orig, len);
+        }
+
+        try {
+            _mem = ((MemorySegment)MMAP.invokeExact(MemorySegment.NULL, (long)size, PROT_READ|PROT_WRITE, MAP_PRIVATE|MAP_ANONYMOUS, -1, 0L)).reinterpret(size);
+            if( _mem.address() == -1L )
+                throw new IllegalStateException("mmap failed");
+            MemorySegment.copy(MemorySegment.ofArray(bits), 0, _mem, 0, len);
+            for( String extern : targets.keySet() ) {
+                int off = targets.get(extern);
+                MemorySegment sym = LIBC.find(extern).orElseThrow(() -> Utils.TODO("Unknown external "+extern));
+                _mem.set(ValueLayout.JAVA_BYTE, off  , (byte)0xFF);
+                _mem.set(ValueLayout.JAVA_BYTE, off+1, (byte)0x25);
+                _mem.set(ValueLayout.JAVA_INT_UNALIGNED , off+2, 0);
+                _mem.set(ValueLayout.JAVA_LONG_UNALIGNED, off+6, sym.address());
+            }
+            if( (int)MPROTECT.invokeExact(_mem, (long)size, PROT_READ|PROT_EXEC) != 0 )
+                throw new IllegalStateException("mprotect failed");
+        } catch( RuntimeException e ) {
+            throw e;
+        } catch( Throwable e ) {
+            throw new RuntimeException(e);
+        }
+
+        // One handle per function
+        for( CFGNode bb : code._cfg )
+            if( bb instanceof FunNode fun && fun._name != null )
+                _funs.put(fun._name, LINKER.downcallHandle(_mem.asSlice(enc._opStart[fun._nid]), descriptor(fun.sig())));
+    }
+
+    // Integers and pointers are passed as longs; pointers are raw addresses.
+    private static FunctionDescriptor descriptor( TypeFunPtr sig ) {
+        MemoryLayout[] args = new MemoryLayout[sig.nargs()];
+        for( int i=0; i<args.length; i++ )
+            args[i] = layout(sig.arg(i));
+        MemoryLayout ret = layout(sig.ret());
+        return ret==null ? FunctionDescriptor.ofVoid(args) : FunctionDescriptor.of(ret,args);
+    }
+    private static MemoryLayout layout( Type t ) {
+        return switch( t ) {
+        case TypeFloat tf -> tf.log_size()==2 ? ValueLayout.JAVA_FLOAT : ValueLayout.JAVA_DOUBLE;
+        case TypeInteger ti -> ValueLayout.JAVA_LONG;
+        case TypeMemPtr tmp -> ValueLayout.JAVA_LONG;
+        case TypeFunPtr tfp -> ValueLayout.JAVA_LONG;
+        default -> null;        // No value returned
+        };
+    }
+
+    // Handle to call the named compiled function
+    public MethodHandle handle( String name ) {
+        MethodHandle mh = _funs.get(name);
+        if( mh == null )
+            throw Utils.TODO("No compiled function "+name);
+        return mh;
+    }
+
+    // Start of the executable chunk
+    public long address() { return _mem.address(); }
+
+    @Override public void close() {
+        try {
+            int rez = (int)MUNMAP.invokeExact(_mem, _mem.byteSize());
+            assert rez == 0;
+        } catch( Throwable e ) {
+            throw new RuntimeException(e);
+        }
+        _funs.clear();
+    }
+
+    private static MethodHandle libc( String name, FunctionDescriptor desc ) {
+        return LIBC.find(name).map(sym -> LINKER.downcallHandle(sym, desc)).orElse(null);
+    }
+}
@@ -68,7 +68,7 @@ public class RegAlloc {
     // -----------------------
     // Map from Nodes to Live Ranges
     private final IdentityHashMap<Node,LRG> _lrgs = new IdentityHashMap<>();
-    short _lrg_num;
+    int _lrg_num;
 
     // Define a new LRG, and assign n
     LRG newLRG( Node n ) {
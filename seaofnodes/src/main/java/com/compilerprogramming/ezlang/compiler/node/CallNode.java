@@ -2,6 +2,7 @@ package com.compilerprogramming.ezlang.compiler.node;
 
 import com.compilerprogramming.ezlang.compiler.codegen.CodeGen;
 import com.compilerprogramming.ezlang.compiler.Compiler;
+import com.compilerprogramming.ezlang.compiler.util.Bits;
 import com.compilerprogramming.ezlang.compiler.util.Utils;
 import com.compilerprogramming.ezlang.compiler.type.Type;
 import com.compilerprogramming.ezlang.compiler.type.TypeFunPtr;
@@ -94,13 +95,12 @@ public class CallNode extends CFGNode {
         // also the CallEnd points to the Return.
         Node progress = null;
         if( fptr()._type instanceof TypeFunPtr tfp && tfp.nargs() == nargs() ) {
-            // If fidxs is negative, then infinite unknown functions
-            long fidxs = tfp.fidxs();
-            if( fidxs > 0 ) {
+            // If fidxs is infinite, then infinite unknown functions
+            Bits fidxs = tfp.fidxs();
+            if( !fidxs.isInfinite() ) {
                 // Wipe out the return which matching in the linker table
-                // Walk the (63 max) bits and link
-                for( ; fidxs!=0; fidxs = TypeFunPtr.nextFIDX(fidxs) ) {
-                    int fidx = Long.numberOfTrailingZeros(fidxs);
+                // Walk the bits and link
+                for( int fidx = fidxs.nextBit(0); fidx >= 0; fidx = fidxs.nextBit(fidx+1) ) {
                     TypeFunPtr tfp0 = tfp.makeFrom(fidx);
                     FunNode fun = CodeGen.CODE.link(tfp0);
                     if( fun!=null && !fun._folding && !linked(fun) )
@@ -165,7 +165,7 @@ public class CallNode extends CFGNode {
                 return Compiler.error( "Argument #"+i+" isa "+arg(i+2)._type+", but must be a "+tfp.arg(i));
             }
 
-        if( tfp.fidxs() < 0 )
+        if( tfp.fidxs().isInfinite() )
             throw Utils.TODO(); // Infinite unknown TFPs?  Should be fairly precise CG
 
         return null;
@@ -550,6 +550,8 @@ public abstract class Node implements Cloneable {
     // retry the peephole.  Track a set of Nodes dependent on `this`, and
     // revisit them if `this` changes.
     Ary<Node> _deps;
+    // For analyses running their own worklist; may be null
+    public Ary<Node> deps() { return _deps; }
 
     /**
      * Add a node to the list of dependencies.  Only add it if its not an input
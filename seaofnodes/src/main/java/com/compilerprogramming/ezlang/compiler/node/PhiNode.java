@@ -52,6 +52,7 @@ public class PhiNode extends Node {
     }
 
     public CFGNode region() { return (CFGNode)in(0); }
+    public Type declaredType() { return _declaredType; }
     @Override public boolean isMem() { return _declaredType instanceof TypeMem; }
     @Override public boolean isPinned() { return true; }
 
@@ -88,6 +89,11 @@ public class PhiNode extends Node {
         if( live != null ) {
             if( live._type.isa(_type) )
                 return live;
+            // Memory is never upcast; a loop memory Phi typed for one alias
+            // can be left holding the function's all-aliases memory, when
+            // the loop is only exited by returns
+            if( live._type instanceof TypeMem && _type instanceof TypeMem )
+                return live;
             // Keep the Phi upcast
             return new CastNode(_type,null,live);
         }
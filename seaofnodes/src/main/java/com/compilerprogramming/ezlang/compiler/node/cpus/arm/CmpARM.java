@@ -6,9 +6,19 @@ import com.compilerprogramming.ezlang.compiler.node.*;
 
 public class CmpARM extends MachConcreteNode implements MachNode {
     CmpARM( Node cmp ) { super(cmp); }
+    CmpARM( CmpARM cmp ) {
+        super((Node)null);
+        addDef(null);
+        addDef(cmp.in(1));
+        addDef(cmp.in(2));
+    }
     @Override public String op() { return "cmp"; }
     @Override public RegMask regmap(int i) { return arm.RMASK; }
     @Override public RegMask outregmap() { return arm.FLAGS_MASK; }
+    // Flags cannot be copied to another register, so a compare used by Ifs
+    // in different blocks is cloned instead; see CmpX86.
+    @Override public boolean isClone() { return true; }
+    @Override public Node copy() { return new CmpARM(this); }
 
     // SUBS (shifted register)
     @Override public void encoding( Encoding enc ) { arm.r_reg_subs(enc,this,arm.OP_CMP); }
@@ -212,11 +212,12 @@ public class arm extends Machine {
         SXTX,
     }
 
+    // CSINC: rd = cond ? rn : rm+1.  CSET rd,cond is CSINC rd,xzr,xzr,!cond
     static public int cset(int opcode, int rm, COND cond, int rn, int rd) {
         assert 0 <= rm && rm < 32;
         assert 0 <= rn && rn < 32;
         assert 0 <= rd && rd < 32;
-        return (opcode << 21) | (rm << 15) | (cond.ordinal() << 12) | (rn << 5) | rd;
+        return (opcode << 21) | (rm << 16) | (cond.ordinal() << 12) | (1 << 10) | (rn << 5) | rd;
     }
 
     static public int cset(int opcode, COND cond, int rn, int rd) {
@@ -426,8 +427,9 @@ public class arm extends Machine {
         return (opcode  << 21) | (src << 16) | 0b11111 << 5 | rd;
     }
 
+    // ret x30
     public static int ret(int opcode) {
-        return (opcode << 10);
+        return (opcode << 10) | (X30 << 5);
     }
 
     // FMOV (scalar, immediate)
@@ -537,12 +539,6 @@ public class arm extends Machine {
         return (opcode << 24) | ((delta)<< 5) | cond.ordinal();
     }
 
-    public static int cond_set(int opcode, int rm, COND cond, int rn, int rd) {
-        assert 0 <= rd &&  rd < 32;
-        assert 0 <= rn &&  rn  < 32;
-        return (opcode << 21) | (rm << 16) | (cond.ordinal() << 12) | (rn << 5) | rd;
-    }
-
     // Branch with Link to Register calls a subroutine at an address in a register, setting register X30 to PC+4.
     public static int blr(int opcode, int rd) {
         assert 0 <= rd && rd < 32;
@@ -1,8 +1,10 @@
 package com.compilerprogramming.ezlang.compiler.type;
 
+import com.compilerprogramming.ezlang.compiler.util.Bits;
 import com.compilerprogramming.ezlang.compiler.util.SB;
 import com.compilerprogramming.ezlang.compiler.util.Utils;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 /**
@@ -22,7 +24,12 @@ import java.util.HashMap;
  */
 
 public class Type {
+    // Permanent core of interned types: everything built during class
+    // initialization, e.g. BOTTOM, TOP and the common integer ranges.
     static final HashMap<Type, Type> INTERN = new HashMap<>();
+    // Per-compilation arena; types first made during a compilation.  Null
+    // until the first session, when everything interns into the core.
+    private static HashMap<Type, Type> SESSION;
 
     // ----------------------------------------------------------
     // Simple types are implemented fully here.  "Simple" means: the code and
@@ -91,26 +98,46 @@ public class Type {
 
     // ----------------------------------------------------------
 
-    // Notes on Type interning: At the moment it is not easy to reset the
-    // interned types because we hold static references to several types and
-    // these are scattered around.  This means the INTERN cache will retain all
-    // types from every run of the Parser.  For this to work correctly types
-    // must be rigorous about defining when they are the same.  Also types need
-    // to be immutable once defined.  The rationale for interning is
-    // *correctness* with cyclic type definitions.  Simple structural recursive
-    // checks go exponential with merely sharing, but with cycles they will
-    // stack overflow and crash.  Interning means we do not need to have sharing
-    // checks with every type compare, only during interning.
+    // Notes on Type interning: We hold static references to several types and
+    // these are scattered around, so those live in a permanent core INTERN
+    // table.  All other types are interned into a per-compilation SESSION
+    // arena, which is dropped when the next compilation starts; a long-running
+    // process thus only retains the core plus one compilation's types.  For
+    // this to work correctly types must be rigorous about defining when they
+    // are the same.  Also types need to be immutable once defined.  The
+    // rationale for interning is *correctness* with cyclic type definitions.
+    // Simple structural recursive checks go exponential with merely sharing,
+    // but with cycles they will stack overflow and crash.  Interning means we
+    // do not need to have sharing checks with every type compare, only during
+    // interning.
 
     // Factory method which interns "this"
     @SuppressWarnings("unchecked")
     public  <T extends Type> T intern() {
         T nnn = (T)INTERN.get(this);
-        if( nnn==null )
-            INTERN.put(nnn=(T)this,this);
+        if( nnn==null ) {
+            HashMap<Type,Type> map = SESSION==null ? INTERN : SESSION;
+            nnn = (T)map.get(this);
+            if( nnn==null )
+                map.put(nnn=(T)this,this);
+        }
         return nnn;
     }
 
+    // Start a new compilation, releasing all types interned by the last one.
+    // Types from an older compilation must not be mixed with the new ones.
+    public static void newSession() {
+        // The first time, force every type class to initialize so all the
+        // static types land in the core
+        if( SESSION==null ) gather();
+        SESSION = new HashMap<>();
+        Bits.newSession();
+        clearMemo();
+    }
+    // Interned types in the core and in the current session
+    public static int coreSize() { return INTERN.size(); }
+    public static int sessionSize() { return SESSION==null ? 0 : SESSION.size(); }
+
     private int _hash;          // Hash cache; not-zero when set.
     @Override
     public final int hashCode() {
@@ -137,6 +164,17 @@ public class Type {
     public final Type meet(Type t) {
         // Shortcut for the self case
         if( t == this ) return this;
+        // Simple types meet without allocating; memoize the rest
+        if( !MEMO_ON || is_simple() || t.is_simple() ) return _meet(t);
+        int i = memo(t,0);
+        if( MEMO[i]==this && MEMO[i+1]==t ) { MEMO_HITS++; return MEMO[i+2]; }
+        MEMO_MISSES++;
+        Type mt = _meet(t);
+        MEMO[i] = this;  MEMO[i+1] = t;  MEMO[i+2] = mt;
+        return mt;
+    }
+
+    private Type _meet(Type t) {
         // Same-type is always safe in the subclasses
         if( _type==t._type ) return xmeet(t);
         // TypeNil vs TypeNil meet
@@ -187,9 +225,41 @@ public class Type {
     // JOIN is dual of meet of both duals.
     public final Type join(Type t) {
         if( this==t ) return this;
-        return dual().meet(t.dual()).dual();
+        if( !MEMO_ON || is_simple() || t.is_simple() ) return dual().meet(t.dual()).dual();
+        int i = memo(t,1);
+        if( MEMO[i]==this && MEMO[i+1]==t ) { MEMO_HITS++; return MEMO[i+2]; }
+        MEMO_MISSES++;
+        Type jt = dual().meet(t.dual()).dual();
+        MEMO[i] = this;  MEMO[i+1] = t;  MEMO[i+2] = jt;
+        return jt;
     }
 
+    // ----------------------------------------------------------
+    // Meet and join memo.  Types are interned and immutable, so the meet of
+    // the same two objects always has the same answer.  Recent answers live
+    // in a direct-mapped table keyed by object identity; a collision simply
+    // overwrites the older entry.  Each entry is a {this,t,result} triple,
+    // with meets and joins in alternate slots.
+    private static final int MEMO_LOG = 12;
+    private static final Type[] MEMO = new Type[3<<MEMO_LOG];
+    private static long MEMO_HITS, MEMO_MISSES;
+    private static boolean MEMO_ON = true;
+
+    public static long memoHits() { return MEMO_HITS; }
+    public static long memoMisses() { return MEMO_MISSES; }
+    // For benchmarking against no memo; returns the old setting
+    public static boolean setMemo( boolean on ) { boolean old = MEMO_ON; MEMO_ON = on; return old; }
+
+    private int memo(Type t, int join) {
+        int h = System.identityHashCode(this)*31 + System.identityHashCode(t);
+        h ^= h>>>16;
+        return 3*(((h<<1)|join) & ((1<<MEMO_LOG)-1));
+    }
+
+    // Forget all memoized meets and joins; required after mutating a type in
+    // place, which only happens when filling in a forward-ref struct.
+    public static void clearMemo() { Arrays.fill(MEMO,null); }
+
     // True if this "isa" t; e.g. 17 isa TypeInteger.BOT
     public boolean isa( Type t ) { return meet(t)==t; }
 
@@ -0,0 +1,140 @@
+package com.compilerprogramming.ezlang.compiler.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Immutable set of non-negative integers, possibly infinite.
+ * <p></p>
+ * The set is a run of 64-bit words starting at word index {@code _lo}.  Words
+ * below the run are all {@code _below} and words above it are all
+ * {@code _above}, each either 0 or -1.  A single large bit costs one word,
+ * and the complement of a finite set is exact: "everything except these".
+ * <p></p>
+ * Sets are normalized and interned, so equal sets are the same object and
+ * can be compared with {@code ==}.
+ */
+public final class Bits {
+    // Permanent core, and the per-compilation arena; see Type.intern
+    private static final HashMap<Bits,Bits> INTERN = new HashMap<>();
+    private static HashMap<Bits,Bits> SESSION;
+
+    private final int _lo;          // Word index of _ws[0]
+    private final long[] _ws;
+    private final long _below, _above;
+    private final int _hash;
+
+    private Bits( int lo, long[] ws, long below, long above ) {
+        _lo = lo;
+        _ws = ws;
+        _below = below;
+        _above = above;
+        _hash = Arrays.hashCode(ws) ^ (lo*31) ^ (int)below ^ ((int)above*7);
+    }
+
+    public static final Bits EMPTY = make(0, new long[0], 0, 0);
+    public static final Bits FULL  = make(0, new long[0], 0,-1);
+
+    // The set holding just bit
+    public static Bits make( int bit ) {
+        assert bit >= 0;
+        return make(bit>>6, new long[]{1L<<bit}, 0, 0);
+    }
+
+    // Normalize and intern
+    private static Bits make( int lo, long[] ws, long below, long above ) {
+        int s=0, e=ws.length;
+        while( s<e && ws[s  ]==below ) s++;
+        while( e>s && ws[e-1]==above ) e--;
+        lo += s;
+        if( s==e && below==above ) lo = 0; // All words are the same
+        if( lo==0 ) below = 0;             // Nothing below word 0
+        if( s>0 || e<ws.length ) ws = Arrays.copyOfRange(ws,s,e);
+        Bits bits = new Bits(lo,ws,below,above);
+        Bits old = INTERN.get(bits);
+        if( old==null ) old = (SESSION==null ? INTERN : SESSION).putIfAbsent(bits,bits);
+        return old==null ? bits : old;
+    }
+
+    // Release all sets interned since the last session started
+    public static void newSession() { SESSION = new HashMap<>(); }
+
+    private long word( int i ) {
+        return i < _lo ? _below : i-_lo < _ws.length ? _ws[i-_lo] : _above;
+    }
+
+    public Bits or ( Bits b ) { return this==b || b==EMPTY || this==FULL ? this : this==EMPTY || b==FULL ? b : combine(b,false); }
+    public Bits and( Bits b ) { return this==b || b==FULL || this==EMPTY ? this : this==FULL || b==EMPTY ? b : combine(b,true ); }
+
+    private Bits combine( Bits b, boolean and ) {
+        int lo = Math.min(_lo,b._lo);
+        int hi = Math.max(_lo+_ws.length,b._lo+b._ws.length);
+        long[] ws = new long[hi-lo];
+        for( int i=lo; i<hi; i++ )
+            ws[i-lo] = and ? word(i) & b.word(i) : word(i) | b.word(i);
+        return and
+            ? make(lo,ws,_below & b._below,_above & b._above)
+            : make(lo,ws,_below | b._below,_above | b._above);
+    }
+
+    // Complement
+    public Bits not() {
+        long[] ws = new long[_ws.length];
+        for( int i=0; i<ws.length; i++ )
+            ws[i] = ~_ws[i];
+        return make(_lo,ws,~_below,~_above);
+    }
+
+    public boolean isEmpty() { return this==EMPTY; }
+    public boolean isFull () { return this==FULL ; }
+    public boolean isInfinite() { return _above != 0; }
+
+    public boolean test( int bit ) { return ((word(bit>>6) >>> bit) & 1) != 0; }
+
+    // Number of set bits in a finite set
+    public int bitCount() {
+        assert !isInfinite();
+        int cnt = _below==0 ? 0 : _lo<<6;
+        for( long w : _ws ) cnt += Long.bitCount(w);
+        return cnt;
+    }
+
+    // The only member of a single-bit set, or -1
+    public int single() {
+        return _above==0 && _below==0 && _ws.length==1 && Long.bitCount(_ws[0])==1
+            ? (_lo<<6) + Long.numberOfTrailingZeros(_ws[0])
+            : -1;
+    }
+
+    // Usage: for( int i=bits.nextBit(0); i>=0; i=bits.nextBit(i+1) ) { ... }
+    // Returns the first member at or after from, or -1
+    public int nextBit( int from ) {
+        int hi = _lo+_ws.length;
+        int w = from>>6;
+        long x = word(w) & (-1L << from);
+        while( x==0 ) {
+            if( ++w >= hi && _above==0 ) return -1;
+            if( w < _lo && _below==0 ) w = _lo;
+            x = word(w);
+        }
+        return (w<<6) + Long.numberOfTrailingZeros(x);
+    }
+
+    @Override public int hashCode() { return _hash; }
+    @Override public boolean equals( Object o ) {
+        if( this==o ) return true;
+        return o instanceof Bits b && _hash==b._hash && _lo==b._lo &&
+            _below==b._below && _above==b._above && Arrays.equals(_ws,b._ws);
+    }
+
+    // Sets within the first 64 bits print in binary, others as a list.
+    // Infinite sets print as the complement of their missing members.
+    @Override public String toString() {
+        if( isInfinite() ) return "~"+not();
+        if( _lo==0 && _ws.length<=1 ) return "b"+Long.toBinaryString(word(0));
+        SB sb = new SB().p("{");
+        for( int i=nextBit(0); i>=0; i=nextBit(i+1) )
+            sb.p(i).p(",");
+        return sb.unchar().p("}").toString();
+    }
+}
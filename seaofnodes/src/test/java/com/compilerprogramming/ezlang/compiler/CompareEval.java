@@ -0,0 +1,96 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.compiler.codegen.CodeGen;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.EnumSet;
+
+// Times the same programs on Eval2 and on the optvm interpreter.
+//
+// The optvm compiler lives in this same package, so its classes are loaded
+// by their own class loader from the optvm build output.  First arg is that
+// directory, default ../optvm/target/classes; 2nd arg is the repeat count.
+public class CompareEval {
+
+    record Bench( String name, String src, long arg, String expect ) {}
+
+    static final Bench[] BENCHES = {
+        new Bench("fib"      , Programs.FIB          ,     25, "75025"),
+        new Bench("sieve"    , Programs.SIEVE        , 200000, "17984"),
+        new Bench("sieve+fib", Programs.SIEVE_AND_FIB,     25, "77787"),
+    };
+
+    public static void main( String[] args ) throws Exception {
+        Path optvm = Path.of(args.length > 0 ? args[0] : "../optvm/target/classes");
+        int reps = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        OptVM vm = new OptVM(optvm);
+        System.out.printf("%-10s %12s %12s %8s%n", "program", "eval2 ms", "optvm ms", "ratio");
+        for( Bench b : BENCHES ) {
+            CodeGen code = new CodeGen(b.src);
+            code.parse().opto().typeCheck().loopTree().GCM().localSched();
+            Eval2 eval = new Eval2(code);
+            // The optvm interpreter only runs functions without args
+            Object typeDict = vm.compile(b.src + "func bench()->Int { return main(" + b.arg + ") }\n");
+            long eval2 = Long.MAX_VALUE, opt = Long.MAX_VALUE;
+            for( int i=0; i<reps; i++ ) {
+                long t0 = System.nanoTime();
+                String rez = eval.run(b.arg, Long.MAX_VALUE);
+                long t1 = System.nanoTime();
+                long val = vm.run(typeDict, "bench");
+                long t2 = System.nanoTime();
+                if( !rez.equals(b.expect) || !Long.toString(val).equals(b.expect) )
+                    throw new AssertionError(b.name + ": eval2 " + rez + ", optvm " + val + ", expected " + b.expect);
+                eval2 = Math.min(eval2, t1 - t0);
+                opt   = Math.min(opt  , t2 - t1);
+            }
+            System.out.printf("%-10s %12.1f %12.1f %8.2f%n", b.name, eval2 / 1e6, opt / 1e6, (double) opt / eval2);
+        }
+    }
+
+    // The optvm compiler and interpreter, called reflectively
+    static class OptVM {
+        final ClassLoader _loader;
+        OptVM( Path classes ) throws Exception {
+            _loader = new ChildFirst(new URL[]{classes.toUri().toURL()}, CompareEval.class.getClassLoader());
+        }
+        Object compile( String src ) throws Exception {
+            Class<?> compiler = _loader.loadClass("com.compilerprogramming.ezlang.compiler.Compiler");
+            EnumSet<?> opt = (EnumSet<?>)_loader.loadClass("com.compilerprogramming.ezlang.compiler.Options").getField("OPT").get(null);
+            // The register allocator prints the IR as it goes
+            PrintStream out = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            try {
+                return compiler.getMethod("compileSrc", String.class, EnumSet.class).invoke(compiler.getConstructor().newInstance(), src, opt);
+            } finally {
+                System.setOut(out);
+            }
+        }
+        long run( Object typeDict, String fun ) throws Exception {
+            Class<?> interp = _loader.loadClass("com.compilerprogramming.ezlang.interpreter.Interpreter");
+            Object value = interp.getMethod("run", String.class).invoke(interp.getConstructors()[0].newInstance(typeDict), fun);
+            return value.getClass().getField("value").getLong(value);
+        }
+    }
+
+    // Loads the optvm packages from the given classes, sharing everything
+    // else (the parser, types and semantic checks) with the caller.
+    static class ChildFirst extends URLClassLoader {
+        ChildFirst( URL[] urls, ClassLoader parent ) { super(urls, parent); }
+        @Override protected Class<?> loadClass( String name, boolean resolve ) throws ClassNotFoundException {
+            String pkg = name.substring(0, name.lastIndexOf('.'));
+            if( !pkg.equals("com.compilerprogramming.ezlang.compiler") &&
+                !pkg.equals("com.compilerprogramming.ezlang.interpreter") )
+                return super.loadClass(name, resolve);
+            synchronized( getClassLoadingLock(name) ) {
+                Class<?> c = findLoadedClass(name);
+                if( c == null ) c = findClass(name);
+                if( resolve ) resolveClass(c);
+                return c;
+            }
+        }
+    }
+}
@@ -0,0 +1,473 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.compiler.codegen.CodeGen;
+import com.compilerprogramming.ezlang.compiler.node.*;
+import com.compilerprogramming.ezlang.compiler.type.*;
+import com.compilerprogramming.ezlang.compiler.util.Ary;
+import com.compilerprogramming.ezlang.compiler.util.SB;
+import com.compilerprogramming.ezlang.compiler.util.Utils;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+
+/**
+ * Evaluates a scheduled Sea-of-Nodes graph, without generating machine code.
+ * <p>
+ * Runs after GCM and the local scheduler: every data node is pinned to a
+ * block, and the block's outputs are in execution order.  Before running,
+ * the schedule of each block is flattened into an array and every node gets
+ * an opcode, so the evaluation loop does no graph walking and no type tests.
+ * <p>
+ * Each value producing node has a slot in the frame of its function.  A
+ * frame has a {@code long[]} for integers and an {@code Object[]} for
+ * pointers; a slot holding an integer has a null pointer and the other way
+ * round, so copies (Phis, arguments, returns) just move both halves.
+ * Projections share the slot of their New or CallEnd, and constants live in
+ * a constant pool addressed by negative slot numbers.
+ * <p>
+ * Memory is a heap of {@link Obj}s addressed by byte offsets, exactly as the
+ * Load and Store nodes see them.  Memory-typed nodes (memory Phis, merges
+ * and projections) are not evaluated; the schedule already orders Loads and
+ * Stores correctly, including the anti-dependences.
+ * <p>
+ * Calls push a new frame rather than recursing in Java, so deep recursion is
+ * limited by the heap and the step budget only.
+ */
+public class Eval2 {
+
+    // Heap object: a struct or an array, addressed by byte offset
+    public static class Obj {
+        final TypeStruct _struct;
+        final int _shift;       // Byte offset to slot shift
+        final int _size;        // Size in bytes
+        final long[] _prims;
+        final Object[] _refs;
+        Obj( TypeStruct struct, int size ) {
+            _struct = struct;
+            int shift = 3;
+            boolean refs = false;
+            for( Field f : struct._fields ) {
+                shift = Math.min(shift, f._type.log_size());
+                refs |= !isPrim(f._type);
+            }
+            _shift = shift;
+            _size = size;
+            int len = (size + (1<<shift) - 1) >> shift;
+            _prims = new long[len];
+            _refs = refs ? new Object[len] : null;
+        }
+    }
+
+    private static class Frame {
+        final long[] _prims;
+        final Object[] _refs;
+        final Frame _caller;
+        final CallNode _call;   // Call in the caller that created this frame
+        Frame( int nslots, Frame caller, CallNode call ) {
+            _prims = new long[nslots];
+            _refs = new Object[nslots];
+            _caller = caller;
+            _call = call;
+        }
+    }
+
+    // Data node opcodes
+    private static final byte NEW=1, LOAD=2, LOADP=3, STORE=4, STOREP=5, COPY=6, NOT=7, NEG=8,
+        EQ=9, NE=10, LT=11, LE=12, ULT=13, EQP=14, NEP=15,
+        ADD=16, SUB=17, MUL=18, DIV=19, AND=20, OR=21, XOR=22, SHL=23, SHR=24, SAR=25;
+    // Block exit opcodes
+    private static final byte GOTO=1, IF=2, CALL=3, RET=4;
+
+    private final CodeGen _code;
+    // Per node, its opcode; for blocks, how the block is exited
+    private final byte[] _op;
+    // Per value node, its frame slot, or ~index into the constant pool
+    private final int[] _slot;
+    // Per block, in schedule order: the data nodes to execute
+    private final Node[][] _sched;
+    // Per block: the value phis, evaluated in parallel on block entry
+    private final PhiNode[][] _phis;
+    private final long[] _phiPrims;
+    private final Object[] _phiRefs;
+    // Per block exit, the following blocks: true and false for an If
+    private final CFGNode[][] _succs;
+    // Per function: frame size, and the parameters after $rpc and $mem
+    private final int[] _nslots;
+    private final ParmNode[][] _parms;
+    // Constant pool
+    private long[] _conPrims = new long[8];
+    private Object[] _conRefs = new Object[8];
+    private int _ncons;
+    // Per call, the last target called; function pointer constants are interned
+    private final TypeFunPtr[] _lastTfp;
+    private final FunNode[] _lastFun;
+
+    // Number of nodes executed by the last run
+    public long _steps;
+
+    public Eval2( CodeGen code ) {
+        assert code._phase == CodeGen.Phase.LocalSched;
+        _code = code;
+        int uid = code.UID();
+        _op = new byte[uid];
+        _slot = new int[uid];
+        _sched = new Node[uid][];
+        _phis = new PhiNode[uid][];
+        _succs = new CFGNode[uid][];
+        _nslots = new int[uid];
+        _parms = new ParmNode[uid][];
+        _lastTfp = new TypeFunPtr[uid];
+        _lastFun = new FunNode[uid];
+        int maxPhis = 0;
+        for( CFGNode bb : code._cfg ) {
+            if( bb instanceof StartNode || bb instanceof StopNode || bb instanceof XCtrlNode )
+                continue;
+            int fidx = bb.fun()._nid;
+            Ary<Node> sched = new Ary<>(Node.class);
+            Ary<PhiNode> phis = new Ary<>(PhiNode.class);
+            Ary<ParmNode> parms = new Ary<>(ParmNode.class);
+            for( Node n : bb._outputs ) {
+                if( n.in(0) != bb || n instanceof CFGNode || n instanceof ConstantNode )
+                    continue;
+                if( n instanceof PhiNode phi ) {
+                    if( phi._type instanceof TypeMem )
+                        continue;
+                    _slot[phi._nid] = _nslots[fidx]++;
+                    if( !(phi instanceof ParmNode parm) ) phis.push(phi);
+                    else if( parm._idx >= 2 ) parms.push(parm);
+                    continue;
+                }
+                if( !(n instanceof StoreNode) ) {
+                    if( n._type instanceof TypeMem || n instanceof MemMergeNode || n instanceof ProjNode )
+                        continue;
+                    _slot[n._nid] = _nslots[fidx]++;
+                }
+                _op[n._nid] = opcode(n);
+                sched.push(n);
+            }
+            // Call results land in the CallEnd's slot
+            if( bb instanceof CallEndNode )
+                _slot[bb._nid] = _nslots[fidx]++;
+            _sched[bb._nid] = sched.asAry();
+            _phis[bb._nid] = phis.asAry();
+            maxPhis = Math.max(maxPhis, phis.size());
+            if( bb instanceof FunNode )
+                _parms[bb._nid] = parms.asAry();
+            if( bb instanceof IfNode iff ) {
+                _op[bb._nid] = IF;
+                _succs[bb._nid] = new CFGNode[]{cproj(iff, 0), cproj(iff, 1)};
+            } else if( bb instanceof CallNode ) _op[bb._nid] = CALL;
+            else if( bb instanceof ReturnNode ) _op[bb._nid] = RET;
+            else {
+                _op[bb._nid] = GOTO;
+                _succs[bb._nid] = new CFGNode[]{bb.uctrl()};
+            }
+        }
+        _phiPrims = new long[maxPhis];
+        _phiRefs = new Object[maxPhis];
+        // Now every multi node has its slot: resolve projections and constants
+        BitSet done = new BitSet();
+        for( CFGNode bb : code._cfg ) {
+            if( _sched[bb._nid] == null ) continue;
+            operands(bb, done);
+            for( Node n : _sched[bb._nid] ) operands(n, done);
+            for( Node n : _phis [bb._nid] ) operands(n, done);
+        }
+    }
+
+    private void operands( Node n, BitSet done ) {
+        for( int i=1; i<n.nIns(); i++ ) {
+            Node x = n.in(i);
+            if( x == null || done.get(x._nid) ) continue;
+            done.set(x._nid);
+            if( x instanceof ConstantNode con ) {
+                if( _ncons == _conPrims.length ) {
+                    _conPrims = Arrays.copyOf(_conPrims, _ncons*2);
+                    _conRefs  = Arrays.copyOf(_conRefs , _ncons*2);
+                }
+                _conPrims[_ncons] = con._con instanceof TypeInteger ti && ti.isConstant() ? ti.value() : 0;
+                _conRefs [_ncons] = con._con instanceof TypeFunPtr tfp ? tfp : null;
+                _slot[x._nid] = ~_ncons++;
+            } else if( x instanceof ProjNode prj && !(prj.in(0) instanceof StartNode) )
+                _slot[x._nid] = _slot[prj.in(0)._nid];
+        }
+    }
+
+    private static byte opcode( Node n ) {
+        return switch( n ) {
+        case NewNode nnn -> NEW;
+        case LoadNode ld -> isPrim(ld._declaredType) ? LOAD : LOADP;
+        case StoreNode st -> isPrim(st._declaredType) ? STORE : STOREP;
+        case CastNode cast -> COPY;
+        case ReadOnlyNode ro -> COPY;
+        case NotNode not -> NOT;
+        case MinusNode neg -> NEG;
+        // Pointer compares are identity compares
+        case BoolNode.EQ eq when !isPrim(eq.in(1)._type) || !isPrim(eq.in(2)._type) -> EQP;
+        case BoolNode.NE ne when !isPrim(ne.in(1)._type) || !isPrim(ne.in(2)._type) -> NEP;
+        case BoolNode.EQ eq -> EQ;
+        case BoolNode.NE ne -> NE;
+        case BoolNode.LT lt -> LT;
+        case BoolNode.LE le -> LE;
+        case BoolNode.ULT ult -> ULT;
+        case AddNode add -> ADD;
+        case SubNode sub -> SUB;
+        case MulNode mul -> MUL;
+        case DivNode div -> DIV;
+        case AndNode and -> AND;
+        case OrNode  or  -> OR;
+        case XorNode xor -> XOR;
+        case ShlNode shl -> SHL;
+        case ShrNode shr -> SHR;
+        case SarNode sar -> SAR;
+        default -> throw Utils.TODO("Cannot evaluate "+n.label());
+        };
+    }
+
+    public static String eval( CodeGen code, long arg ) { return eval(code, arg, 1000000); }
+    public static String eval( CodeGen code, long arg, int timeout ) {
+        return new Eval2(code).run(arg, timeout);
+    }
+
+    /**
+     * Runs main with arg as its first argument, if it has one.  Returns the
+     * printed result, or "Timeout" when more than timeout nodes execute.
+     */
+    public String run( long arg, long timeout ) {
+        FunNode main = null;
+        for( CFGNode bb : _code._cfg )
+            if( bb instanceof FunNode fun && "main".equals(fun._name) )
+                main = fun;
+        if( main == null )
+            throw Utils.TODO("No main function");
+        _steps = 0;
+        Frame f = new Frame(_nslots[main._nid], null, null);
+        for( ParmNode parm : _parms[main._nid] )
+            if( parm._idx == 2 && isPrim(parm._type) )
+                f._prims[_slot[parm._nid]] = arg;
+
+        CFGNode prev = _code._start, bb = main;
+        long steps = 0;
+        while( true ) {
+            // Block entry: phis read their inputs before any is written
+            PhiNode[] phis = _phis[bb._nid];
+            if( phis.length > 0 )
+                phis(phis, f, bb._inputs.find(prev));
+            Node[] sched = _sched[bb._nid];
+            steps += sched.length;
+            for( Node n : sched )
+                exec(n, f);
+            if( steps > timeout ) {
+                _steps = steps;
+                return "Timeout";
+            }
+
+            CFGNode next;
+            switch( _op[bb._nid] ) {
+            case IF -> {
+                // Never nodes have no predicate and always fall through
+                Node pred = bb.in(1);
+                boolean t = pred != null && (prim(pred, f) != 0 || ref(pred, f) != null);
+                next = _succs[bb._nid][t ? 0 : 1];
+            }
+            case CALL -> {
+                CallNode call = (CallNode)bb;
+                if( !(ref(call.fptr(), f) instanceof TypeFunPtr tfp) )
+                    throw new NullPointerException("Calling a null function pointer");
+                FunNode fun = _lastFun[call._nid];
+                if( _lastTfp[call._nid] != tfp ) {
+                    if( (fun = _code.link(tfp)) == null )
+                        throw Utils.TODO("Calling an external function");
+                    _lastTfp[call._nid] = tfp;
+                    _lastFun[call._nid] = fun;
+                }
+                Frame callee = new Frame(_nslots[fun._nid], f, call);
+                for( ParmNode parm : _parms[fun._nid] ) {
+                    Node a = call.arg(parm._idx);
+                    int slot = _slot[parm._nid];
+                    callee._prims[slot] = prim(a, f);
+                    callee._refs [slot] = ref (a, f);
+                }
+                f = callee;
+                next = fun;
+            }
+            case RET -> {
+                Node expr = ((ReturnNode)bb).expr();
+                long rprim = prim(expr, f);
+                Object rref = ref(expr, f);
+                CallNode call = f._call;
+                f = f._caller;
+                if( f == null ) {
+                    _steps = steps;
+                    return isPrim(expr._type) ? Long.toString(rprim) : str(rref, new IdentityHashMap<>());
+                }
+                int slot = _slot[call.cend()._nid];
+                f._prims[slot] = rprim;
+                f._refs [slot] = rref;
+                next = call.cend();
+            }
+            default -> next = _succs[bb._nid][0];
+            }
+            prev = bb;
+            bb = next;
+        }
+    }
+
+    private void phis( PhiNode[] phis, Frame f, int idx ) {
+        if( phis.length == 1 ) {
+            int slot = _slot[phis[0]._nid];
+            Node in = phis[0].in(idx);
+            f._prims[slot] = prim(in, f);
+            f._refs [slot] = ref (in, f);
+            return;
+        }
+        for( int i=0; i<phis.length; i++ ) {
+            Node in = phis[i].in(idx);
+            _phiPrims[i] = prim(in, f);
+            _phiRefs [i] = ref (in, f);
+        }
+        for( int i=0; i<phis.length; i++ ) {
+            int slot = _slot[phis[i]._nid];
+            f._prims[slot] = _phiPrims[i];
+            f._refs [slot] = _phiRefs [i];
+        }
+    }
+
+    private static CFGNode cproj( IfNode iff, int idx ) {
+        for( Node use : iff._outputs )
+            if( use instanceof CProjNode prj && prj._idx == idx )
+                return prj;
+        throw Utils.TODO("Missing projection from "+iff);
+    }
+
+    // Execute a single scheduled node, writing its value into the frame
+    private void exec( Node n, Frame f ) {
+        int slot = _slot[n._nid];
+        byte op = _op[n._nid];
+        switch( op ) {
+        case NEW -> f._refs[slot] = alloc((NewNode)n, f);
+        case LOAD -> {
+            Obj obj = obj(n.in(2), f);
+            f._prims[slot] = obj._prims[index(obj, prim(n.in(3), f))];
+        }
+        case LOADP -> {
+            Obj obj = obj(n.in(2), f);
+            f._refs[slot] = obj._refs[index(obj, prim(n.in(3), f))];
+        }
+        case STORE -> {
+            Obj obj = obj(n.in(2), f);
+            obj._prims[index(obj, prim(n.in(3), f))] = narrow(((StoreNode)n)._declaredType, prim(n.in(4), f));
+        }
+        case STOREP -> {
+            Obj obj = obj(n.in(2), f);
+            obj._refs[index(obj, prim(n.in(3), f))] = ref(n.in(4), f);
+        }
+        case COPY -> {
+            f._prims[slot] = prim(n.in(1), f);
+            f._refs [slot] = ref (n.in(1), f);
+        }
+        case NOT -> f._prims[slot] = prim(n.in(1), f) == 0 && ref(n.in(1), f) == null ? 1 : 0;
+        case NEG -> f._prims[slot] = -prim(n.in(1), f);
+        case EQP -> f._prims[slot] = ref(n.in(1), f) == ref(n.in(2), f) ? 1 : 0;
+        case NEP -> f._prims[slot] = ref(n.in(1), f) != ref(n.in(2), f) ? 1 : 0;
+        default  -> f._prims[slot] = binary(op, prim(n.in(1), f), prim(n.in(2), f));
+        }
+    }
+
+    private static long binary( byte op, long x, long y ) {
+        return switch( op ) {
+        case EQ  -> x == y ? 1 : 0;
+        case NE  -> x != y ? 1 : 0;
+        case LT  -> x <  y ? 1 : 0;
+        case LE  -> x <= y ? 1 : 0;
+        case ULT -> Long.compareUnsigned(x, y) < 0 ? 1 : 0;
+        case ADD -> x + y;
+        case SUB -> x - y;
+        case MUL -> x * y;
+        case DIV -> y == 0 ? 0 : x / y;
+        case AND -> x & y;
+        case OR  -> x | y;
+        case XOR -> x ^ y;
+        case SHL -> x << y;
+        case SHR -> x >>> y;
+        case SAR -> x >> y;
+        default  -> throw Utils.TODO("Bad opcode "+op);
+        };
+    }
+
+    private Obj alloc( NewNode nnn, Frame f ) {
+        TypeStruct struct = nnn._ptr._obj;
+        Obj obj = new Obj(struct, (int)prim(nnn.size(), f));
+        // Arrays record their length in the first field
+        if( struct.isAry() )
+            obj._prims[struct.offset(0) >> obj._shift] = (obj._size - struct.aryBase()) >> struct.aryScale();
+        return obj;
+    }
+
+    // Slot of the field at byte offset off, with a range check for arrays
+    private static int index( Obj obj, long off ) {
+        if( off < 0 || off >= obj._size )
+            throw new ArrayIndexOutOfBoundsException("Index "+((off - obj._struct.aryBase()) >> obj._struct.aryScale())+
+                                                     " out of bounds for "+obj._struct.str());
+        return (int)(off >> obj._shift);
+    }
+
+    private Obj obj( Node ptr, Frame f ) {
+        if( !(ref(ptr, f) instanceof Obj obj) )
+            throw new NullPointerException("Null pointer access");
+        return obj;
+    }
+
+    // Integer value of n in frame f
+    private long prim( Node n, Frame f ) {
+        int slot = _slot[n._nid];
+        return slot >= 0 ? f._prims[slot] : _conPrims[~slot];
+    }
+
+    // Pointer value of n in frame f
+    private Object ref( Node n, Frame f ) {
+        int slot = _slot[n._nid];
+        return slot >= 0 ? f._refs[slot] : _conRefs[~slot];
+    }
+
+    static boolean isPrim( Type t ) { return t instanceof TypeInteger; }
+
+    // Truncate a value stored into a narrow integer field
+    private static long narrow( Type t, long v ) {
+        if( !(t instanceof TypeInteger ti) || ti.log_size() == 3 ) return v;
+        int bits = 64 - (8 << ti.log_size());
+        return ti._min < 0 ? (v << bits) >> bits : (v << bits) >>> bits;
+    }
+
+    private String str( Object o, IdentityHashMap<Object,Object> visit ) {
+        if( o == null ) return "null";
+        if( o instanceof TypeFunPtr tfp ) {
+            FunNode fun = _code.link(tfp);
+            return fun == null ? tfp.str() : fun._name;
+        }
+        Obj obj = (Obj)o;
+        TypeStruct struct = obj._struct;
+        if( visit.put(obj, obj) != null )
+            return struct.str()+"{...}";
+        SB sb = new SB();
+        if( struct.isAry() ) {
+            sb.p("[");
+            Field elem = struct._fields[1];
+            for( int off = struct.aryBase(); off < obj._size; off += 1<<struct.aryScale() )
+                field(sb, obj, elem, off, visit).p(",");
+            if( obj._size > struct.aryBase() ) sb.unchar();
+            return sb.p("]").toString();
+        }
+        sb.p(struct.str()).p("{");
+        for( int i=0; i<struct._fields.length; i++ )
+            field(sb.p(struct._fields[i]._fname).p("="), obj, struct._fields[i], struct.offset(i), visit).p(",");
+        if( struct._fields.length > 0 ) sb.unchar();
+        return sb.p("}").toString();
+    }
+
+    private SB field( SB sb, Obj obj, Field fld, int off, IdentityHashMap<Object,Object> visit ) {
+        int idx = off >> obj._shift;
+        return isPrim(fld._type) ? sb.p(obj._prims[idx]) : sb.p(str(obj._refs[idx], visit));
+    }
+}
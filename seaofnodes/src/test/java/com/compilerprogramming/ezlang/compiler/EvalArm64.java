@@ -0,0 +1,497 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.compiler.codegen.CodeGen;
+import com.compilerprogramming.ezlang.compiler.codegen.Encoding;
+import com.compilerprogramming.ezlang.compiler.node.CFGNode;
+import com.compilerprogramming.ezlang.compiler.node.FunNode;
+import com.compilerprogramming.ezlang.compiler.node.cpus.arm.arm;
+import com.compilerprogramming.ezlang.compiler.util.SB;
+import com.compilerprogramming.ezlang.compiler.util.Utils;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * AArch64 instruction-set simulator, for running the arm port's output on
+ * any host.
+ * <p>
+ * Covers the A64 subset the arm port encodes: 64-bit integer arithmetic,
+ * logical and bitfield ops, wide moves, conditional select, multiply and
+ * divide, loads and stores (unsigned offset, register offset and literal),
+ * branches and calls, and double/single scalar floating point.  Anything
+ * else is reported as an unknown instruction.
+ * <p>
+ * Memory is laid out as in {@link EvalRisc5}: code at address 0, then the
+ * heap, and the stack grows down from the top.  External calls are linked
+ * to negative sentinel addresses, where Java stand-ins for calloc and write
+ * run.
+ * <p>
+ * Along with the result, the simulator keeps the dynamic instruction mix,
+ * the number of SP-relative loads and stores (in this port only spills and
+ * the callee-save and return-address saves use SP) and branch counts.
+ */
+public class EvalArm64 {
+
+    // Return address of the outermost call; stops the simulation
+    static final long HALT = -16;
+    static final int XZR_SP = 31;
+
+    private static final VarHandle I16 = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle I32 = MethodHandles.byteArrayViewVarHandle(int  [].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle I64 = MethodHandles.byteArrayViewVarHandle(long [].class, ByteOrder.LITTLE_ENDIAN);
+
+    // Dynamic instruction mix is kept per mnemonic
+    enum Op {
+        ADR, ADRP, ADD, ADDS, SUB, SUBS, AND, ANDS, ORR, ORN, EOR, EON, BIC, BICS,
+        MOVZ, MOVN, MOVK, SBFM, BFM, UBFM,
+        LSLV, LSRV, ASRV, RORV, SDIV, UDIV, MADD, MSUB, SMULH, UMULH,
+        CSEL, CSINC, CSINV, CSNEG,
+        B, BL, BCOND, CBZ, CBNZ, BR, BLR, RET,
+        LDR, LDRB, LDRH, LDRSB, LDRSH, LDRSW, STR, STRB, STRH, LDR_LIT,
+        FADD, FSUB, FMUL, FDIV, FNMUL, FMAX, FMIN, FCMP, FMOV, FABS, FNEG, FSQRT, FCVT,
+        SCVTF, UCVTF, FCVTZS, FCVTZU,
+    }
+
+    final CodeGen _code;
+    final byte[] _mem;
+    final long[] _regs = new long[32];  // X0-X30 and SP
+    final long[] _fregs = new long[32]; // Raw bits of D0-D31
+    boolean _n, _z, _c, _v;             // Condition flags
+    long _pc;
+    int _heap;                          // Next free heap byte
+    final HashMap<String,Integer> _funs = new HashMap<>();
+
+    // Output of the write stand-in
+    public final ByteArrayOutputStream _stdout = new ByteArrayOutputStream();
+
+    // Counters, accumulated over all calls
+    public final long[] _mix = new long[Op.values().length];
+    public long _insns, _loads, _stores, _spillLoads, _spillStores;
+    public long _branches, _taken, _jumps, _calls;
+
+    public EvalArm64( CodeGen code, int memSize ) {
+        assert code._phase == CodeGen.Phase.Export && code._mach.name().equals("arm");
+        _code = code;
+        _mem = new byte[memSize];
+        int len = code._encoding._bits.size();
+        System.arraycopy(code._encoding.bits(), 0, _mem, 0, len);
+        _heap = (len+15) & -16;
+        for( CFGNode bb : code._cfg )
+            if( bb instanceof FunNode fun && fun._name != null )
+                _funs.put(fun._name, code._encoding._opStart[fun._nid]);
+    }
+
+    /**
+     * Calls the named function with integer arguments and returns X0.
+     * Throws if more than maxInsns instructions retire.
+     */
+    public long call( String name, long maxInsns, long... args ) {
+        Integer entry = _funs.get(name);
+        if( entry == null )
+            throw Utils.TODO("No compiled function "+name);
+        assert args.length <= 8;
+        for( int i=0; i<args.length; i++ )
+            _regs[i] = args[i];
+        _regs[30] = HALT;                       // Link register
+        _regs[XZR_SP] = _mem.length & -16;
+        _pc = entry;
+        run(_insns + maxInsns);
+        return _regs[0];
+    }
+
+    // Float result of the last call
+    public double fret() { return Double.longBitsToDouble(_fregs[0]); }
+
+    private void run( long limit ) {
+        while( true ) {
+            if( _pc < 0 ) {
+                if( _pc == HALT ) return;
+                stub();
+                continue;
+            }
+            if( _insns++ >= limit )
+                throw new RuntimeException("Timeout after "+(_insns-1)+" instructions");
+            int ins = (int)I32.get(_mem, (int)_pc);
+            long next = step(ins);
+            _pc = next;
+        }
+    }
+
+    // Stand-ins for the externals
+    private void stub() {
+        _calls++;
+        if( _pc == Encoding.SENTINEL_CALLOC ) {
+            long size = _regs[0] * _regs[1];
+            int ptr = _heap;
+            if( size < 0 || ptr + size > _mem.length - (64<<10) )
+                throw new OutOfMemoryError("Simulated heap exhausted");
+            _heap = (int)((ptr + size + 15) & -16);
+            _regs[0] = ptr;
+        } else if( _pc == Encoding.SENTINEL_WRITE ) {
+            _stdout.write(_mem, (int)_regs[1], (int)_regs[2]);
+            _regs[0] = _regs[2];
+        } else
+            throw new IllegalStateException("Jump to bad address 0x"+Long.toHexString(_pc));
+        _pc = _regs[30];
+    }
+
+    // Register 31 reads as zero in most places, and is the stack pointer in
+    // address bases and the immediate add/sub forms.
+    private long x( int r ) { return r == XZR_SP ? 0 : _regs[r]; }
+    private void setX( int r, long v ) { if( r != XZR_SP ) _regs[r] = v; }
+
+    private void count( Op op ) { _mix[op.ordinal()]++; }
+
+    // Executes one instruction, returns the next pc
+    private long step( int ins ) {
+        int rd = ins & 0x1F;
+        int rn = (ins >> 5) & 0x1F;
+        int rm = (ins >> 16) & 0x1F;
+        if( (ins & 0x1C000000) == 0x10000000 ) dpImm(ins, rd, rn);
+        else if( (ins & 0x1C000000) == 0x14000000 ) return branch(ins, rd, rn);
+        else if( (ins & 0x0A000000) == 0x08000000 ) ldst(ins, rd, rn, rm);
+        else if( (ins & 0x0E000000) == 0x0A000000 ) dpReg(ins, rd, rn, rm);
+        else if( (ins & 0x5F000000) == 0x1E000000 ) fp(ins, rd, rn, rm);
+        else throw bad(ins);
+        return _pc + 4;
+    }
+
+    // Data processing, immediate
+    private void dpImm( int ins, int rd, int rn ) {
+        int kind = (ins >> 23) & 7;
+        if( kind >= 2 && ins >= 0 )
+            throw bad(ins);     // Only 64-bit forms
+        switch( kind ) {
+        case 0, 1 -> {          // ADR, ADRP
+            long imm = ((long)(ins << 8) >> 13 << 2) | ((ins >> 29) & 3);
+            if( ins < 0 ) { count(Op.ADRP); setX(rd, (_pc & ~0xFFFL) + (imm << 12)); }
+            else          { count(Op.ADR ); setX(rd,  _pc + imm); }
+        }
+        case 2 -> {             // ADD, ADDS, SUB, SUBS
+            long imm = ((ins >> 10) & 0xFFF) << ((ins & (1<<22)) != 0 ? 12 : 0);
+            boolean sub = (ins & (1<<30)) != 0, s = (ins & (1<<29)) != 0;
+            long a = _regs[rn];
+            long r = addsub(a, imm, sub, s);
+            if( s ) setX(rd, r);
+            else _regs[rd] = r;
+        }
+        case 4 -> {             // AND, ORR, EOR, ANDS
+            long imm = arm.decodeImm12((ins >> 10) & 0x1FFF);
+            long a = x(rn), r;
+            switch( (ins >> 29) & 3 ) {
+            case 0 -> { count(Op.AND); _regs[rd] = a & imm; }
+            case 1 -> { count(Op.ORR); _regs[rd] = a | imm; }
+            case 2 -> { count(Op.EOR); _regs[rd] = a ^ imm; }
+            default -> { count(Op.ANDS); setX(rd, r = a & imm); logicFlags(r); }
+            }
+        }
+        case 5 -> {             // MOVN, MOVZ, MOVK
+            int sh = ((ins >> 21) & 3) << 4;
+            long imm = ((ins >> 5) & 0xFFFFL) << sh;
+            switch( (ins >> 29) & 3 ) {
+            case 0 -> { count(Op.MOVN); setX(rd, ~imm); }
+            case 2 -> { count(Op.MOVZ); setX(rd,  imm); }
+            case 3 -> { count(Op.MOVK); setX(rd, (x(rd) & ~(0xFFFFL << sh)) | imm); }
+            default -> throw bad(ins);
+            }
+        }
+        case 6 -> {             // SBFM, BFM, UBFM
+            int immr = (ins >> 16) & 0x3F, imms = (ins >> 10) & 0x3F;
+            // Either extract bits imms:immr to the bottom, or insert
+            // bits imms:0 at 64-immr
+            int w, pos;
+            long f = x(rn);
+            if( imms >= immr ) { w = imms - immr + 1; pos = 0; f >>>= immr; }
+            else               { w = imms + 1; pos = 64 - immr; }
+            long mask = w == 64 ? -1L : (1L << w) - 1;
+            f &= mask;
+            setX(rd, switch( (ins >> 29) & 3 ) {
+                case 0 -> { count(Op.SBFM); yield (f << (64-w)) >> (64-w-pos); }
+                case 1 -> { count(Op.BFM ); yield (x(rd) & ~(mask << pos)) | (f << pos); }
+                case 2 -> { count(Op.UBFM); yield f << pos; }
+                default -> throw bad(ins);
+                });
+        }
+        default -> throw bad(ins);
+        }
+    }
+
+    private long addsub( long a, long b, boolean sub, boolean s ) {
+        count(sub ? (s ? Op.SUBS : Op.SUB) : (s ? Op.ADDS : Op.ADD));
+        long r = sub ? a - b : a + b;
+        if( s ) {
+            _n = r < 0;
+            _z = r == 0;
+            if( sub ) {
+                _c = Long.compareUnsigned(a, b) >= 0;
+                _v = ((a ^ b) & (a ^ r)) < 0;
+            } else {
+                _c = Long.compareUnsigned(r, a) < 0;
+                _v = (~(a ^ b) & (a ^ r)) < 0;
+            }
+        }
+        return r;
+    }
+
+    private void logicFlags( long r ) { _n = r < 0; _z = r == 0; _c = _v = false; }
+
+    // Branches, calls and returns
+    private long branch( int ins, int rd, int rn ) {
+        if( (ins & 0x7C000000) == 0x14000000 ) { // B, BL
+            long target = _pc + ((long)(ins << 6) >> 4);
+            if( ins < 0 ) { count(Op.BL); _calls++; _regs[30] = _pc + 4; }
+            else          { count(Op.B ); _jumps++; }
+            return target;
+        }
+        if( (ins & 0xFF000010) == 0x54000000 ) { // B.cond
+            count(Op.BCOND);
+            _branches++;
+            if( !cond(ins & 0xF) ) return _pc + 4;
+            _taken++;
+            return _pc + ((long)(ins << 8) >> 13 << 2);
+        }
+        if( (ins & 0x7E000000) == 0x34000000 ) { // CBZ, CBNZ
+            if( ins >= 0 ) throw bad(ins);
+            boolean nz = (ins & (1<<24)) != 0;
+            count(nz ? Op.CBNZ : Op.CBZ);
+            _branches++;
+            if( (x(rd) == 0) == nz ) return _pc + 4;
+            _taken++;
+            return _pc + ((long)(ins << 8) >> 13 << 2);
+        }
+        if( (ins & 0xFE1FFC1F) == 0xD61F0000 ) { // BR, BLR, RET
+            long target = x(rn);
+            switch( (ins >> 21) & 0xF ) {
+            case 0 -> { count(Op.BR ); _jumps++; }
+            case 1 -> { count(Op.BLR); _calls++; _regs[30] = _pc + 4; }
+            case 2 ->   count(Op.RET);
+            default -> throw bad(ins);
+            }
+            return target;
+        }
+        throw bad(ins);
+    }
+
+    private boolean cond( int cond ) {
+        boolean b = switch( cond >> 1 ) {
+        case 0 -> _z;                   // EQ
+        case 1 -> _c;                   // CS
+        case 2 -> _n;                   // MI
+        case 3 -> _v;                   // VS
+        case 4 -> _c && !_z;            // HI
+        case 5 -> _n == _v;             // GE
+        case 6 -> !_z && _n == _v;      // GT
+        default -> true;                // AL
+        };
+        return (cond & 1) != 0 && cond != 0xF ? !b : b;
+    }
+
+    // Loads and stores
+    private void ldst( int ins, int rt, int rn, int rm ) {
+        int size = ins >>> 30;
+        boolean fp = (ins & (1<<26)) != 0;
+        int opc = (ins >> 22) & 3;
+        if( (ins & 0x3B000000) == 0x18000000 ) { // LDR literal
+            count(Op.LDR_LIT);
+            int adr = adr(_pc + ((long)(ins << 8) >> 13 << 2));
+            // opc is 32-bit, 64-bit or sign-extended 32-bit
+            if( size > 2 || (fp && size > 1) ) throw bad(ins);
+            load(fp, size == 1 ? 3 : 2, size == 2, rt, adr);
+            return;
+        }
+        long base = _regs[rn], off;
+        if( (ins & 0x3B000000) == 0x39000000 ) // Unsigned scaled offset
+            off = (long)((ins >> 10) & 0xFFF) << size;
+        else if( (ins & 0x3B200C00) == 0x38200800 ) { // Register offset
+            long idx = x(rm);
+            off = switch( (ins >> 13) & 7 ) {
+            case 2 -> idx & 0xFFFFFFFFL;    // UXTW
+            case 3, 7 -> idx;               // LSL, SXTX
+            case 6 -> (long)(int)idx;       // SXTW
+            default -> throw bad(ins);
+            };
+            if( (ins & (1<<12)) != 0 ) off <<= size;
+        } else if( (ins & 0x3B200C00) == 0x38000000 ) // Unscaled signed offset
+            off = (long)(ins << 11) >> 23;
+        else throw bad(ins);
+        int adr = adr(base + off);
+        boolean spill = rn == XZR_SP;
+        if( opc == 0 ) {        // Store
+            if( spill ) _spillStores++;
+            _stores++;
+            long v = fp ? _fregs[rt] : x(rt);
+            switch( size ) {
+            case 0 -> { count(Op.STRB); _mem[adr] = (byte)v; }
+            case 1 -> { count(Op.STRH); I16.set(_mem, adr, (short)v); }
+            case 2 -> { count(Op.STR ); I32.set(_mem, adr, (int)v); }
+            default -> { count(Op.STR ); I64.set(_mem, adr, v); }
+            }
+        } else {
+            if( spill ) _spillLoads++;
+            if( opc == 3 || (fp && opc != 1) ) throw bad(ins); // No 32-bit sign extension, no 128-bit FP
+            load(fp, size, opc == 2, rt, adr);
+        }
+    }
+
+    // Loads 1<<size bytes, zero or sign extended to 64 bits
+    private void load( boolean fp, int size, boolean signed, int rt, int adr ) {
+        _loads++;
+        if( fp ) {
+            if( size < 2 ) throw Utils.TODO("FP load size "+size);
+            count(Op.LDR);
+            _fregs[rt] = size == 2 ? (int)I32.get(_mem, adr) & 0xFFFFFFFFL : (long)I64.get(_mem, adr);
+            return;
+        }
+        long v = switch( size ) {
+        case 0 -> { count(signed ? Op.LDRSB : Op.LDRB); yield signed ? _mem[adr] : _mem[adr] & 0xFFL; }
+        case 1 -> { count(signed ? Op.LDRSH : Op.LDRH); short h = (short)I16.get(_mem, adr); yield signed ? h : h & 0xFFFFL; }
+        case 2 -> { count(signed ? Op.LDRSW : Op.LDR ); int w = (int)I32.get(_mem, adr); yield signed ? w : w & 0xFFFFFFFFL; }
+        default -> { if( signed ) throw Utils.TODO(); count(Op.LDR); yield (long)I64.get(_mem, adr); }
+        };
+        setX(rt, v);
+    }
+
+    // Data processing, register
+    private void dpReg( int ins, int rd, int rn, int rm ) {
+        if( ins >= 0 ) throw bad(ins); // Only 64-bit forms
+        long a = x(rn), b = x(rm);
+        if( (ins & 0x1F000000) == 0x0A000000 ) { // Logical, shifted register
+            b = shift(b, (ins >> 22) & 3, (ins >> 10) & 0x3F);
+            boolean neg = (ins & (1<<21)) != 0;
+            if( neg ) b = ~b;
+            long r;
+            switch( (ins >> 29) & 3 ) {
+            case 0 -> { count(neg ? Op.BIC : Op.AND); setX(rd, a & b); }
+            case 1 -> { count(neg ? Op.ORN : Op.ORR); setX(rd, a | b); }
+            case 2 -> { count(neg ? Op.EON : Op.EOR); setX(rd, a ^ b); }
+            default -> { count(neg ? Op.BICS : Op.ANDS); setX(rd, r = a & b); logicFlags(r); }
+            }
+        } else if( (ins & 0x1F200000) == 0x0B000000 ) { // Add/sub, shifted register
+            b = shift(b, (ins >> 22) & 3, (ins >> 10) & 0x3F);
+            setX(rd, addsub(a, b, (ins & (1<<30)) != 0, (ins & (1<<29)) != 0));
+        } else if( (ins & 0x5FE00000) == 0x1AC00000 ) { // Two-source
+            int sh = (int)(b & 63);
+            setX(rd, switch( (ins >> 10) & 0x3F ) {
+                case 2  -> { count(Op.UDIV); yield b == 0 ? 0 : Long.divideUnsigned(a, b); }
+                case 3  -> { count(Op.SDIV); yield b == 0 ? 0 : a / b; }
+                case 8  -> { count(Op.LSLV); yield a << sh; }
+                case 9  -> { count(Op.LSRV); yield a >>> sh; }
+                case 10 -> { count(Op.ASRV); yield a >> sh; }
+                case 11 -> { count(Op.RORV); yield Long.rotateRight(a, sh); }
+                default -> throw bad(ins);
+                });
+        } else if( (ins & 0x1FE00800) == 0x1A800000 ) { // Conditional select
+            boolean inv = (ins & (1<<30)) != 0, inc = (ins & (1<<10)) != 0;
+            long f = inv ? (inc ? -b : ~b) : (inc ? b + 1 : b);
+            count(inv ? (inc ? Op.CSNEG : Op.CSINV) : (inc ? Op.CSINC : Op.CSEL));
+            setX(rd, cond((ins >> 12) & 0xF) ? a : f);
+        } else if( (ins & 0x1F000000) == 0x1B000000 ) { // Three-source
+            long c = x((ins >> 10) & 0x1F);
+            boolean sub = (ins & (1<<15)) != 0;
+            setX(rd, switch( (ins >> 21) & 7 ) {
+                case 0 -> { count(sub ? Op.MSUB : Op.MADD); yield sub ? c - a*b : c + a*b; }
+                case 2 -> { count(Op.SMULH); yield Math.multiplyHigh(a, b); }
+                case 6 -> { count(Op.UMULH); yield Math.unsignedMultiplyHigh(a, b); }
+                default -> throw bad(ins);
+                });
+        } else throw bad(ins);
+    }
+
+    private static long shift( long b, int kind, int amt ) {
+        return switch( kind ) {
+        case 0 -> b << amt;
+        case 1 -> b >>> amt;
+        case 2 -> b >> amt;
+        default -> Long.rotateRight(b, amt);
+        };
+    }
+
+    // Scalar floating point; ftype 0 is single, 1 is double
+    private void fp( int ins, int rd, int rn, int rm ) {
+        int ftype = (ins >> 22) & 3;
+        if( ftype > 1 || (ins & (1<<21)) == 0 ) throw bad(ins);
+        boolean dbl = ftype == 1;
+        if( (ins & 0x00000C00) == 0x00000800 ) { // Two-source
+            double a = fget(rn, dbl), b = fget(rm, dbl);
+            fset(rd, dbl, switch( (ins >> 12) & 0xF ) {
+                case 0 -> { count(Op.FMUL ); yield a * b; }
+                case 1 -> { count(Op.FDIV ); yield a / b; }
+                case 2 -> { count(Op.FADD ); yield a + b; }
+                case 3 -> { count(Op.FSUB ); yield a - b; }
+                case 4 -> { count(Op.FMAX ); yield Math.max(a, b); }
+                case 5 -> { count(Op.FMIN ); yield Math.min(a, b); }
+                case 8 -> { count(Op.FNMUL); yield -(a * b); }
+                default -> throw bad(ins);
+                });
+        } else if( (ins & 0x00003C00) == 0x00002000 ) { // FCMP
+            count(Op.FCMP);
+            double a = fget(rn, dbl), b = (ins & 8) != 0 ? 0.0 : fget(rm, dbl);
+            _n = a < b;
+            _z = a == b;
+            _c = !(a < b);              // Greater, equal or unordered
+            _v = Double.isNaN(a) || Double.isNaN(b);
+        } else if( (ins & 0x00007C00) == 0x00004000 ) { // One-source
+            double a = fget(rn, dbl);
+            switch( (ins >> 15) & 0x3F ) {
+            case 0 -> { count(Op.FMOV ); _fregs[rd] = _fregs[rn]; }
+            case 1 -> { count(Op.FABS ); fset(rd, dbl, Math.abs(a)); }
+            case 2 -> { count(Op.FNEG ); fset(rd, dbl, -a); }
+            case 3 -> { count(Op.FSQRT); fset(rd, dbl, Math.sqrt(a)); }
+            case 4 -> { count(Op.FCVT ); fset(rd, false, a); }
+            case 5 -> { count(Op.FCVT ); fset(rd, true , a); }
+            default -> throw bad(ins);
+            }
+        } else if( (ins & 0x0000FC00) == 0 ) { // Integer conversions and moves
+            if( ins >= 0 ) throw bad(ins);      // Only 64-bit integers
+            switch( (ins >> 16) & 0x1F ) {      // rmode:opcode
+            case 0x02 -> { count(Op.SCVTF ); fset(rd, dbl, (double)x(rn)); }
+            case 0x03 -> { long v = x(rn); count(Op.UCVTF); fset(rd, dbl, v >= 0 ? (double)v : (double)(v >>> 1) * 2.0 + (v & 1)); }
+            case 0x18 -> { count(Op.FCVTZS); setX(rd, (long)fget(rn, dbl)); }
+            case 0x19 -> { double v = fget(rn, dbl); count(Op.FCVTZU); setX(rd, v <= 0 ? 0 : v >= 0x1p64 ? -1 : v >= 0x1p63 ? (long)(v - 0x1p63) ^ Long.MIN_VALUE : (long)v); }
+            case 0x06 -> { count(Op.FMOV); setX(rd, _fregs[rn]); }
+            case 0x07 -> { count(Op.FMOV); _fregs[rd] = x(rn); }
+            default -> throw bad(ins);
+            }
+        } else throw bad(ins);
+    }
+
+    private double fget( int reg, boolean dbl ) {
+        return dbl ? Double.longBitsToDouble(_fregs[reg]) : Float.intBitsToFloat((int)_fregs[reg]);
+    }
+    private void fset( int reg, boolean dbl, double x ) {
+        _fregs[reg] = dbl ? Double.doubleToRawLongBits(x) : Float.floatToRawIntBits((float)x) & 0xFFFFFFFFL;
+    }
+
+    private int adr( long adr ) {
+        if( adr < 0 || adr > _mem.length - 8 )
+            throw new IllegalStateException("Bad address 0x"+Long.toHexString(adr)+" at pc 0x"+Long.toHexString(_pc));
+        return (int)adr;
+    }
+
+    private RuntimeException bad( int ins ) {
+        return new IllegalStateException("Unknown instruction 0x"+Integer.toHexString(ins)+" at pc 0x"+Long.toHexString(_pc));
+    }
+
+    // Executed instructions per mnemonic, most frequent first
+    public String mix() {
+        Op[] ops = Op.values().clone();
+        Arrays.sort(ops, (a, b) -> Long.compare(_mix[b.ordinal()], _mix[a.ordinal()]));
+        SB sb = new SB();
+        for( Op op : ops )
+            if( _mix[op.ordinal()] > 0 )
+                sb.p(op.name().toLowerCase()).p("=").p(_mix[op.ordinal()]).p(" ");
+        return sb.toString().trim();
+    }
+
+    public String stats() {
+        return new SB().p("insns=").p(_insns)
+            .p(" loads=").p(_loads).p(" stores=").p(_stores)
+            .p(" spill_loads=").p(_spillLoads).p(" spill_stores=").p(_spillStores)
+            .p(" branches=").p(_branches).p(" taken=").p(_taken)
+            .p(" jumps=").p(_jumps).p(" calls=").p(_calls).toString();
+    }
+}
@@ -0,0 +1,419 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.compiler.codegen.CodeGen;
+import com.compilerprogramming.ezlang.compiler.codegen.Encoding;
+import com.compilerprogramming.ezlang.compiler.node.CFGNode;
+import com.compilerprogramming.ezlang.compiler.node.FunNode;
+import com.compilerprogramming.ezlang.compiler.util.SB;
+import com.compilerprogramming.ezlang.compiler.util.Utils;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+
+/**
+ * RV64IMFD instruction-set simulator, for running the riscv port's output
+ * on any host.
+ * <p>
+ * Runs the in-memory linked encoding ({@code exportELF(null)}).  The code is
+ * loaded at address 0, the heap follows the code and the stack grows down
+ * from the top of memory.  Calls to externals are patched by the linker to
+ * jump to small negative sentinel addresses, see {@link Encoding}; landing
+ * on one runs a Java stand-in: calloc bump-allocates from the (already
+ * zeroed) heap and write appends to {@link #_stdout}.
+ * <p>
+ * Besides retired instructions, an approximate cycle count is kept for a
+ * simple single-issue in-order pipeline: every instruction costs a cycle,
+ * plus a fixed latency for loads, multiplies, divides, floating point and
+ * taken control transfers.  The numbers are only useful for comparing two
+ * compilations of the same program.
+ */
+public class EvalRisc5 {
+
+    // Extra cycles on top of the one every instruction costs
+    static final int LOAD_LAT = 2, MUL_LAT = 3, DIV_LAT = 20, FP_LAT = 3, FDIV_LAT = 15, TAKEN_LAT = 2;
+
+    // Return address of the outermost call; stops the simulation
+    static final long HALT = -16;
+
+    private static final VarHandle I16 = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle I32 = MethodHandles.byteArrayViewVarHandle(int  [].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle I64 = MethodHandles.byteArrayViewVarHandle(long [].class, ByteOrder.LITTLE_ENDIAN);
+
+    final CodeGen _code;
+    final byte[] _mem;
+    final long[] _regs = new long[32];
+    final long[] _fregs = new long[32]; // Raw bits; floats are NaN-boxed
+    long _pc;
+    int _heap;                          // Next free heap byte
+    final HashMap<String,Integer> _funs = new HashMap<>();
+
+    // Output of the write stand-in
+    public final ByteArrayOutputStream _stdout = new ByteArrayOutputStream();
+
+    // Counters, accumulated over all calls
+    public long _insns, _cycles, _loads, _stores, _branches, _taken, _calls;
+
+    public EvalRisc5( CodeGen code, int memSize ) {
+        assert code._phase == CodeGen.Phase.Export && code._mach.name().equals("riscv");
+        _code = code;
+        _mem = new byte[memSize];
+        int len = code._encoding._bits.size();
+        System.arraycopy(code._encoding.bits(), 0, _mem, 0, len);
+        _heap = (len+15) & -16;
+        for( CFGNode bb : code._cfg )
+            if( bb instanceof FunNode fun && fun._name != null )
+                _funs.put(fun._name, code._encoding._opStart[fun._nid]);
+    }
+
+    /**
+     * Calls the named function with integer arguments and returns a0.
+     * Throws if more than maxInsns instructions retire.
+     */
+    public long call( String name, long maxInsns, long... args ) {
+        Integer entry = _funs.get(name);
+        if( entry == null )
+            throw Utils.TODO("No compiled function "+name);
+        assert args.length <= 8;
+        for( int i=0; i<args.length; i++ )
+            _regs[10+i] = args[i];
+        _regs[1] = HALT;                        // ra
+        _regs[2] = _mem.length & -16;           // sp
+        _pc = entry;
+        run(_insns + maxInsns);
+        return _regs[10];
+    }
+
+    // Float result of the last call
+    public double fret() { return Double.longBitsToDouble(_fregs[10]); }
+
+    private void run( long limit ) {
+        while( true ) {
+            if( _pc < 0 ) {
+                if( _pc == HALT ) return;
+                stub();
+                continue;
+            }
+            if( _insns++ >= limit )
+                throw new RuntimeException("Timeout after "+(_insns-1)+" instructions");
+            _cycles++;
+            step(ld4((int)_pc));
+            _regs[0] = 0;
+        }
+    }
+
+    // Stand-ins for the externals
+    private void stub() {
+        _calls++;
+        if( _pc == Encoding.SENTINEL_CALLOC ) {
+            long size = _regs[10] * _regs[11];
+            int ptr = _heap;
+            if( size < 0 || ptr + size > _mem.length - (64<<10) )
+                throw new OutOfMemoryError("Simulated heap exhausted");
+            _heap = (int)((ptr + size + 15) & -16);
+            _regs[10] = ptr;
+        } else if( _pc == Encoding.SENTINEL_WRITE ) {
+            _stdout.write(_mem, (int)_regs[11], (int)_regs[12]);
+            _regs[10] = _regs[12];
+        } else
+            throw new IllegalStateException("Jump to bad address 0x"+Long.toHexString(_pc));
+        _pc = _regs[1];
+    }
+
+    private void step( int ins ) {
+        int op  = ins & 0x7F;
+        int rd  = (ins >>  7) & 0x1F;
+        int f3  = (ins >> 12) & 0x7;
+        int rs1 = (ins >> 15) & 0x1F;
+        int rs2 = (ins >> 20) & 0x1F;
+        int f7  = ins >>> 25;
+        long[] r = _regs;
+        long next = _pc + 4;
+        switch( op ) {
+        case 0x37 -> r[rd] = (long)(ins & 0xFFFFF000); // LUI
+        case 0x17 -> r[rd] = _pc + (ins & 0xFFFFF000); // AUIPC
+        case 0x6F -> {          // JAL
+            r[rd] = next;
+            next = _pc + immJ(ins);
+            jump(rd);
+        }
+        case 0x67 -> {          // JALR
+            long target = (r[rs1] + (ins >> 20)) & ~1L;
+            r[rd] = next;
+            next = target;
+            jump(rd);
+        }
+        case 0x63 -> {          // Branches
+            long a = r[rs1], b = r[rs2];
+            boolean t = switch( f3 ) {
+            case 0 -> a == b;
+            case 1 -> a != b;
+            case 4 -> a <  b;
+            case 5 -> a >= b;
+            case 6 -> Long.compareUnsigned(a, b) <  0;
+            case 7 -> Long.compareUnsigned(a, b) >= 0;
+            default -> throw bad(ins);
+            };
+            _branches++;
+            if( t ) {
+                _taken++;
+                _cycles += TAKEN_LAT;
+                next = _pc + immB(ins);
+            }
+        }
+        case 0x03 -> {          // Loads
+            int adr = adr(r[rs1] + (ins >> 20));
+            r[rd] = switch( f3 ) {
+            case 0 -> _mem[adr];
+            case 1 -> (short)I16.get(_mem, adr);
+            case 2 -> ld4(adr);
+            case 3 -> (long)I64.get(_mem, adr);
+            case 4 -> _mem[adr] & 0xFFL;
+            case 5 -> (short)I16.get(_mem, adr) & 0xFFFFL;
+            case 6 -> ld4(adr) & 0xFFFFFFFFL;
+            default -> throw bad(ins);
+            };
+            load();
+        }
+        case 0x23 -> {          // Stores
+            int adr = adr(r[rs1] + immS(ins));
+            long v = r[rs2];
+            switch( f3 ) {
+            case 0 -> _mem[adr] = (byte)v;
+            case 1 -> I16.set(_mem, adr, (short)v);
+            case 2 -> I32.set(_mem, adr, (int)v);
+            case 3 -> I64.set(_mem, adr, v);
+            default -> throw bad(ins);
+            }
+            _stores++;
+        }
+        case 0x13 -> {          // Integer register-immediate
+            long a = r[rs1];
+            int imm = ins >> 20, sh = imm & 0x3F;
+            r[rd] = switch( f3 ) {
+            case 0 -> a + imm;
+            case 1 -> a << sh;
+            case 2 -> a < imm ? 1 : 0;
+            case 3 -> Long.compareUnsigned(a, imm) < 0 ? 1 : 0;
+            case 4 -> a ^ imm;
+            case 5 -> (imm & 0x400) != 0 ? a >> sh : a >>> sh;
+            case 6 -> a | imm;
+            case 7 -> a & imm;
+            default -> throw bad(ins);
+            };
+        }
+        case 0x1B -> {          // 32-bit register-immediate
+            int a = (int)r[rs1], imm = ins >> 20, sh = imm & 0x1F;
+            r[rd] = switch( f3 ) {
+            case 0 -> a + imm;
+            case 1 -> a << sh;
+            case 5 -> (imm & 0x400) != 0 ? a >> sh : a >>> sh;
+            default -> throw bad(ins);
+            };
+        }
+        case 0x33 -> r[rd] = f7 == 1 ? muldiv(f3, r[rs1], r[rs2]) : alu(ins, f3, f7, r[rs1], r[rs2]);
+        case 0x3B -> r[rd] = f7 == 1 ? muldivW(ins, f3, (int)r[rs1], (int)r[rs2]) : aluW(ins, f3, f7, (int)r[rs1], (int)r[rs2]);
+        case 0x07 -> {          // FLW, FLD
+            int adr = adr(r[rs1] + (ins >> 20));
+            _fregs[rd] = switch( f3 ) {
+            case 2 -> box(ld4(adr));
+            case 3 -> (long)I64.get(_mem, adr);
+            default -> throw bad(ins);
+            };
+            load();
+        }
+        case 0x27 -> {          // FSW, FSD
+            int adr = adr(r[rs1] + immS(ins));
+            switch( f3 ) {
+            case 2 -> I32.set(_mem, adr, (int)_fregs[rs2]);
+            case 3 -> I64.set(_mem, adr, _fregs[rs2]);
+            default -> throw bad(ins);
+            }
+            _stores++;
+        }
+        case 0x43, 0x47, 0x4B, 0x4F -> fma(ins, op, rd, rs1, rs2);
+        case 0x53 -> fp(ins, rd, f3, rs1, rs2, f7);
+        default -> throw bad(ins);
+        }
+        _pc = next;
+    }
+
+    private void jump( int rd ) {
+        _cycles += TAKEN_LAT;
+        if( rd == 1 ) _calls++;
+    }
+    private void load() { _loads++; _cycles += LOAD_LAT; }
+
+    private long alu( int ins, int f3, int f7, long a, long b ) {
+        return switch( f3 ) {
+        case 0 -> f7 == 0x20 ? a - b : a + b;
+        case 1 -> a << b;
+        case 2 -> a < b ? 1 : 0;
+        case 3 -> Long.compareUnsigned(a, b) < 0 ? 1 : 0;
+        case 4 -> a ^ b;
+        case 5 -> f7 == 0x20 ? a >> b : a >>> b;
+        case 6 -> a | b;
+        case 7 -> a & b;
+        default -> throw bad(ins);
+        };
+    }
+
+    private long aluW( int ins, int f3, int f7, int a, int b ) {
+        return switch( f3 ) {
+        case 0 -> f7 == 0x20 ? a - b : a + b;
+        case 1 -> a << b;
+        case 5 -> f7 == 0x20 ? a >> b : a >>> b;
+        default -> throw bad(ins);
+        };
+    }
+
+    // RISC-V division never traps: x/0 is -1 and x%0 is x
+    private long muldiv( int f3, long a, long b ) {
+        if( f3 < 4 ) {
+            _cycles += MUL_LAT;
+            return switch( f3 ) {
+            case 0 -> a * b;
+            case 1 -> Math.multiplyHigh(a, b);
+            case 2 -> Math.multiplyHigh(a, b) + (b < 0 ? a : 0); // MULHSU
+            default -> Math.unsignedMultiplyHigh(a, b);
+            };
+        }
+        _cycles += DIV_LAT;
+        return switch( f3 ) {
+        case 4 -> b == 0 ? -1 : a / b;
+        case 5 -> b == 0 ? -1 : Long.divideUnsigned(a, b);
+        case 6 -> b == 0 ? a : a % b;
+        default -> b == 0 ? a : Long.remainderUnsigned(a, b);
+        };
+    }
+
+    private long muldivW( int ins, int f3, int a, int b ) {
+        if( f3 == 0 ) { _cycles += MUL_LAT; return a * b; }
+        _cycles += DIV_LAT;
+        return switch( f3 ) {
+        case 4 -> b == 0 ? -1 : a / b;
+        case 5 -> b == 0 ? -1 : Integer.divideUnsigned(a, b);
+        case 6 -> b == 0 ? a : a % b;
+        case 7 -> b == 0 ? a : Integer.remainderUnsigned(a, b);
+        default -> throw bad(ins);
+        };
+    }
+
+    // Fused multiply-add family; bits 26:25 select single or double
+    private void fma( int ins, int op, int rd, int rs1, int rs2 ) {
+        int rs3 = ins >>> 27;
+        boolean dbl = ((ins >> 25) & 3) == 1;
+        double a = fget(rs1, dbl), b = fget(rs2, dbl), c = fget(rs3, dbl);
+        double x = switch( op ) {
+        case 0x43 ->  Math.fma(a, b,  c);
+        case 0x47 ->  Math.fma(a, b, -c);
+        case 0x4B -> -Math.fma(a, b, -c);
+        default   -> -Math.fma(a, b,  c);
+        };
+        fset(rd, dbl, x);
+        _cycles += FP_LAT;
+    }
+
+    private void fp( int ins, int rd, int f3, int rs1, int rs2, int f7 ) {
+        boolean dbl = (f7 & 1) == 1;
+        double a = fget(rs1, dbl), b = fget(rs2, dbl);
+        long[] r = _regs;
+        switch( f7 >> 2 ) {
+        case 0x00 -> { fset(rd, dbl, a + b); _cycles += FP_LAT; }
+        case 0x01 -> { fset(rd, dbl, a - b); _cycles += FP_LAT; }
+        case 0x02 -> { fset(rd, dbl, a * b); _cycles += FP_LAT; }
+        case 0x03 -> { fset(rd, dbl, a / b); _cycles += FDIV_LAT; }
+        case 0x0B -> { fset(rd, dbl, Math.sqrt(a)); _cycles += FDIV_LAT; }
+        case 0x04 -> {          // Sign injection: FSGNJ, FSGNJN, FSGNJX
+            long sa = Double.doubleToRawLongBits(a), sb = Double.doubleToRawLongBits(b);
+            long sign = switch( f3 ) {
+            case 0 -> sb;
+            case 1 -> ~sb;
+            case 2 -> sa ^ sb;
+            default -> throw bad(ins);
+            };
+            fset(rd, dbl, Math.copySign(a, sign < 0 ? -1.0 : 1.0));
+        }
+        case 0x05 -> fset(rd, dbl, f3 == 0 ? Math.min(a, b) : Math.max(a, b));
+        case 0x08 -> fset(rd, dbl, fget(rs1, !dbl)); // FCVT.S.D, FCVT.D.S
+        case 0x14 -> r[rd] = switch( f3 ) {
+            case 0 -> a <= b ? 1 : 0;
+            case 1 -> a <  b ? 1 : 0;
+            case 2 -> a == b ? 1 : 0;
+            default -> throw bad(ins);
+            };
+        case 0x18 -> {          // Float to integer
+            double x = round(a, f3);
+            r[rd] = switch( rs2 ) {
+            case 0 -> (int)x;
+            case 1 -> (int)(x < 0 ? 0 : (long)Math.min(x, 4294967295.0)); // Sign-extended
+            case 2 -> (long)x;
+            default -> x < 0 ? 0 : x >= 0x1p64 ? -1 : x >= 0x1p63 ? (long)(x - 0x1p63) ^ Long.MIN_VALUE : (long)x;
+            };
+        }
+        case 0x1A -> {          // Integer to float
+            long x = r[rs1];
+            fset(rd, dbl, switch( rs2 ) {
+                case 0 -> (double)(int)x;
+                case 1 -> (double)(x & 0xFFFFFFFFL);
+                case 2 -> (double)x;
+                default -> x >= 0 ? (double)x : (double)(x >>> 1) * 2.0 + (x & 1);
+                });
+        }
+        case 0x1C -> {          // FMV.X.W, FMV.X.D
+            if( f3 != 0 ) throw bad(ins); // No FCLASS
+            r[rd] = dbl ? _fregs[rs1] : (int)_fregs[rs1];
+        }
+        case 0x1E -> _fregs[rd] = dbl ? r[rs1] : box((int)r[rs1]); // FMV.W.X, FMV.D.X
+        default -> throw bad(ins);
+        }
+    }
+
+    private double fget( int reg, boolean dbl ) {
+        return dbl ? Double.longBitsToDouble(_fregs[reg]) : Float.intBitsToFloat((int)_fregs[reg]);
+    }
+    private void fset( int reg, boolean dbl, double x ) {
+        _fregs[reg] = dbl ? Double.doubleToRawLongBits(x) : box(Float.floatToRawIntBits((float)x));
+    }
+    private static long box( int bits ) { return 0xFFFFFFFF00000000L | (bits & 0xFFFFFFFFL); }
+
+    // Rounding modes RNE, RTZ, RDN, RUP, RMM; DYN defaults to RNE
+    private static double round( double x, int rm ) {
+        return switch( rm ) {
+        case 1 -> x < 0 ? Math.ceil(x) : Math.floor(x);
+        case 2 -> Math.floor(x);
+        case 3 -> Math.ceil(x);
+        case 4 -> Math.signum(x) * Math.floor(Math.abs(x) + 0.5);
+        default -> Math.rint(x);
+        };
+    }
+
+    private int ld4( int adr ) { return (int)I32.get(_mem, adr); }
+
+    private int adr( long adr ) {
+        if( adr < 0 || adr > _mem.length - 8 )
+            throw new IllegalStateException("Bad address 0x"+Long.toHexString(adr)+" at pc 0x"+Long.toHexString(_pc));
+        return (int)adr;
+    }
+
+    private static int immS( int ins ) { return ((ins >> 25) << 5) | ((ins >> 7) & 0x1F); }
+    private static int immB( int ins ) {
+        return ((ins >> 31) << 12) | (((ins >> 7) & 1) << 11) | (((ins >> 25) & 0x3F) << 5) | (((ins >> 8) & 0xF) << 1);
+    }
+    private static int immJ( int ins ) {
+        return ((ins >> 31) << 20) | (((ins >> 12) & 0xFF) << 12) | (((ins >> 20) & 1) << 11) | (((ins >> 21) & 0x3FF) << 1);
+    }
+
+    private RuntimeException bad( int ins ) {
+        return new IllegalStateException("Unknown instruction 0x"+Integer.toHexString(ins)+" at pc 0x"+Long.toHexString(_pc));
+    }
+
+    public String stats() {
+        return new SB().p("insns=").p(_insns).p(" cycles=").p(_cycles)
+            .p(" loads=").p(_loads).p(" stores=").p(_stores)
+            .p(" branches=").p(_branches).p(" taken=").p(_taken)
+            .p(" calls=").p(_calls).toString();
+    }
+}
@@ -0,0 +1,28 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.compiler.codegen.CodeGen;
+
+// Peephole visits, no-op visits and opto time per worklist order, over the
+// TestIterOrder corpus.  First arg is the repeat count, default 3.
+public class IterOrderBench {
+
+    public static void main( String[] args ) {
+        int reps = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        System.out.printf("%-7s %8s %8s %6s%n", "order", "visits", "no-op", "ms");
+        for( IterPeeps.Order order : IterPeeps.Order.values() ) {
+            long visits = 0, nops = 0, ms = Long.MAX_VALUE;
+            for( int rep=0; rep<reps; rep++ ) {
+                long t = 0;
+                visits = nops = 0;
+                for( String src : TestIterOrder.CORPUS ) {
+                    CodeGen code = new CodeGen(src).iterOrder(order).parse().opto();
+                    visits += code._iter.visits();
+                    nops   += code._iter.nops();
+                    t      += code._tOpto;
+                }
+                ms = Math.min(ms, t);
+            }
+            System.out.printf("%-7s %8d %8d %6d%n", order, visits, nops, ms);
+        }
+    }
+}
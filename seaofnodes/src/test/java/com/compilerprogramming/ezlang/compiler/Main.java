@@ -12,8 +12,9 @@ public class Main {
         // First arg is file, 2nd+ args are program args
         String src = Files.readString(Path.of(args[0]));
         CodeGen code = new CodeGen(src);
-        code.parse().opto().typeCheck().GCM().localSched();
+        code.parse().opto().typeCheck().loopTree().GCM().localSched();
         System.out.println(code._stop);
-        //System.out.println(Eval2.eval(code,arg,100000));
+        long arg = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        System.out.println(Eval2.eval(code,arg,100000));
     }
 }
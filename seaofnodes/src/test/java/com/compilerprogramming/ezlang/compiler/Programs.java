@@ -0,0 +1,54 @@
+package com.compilerprogramming.ezlang.compiler;
+
+// Programs shared by the evaluator, simulator and native tests and the
+// benchmark drivers.  Each program has a main(n: Int)->Int.
+public class Programs {
+
+    static final String SIEVE_FUNC = """
+            func sieve(n: Int)->Int {
+                var flags = new [Int]{len=n,value=0}
+                var count = 0
+                var i = 2
+                while (i < n) {
+                    if (flags[i] == 0) {
+                        count = count + 1
+                        var j = i + i
+                        while (j < n) {
+                            flags[j] = 1
+                            j = j + i
+                        }
+                    }
+                    i = i + 1
+                }
+                return count
+            }
+            """;
+
+    static final String FIB_FUNC = """
+            func fib(n: Int)->Int {
+                if (n < 2) return n
+                return fib(n-1) + fib(n-2)
+            }
+            """;
+
+    // Number of primes below n
+    public static final String SIEVE = SIEVE_FUNC + """
+            func main(n: Int)->Int {
+                return sieve(n)
+            }
+            """;
+
+    public static final String FIB = FIB_FUNC + """
+            func main(n: Int)->Int {
+                return fib(n)
+            }
+            """;
+
+    // Array and loop heavy sieve plus call heavy fib; main(15) is 2364
+    // and main(25) is 77787
+    public static final String SIEVE_AND_FIB = SIEVE_FUNC + FIB_FUNC + """
+            func main(n: Int)->Int {
+                return sieve(n * 1000) + fib(n)
+            }
+            """;
+}
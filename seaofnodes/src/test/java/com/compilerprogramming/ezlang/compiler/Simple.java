@@ -9,6 +9,7 @@ import java.nio.file.Path;
 import java.io.InputStreamReader;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
 import java.util.stream.Collectors;
 
 public class Simple {
@@ -53,10 +54,12 @@ Options:
   --dump-after-all         - dump intermediate representation after all passes
   --dot                    - dump grapical representation of intermediate code into *.dot file(s)
   -S                       - dump generated assembler code
-  --eval                   - evaluate the compiled code in emulator
+  --eval                   - evaluate the compiled code in emulator; no code is generated
   --run                    - run the compiled code natively; this is the default
   --dump-size              - print the size of generated code
   --dump-time              - print compilation and execution times
+  --peel                   - peel loops whose values are invariant after the first iteration
+  --unroll <factor>        - unroll counted loops by the factor
   --cpu <cpu-name>         - use specific CPU (x86_64_v2, riscv, arm)
   --abi <abi-name>         - use speific ABI variant (SystemV)
   --target                 - print native CPU and ABI
@@ -160,6 +163,8 @@ Options:
         boolean do_codegen = false;
         boolean do_print_size = false;
         boolean do_print_time = false;
+        boolean peel = false;
+        int unroll = 0;
         int dump = 0;
         int first_arg = 0;
         String src = null;
@@ -198,6 +203,10 @@ Options:
             case "--norun":                   do_run  = false; break;
             case "--dump-size":               do_print_size = true; break;
             case "--dump-time":               do_print_time = true; break;
+            case "--peel":                    peel = true; break;
+            case "--unroll":                  if (i + 1 >= args.length || args[i + 1].charAt(0) == '-') bad_usage();
+                                              unroll = Integer.parseInt(args[++i]);
+                                              break;
             case "--cpu":                     if (cpu != null || i + 1 >= args.length || args[i + 1].charAt(0) == '-') bad_usage();
                                               cpu = args[++i];
                                               break;
@@ -211,12 +220,16 @@ Options:
             }
         }
 
+        first_arg = i + 1;
+
         if (input_filename == null) throw bad("no input file' (use --help)");
         if( !input_filename.isEmpty() && !input_filename.endsWith(".ez") )
             throw bad("File extension must be .ez");
         String base = input_filename.substring(0,input_filename.length()-4);
 
         if (do_run || (dump & DUMP_DISASSEMBLE) != 0 || do_print_size) {
+            // Eval2 runs the machine independent graph, not the selected instructions
+            if (do_eval) throw bad("--eval cannot be combined with -S, --dump-size or --run");
             if (cpu == null) cpu = system_cpu;
             if (abi == null) abi = system_abi;
             do_codegen = true;
@@ -228,7 +241,7 @@ Options:
         } catch( IOException e ) { throw bad("Cannot read input file: "+input_filename);  }
 
         // Compilation pipeline
-        CodeGen code = new CodeGen(src);
+        CodeGen code = new CodeGen(src).loopOpts(peel, unroll);
 
         code.parse();
         dump(code, dump, DUMP_AFTER_PARSE);
@@ -260,7 +273,9 @@ Options:
             code.encode();
             dump(code, dump, DUMP_AFTER_ENCODE);
 
-            code.exportELF(base+".o");
+            // Running in-process links in memory; otherwise write an object file
+            if (do_run) code.exportELF(null);
+            else code.exportELF(base+".o");
         }
 
         dump(code, dump, DUMP_FINAL);
@@ -277,22 +292,43 @@ Options:
             print_compilation_times(code);
         }
 
-//        if (do_eval) {
-//            // TODO: Support for evaluation of functions with different argument numbers and types
-//            long t = System.currentTimeMillis();
-//            long arg = (first_arg < args.length) ? Integer.valueOf(args[first_arg]) : 0;
-//            System.out.println(Eval2.eval(code, arg, 100000));
-//            if (do_print_time) {
-//                System.out.println(String.format("EXECUTION TIME:             %.3f sec",
-//                    (System.currentTimeMillis() - t) / 1e3));
-//            }
-//        } else
+        if (do_eval) {
+            // TODO: Support for evaluation of functions with different argument numbers and types
+            long t = System.currentTimeMillis();
+            long arg = (first_arg < args.length) ? Long.parseLong(args[first_arg]) : 0;
+            System.out.println(Eval2.eval(code, arg, 100000));
+            if (do_print_time) {
+                System.out.println(String.format("EXECUTION TIME:             %.3f sec",
+                    (System.currentTimeMillis() - t) / 1e3));
+            }
+        } else
         if (do_run) {
             if (cpu != system_cpu || abi != system_abi) {
                 System.err.println("ERROR: cannot run code on not native target");
                 System.exit(1);
             }
-            throw Utils.TODO();
+            // TODO: Support for running functions with different argument numbers and types
+            long t = System.currentTimeMillis();
+            long arg = (first_arg < args.length) ? Long.parseLong(args[first_arg]) : 0;
+            // NativeCode needs the Java 21 preview API, so it is only built with -Pnative
+            Class<?> nativeCode;
+            try {
+                nativeCode = Class.forName("com.compilerprogramming.ezlang.compiler.codegen.NativeCode");
+            } catch (ClassNotFoundException e) {
+                throw bad("--run needs a build with -Pnative");
+            } catch (UnsupportedClassVersionError e) {
+                throw bad("--run needs java --enable-preview");
+            }
+            try (AutoCloseable nc = (AutoCloseable) nativeCode.getConstructor(CodeGen.class).newInstance(code)) {
+                MethodHandle main = (MethodHandle) nativeCode.getMethod("handle", String.class).invoke(nc, "main");
+                System.out.println(main.type().parameterCount() == 0 ? main.invoke() : main.invoke(arg));
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+            if (do_print_time) {
+                System.out.println(String.format("EXECUTION TIME:             %.3f sec",
+                    (System.currentTimeMillis() - t) / 1e3));
+            }
         }
     }
 }
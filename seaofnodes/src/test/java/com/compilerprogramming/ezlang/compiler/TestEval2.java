@@ -0,0 +1,186 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.compiler.codegen.CodeGen;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestEval2 {
+
+    static CodeGen compile(String src) {
+        CodeGen code = new CodeGen(src);
+        code.parse().opto().typeCheck().loopTree().GCM().localSched();
+        return code;
+    }
+
+    static String eval(String src, long arg) {
+        return Eval2.eval(compile(src), arg);
+    }
+
+    @Test
+    public void testReturnConstant() {
+        assertEquals("42", eval("""
+                func main()->Int {
+                    return 42
+                }
+                """, 0));
+    }
+
+    @Test
+    public void testArg() {
+        String src = """
+                func main(n: Int)->Int {
+                    var s = 0
+                    var i = 0
+                    while (i < n) {
+                        s = s + i
+                        i = i + 1
+                    }
+                    return s
+                }
+                """;
+        assertEquals("0", eval(src, 0));
+        assertEquals("4950", eval(src, 100));
+    }
+
+    @Test
+    public void testCalls() {
+        assertEquals("55", eval(Programs.FIB, 10));
+        assertEquals("6765", eval(Programs.FIB, 20));
+    }
+
+    @Test
+    public void testArrays() {
+        String src = """
+                func fill(a: [Int], n: Int)->[Int] {
+                    var i = 0
+                    while (i < n) {
+                        a[i] = i * i
+                        i = i + 1
+                    }
+                    return a
+                }
+                func sum(a: [Int], n: Int)->Int {
+                    var s = 0
+                    var i = 0
+                    while (i < n) {
+                        s = s + a[i]
+                        i = i + 1
+                    }
+                    return s
+                }
+                func main()->Int {
+                    var a = fill(new [Int]{0,0,0,0,0}, 5)
+                    return sum(a, 5)
+                }
+                """;
+        assertEquals("30", eval(src, 0));
+        assertEquals("[0,1,4,9,16]", eval("""
+                func fill(a: [Int], n: Int)->[Int] {
+                    var i = 0
+                    while (i < n) {
+                        a[i] = i * i
+                        i = i + 1
+                    }
+                    return a
+                }
+                func main()->[Int] {
+                    return fill(new [Int]{0,0,0,0,0}, 5)
+                }
+                """, 0));
+    }
+
+    @Test
+    public void testStructs() {
+        assertEquals("T{i=23,j=32}", eval("""
+                struct T { var i: Int; var j: Int }
+                func main()->T {
+                    return new T{i=23, j=32}
+                }
+                """, 0));
+        assertEquals("34", eval("""
+                struct P { var x: Int; var y: Int }
+                func scale(p: P, n: Int)->Int {
+                    p.x = p.x * n
+                    p.y = p.y * n
+                    return n
+                }
+                func main()->Int {
+                    var p = new P{x=3, y=4}
+                    scale(p, 10)
+                    return p.x - p.y + 44
+                }
+                """, 0));
+    }
+
+    @Test
+    public void testOutOfBounds() {
+        CodeGen code = compile("""
+                func get(a: [Int], i: Int)->Int {
+                    return a[i]
+                }
+                func main(n: Int)->Int {
+                    return get(new [Int]{1,2}, n)
+                }
+                """);
+        assertEquals("2", Eval2.eval(code, 1));
+        assertThrows(ArrayIndexOutOfBoundsException.class, () -> Eval2.eval(code, 2));
+    }
+
+    @Test
+    public void testTimeout() {
+        CodeGen code = compile("""
+                func main(n: Int)->Int {
+                    var i = 0
+                    while (i < n) {
+                        i = i + 1
+                    }
+                    return i
+                }
+                """);
+        assertEquals("1000", Eval2.eval(code, 1000, 10000));
+        assertEquals("Timeout", Eval2.eval(code, 1000000, 10000));
+    }
+
+    @Test
+    public void testDeepRecursion() {
+        // Frames are not on the Java stack
+        assertEquals("5000050000", eval("""
+                func sum(n: Int)->Int {
+                    if (n == 0) return 0
+                    return n + sum(n-1)
+                }
+                func main(n: Int)->Int {
+                    return sum(n)
+                }
+                """, 100000));
+    }
+
+    @Test
+    public void testSelfTailCall() {
+        String src = """
+                func sum(n: Int, acc: Int)->Int {
+                    if (n == 0) return acc
+                    return sum(n-1, acc+n)
+                }
+                func main(n: Int)->Int {
+                    return sum(n, 0)
+                }
+                """;
+        CodeGen code = compile(src);
+        Eval2 eval = new Eval2(code);
+        assertEquals("5050", eval.run(100, 1000000));
+        long steps = eval._steps;
+        // The tail call is a loop, and a loop iteration executes the same
+        // handful of nodes however deep the recursion would have been
+        assertEquals("5000050000", eval.run(100000, 100000000));
+        assertTrue(eval._steps < steps * 1001);
+    }
+
+    @Test
+    public void testSieveAndFib() {
+        CodeGen code = compile(Programs.SIEVE_AND_FIB);
+        Eval2 eval = new Eval2(code);
+        assertEquals("2364", eval.run(15, 100000000));
+    }
+}
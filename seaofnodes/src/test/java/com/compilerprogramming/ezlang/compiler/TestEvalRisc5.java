@@ -0,0 +1,102 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.compiler.codegen.CodeGen;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestEvalRisc5 {
+
+    static EvalRisc5 compile(String src) throws Exception {
+        CodeGen code = new CodeGen(src);
+        code.driver(CodeGen.Phase.Encoding, "riscv", "SystemV").exportELF(null);
+        return new EvalRisc5(code, 16 << 20);
+    }
+
+    @Test
+    public void testArith() throws Exception {
+        EvalRisc5 sim = compile("""
+                func main(n: Int)->Int {
+                    return n*3+1
+                }
+                """);
+        assertEquals(16L, sim.call("main", 1000, 5));
+        assertEquals(-2L, sim.call("main", 1000, -1));
+    }
+
+    @Test
+    public void testDivide() throws Exception {
+        EvalRisc5 sim = compile("""
+                func main(n: Int)->Int {
+                    return n/7 + (n*1000000007)/13 - n/(n+1000) * 3
+                }
+                """);
+        for( long n : new long[]{123456, -123456, 0} )
+            assertEquals(n/7 + (n*1000000007L)/13 - n/(n+1000) * 3, sim.call("main", 1000, n));
+    }
+
+    @Test
+    public void testCalls() throws Exception {
+        EvalRisc5 sim = compile(Programs.FIB);
+        assertEquals(55L, sim.call("fib", 100000, 10));
+        long insns = sim._insns;
+        assertEquals(6765L, sim.call("main", 1000000, 20));
+        assertTrue(sim._insns - insns > 21891); // At least one instruction per fib call
+        assertTrue(sim._cycles > sim._insns);
+        assertTrue(sim._calls > 21891);
+    }
+
+    @Test
+    public void testAlloc() throws Exception {
+        // Arrays are allocated by calling the calloc stand-in
+        EvalRisc5 sim = compile("""
+                func sum(n: Int)->Int {
+                    var a = new [Int]{len=n}
+                    var i = 0
+                    while (i < n) {
+                        a[i] = i * i
+                        i = i + 1
+                    }
+                    var s = 0
+                    i = 0
+                    while (i < n) {
+                        s = s + a[i]
+                        i = i + 1
+                    }
+                    return s
+                }
+                func main(n: Int)->Int {
+                    return sum(n)
+                }
+                """);
+        assertEquals(285L, sim.call("main", 100000, 10));
+        assertEquals(328350L, sim.call("main", 100000, 100));
+        assertTrue(sim._stores >= 110);
+        assertTrue(sim._loads  >= 110);
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        EvalRisc5 sim = compile("""
+                func main(n: Int)->Int {
+                    var i = 0
+                    while (i < n) {
+                        i = i + 1
+                    }
+                    return i
+                }
+                """);
+        assertEquals(1000L, sim.call("main", 100000, 1000));
+        assertThrows(RuntimeException.class, () -> sim.call("main", 10000, 1000000));
+    }
+
+    // The simulated counts must be consistent
+    @Test
+    public void testSieveAndFib() throws Exception {
+        EvalRisc5 sim = compile(Programs.SIEVE_AND_FIB);
+        assertEquals(2364L, sim.call("main", 100000000, 15));
+        assertEquals(77787L, sim.call("main", 100000000, 25));
+        assertTrue(sim._taken <= sim._branches);
+        assertTrue(sim._cycles >= sim._insns);
+    }
+}
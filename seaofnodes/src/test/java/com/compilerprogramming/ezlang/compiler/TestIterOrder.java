@@ -0,0 +1,43 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.compiler.codegen.CodeGen;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestIterOrder {
+
+    static final String GCD = """
+            func gcd(a: Int, b: Int)->Int {
+                if (b == 0) return a
+                return gcd(b, a - (a / b) * b)
+            }
+            func main(n: Int)->Int {
+                return gcd(n * 12, 18) + gcd(1 + 2 * 3, n)
+            }
+            """;
+
+    // Programs from the other suites, plus two generated big ones
+    static final String[] CORPUS = {
+        Programs.SIEVE, GCD, Programs.FIB,
+        TestManyFunctions.manyFunctions(200),
+        TestTypeMemo.structHeavy(20),
+    };
+
+    // Every order reaches an equivalent fixed point: same answers
+    @Test
+    public void testOrders() {
+        String[] expect = new String[CORPUS.length];
+        for( IterPeeps.Order order : IterPeeps.Order.values() ) {
+            for( int i=0; i<CORPUS.length; i++ ) {
+                CodeGen code = new CodeGen(CORPUS[i]).iterOrder(order);
+                code.parse().opto();
+                assertTrue(code._iter.visits() > 0 && code._iter.nops() <= code._iter.visits());
+                code.typeCheck().loopTree().GCM().localSched();
+                String rez = Eval2.eval(code, 10);
+                if( expect[i]==null ) expect[i] = rez;
+                assertEquals(order + " on program " + i, expect[i], rez);
+            }
+        }
+    }
+}
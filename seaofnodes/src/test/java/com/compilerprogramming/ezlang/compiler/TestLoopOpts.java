@@ -0,0 +1,220 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.compiler.codegen.CodeGen;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestLoopOpts {
+
+    static CodeGen opto(String src, boolean peel, int unroll) {
+        return new CodeGen(src).loopOpts(peel,unroll).parse().opto();
+    }
+
+    // Same answers with loop opts off and on, for small trip counts
+    static void agree(String src) {
+        CodeGen off = opto(src,false,0).typeCheck().loopTree().GCM().localSched();
+        for( int unroll : new int[]{0,2,3,4,8} ) {
+            CodeGen on = opto(src,true,unroll).typeCheck().loopTree().GCM().localSched();
+            for( int n=0; n<20; n++ )
+                assertEquals("unroll "+unroll+" n="+n, Eval2.eval(off,n), Eval2.eval(on,n));
+        }
+    }
+
+    static EvalRisc5 compile(String src, boolean peel, int unroll) throws Exception {
+        CodeGen code = new CodeGen(src).loopOpts(peel,unroll);
+        code.driver(CodeGen.Phase.Encoding, "riscv", "SystemV").exportELF(null);
+        return new EvalRisc5(code, 16 << 20);
+    }
+
+    static final String SUM = """
+            func sum(a: [Int], n: Int)->Int {
+                var s = 0
+                var i = 0
+                while (i < n) {
+                    s = s + a[i]
+                    i = i + 1
+                }
+                return s
+            }
+            func main(n: Int)->Int {
+                var a = new [Int]{len=n}
+                var i = 0
+                while (i < n) {
+                    a[i] = i * i
+                    i = i + 1
+                }
+                return sum(a, n)
+            }
+            """;
+
+    static final String DOT = """
+            func dot(a: [Int], b: [Int], n: Int)->Int {
+                var s = 0
+                var i = 0
+                while (i < n) {
+                    s = s + a[i] * b[i]
+                    i = i + 1
+                }
+                return s
+            }
+            func main(n: Int)->Int {
+                var a = new [Int]{len=n}
+                var b = new [Int]{len=n}
+                var i = 0
+                while (i < n) {
+                    a[i] = i
+                    b[i] = n - i
+                    i = i + 1
+                }
+                return dot(a, b, n)
+            }
+            """;
+
+    @Test
+    public void testPeel() {
+        // After the first iteration "first" is always 0
+        String src = """
+                func main(n: Int)->Int {
+                    var first = 1
+                    var s = 0
+                    var i = 0
+                    while (i < n) {
+                        if (first == 1) s = s + 100
+                        else s = s + i
+                        first = 0
+                        i = i + 1
+                    }
+                    return s
+                }
+                """;
+        CodeGen code = opto(src,true,0);
+        assertEquals(1, code._loopLog.size());
+        assertTrue(code._loopLog.get(0).endsWith("peeled, Phi_first is invariant after the first iteration"));
+        // The test is gone from the loop
+        assertEquals("return Phi(Region,0,Phi(Loop,100,((Phi(Loop,0,(Phi_i+1))+Phi_s)+1)));", code._stop.print());
+        agree(src);
+    }
+
+    @Test
+    public void testPeelSequential() {
+        // Both loops peel; users after each loop get rewired to the merge
+        // Phis and must be revisited, which IterPeeps asserts
+        assertTrue(CodeGen.class.desiredAssertionStatus());
+        String src = """
+                func main(n: Int)->Int {
+                    var x = 0
+                    var s = 0
+                    var i = 0
+                    while (i < n) {
+                        s = s + i + x
+                        x = 3
+                        i = i + 1
+                    }
+                    var t = 0
+                    var j = 0
+                    var y = 0
+                    while (j < n) {
+                        t = t + j * y
+                        y = 2
+                        j = j + 1
+                    }
+                    return s + t
+                }
+                """;
+        CodeGen code = opto(src,true,0);
+        assertEquals(2, code._loopLog.size());
+        for( String s : code._loopLog )
+            assertTrue(s, s.contains("peeled, "));
+        agree(src);
+    }
+
+    @Test
+    public void testUnroll() {
+        CodeGen code = opto(SUM,false,4);
+        assertEquals(2, code._loopLog.size());
+        for( String s : code._loopLog )
+            assertTrue(s.endsWith("unrolled x4"));
+        // Four loads per trip of the main loop
+        assertTrue(code._stop.print().contains("((((Phi_s+.[])+.[])+.[])+.[])"));
+        agree(SUM);
+        agree(DOT);
+    }
+
+    @Test
+    public void testStrideAndNest() {
+        String src = """
+                func main(n: Int)->Int {
+                    var a = new [Int]{len=n+3}
+                    var i = 0
+                    while (i < n) {
+                        var j = 0
+                        while (j < i) {
+                            a[j] = a[j] + i
+                            j = j + 1
+                        }
+                        i = i + 1
+                    }
+                    var s = 0
+                    i = 1
+                    while (i < n) {
+                        if (s > 20) s = s - a[i]
+                        else s = s + a[i] * 3
+                        i = i + 2
+                    }
+                    return s
+                }
+                """;
+        CodeGen code = opto(src,true,4);
+        assertTrue(code._loopLog.toString(), code._loopLog.get(0).endsWith("not innermost"));
+        assertEquals(2, code._loopLog.stream().filter(s -> s.endsWith("unrolled x4")).count());
+        agree(src);
+    }
+
+    @Test
+    public void testNotOptimized() {
+        String src = """
+                func main(n: Int)->Int {
+                    var s = 0
+                    var i = n
+                    while (i > 0) {
+                        s = s + i
+                        i = i - 1
+                    }
+                    var k = 0
+                    while (k < n) {
+                        if (k == 7) return s
+                        s = s + k
+                        k = k + 1
+                    }
+                    return s + 1000
+                }
+                """;
+        CodeGen code = opto(src,true,4);
+        assertEquals(3, code._loopLog.size());
+        assertTrue(code._loopLog.get(1).endsWith("not unrolled, test is not on a loop phi"));
+        assertTrue(code._loopLog.get(2).endsWith("more than one exit"));
+        agree(src);
+    }
+
+    // Dynamic instruction counts on array kernels, loop opts off and on
+    @Test
+    public void testInstructionCounts() throws Exception {
+        String[] srcs = {SUM, DOT};
+        for( String src : srcs ) {
+            long[] insns = new long[3], branches = new long[3];
+            long rez = 0;
+            int[] unrolls = {0, 2, 4};
+            for( int j=0; j<unrolls.length; j++ ) {
+                EvalRisc5 sim = compile(src, true, unrolls[j]);
+                long r = sim.call("main", 10000000, 1000);
+                if( j==0 ) rez = r;
+                assertEquals(rez, r);
+                insns[j] = sim._insns;
+                branches[j] = sim._branches;
+            }
+            assertTrue(insns[2] < insns[0]);
+            assertTrue(branches[2] < branches[0]);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.compiler.codegen.CodeGen;
+import com.compilerprogramming.ezlang.compiler.node.FunNode;
+import com.compilerprogramming.ezlang.compiler.type.TypeFunPtr;
+import com.compilerprogramming.ezlang.compiler.util.Bits;
+import com.compilerprogramming.ezlang.compiler.util.SB;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestManyFunctions {
+
+    @Test
+    public void testBits() {
+        Bits a = Bits.make(3), b = Bits.make(3000);
+        Bits ab = a.or(b);
+        assertSame(ab, b.or(a));
+        assertSame(ab, Bits.make(3000).or(Bits.make(3)));
+        assertEquals(2, ab.bitCount());
+        assertEquals(3000, b.single());
+        assertEquals(-1, ab.single());
+        assertEquals(3, ab.nextBit(0));
+        assertEquals(3000, ab.nextBit(4));
+        assertEquals(-1, ab.nextBit(3001));
+        assertEquals("{3,3000}", ab.toString());
+        assertEquals("b1000", a.toString());
+
+        // Complements are exact and infinite
+        Bits nab = ab.not();
+        assertTrue(nab.isInfinite());
+        assertSame(ab, nab.not());
+        assertFalse(nab.test(3000));
+        assertTrue(nab.test(2999));
+        assertTrue(nab.test(1 << 20));
+        assertEquals(4, nab.nextBit(3));
+        assertEquals(3001, nab.nextBit(3000));
+        assertSame(Bits.FULL, ab.or(nab));
+        assertSame(Bits.EMPTY, ab.and(nab));
+        // De Morgan
+        assertSame(a.or(b).not(), a.not().and(b.not()));
+        assertSame(Bits.make(3), ab.and(a.or(Bits.make(70))));
+    }
+
+    @Test
+    public void testFunPtrLattice() {
+        CodeGen code = new CodeGen("");
+        TypeFunPtr f0 = code.makeFun(TypeFunPtr.MAIN._sig, TypeFunPtr.MAIN._ret), f1 = null;
+        for( int i=0; i<200; i++ )
+            f1 = code.makeFun(TypeFunPtr.MAIN._sig, TypeFunPtr.MAIN._ret);
+        assertTrue(f1.isConstant());
+        assertTrue(f1.fidx() > 64);
+        TypeFunPtr both = (TypeFunPtr)f0.meet(f1);
+        assertFalse(both.isConstant());
+        assertEquals(2, both.fidxs().bitCount());
+        assertSame(f1, both.join(f1));
+        assertSame(both, both.dual().dual());
+    }
+
+    // Functions form a binary call tree, f(i) calling f(2i+1) and f(2i+2),
+    // and each adds x+i; the whole tree sums to n*x + n*(n-1)/2
+    static String manyFunctions( int n ) {
+        SB sb = new SB();
+        for( int i=0; i<n; i++ ) {
+            sb.p("func f").p(i).p("(x: Int)->Int { return x + ").p(i);
+            if( 2*i+1 < n ) sb.p(" + f").p(2*i+1).p("(x)");
+            if( 2*i+2 < n ) sb.p(" + f").p(2*i+2).p("(x)");
+            sb.p(" }\n");
+        }
+        return sb.p("func main(x: Int)->Int { return f0(x) }\n").toString();
+    }
+
+    // Functions sharing one signature, through parse, opto and codegen;
+    // enough of them that the function indices do not fit in 64 bits
+    @Test
+    public void testManySameSignature() {
+        int n = 100;
+        String src = manyFunctions(n);
+        CodeGen code = new CodeGen(src).driver(CodeGen.Phase.Encoding, "x86_64_v2", "SystemV");
+        int funs = 0, maxFidx = 0;
+        for( var bb : code._cfg )
+            if( bb instanceof FunNode fun ) {
+                funs++;
+                maxFidx = Math.max(maxFidx, fun.sig().fidx());
+            }
+        assertEquals(n + 1, funs);
+        assertTrue(maxFidx >= n - 1);
+
+        CodeGen eval = new CodeGen(src);
+        eval.parse().opto().typeCheck().loopTree().GCM().localSched();
+        long x = 7;
+        assertEquals("" + (n*x + (long)n*(n-1)/2), Eval2.eval(eval, x));
+    }
+}
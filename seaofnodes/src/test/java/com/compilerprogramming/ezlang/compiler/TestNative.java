@@ -0,0 +1,96 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.compiler.codegen.CodeGen;
+import com.compilerprogramming.ezlang.compiler.codegen.NativeCode;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class TestNative {
+
+    @Before
+    public void supported() {
+        Assume.assumeTrue(NativeCode.isSupported());
+    }
+
+    static NativeCode compile(String src) throws Exception {
+        CodeGen code = new CodeGen(src);
+        code.driver(CodeGen.Phase.Encoding, "x86_64_v2", "SystemV").exportELF(null);
+        return new NativeCode(code);
+    }
+
+    @Test
+    public void testArith() throws Throwable {
+        try (NativeCode nc = compile("""
+                func main(n: Int)->Int {
+                    return n*3+1
+                }
+                """)) {
+            MethodHandle main = nc.handle("main");
+            assertEquals(16L, (long)main.invokeExact(5L));
+            assertEquals(-2L, (long)main.invokeExact(-1L));
+        }
+    }
+
+    @Test
+    public void testCalls() throws Throwable {
+        try (NativeCode nc = compile(Programs.FIB)) {
+            // Any function can be called, not just main
+            assertEquals(55L, (long)nc.handle("fib").invokeExact(10L));
+            assertEquals(6765L, (long)nc.handle("main").invokeExact(20L));
+        }
+    }
+
+    @Test
+    public void testAlloc() throws Throwable {
+        // Arrays are allocated by calling calloc
+        try (NativeCode nc = compile("""
+                func sum(n: Int)->Int {
+                    var a = new [Int]{len=n}
+                    var i = 0
+                    while (i < n) {
+                        a[i] = i * i
+                        i = i + 1
+                    }
+                    var s = 0
+                    i = 0
+                    while (i < n) {
+                        s = s + a[i]
+                        i = i + 1
+                    }
+                    return s
+                }
+                func main(n: Int)->Int {
+                    return sum(n)
+                }
+                """)) {
+            assertEquals(285L, (long)nc.handle("main").invokeExact(10L));
+        }
+    }
+
+    @Test
+    public void testEncodingUnchanged() throws Throwable {
+        // The calls to calloc are re-patched in a copy, not in the encoding
+        CodeGen code = new CodeGen(Programs.SIEVE_AND_FIB);
+        code.driver(CodeGen.Phase.Encoding, "x86_64_v2", "SystemV").exportELF(null);
+        byte[] bits = Arrays.copyOf(code._encoding.bits(), code._encoding._bits.size());
+        try (NativeCode nc = new NativeCode(code)) {
+            assertArrayEquals(bits, Arrays.copyOf(code._encoding.bits(), code._encoding._bits.size()));
+            assertEquals(2364L, (long)nc.handle("main").invokeExact(15L));
+        }
+    }
+
+    @Test
+    public void testSieveAndFib() throws Throwable {
+        try (NativeCode nc = compile(Programs.SIEVE_AND_FIB)) {
+            MethodHandle main = nc.handle("main");
+            assertEquals(2364L, (long)main.invokeExact(15L));
+            assertEquals(77787L, (long)main.invokeExact(25L));
+        }
+    }
+}
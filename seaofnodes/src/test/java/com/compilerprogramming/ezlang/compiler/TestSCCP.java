@@ -0,0 +1,107 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.compiler.codegen.CodeGen;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestSCCP {
+
+    // Pessimistic peepholes only, as opto ran before SCCP
+    static String pessimistic(String src) {
+        CodeGen code = new CodeGen(src).parse();
+        code._iter.iterate(code);
+        return code._stop.print();
+    }
+
+    static String opto(String src) {
+        return new CodeGen(src).parse().opto()._stop.print();
+    }
+
+    static String eval(String src, long arg) {
+        return TestEval2.eval(src, arg);
+    }
+
+    @Test
+    public void testLoopConstant() {
+        // x is never changed, but only the optimistic pass can prove it
+        String src = """
+                func main(n: Int)->Int {
+                    var x = 1
+                    var i = 0
+                    while (i < n) {
+                        if (x != 1) x = 2
+                        i = i + 1
+                    }
+                    return x
+                }
+                """;
+        assertEquals("return Phi(Loop,1,Phi(Region,2,Phi_x));", pessimistic(src));
+        assertEquals("return 1;", opto(src));
+        assertEquals("1", eval(src, 10));
+    }
+
+    @Test
+    public void testDeadBranchInLoop() {
+        String src = """
+                func main(n: Int)->Int {
+                    var flag = 0
+                    var sum = 0
+                    var i = 0
+                    while (i < n) {
+                        if (flag == 1) sum = sum + i * i
+                        else sum = sum + i
+                        if (sum < 0) flag = 0
+                        i = i + 1
+                    }
+                    return sum
+                }
+                """;
+        assertTrue(pessimistic(src).contains("*"));
+        assertEquals("return Phi(Loop,0,(Phi_sum+Phi(Loop,0,(Phi_i+1))));", opto(src));
+        assertEquals("45", eval(src, 10));
+    }
+
+    @Test
+    public void testCountedLoops() {
+        // Induction variables keep falling; widening stops them
+        String src = """
+                func main(n: Int)->Int {
+                    var s = 0
+                    var i = 0
+                    while (i < n) {
+                        var j = 0
+                        while (j < i) {
+                            s = s + j
+                            j = j + 1
+                        }
+                        i = i + 1
+                    }
+                    return s
+                }
+                """;
+        assertEquals("120", eval(src, 10));
+    }
+
+    @Test
+    public void testAcrossCalls() {
+        String src = """
+                struct P { var x: Int; var y: Int }
+                func step(p: P, k: Int)->Int {
+                    var d = 3
+                    var i = 0
+                    while (i < k) {
+                        if (d != 3) d = d + 1
+                        p.x = p.x + d
+                        i = i + 1
+                    }
+                    return p.x
+                }
+                func main(n: Int)->Int {
+                    var p = new P{x=1, y=2}
+                    return step(p, n) + p.y
+                }
+                """;
+        assertEquals("33", eval(src, 10));
+    }
+}
@@ -1,6 +1,7 @@
 package com.compilerprogramming.ezlang.compiler;
 
 import com.compilerprogramming.ezlang.compiler.codegen.CodeGen;
+import com.compilerprogramming.ezlang.compiler.type.Type;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -219,4 +220,52 @@ func foo()->Int {
                 }
                 """, 0, null);
     }
+
+    @Test
+    public void testSelfTailCall() {
+        String src = """
+                func gcd(a: Int, b: Int)->Int {
+                    if (b == 0) return a
+                    return gcd(b, a - (a / b) * b)
+                }
+                func main()->Int {
+                    return gcd(12, 18)
+                }
+                """;
+        CodeGen code = new CodeGen(src);
+        code.parse().opto().typeCheck();
+        assertEquals("return Phi(Loop,Parm_a(gcd,int,12),Phi(Loop,Parm_b(gcd,int,18),(Phi_a-((Phi_a//Phi_b)*Phi_b))));",
+                code._stop.in(0).print());
+        for( String cpu : new String[]{"x86_64_v2", "riscv", "arm"} ) {
+            code = new CodeGen(src);
+            code.parse().opto().typeCheck().loopTree().instSelect(cpu, "SystemV").GCM().localSched().regAlloc().encode();
+            String asm = code.asm();
+            // The recursive call is now a jump back to the loop head
+            assertEquals(1, asm.split("call", -1).length - 1);
+        }
+    }
+
+    // Each compilation interns into its own arena, so repeated compiles
+    // retain neither more core types nor more session types
+    @Test
+    public void testInternReclaimed() {
+        String src = """
+                struct P { var x: Int; var y: Int }
+                func scale(p: P, n: Int)->Int {
+                    p.x = p.x * n
+                    p.y = p.y * n
+                    return p.x + p.y
+                }
+                func main(n: Int)->Int {
+                    return scale(new P{x=3, y=4}, n)
+                }
+                """;
+        new CodeGen(src).driver(CodeGen.Phase.Encoding, "x86_64_v2", "SystemV");
+        int core = Type.coreSize(), session = Type.sessionSize();
+        for( int i=0; i<200; i++ ) {
+            new CodeGen(src).driver(CodeGen.Phase.Encoding, "x86_64_v2", "SystemV");
+            assertEquals(core, Type.coreSize());
+            assertEquals(session, Type.sessionSize());
+        }
+    }
 }
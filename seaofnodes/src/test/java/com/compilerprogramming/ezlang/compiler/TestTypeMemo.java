@@ -0,0 +1,86 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.compiler.codegen.CodeGen;
+import com.compilerprogramming.ezlang.compiler.type.*;
+import com.compilerprogramming.ezlang.compiler.util.SB;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestTypeMemo {
+
+    @After
+    public void memoOn() { Type.setMemo(true); }
+
+    @Test
+    public void testMemoAgreesWithLattice() {
+        Type[] ts = Type.gather();
+        Type.setMemo(false);
+        Type[][] meets = new Type[ts.length][ts.length], joins = new Type[ts.length][ts.length];
+        for( int i=0; i<ts.length; i++ )
+            for( int j=0; j<ts.length; j++ ) {
+                meets[i][j] = ts[i].meet(ts[j]);
+                joins[i][j] = ts[i].join(ts[j]);
+            }
+        Type.setMemo(true);
+        // Twice: once to fill the memo, once to hit it
+        for( int rep=0; rep<2; rep++ )
+            for( int i=0; i<ts.length; i++ )
+                for( int j=0; j<ts.length; j++ ) {
+                    assertSame(meets[i][j], ts[i].meet(ts[j]));
+                    assertSame(joins[i][j], ts[i].join(ts[j]));
+                }
+    }
+
+    @Test
+    public void testMemoHits() {
+        TypeMemPtr p = TypeMemPtr.make(TypeStruct.make("M", Field.make("x", TypeInteger.BOT, 2, false)));
+        TypeMemPtr q = TypeMemPtr.make((byte)3, p._obj);
+        Type pq = p.meet(q);
+        long hits = Type.memoHits();
+        assertSame(pq, p.meet(q));
+        assertEquals(hits+1, Type.memoHits());
+    }
+
+    // Each struct is built, updated in a loop and summed by its own function.
+    // Struct types intern by name, so these names stay clear of other tests.
+    static String structHeavy( int n ) {
+        SB sb = new SB();
+        for( int i=0; i<n; i++ ) {
+            sb.p("struct MT").p(i).p(" { var c: Int }\n");
+            sb.p("struct MS").p(i).p(" { var a: Int; var b: Int; var c: Int; var t: MT").p(i).p(" }\n");
+            sb.p("func f").p(i).p("(x: Int)->Int {\n");
+            sb.p("    var s = new MS").p(i).p("{a=x, b=").p(i).p(", c=0}\n");
+            sb.p("    var t = new MT").p(i).p("{c=3}\n");
+            sb.p("    s.t = t\n");
+            sb.p("    var j = 0\n");
+            sb.p("    while (j < x) {\n");
+            sb.p("        if (s.a > s.b) s.c = s.c + s.a\n");
+            sb.p("        else t.c = t.c + s.b\n");
+            sb.p("        s.a = s.a - 1\n");
+            sb.p("        j = j + 1\n");
+            sb.p("    }\n");
+            sb.p("    return s.c + s.t.c\n");
+            sb.p("}\n");
+        }
+        sb.p("func main(x: Int)->Int {\n    return 0");
+        for( int i=0; i<n; i++ )
+            sb.p(" + f").p(i).p("(x)");
+        return sb.p("\n}\n").toString();
+    }
+
+    // A struct-heavy program optimizes the same with and without the memo
+    @Test
+    public void testStructHeavy() {
+        String src = structHeavy(8);
+        String[] rez = new String[2];
+        long hits = Type.memoHits();
+        for( int on=0; on<2; on++ ) {
+            Type.setMemo(on==1);
+            rez[on] = new CodeGen(src).parse().opto()._stop.print();
+        }
+        assertEquals(rez[0], rez[1]);
+        assertTrue(Type.memoHits() - hits > 0);
+    }
+}
@@ -0,0 +1,41 @@
+package com.compilerprogramming.ezlang.compiler;
+
+import com.compilerprogramming.ezlang.compiler.codegen.CodeGen;
+import com.compilerprogramming.ezlang.compiler.type.Type;
+
+import java.lang.management.ManagementFactory;
+
+// Opto time and garbage on a struct-heavy program, with and without the
+// meet/join memo.  First arg is the number of structs, default 40; 2nd arg
+// is the repeat count.
+public class TypeMemoBench {
+
+    static long allocated() {
+        return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    public static void main( String[] args ) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+        int reps = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        String src = TestTypeMemo.structHeavy(n);
+        long[] ms = new long[2], bytes = new long[2], hits = new long[2], misses = new long[2];
+        try {
+            for( int rep=0; rep<reps; rep++ )
+                for( int on=0; on<2; on++ ) {
+                    Type.setMemo(on==1);
+                    CodeGen code = new CodeGen(src).parse();
+                    long b0 = allocated(), h0 = Type.memoHits(), m0 = Type.memoMisses();
+                    code.opto();
+                    bytes [on] += allocated() - b0;
+                    ms    [on] += code._tOpto;
+                    hits  [on] += Type.memoHits() - h0;
+                    misses[on] += Type.memoMisses() - m0;
+                }
+        } finally {
+            Type.setMemo(true);
+        }
+        System.out.printf("%d structs, %d reps%n", n, reps);
+        System.out.printf("memo off: opto %6d ms %8d KB%n", ms[0]/reps, bytes[0]/reps>>10);
+        System.out.printf("memo on : opto %6d ms %8d KB; %d hits, %d misses%n", ms[1]/reps, bytes[1]/reps>>10, hits[1]/reps, misses[1]/reps);
+    }
+}